@@ -0,0 +1,123 @@
+package org.tre.benchmarks;
+
+import com.alexmerz.graphviz.ParseException;
+import org.tre.engine.ActionParser;
+import org.tre.engine.EntityParser;
+import org.tre.engine.GameWorld;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+// A pair of config files along with the commands that exercise each kind of command in that world
+// Each group of commands leaves the world as it found it, so a benchmark can repeat it forever
+public final class BenchmarkWorld {
+    // The directory holding the example files, relative to the benchmarks module
+    private static final Path EXAMPLE_CONFIG = Path.of(System.getProperty("tre.config", "../config"));
+
+    final File entitiesFile;
+    final File actionsFile;
+    // Run once before measuring, to put the benchmark player where the other commands expect them to be
+    final List<String> setup;
+    final String look;
+    final String inventory;
+    final String health;
+    final String get;
+    final String drop;
+    final String gotoAway;
+    final String gotoBack;
+    final String action;
+    final String noPlayer;
+    final String noTrigger;
+    final String noSubject;
+    // Ends with the player dying and being sent back to the start
+    final List<String> death;
+
+    private BenchmarkWorld(File entitiesFile, File actionsFile, List<String> setup, String look, String inventory, String health, String get, String drop,
+                           String gotoAway, String gotoBack, String action, String noPlayer, String noTrigger, String noSubject, List<String> death) {
+        this.entitiesFile = entitiesFile;
+        this.actionsFile = actionsFile;
+        this.setup = setup;
+        this.look = look;
+        this.inventory = inventory;
+        this.health = health;
+        this.get = get;
+        this.drop = drop;
+        this.gotoAway = gotoAway;
+        this.gotoBack = gotoBack;
+        this.action = action;
+        this.noPlayer = noPlayer;
+        this.noTrigger = noTrigger;
+        this.noSubject = noSubject;
+        this.death = death;
+    }
+
+    // Accepts 'example' or 'large'
+    public static BenchmarkWorld forName(String name, int locations) throws IOException {
+        return switch (name) {
+            case "example" -> example();
+            case "large" -> generated(Files.createTempDirectory("tre-benchmark"), locations);
+            default -> throw new IllegalArgumentException("Unknown benchmark world '" + name + "'");
+        };
+    }
+
+    // The bundled example files
+    // The setup opens the trapdoor so the cellar can be reached, then fetches the horn, which can be blown again and again
+    public static BenchmarkWorld example() {
+        return new BenchmarkWorld(
+                EXAMPLE_CONFIG.resolve("example-entities.dot").toFile(),
+                EXAMPLE_CONFIG.resolve("example-actions.xml").toFile(),
+                List.of("bench: goto forest", "bench: get key", "bench: goto riverbank", "bench: get horn",
+                        "bench: goto forest", "bench: goto cabin", "bench: open trapdoor with key"),
+                "bench: look",
+                "bench: inv",
+                "bench: health",
+                "bench: get coin",
+                "bench: drop coin",
+                "bench: goto forest",
+                "bench: goto cabin",
+                "bench: blow horn",
+                "bench looks around",
+                "bench: sing a song",
+                "bench: drink",
+                List.of("doomed: goto cellar", "doomed: fight elf", "doomed: hit elf", "doomed: attack elf"));
+    }
+
+    // A generated ring of locations, each full of entities, with an action for every location
+    public static BenchmarkWorld generated(Path directory, int locations) throws IOException {
+        WorldGenerator generator = new WorldGenerator(locations);
+        File entitiesFile = directory.resolve("entities.dot").toFile();
+        File actionsFile = directory.resolve("actions.xml").toFile();
+        generator.writeEntities(entitiesFile);
+        generator.writeActions(actionsFile);
+        entitiesFile.deleteOnExit();
+        actionsFile.deleteOnExit();
+        directory.toFile().deleteOnExit();
+
+        return new BenchmarkWorld(
+                entitiesFile,
+                actionsFile,
+                List.of(),
+                "bench: look",
+                "bench: inv",
+                "bench: health",
+                "bench: get coin",
+                "bench: drop coin",
+                "bench: goto " + WorldGenerator.locationName(1),
+                "bench: goto " + WorldGenerator.locationName(0),
+                "bench: polish the coin",
+                "bench looks around",
+                "bench: sing a song",
+                "bench: polish",
+                List.of("doomed: fight troll", "doomed: hit troll", "doomed: attack troll"));
+    }
+
+    public GameWorld load() throws FileNotFoundException, ParseException {
+        ActionParser actionParser = new ActionParser();
+        actionParser.parseActionsFile(actionsFile);
+        return new GameWorld(actionParser.getActionIndex(), new EntityParser().parseEntitiesFile(entitiesFile));
+    }
+}
@@ -0,0 +1,104 @@
+package org.tre.benchmarks;
+
+import com.alexmerz.graphviz.ParseException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.tre.engine.CommandParser;
+import org.tre.engine.GameWorld;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Time and allocation per command, for each kind of command the parser handles
+// Commands that change the world are paired with the command that undoes them, so every invocation starts from the same state
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandBenchmark {
+
+    @Param({"example", "large"})
+    public String world;
+
+    // Only used by the large world
+    @Param({"1000"})
+    public int locations;
+
+    private BenchmarkWorld benchmarkWorld;
+    private GameWorld gameWorld;
+    private CommandParser commandParser;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, ParseException {
+        benchmarkWorld = BenchmarkWorld.forName(world, locations);
+        gameWorld = benchmarkWorld.load();
+        commandParser = new CommandParser();
+        for (String command : benchmarkWorld.setup) {
+            commandParser.parseCommandString(command, gameWorld);
+        }
+    }
+
+    private String parse(String command) {
+        return commandParser.parseCommandString(command, gameWorld);
+    }
+
+    @Benchmark
+    public String look() {
+        return parse(benchmarkWorld.look);
+    }
+
+    @Benchmark
+    public String inventory() {
+        return parse(benchmarkWorld.inventory);
+    }
+
+    @Benchmark
+    public String health() {
+        return parse(benchmarkWorld.health);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void getThenDrop(Blackhole blackhole) {
+        blackhole.consume(parse(benchmarkWorld.get));
+        blackhole.consume(parse(benchmarkWorld.drop));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void gotoAndBack(Blackhole blackhole) {
+        blackhole.consume(parse(benchmarkWorld.gotoAway));
+        blackhole.consume(parse(benchmarkWorld.gotoBack));
+    }
+
+    // Resolves a trigger and its subjects through the action index, then performs the action
+    @Benchmark
+    public String action() {
+        return parse(benchmarkWorld.action);
+    }
+
+    @Benchmark
+    public String failureNoPlayer() {
+        return parse(benchmarkWorld.noPlayer);
+    }
+
+    @Benchmark
+    public String failureNoTrigger() {
+        return parse(benchmarkWorld.noTrigger);
+    }
+
+    @Benchmark
+    public String failureNoSubject() {
+        return parse(benchmarkWorld.noSubject);
+    }
+
+    // Fights until the player dies, drops their inventory and is sent back to the start
+    @Benchmark
+    public void death(Blackhole blackhole) {
+        for (String command : benchmarkWorld.death) {
+            blackhole.consume(parse(command));
+        }
+    }
+}
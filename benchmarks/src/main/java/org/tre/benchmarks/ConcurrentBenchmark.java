@@ -0,0 +1,112 @@
+package org.tre.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.tre.engine.ActionIndex;
+import org.tre.engine.GameAction;
+import org.tre.engine.GameEngine;
+import org.tre.engine.GameWorld;
+import org.tre.objects.GameArtefact;
+import org.tre.objects.GameLocation;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Throughput of a concurrent engine shared by one thread and by four, each thread a player in a room of its own
+// On a machine with four or more cores the four threads should get through well over the one thread's commands,
+// as only the storeroom, which every swap goes through, is shared between them
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentBenchmark {
+    private static final int ROOMS = 64;
+    private static final int GEMS_PER_ROOM = 8;
+
+    @State(Scope.Benchmark)
+    public static class Engine {
+        GameEngine engine;
+        // Hands each thread's player a room of its own
+        final AtomicInteger players = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setup() {
+            engine = new GameEngine(buildRingWorld(), true);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Player {
+        String get;
+        String look;
+        String swap;
+        String drop;
+
+        @Setup(Level.Trial)
+        public void setup(Engine engine) {
+            int player = engine.players.getAndIncrement();
+            String name = "bench" + player;
+            engine.engine.handleCommand(name + ": travel to " + room(player * 16 % ROOMS));
+            get = name + ": get gem";
+            look = name + ": look";
+            swap = name + ": swap token";
+            drop = name + ": drop gem";
+        }
+    }
+
+    // A ring of rooms, each holding gems and a token, with an action that swaps a token through the storeroom
+    private static GameWorld buildRingWorld() {
+        Set<GameLocation> locations = new HashSet<>();
+        List<GameLocation> rooms = new ArrayList<>();
+        for (int i = 0; i < ROOMS; i++) {
+            Set<GameArtefact> artefacts = new HashSet<>();
+            for (int j = 0; j < GEMS_PER_ROOM; j++) {
+                artefacts.add(new GameArtefact("gem", "A shiny gem"));
+            }
+            artefacts.add(new GameArtefact("token", "A brass token"));
+            GameLocation room = new GameLocation(room(i), "A plain room", new HashSet<>(), artefacts, new HashSet<>());
+            rooms.add(room);
+            locations.add(room);
+        }
+        rooms.get(0).setStartingLocation(true);
+        for (int i = 0; i < ROOMS; i++) {
+            rooms.get(i).addAdjacentLocation(rooms.get((i + 1) % ROOMS));
+            rooms.get(i).addAdjacentLocation(rooms.get((i + ROOMS - 1) % ROOMS));
+        }
+        Set<GameArtefact> spareTokens = new HashSet<>();
+        spareTokens.add(new GameArtefact("token", "A brass token"));
+        locations.add(new GameLocation("storeroom", "Storage", new HashSet<>(), spareTokens, new HashSet<>()));
+
+        GameAction swap = new GameAction(Set.of("token"), Set.of("token"), Set.of("token"), "You swap the token.");
+        HashMap<String, HashSet<GameAction>> actions = new HashMap<>();
+        actions.put("swap", new HashSet<>(List.of(swap)));
+        return new GameWorld(ActionIndex.compile(actions), locations);
+    }
+
+    private static String room(int index) {
+        return String.format("room%02d", index);
+    }
+
+    private static void play(Engine engine, Player player, Blackhole blackhole) {
+        blackhole.consume(engine.engine.handleCommand(player.get));
+        blackhole.consume(engine.engine.handleCommand(player.look));
+        blackhole.consume(engine.engine.handleCommand(player.swap));
+        blackhole.consume(engine.engine.handleCommand(player.drop));
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(4)
+    public void oneThread(Engine engine, Player player, Blackhole blackhole) {
+        play(engine, player, blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(4)
+    public void fourThreads(Engine engine, Player player, Blackhole blackhole) {
+        play(engine, player, blackhole);
+    }
+}
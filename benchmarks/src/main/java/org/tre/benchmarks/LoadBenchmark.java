@@ -0,0 +1,69 @@
+package org.tre.benchmarks;
+
+import com.alexmerz.graphviz.ParseException;
+import org.openjdk.jmh.annotations.*;
+import org.tre.engine.ActionIndex;
+import org.tre.engine.ActionParser;
+import org.tre.engine.EntityParser;
+import org.tre.engine.GameWorld;
+import org.tre.engine.WorldImage;
+import org.tre.objects.GameLocation;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Time and allocation to load each config file, a whole world from both, and the same world from a compiled image
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+
+    @Param({"example", "large"})
+    public String world;
+
+    // Only used by the large world
+    @Param({"1000"})
+    public int locations;
+
+    private BenchmarkWorld benchmarkWorld;
+    private Path imagePath;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, ParseException {
+        benchmarkWorld = BenchmarkWorld.forName(world, locations);
+        // Kept out of the config directory so running the benchmarks never leaves an image behind there
+        imagePath = Files.createTempFile("tre-benchmark", ".world");
+        imagePath.toFile().deleteOnExit();
+        WorldImage.compile(benchmarkWorld.entitiesFile, benchmarkWorld.actionsFile, imagePath);
+    }
+
+    @Benchmark
+    public Set<GameLocation> parseEntities() throws FileNotFoundException, ParseException {
+        return new EntityParser().parseEntitiesFile(benchmarkWorld.entitiesFile);
+    }
+
+    // Includes compiling the action index
+    @Benchmark
+    public ActionIndex parseActions() {
+        ActionParser actionParser = new ActionParser();
+        actionParser.parseActionsFile(benchmarkWorld.actionsFile);
+        return actionParser.getActionIndex();
+    }
+
+    @Benchmark
+    public GameWorld loadWorld() throws FileNotFoundException, ParseException {
+        return benchmarkWorld.load();
+    }
+
+    @Benchmark
+    public GameWorld loadImage() {
+        return WorldImage.load(imagePath, benchmarkWorld.entitiesFile, benchmarkWorld.actionsFile);
+    }
+}
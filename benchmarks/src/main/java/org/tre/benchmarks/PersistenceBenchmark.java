@@ -0,0 +1,130 @@
+package org.tre.benchmarks;
+
+import com.alexmerz.graphviz.ParseException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.tre.engine.GameEngine;
+import org.tre.engine.GameWorld;
+import org.tre.engine.WorldStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Cost of journaling each command that changes the world, and time to recover a world from its journal
+// Run with more threads, e.g. '-t 8', to see concurrent commands sharing syncs
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Journaled {
+        @Param({"example", "large"})
+        public String world;
+
+        // Only used by the large world
+        @Param({"1000"})
+        public int locations;
+
+        // 'none' runs without a journal, 'nosync' journals without syncing and 'sync' syncs every commit
+        @Param({"none", "nosync", "sync"})
+        public String journal;
+
+        private GameEngine engine;
+        private final AtomicInteger players = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException, ParseException {
+            BenchmarkWorld benchmarkWorld = BenchmarkWorld.forName(world, locations);
+            engine = new GameEngine(benchmarkWorld.load(), true);
+            if (!journal.equals("none")) {
+                engine.persistTo(temporaryDirectory(), WorldStore.DEFAULT_SNAPSHOT_INTERVAL, journal.equals("sync"));
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            engine.close();
+        }
+    }
+
+    // Each thread plays its own player, all of them going after the same coin
+    @State(Scope.Thread)
+    public static class Player {
+        private String get;
+        private String drop;
+
+        @Setup(Level.Trial)
+        public void setup(Journaled journaled) {
+            String name = "bench" + journaled.players.incrementAndGet();
+            get = name + ": get coin";
+            drop = name + ": drop coin";
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void getThenDrop(Journaled journaled, Player player, Blackhole blackhole) {
+        blackhole.consume(journaled.engine.handleCommand(player.get));
+        blackhole.consume(journaled.engine.handleCommand(player.drop));
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recovery {
+        @Param({"example", "large"})
+        public String world;
+
+        // Only used by the large world
+        @Param({"1000"})
+        public int locations;
+
+        // Journal records to replay, at most the snapshot interval in a running engine
+        @Param({"10000"})
+        public int records;
+
+        private BenchmarkWorld benchmarkWorld;
+        private Path directory;
+        private GameWorld initialWorld;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException, ParseException {
+            benchmarkWorld = BenchmarkWorld.forName(world, locations);
+            directory = temporaryDirectory();
+            try (GameEngine engine = new GameEngine(benchmarkWorld.load(), false)) {
+                engine.persistTo(directory, Integer.MAX_VALUE, false);
+                // The player joining is one record, then each command is another
+                for (int i = 1; i < records; i++) {
+                    engine.handleCommand(i % 2 == 1 ? benchmarkWorld.get : benchmarkWorld.drop);
+                }
+            }
+        }
+
+        // Replaying changes the world, so every recovery starts from a freshly loaded one
+        @Setup(Level.Invocation)
+        public void loadWorld() throws IOException, ParseException {
+            initialWorld = benchmarkWorld.load();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public GameWorld recover(Recovery recovery) throws IOException {
+        try (WorldStore store = WorldStore.open(recovery.directory, recovery.initialWorld, Integer.MAX_VALUE, false)) {
+            return store.getWorld();
+        }
+    }
+
+    private static Path temporaryDirectory() throws IOException {
+        Path directory = Files.createTempDirectory("tre-benchmark");
+        directory.toFile().deleteOnExit();
+        return directory;
+    }
+}
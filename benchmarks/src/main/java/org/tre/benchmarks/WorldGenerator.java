@@ -0,0 +1,118 @@
+package org.tre.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+// Writes entities and actions files for a large world, in the same layout as the example files
+// Locations form a ring, and each holds its own artefacts, furniture and a guard
+// The first location also holds a coin to pass back and forth and a troll to die fighting
+public final class WorldGenerator {
+    static final int ARTEFACTS_PER_LOCATION = 8;
+    static final int FURNITURE_PER_LOCATION = 2;
+
+    private final int locations;
+
+    public WorldGenerator(int locations) {
+        if (locations < 2) {
+            throw new IllegalArgumentException("A generated world needs at least two locations");
+        }
+        this.locations = locations;
+    }
+
+    static String locationName(int location) {
+        return "hall" + location;
+    }
+
+    public void writeEntities(File entitiesFile) throws IOException {
+        try (PrintWriter out = new PrintWriter(entitiesFile, StandardCharsets.UTF_8)) {
+            out.println("digraph layout {");
+            out.println("    subgraph locations {");
+            for (int i = 0; i < locations; i++) {
+                out.println("        subgraph cluster" + i + " {");
+                out.println("            node [shape = \"none\"];");
+                out.println("            " + locationName(i) + " [description = \"Hall number " + i + "\"];");
+                out.println("            subgraph artefacts {");
+                out.println("                node [shape = \"diamond\"];");
+                for (int j = 0; j < ARTEFACTS_PER_LOCATION; j++) {
+                    out.println("                gem_" + i + "_" + j + " [description = \"A gem from hall " + i + "\"];");
+                }
+                if (i == 0) {
+                    out.println("                coin [description = \"A silver coin\"];");
+                }
+                out.println("            }");
+                out.println("            subgraph furniture {");
+                out.println("                node [shape = \"hexagon\"];");
+                for (int j = 0; j < FURNITURE_PER_LOCATION; j++) {
+                    out.println("                statue_" + i + "_" + j + " [description = \"A marble statue\"];");
+                }
+                out.println("            }");
+                out.println("            subgraph characters {");
+                out.println("                node [shape = \"ellipse\"];");
+                out.println("                guard_" + i + " [description = \"A sleepy guard\"];");
+                if (i == 0) {
+                    out.println("                troll [description = \"A furious troll\"];");
+                }
+                out.println("            }");
+                out.println("        }");
+            }
+            out.println("        subgraph cluster999999 {");
+            out.println("            node [shape = \"none\"];");
+            out.println("            storeroom [description = \"Storage for any entities not placed in the game\"];");
+            out.println("            subgraph artefacts {");
+            out.println("                node [shape = \"diamond\"];");
+            out.println("                treasure [description = \"A chest of treasure\"];");
+            out.println("            }");
+            out.println("        }");
+            out.println("    }");
+            out.println("    subgraph paths {");
+            for (int i = 0; i < locations; i++) {
+                int next = (i + 1) % locations;
+                out.println("        " + locationName(i) + " -> " + locationName(next) + ";");
+                out.println("        " + locationName(next) + " -> " + locationName(i) + ";");
+            }
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    // One action per location to grow the trigger and subject vocabularies, plus the two actions the benchmarks use
+    public void writeActions(File actionsFile) throws IOException {
+        try (PrintWriter out = new PrintWriter(actionsFile, StandardCharsets.UTF_8)) {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.println("<actions>");
+            writeAction(out, new String[] {"polish", "shine"}, new String[] {"coin"}, new String[0], new String[0],
+                    "You polish the coin until it gleams");
+            writeAction(out, new String[] {"fight", "hit", "attack"}, new String[] {"troll"}, new String[] {"health"}, new String[0],
+                    "You attack the troll, but it hits back and you lose some health");
+            for (int i = 0; i < locations; i++) {
+                writeAction(out, new String[] {"inspect" + i, "study" + i}, new String[] {"statue_" + i + "_0", "gem_" + i + "_0"},
+                        new String[] {"gem_" + i + "_0"}, new String[] {"treasure"}, "You study the statue and find treasure");
+            }
+            out.println("</actions>");
+        }
+    }
+
+    private static void writeAction(PrintWriter out, String[] triggers, String[] subjects, String[] consumed, String[] produced, String narration) {
+        out.println("    <action>");
+        out.println("        <triggers>");
+        for (String trigger : triggers) {
+            out.println("            <keyphrase>" + trigger + "</keyphrase>");
+        }
+        out.println("        </triggers>");
+        writeEntities(out, "subjects", subjects);
+        writeEntities(out, "consumed", consumed);
+        writeEntities(out, "produced", produced);
+        out.println("        <narration>" + narration + "</narration>");
+        out.println("    </action>");
+    }
+
+    private static void writeEntities(PrintWriter out, String element, String[] entities) {
+        out.println("        <" + element + ">");
+        for (String entity : entities) {
+            out.println("            <entity>" + entity + "</entity>");
+        }
+        out.println("        </" + element + ">");
+    }
+}
@@ -0,0 +1,116 @@
+package org.tre.engine;
+
+import org.tre.objects.EntityIds;
+
+import java.util.*;
+
+// Immutable, precompiled view of every loaded action
+// Built once at load time so commands only ever do lookups against it
+public final class ActionIndex {
+    private final Map<String, List<GameAction>> actionsByTrigger;
+    private final Map<String, List<GameAction>> actionsBySubject;
+    private final Set<String> subjectVocabulary;
+    private final PhraseMatcher triggerMatcher;
+    private final PhraseMatcher subjectMatcher;
+    // Numbers only these actions' subjects, so their bitsets are as wide as this world's subjects need and no wider
+    private final EntityIds entityIds;
+    // The EntityIds of the subject matcher's phrases, so matches in a command go straight into a bitset
+    private final int[] subjectIds;
+    // Prebuilt failures for triggers shared by several actions, as their message names the trigger
+    private final Map<String, Resolution<GameAction>> ambiguousTriggerFailures = new HashMap<>();
+
+    private ActionIndex(Map<String, List<GameAction>> actionsByTrigger, Map<String, List<GameAction>> actionsBySubject,
+                        PhraseMatcher triggerMatcher, PhraseMatcher subjectMatcher) {
+        this.actionsByTrigger = actionsByTrigger;
+        this.actionsBySubject = actionsBySubject;
+        this.subjectVocabulary = actionsBySubject.keySet();
+        this.triggerMatcher = triggerMatcher != null ? triggerMatcher : PhraseMatcher.compile(actionsByTrigger.keySet());
+        this.subjectMatcher = subjectMatcher != null ? subjectMatcher : PhraseMatcher.compile(subjectVocabulary);
+        List<String> subjects = new ArrayList<>(this.subjectMatcher.size());
+        for (int i = 0; i < this.subjectMatcher.size(); i++) {
+            subjects.add(this.subjectMatcher.phraseAt(i));
+        }
+        subjects.addAll(subjectVocabulary);
+        entityIds = EntityIds.of(subjects);
+        subjectIds = new int[this.subjectMatcher.size()];
+        for (int i = 0; i < subjectIds.length; i++) {
+            subjectIds[i] = entityIds.idOf(this.subjectMatcher.phraseAt(i));
+        }
+        // Every action, including any without subjects, which then need no bits
+        actionsByTrigger.values().forEach(actions -> actions.forEach(action -> action.bindSubjects(entityIds)));
+        actionsByTrigger.forEach((trigger, actions) -> {
+            if (actions.size() > 1) {
+                ambiguousTriggerFailures.put(trigger, Resolution.failure(CommandFailure.MULTIPLE_ACTIONS_AVAILABLE,
+                        "There are multiple '" + trigger + "' actions available to you, which would you like to perform?"));
+            }
+        });
+    }
+
+    public static ActionIndex compile(Map<String, ? extends Collection<GameAction>> triggerMap) {
+        return compile(triggerMap, null, null);
+    }
+
+    // For a world image, which holds the matchers already compiled for exactly these triggers and subjects
+    static ActionIndex compile(Map<String, ? extends Collection<GameAction>> triggerMap, PhraseMatcher triggerMatcher, PhraseMatcher subjectMatcher) {
+        Map<String, List<GameAction>> actionsByTrigger = new HashMap<>();
+        Map<String, List<GameAction>> actionsBySubject = new HashMap<>();
+        Set<GameAction> seenActions = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (Map.Entry<String, ? extends Collection<GameAction>> entry : triggerMap.entrySet()) {
+            actionsByTrigger.put(entry.getKey(), List.copyOf(entry.getValue()));
+
+            // Actions are shared between their triggers, so only post each one once per subject
+            for (GameAction action : entry.getValue()) {
+                if (seenActions.add(action)) {
+                    for (String subject : action.getSubjects()) {
+                        actionsBySubject.computeIfAbsent(subject, s -> new ArrayList<>()).add(action);
+                    }
+                }
+            }
+        }
+        actionsBySubject.replaceAll((subject, actions) -> List.copyOf(actions));
+
+        return new ActionIndex(Collections.unmodifiableMap(actionsByTrigger), Collections.unmodifiableMap(actionsBySubject), triggerMatcher, subjectMatcher);
+    }
+
+    public Map<String, List<GameAction>> getActionsByTrigger() {
+        return actionsByTrigger;
+    }
+
+    public List<GameAction> getActionsForTrigger(String trigger) {
+        return actionsByTrigger.getOrDefault(trigger, List.of());
+    }
+
+    public List<GameAction> getActionsForSubject(String subject) {
+        return actionsBySubject.getOrDefault(subject, List.of());
+    }
+
+    int[] getSubjectIds() {
+        return subjectIds;
+    }
+
+    int getSubjectWords() {
+        return entityIds.words();
+    }
+
+    public EntityIds getEntityIds() {
+        return entityIds;
+    }
+
+    public Resolution<GameAction> getAmbiguousTriggerFailure(String trigger) {
+        Resolution<GameAction> failure = ambiguousTriggerFailures.get(trigger);
+        return failure != null ? failure : Resolution.failure(CommandFailure.MULTIPLE_ACTIONS_AVAILABLE);
+    }
+
+    public Set<String> getSubjectVocabulary() {
+        return subjectVocabulary;
+    }
+
+    public PhraseMatcher getTriggerMatcher() {
+        return triggerMatcher;
+    }
+
+    public PhraseMatcher getSubjectMatcher() {
+        return subjectMatcher;
+    }
+}
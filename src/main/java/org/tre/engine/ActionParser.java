@@ -1,102 +1,164 @@
 package org.tre.engine;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 
 public class ActionParser {
+    private ActionIndex actionIndex;
+    private String parseError;
+
     public ActionParser() {
     }
 
-    public HashMap<String, HashSet<GameAction>> parseActionsFile(File actionsFile){
-        try {
-            // Create new DocumentBuilder to parse XML file
-            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-
-            // Parse XML file and create new Document object
-            Document document = builder.parse(actionsFile);
-
-            // Get NodeList of action elements in XML file
-            NodeList actionNodes = document.getElementsByTagName("action");
-
-            // Create new HashMap and HashSet to store Action objects
-            HashMap<String, HashSet<GameAction>> actions = new HashMap<>();
-
-
-            // Loop through NodeList of action elements
-            for (int i = 0; i < actionNodes.getLength(); i++) {
-
-                // Get current action element
-                Element actionElement = (Element) actionNodes.item(i);
+    // Compiled index of the most recently parsed actions file
+    public ActionIndex getActionIndex() {
+        return actionIndex;
+    }
 
-                // Extract triggers, subjects, consumed, produced, and narration elements from action element
-                List<String> triggers = new ArrayList<>(getElementsFromTag(actionElement, "triggers", "keyphrase"));
-                Set<String> subjects = getElementsFromTag(actionElement, "subjects", "entity");
-                Set<String> consumed = getElementsFromTag(actionElement, "consumed", "entity");
-                Set<String> produced = getElementsFromTag(actionElement, "produced", "entity");
-                String narration = actionElement.getElementsByTagName("narration").item(0).getTextContent();
+    // Why the most recently parsed actions file couldn't be loaded, including where in the file it went wrong
+    // Null if it loaded successfully
+    public String getParseError() {
+        return parseError;
+    }
 
-                GameAction action = new GameAction(subjects, consumed, produced, narration);
-                for (String trigger : triggers) {
-                    if (actions.containsKey(trigger)) {
-                        actions.get(trigger).add(action);
-                    } else {
-                        HashSet<GameAction> possibleActionsFromTrigger = new HashSet<>();
-                        possibleActionsFromTrigger.add(action);
-                        actions.put(trigger, possibleActionsFromTrigger);
-                    }
-                }
+    // The file is streamed one element at a time rather than loaded into a document, so memory only grows with the actions it holds
+    public HashMap<String, HashSet<GameAction>> parseActionsFile(File actionsFile){
+        parseError = null;
+        try (InputStream input = new BufferedInputStream(new FileInputStream(actionsFile))) {
+            XMLStreamReader reader = createInputFactory().createXMLStreamReader(input);
+            try {
+                HashMap<String, HashSet<GameAction>> actions = readActions(reader);
+
+                // Compile triggers and subjects once here so commands never have to scan the trigger map
+                actionIndex = ActionIndex.compile(actions);
+
+                return actions;
+            } finally {
+                reader.close();
             }
 
-            return actions;
-
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace();
-            System.out.println ("ParserConfigurationException was thrown when attempting to read actions file.");
-            return null;
-        } catch (SAXException e) {
-            e.printStackTrace();
-            System.out.println ("SAXException was thrown when attempting to read actions file.");
+        } catch (XMLStreamException e) {
+            Location location = e.getLocation();
+            String reason = stripPosition(e.getMessage());
+            parseError = location == null
+                    ? "Malformed actions file: " + reason
+                    : "Malformed actions file at line " + location.getLineNumber() + ", column " + location.getColumnNumber() + ": " + reason;
+            System.out.println(parseError);
             return null;
         } catch (IOException e) {
             e.printStackTrace();
-            System.out.println("IOException was thrown when attempting to read actions file.");
+            parseError = "IOException was thrown when attempting to read actions file.";
+            System.out.println(parseError);
             return null;
         }
     }
 
-    // Method to extract elements from a given tag in a given parent element
-    private Set<String> getElementsFromTag(Element parentElement, String tagName, String childTagName) {
-
-        // Get NodeList of elements with given tag name
-        NodeList nodes = parentElement.getElementsByTagName(tagName);
-
-        // Create new HashSet to store extracted elements
-        Set<String> elements = new HashSet<>();
-
-        // Loop through NodeList
-        for (int j = 0; j < nodes.getLength(); j++) {
-
-            // Get current element and child elements with given tag name
-            Element element = (Element) nodes.item(j);
-            NodeList childNodes = element.getElementsByTagName(childTagName);
-
-            for (int k = 0; k < childNodes.getLength(); k++) {
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // Actions files never need a DTD, and refusing one keeps external entities from being fetched
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
 
-                // Get text content of current child element
-                String item = childNodes.item(k).getTextContent();
-                elements.add(item);
+    private HashMap<String, HashSet<GameAction>> readActions(XMLStreamReader reader) throws XMLStreamException {
+        HashMap<String, HashSet<GameAction>> actions = new HashMap<>();
+        // The same entity names come up in action after action, so every occurrence shares one string
+        Map<String, String> names = new HashMap<>();
+
+        // The action currently being read, if any
+        boolean inAction = false;
+        List<String> triggers = new ArrayList<>();
+        Set<String> subjects = null;
+        Set<String> consumed = null;
+        Set<String> produced = null;
+        String narration = null;
+        // The section whose keyphrases or entities are currently being read
+        String section = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String tag = reader.getLocalName();
+                switch (tag) {
+                    case "action" -> {
+                        if (inAction) {
+                            throw new XMLStreamException("an action can't be placed inside another action", reader.getLocation());
+                        }
+                        inAction = true;
+                        triggers.clear();
+                        subjects = new HashSet<>();
+                        consumed = new HashSet<>();
+                        produced = new HashSet<>();
+                        narration = null;
+                    }
+                    case "triggers", "subjects", "consumed", "produced" -> {
+                        if (!inAction) {
+                            throw new XMLStreamException("'" + tag + "' must be inside an action", reader.getLocation());
+                        }
+                        section = tag;
+                    }
+                    case "keyphrase" -> {
+                        if (!"triggers".equals(section)) {
+                            throw new XMLStreamException("'keyphrase' must be inside 'triggers'", reader.getLocation());
+                        }
+                        triggers.add(names.computeIfAbsent(reader.getElementText(), name -> name));
+                    }
+                    case "entity" -> {
+                        if (section == null || section.equals("triggers")) {
+                            throw new XMLStreamException("'entity' must be inside 'subjects', 'consumed' or 'produced'", reader.getLocation());
+                        }
+                        String entity = names.computeIfAbsent(reader.getElementText(), name -> name);
+                        switch (section) {
+                            case "subjects" -> subjects.add(entity);
+                            case "consumed" -> consumed.add(entity);
+                            default -> produced.add(entity);
+                        }
+                    }
+                    case "narration" -> {
+                        if (!inAction) {
+                            throw new XMLStreamException("'narration' must be inside an action", reader.getLocation());
+                        }
+                        narration = reader.getElementText();
+                    }
+                    default -> {
+                        // Anything else, such as the enclosing 'actions' element, holds nothing to read
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "triggers", "subjects", "consumed", "produced" -> section = null;
+                    case "action" -> {
+                        if (narration == null) {
+                            throw new XMLStreamException("action has no narration", reader.getLocation());
+                        }
+                        GameAction action = new GameAction(subjects, consumed, produced, narration);
+                        for (String trigger : triggers) {
+                            actions.computeIfAbsent(trigger, t -> new HashSet<>()).add(action);
+                        }
+                        inAction = false;
+                    }
+                    default -> {
+                    }
+                }
             }
         }
-        return elements;
+        return actions;
+    }
+
+    // Exceptions from the reader put their position at the front of their message, which is reported separately
+    private static String stripPosition(String message) {
+        int reasonIndex = message.indexOf("Message: ");
+        return reasonIndex == -1 ? message : message.substring(reasonIndex + "Message: ".length());
     }
 
 }
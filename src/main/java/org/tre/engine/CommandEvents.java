@@ -0,0 +1,168 @@
+package org.tre.engine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+// Java Flight Recorder events for each stage a command goes through, so a recording shows which stage a slow command spent its time in
+// Each event is created, begun and committed within one method and only filled in once it is known to be committed,
+// so while nothing is recording the JIT removes the events altogether
+// Stack traces are left off, the stage an event covers already says where it came from
+final class CommandEvents {
+    private static final String CATEGORY = "Terminal RPG Engine";
+
+    private CommandEvents() {
+    }
+
+    // The resolved action as its subjects, which is what tells actions sharing a trigger apart
+    static String describe(GameAction action) {
+        return action == null ? null : String.join(", ", new TreeSet<>(action.getSubjects()));
+    }
+
+    static String describe(Set<String> entities) {
+        return String.join(", ", new TreeSet<>(entities));
+    }
+
+    @Name("org.tre.Command")
+    @Label("Command")
+    @Description("A whole command, from parsing it to its response")
+    @Category({CATEGORY, "Commands"})
+    @StackTrace(false)
+    static final class Command extends Event {
+        @Label("Player")
+        String player;
+
+        @Label("Command")
+        String command;
+
+        @Label("Kind")
+        String kind;
+    }
+
+    @Name("org.tre.ResolvePlayer")
+    @Label("Resolve Player")
+    @Description("Looking the player up, or creating them if they are new")
+    @Category({CATEGORY, "Command Stages"})
+    @StackTrace(false)
+    static final class ResolvePlayer extends Event {
+        @Label("Player")
+        String player;
+
+        @Label("Reused From Batch")
+        boolean reused;
+    }
+
+    @Name("org.tre.LockLocations")
+    @Label("Lock Locations")
+    @Description("Waiting for the locks on every location the command could touch")
+    @Category({CATEGORY, "Command Stages"})
+    @StackTrace(false)
+    static final class LockLocations extends Event {
+        @Label("Player")
+        String player;
+
+        @Label("Locations")
+        int locations;
+
+        @Label("Attempts")
+        @Description("More than one if the player moved or the paths changed while waiting")
+        int attempts;
+    }
+
+    @Name("org.tre.BasicCommand")
+    @Label("Basic Command")
+    @Description("Looking for a basic command and running it if there is one")
+    @Category({CATEGORY, "Command Stages"})
+    @StackTrace(false)
+    static final class BasicCommand extends Event {
+        @Label("Player")
+        String player;
+
+        @Label("Basic Command")
+        String basicCommand;
+    }
+
+    @Name("org.tre.IdentifyTrigger")
+    @Label("Identify Trigger")
+    @Description("Matching the command against every action trigger")
+    @Category({CATEGORY, "Command Stages"})
+    @StackTrace(false)
+    static final class IdentifyTrigger extends Event {
+        @Label("Player")
+        String player;
+
+        @Label("Trigger")
+        String trigger;
+    }
+
+    @Name("org.tre.CheckSubjects")
+    @Label("Check Subjects")
+    @Description("Matching the command's subjects to one of the trigger's actions")
+    @Category({CATEGORY, "Command Stages"})
+    @StackTrace(false)
+    static final class CheckSubjects extends Event {
+        @Label("Player")
+        String player;
+
+        @Label("Trigger")
+        String trigger;
+
+        @Label("Action")
+        String action;
+
+        @Label("Failure")
+        String failure;
+    }
+
+    @Name("org.tre.PerformAction")
+    @Label("Perform Action")
+    @Description("Checking the action's subjects are at hand, then consuming and producing its entities")
+    @Category({CATEGORY, "Command Stages"})
+    @StackTrace(false)
+    static final class PerformAction extends Event {
+        @Label("Player")
+        String player;
+
+        @Label("Action")
+        String action;
+
+        @Label("Performed")
+        boolean performed;
+    }
+
+    @Name("org.tre.ConsumeEntities")
+    @Label("Consume Entities")
+    @Category({CATEGORY, "Command Stages"})
+    @StackTrace(false)
+    static final class ConsumeEntities extends Event {
+        @Label("Player")
+        String player;
+
+        @Label("Action")
+        String action;
+
+        @Label("Entities")
+        String entities;
+    }
+
+    @Name("org.tre.ProduceEntities")
+    @Label("Produce Entities")
+    @Category({CATEGORY, "Command Stages"})
+    @StackTrace(false)
+    static final class ProduceEntities extends Event {
+        @Label("Player")
+        String player;
+
+        @Label("Action")
+        String action;
+
+        @Label("Entities")
+        String entities;
+    }
+}
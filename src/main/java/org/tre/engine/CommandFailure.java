@@ -0,0 +1,28 @@
+package org.tre.engine;
+
+// The expected ways a command can fail, each with the message given back to the player
+public enum CommandFailure {
+    PLAYER_NOT_FOUND("Couldn't locate a player name in your command, please try again."),
+    ACTION_TRIGGER_NOT_FOUND("Couldn't find any action words in your command, please try again."),
+    SUBJECT_ENTITY_NOT_FOUND("Couldn't find any matching subject entities in your command, please try again."),
+    EXTRANEOUS_ENTITY("You tried to perform the action using the incorrect object, please try again."),
+    // ActionIndex prebuilds a failure per ambiguous trigger with a message naming that trigger
+    MULTIPLE_ACTIONS_AVAILABLE("There are multiple actions available to you, which would you like to perform?"),
+    // Commands that were understood but couldn't be carried out, which keep their own CommandKind rather than having one for the failure
+    NO_ROUTE("You can't get there from here."),
+    ARTEFACT_NOT_HERE("That isn't at this location."),
+    ARTEFACT_NOT_CARRIED("That isn't in your inventory."),
+    SUBJECTS_NOT_AVAILABLE("You cannot perform this action as you do not have everything that you need available to you at this time."),
+    // Only given by a ShardRouter, when the shard a player is on couldn't run their command
+    WORLD_UNAVAILABLE("The world can't be reached right now, please try again.");
+
+    private final String message;
+
+    CommandFailure(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
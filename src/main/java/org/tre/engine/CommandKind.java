@@ -0,0 +1,53 @@
+package org.tre.engine;
+
+// What a command turned out to be once it ran, which is what its latency is recorded against
+// Basic commands keep their kind even if they fail, e.g. a 'get' of something that isn't there is still a 'get',
+// whereas commands that couldn't be matched to anything are recorded against the reason they failed
+public enum CommandKind {
+    INVENTORY("inventory", null),
+    GET("get", null),
+    DROP("drop", null),
+    GOTO("goto", null),
+    TRAVEL("travel", null),
+    LOOK("look", null),
+    HEALTH("health", null),
+    ACTION("action", null),
+    PLAYER_NOT_FOUND("player-not-found", CommandFailure.PLAYER_NOT_FOUND),
+    ACTION_TRIGGER_NOT_FOUND("trigger-not-found", CommandFailure.ACTION_TRIGGER_NOT_FOUND),
+    SUBJECT_ENTITY_NOT_FOUND("subject-not-found", CommandFailure.SUBJECT_ENTITY_NOT_FOUND),
+    EXTRANEOUS_ENTITY("extraneous-entity", CommandFailure.EXTRANEOUS_ENTITY),
+    MULTIPLE_ACTIONS_AVAILABLE("multiple-actions", CommandFailure.MULTIPLE_ACTIONS_AVAILABLE);
+
+    private static final CommandKind[] BY_FAILURE = new CommandKind[CommandFailure.values().length];
+
+    static {
+        for (CommandKind kind : values()) {
+            if (kind.failure != null) {
+                BY_FAILURE[kind.failure.ordinal()] = kind;
+            }
+        }
+    }
+
+    private final String label;
+    private final CommandFailure failure;
+
+    CommandKind(String label, CommandFailure failure) {
+        this.label = label;
+        this.failure = failure;
+    }
+
+    // Null for failures of commands that were understood, which are recorded against the kind of command instead
+    public static CommandKind of(CommandFailure failure) {
+        return BY_FAILURE[failure.ordinal()];
+    }
+
+    // Used to name the kind in metrics, e.g. over JMX
+    public String getLabel() {
+        return label;
+    }
+
+    // Null unless the command failed
+    public CommandFailure getFailure() {
+        return failure;
+    }
+}
@@ -1,124 +1,318 @@
 package org.tre.engine;
 
+import org.tre.objects.EntityIds;
 import org.tre.objects.GameArtefact;
 import org.tre.objects.GameEntity;
 import org.tre.objects.GameLocation;
 import org.tre.objects.GamePlayer;
-import org.tre.exceptions.*;
 
 import java.util.*;
-import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class CommandParser {
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    // A single instance, as the location's cached render is only reused for the renderer that made it
+    private static final Function<GameLocation, String> LOOK_RENDERER = CommandParser::renderLook;
+    // Only set when commands from several threads run against the same world
+    private final LocationLocks locationLocks;
+    // Tokenizer reused for every command a thread parses, so parsing allocates no intermediate strings
+    private final ThreadLocal<CommandTokens> commandTokens = ThreadLocal.withInitial(CommandTokens::new);
+    // Only set when commands are timed
+    private final EngineMetrics metrics;
+
     public CommandParser() {
+        this(null);
+    }
+
+    public CommandParser(LocationLocks locationLocks) {
+        this(locationLocks, null);
+    }
+
+    CommandParser(LocationLocks locationLocks, EngineMetrics metrics) {
+        this.locationLocks = locationLocks;
+        this.metrics = metrics;
     }
 
     public String parseCommandString (String command, GameWorld gameWorld) {
-        try {
-            // Extract player information from command
-            GamePlayer currentPlayer = parsePlayerName(command, gameWorld);
+        return parseCommandString(command, gameWorld, null);
+    }
 
-            // Remove player name from colon as could contain action triggers or subjects
-            int colonIndex = command.indexOf(":");
-            if (colonIndex != -1) {
-                command = command.substring(colonIndex + 1).toLowerCase();
-            }
+    // Runs the commands in order and returns their responses in the same order
+    // Consecutive commands from the same player reuse that player rather than parsing and looking up the name again
+    public List<String> parseCommandStrings (List<String> commands, GameWorld gameWorld) {
+        List<String> responses = new ArrayList<>(commands.size());
+        BatchContext batchContext = new BatchContext();
+        for (String command : commands) {
+            responses.add(parseCommandString(command, gameWorld, batchContext));
+        }
+        return responses;
+    }
 
-            // Handle basic command parsing and execution
-            // Allow basic commands to take precedence since they are easily reversible
-            // If method returns null then no basic command was found in command so move on to finding an action
-            String handleBasicCommandsResponse = handleBasicCommands(command, currentPlayer);
-            if (handleBasicCommandsResponse != null) {
-                return handleBasicCommandsResponse;
-            }
+    private String parseCommandString (String command, GameWorld gameWorld, BatchContext batchContext) {
+        CommandTokens tokens = commandTokens.get();
+        CommandEvents.Command event = new CommandEvents.Command();
+        event.begin();
+        long start = metrics == null ? 0 : System.nanoTime();
+        String response = parseCommandString(command, tokens, gameWorld, batchContext);
+        if (metrics != null) {
+            metrics.record(tokens.getKind(), System.nanoTime() - start);
+        }
+        if (event.shouldCommit()) {
+            event.player = tokens.getKind() == CommandKind.PLAYER_NOT_FOUND ? null : tokens.playerName();
+            event.command = command;
+            event.kind = tokens.getKind().getLabel();
+            event.commit();
+        }
+        return response;
+    }
 
-            // Check that it is possible for the action to be performed
-            GameAction verifiedAction = parseAction(command, gameWorld);
+    // What the last command the calling thread ran through this parser turned out to be, null before it has run one
+    // For programs that need to know how a command went without reading the text of its response
+    public CommandKind getLastKind() {
+        return commandTokens.get().getKind();
+    }
 
-            // Execute command and obtain relevant narration
-            String actionNarration = performAction(currentPlayer, verifiedAction, gameWorld);
+    // Why the last command the calling thread ran through this parser failed, or null if it didn't
+    public CommandFailure getLastFailure() {
+        return commandTokens.get().getFailure();
+    }
 
-            // Handle if action has reduced player health to 0
-            if (currentPlayer.getHealth() == 0) {
-                // Empty inventory into location
-                // Copy of inventory made to avoid ConcurrentModificationException
-                Set<GameArtefact> inventoryCopy = new HashSet<>(currentPlayer.getInventory());
-                for (GameArtefact artefact : inventoryCopy) {
-                    currentPlayer.removeFromInventory(artefact);
-                    currentPlayer.getCurrentLocation().addArtefact(artefact);
-                }
-                currentPlayer.setCurrentLocation(gameWorld.getStartingLocation());
-                currentPlayer.fullHealth();
-                // Add additional narration regarding death on the line following the action narration
-                return (actionNarration + System.lineSeparator() + "You died and lost all of your items, you have been returned to the start of the game.");
+    // The action the command names, resolved against the actions as they are now without touching the world, or null if
+    // the command is a basic one or doesn't name a single action
+    // Counts as the calling thread's last command until it runs another
+    public GameAction findAction (String command, GameWorld gameWorld) {
+        CommandTokens tokens = commandTokens.get();
+        if (!tokens.tokenize(command)) {
+            return null;
+        }
+        CommandPlan plan = planCommand(tokens, gameWorld, gameWorld.getActionIndex());
+        return plan.action != null && plan.action.isSuccess() ? plan.action.getValue() : null;
+    }
+
+    private String parseCommandString (String command, CommandTokens tokens, GameWorld gameWorld, BatchContext batchContext) {
+        // Split the player name from the rest of the command, as the name could contain action triggers or subjects
+        if (!tokens.tokenize(command)) {
+            return CommandFailure.PLAYER_NOT_FOUND.getMessage();
+        }
+
+        // Extract player information from command
+        CommandEvents.ResolvePlayer resolveEvent = new CommandEvents.ResolvePlayer();
+        resolveEvent.begin();
+        GamePlayer currentPlayer = batchContext == null ? null : batchContext.previousPlayer(tokens);
+        boolean reused = currentPlayer != null;
+        if (currentPlayer == null) {
+            currentPlayer = parsePlayerName(tokens, gameWorld);
+            if (batchContext != null) {
+                batchContext.remember(currentPlayer);
             }
+        }
+        if (resolveEvent.shouldCommit()) {
+            resolveEvent.player = currentPlayer.getName();
+            resolveEvent.reused = reused;
+            resolveEvent.commit();
+        }
 
-            // Else return normal narration
-            return actionNarration;
+        // Resolved once, against the actions as they are now, so a command planned against one version of the actions
+        // is also run against it even if the actions file is reloaded in the meantime
+        CommandPlan plan = planCommand(tokens, gameWorld, gameWorld.getActionIndex());
+        if (locationLocks == null) {
+            return executeCommand(tokens, plan, currentPlayer, gameWorld);
         }
-        catch (PlayerNotFoundException | ActionTriggerNotFoundException | SubjectEntityNotFoundException |
-               MultipleActionAvailableException | ExtraneousEntityException e) {
-            return e.getMessage();
+        return executeCommandLocked(tokens, plan, currentPlayer, gameWorld);
+    }
+
+    private String executeCommandLocked(CommandTokens tokens, CommandPlan plan, GamePlayer currentPlayer, GameWorld gameWorld) {
+        CommandEvents.LockLocations lockEvent = new CommandEvents.LockLocations();
+        lockEvent.begin();
+        int attempts = 0;
+        while (true) {
+            attempts++;
+            GameLocation currentLocation = currentPlayer.getCurrentLocation();
+            List<GameLocation> plannedLocations = planLocations(tokens, plan, currentLocation, gameWorld);
+            try (LocationLocks.Held held = locationLocks.lock(plannedLocations)) {
+                // The player may have moved, or the exits changed, while waiting for the locks
+                // If so, let go and work out the locations again from wherever the player is now
+                if (currentPlayer.getCurrentLocation() == currentLocation && held.covers(planLocations(tokens, plan, currentLocation, gameWorld))) {
+                    if (lockEvent.shouldCommit()) {
+                        lockEvent.player = currentPlayer.getName();
+                        lockEvent.locations = plannedLocations.size();
+                        lockEvent.attempts = attempts;
+                        lockEvent.commit();
+                    }
+                    return executeCommand(tokens, plan, currentPlayer, gameWorld);
+                }
+            }
         }
     }
 
-    private GamePlayer parsePlayerName(String command, GameWorld gameWorld) throws PlayerNotFoundException {
-        GamePlayer currentPlayer;
-        String playerName;
+    private String executeCommand(CommandTokens tokens, CommandPlan plan, GamePlayer currentPlayer, GameWorld gameWorld) {
+        try {
+            return runCommand(tokens, plan, currentPlayer, gameWorld);
+        } finally {
+            // Journaled while the command's locations are still locked, so changes to a location are journaled in the order they were made
+            gameWorld.commitEvents();
+        }
+    }
 
-        if (!command.contains(":")) {
-            throw new PlayerNotFoundException("Couldn't locate a player name in your command, please try again.");
+    private String runCommand(CommandTokens tokens, CommandPlan plan, GamePlayer currentPlayer, GameWorld gameWorld) {
+        // Handle basic command parsing and execution
+        // Allow basic commands to take precedence since they are easily reversible
+        // If method returns null then no basic command was found in command so move on to finding an action
+        CommandEvents.BasicCommand basicEvent = new CommandEvents.BasicCommand();
+        basicEvent.begin();
+        String handleBasicCommandsResponse = handleBasicCommands(tokens, plan, currentPlayer, gameWorld);
+        if (basicEvent.shouldCommit()) {
+            basicEvent.player = currentPlayer.getName();
+            basicEvent.basicCommand = handleBasicCommandsResponse == null ? null : tokens.getKind().getLabel();
+            basicEvent.commit();
+        }
+        if (handleBasicCommandsResponse != null) {
+            return handleBasicCommandsResponse;
         }
 
-        // Split command by colon
-        String[] commandArray = command.split(":");
-        // Take player name as everything before the colon
-        playerName = commandArray[0].trim();
+        // Check that it is possible for the action to be performed
+        Resolution<GameAction> actionResolution = plan.action;
+        if (!actionResolution.isSuccess()) {
+            tokens.setKind(CommandKind.of(actionResolution.getFailure()));
+            return actionResolution.getMessage();
+        }
+        tokens.setKind(CommandKind.ACTION);
+        GameAction verifiedAction = actionResolution.getValue();
 
+        // Execute command and obtain relevant narration
+        String actionNarration = performAction(tokens, currentPlayer, verifiedAction, gameWorld);
 
-        if (playerName.isBlank()) {
-            throw new PlayerNotFoundException("Couldn't locate a player name in your command, please try again.");
+        // Handle if action has reduced player health to 0
+        if (currentPlayer.getHealth() == 0) {
+            gameWorld.apply(new WorldEvent.PlayerDied(currentPlayer.getName(), currentPlayer.getCurrentLocation().getName()));
+            // Add additional narration regarding death on the line following the action narration
+            return (actionNarration + LINE_SEPARATOR + "You died and lost all of your items, you have been returned to the start of the game.");
         }
 
-        // If the player doesn't already exist in the world, then create a new player with that name
-        if (gameWorld.getPlayer(playerName) == null) {
-            currentPlayer = new GamePlayer(playerName, "Player #" + (gameWorld.getPlayerSet().size() + 1));
+        // Else return normal narration
+        return actionNarration;
+    }
 
-            currentPlayer.setCurrentLocation(gameWorld.getStartingLocation());
-            gameWorld.getStartingLocation().addPlayer(currentPlayer);
+    // Works out what the command is, which only depends on its words, the actions and the names of the locations
+    private CommandPlan planCommand(CommandTokens tokens, GameWorld gameWorld, ActionIndex actionIndex) {
+        CommandKind basicCommand = identifyBasicCommand(tokens);
+        if (basicCommand == null) {
+            return new CommandPlan(null, parseAction(tokens, actionIndex), null);
+        }
+        // Travel came after actions files were written, so an action the command names still runs, even one triggered by 'travel'
+        if (basicCommand == CommandKind.TRAVEL) {
+            Resolution<GameAction> action = parseAction(tokens, actionIndex);
+            if (action.isSuccess()) {
+                return new CommandPlan(null, action, null);
+            }
+        }
+        return new CommandPlan(basicCommand, null, basicCommand == CommandKind.TRAVEL ? gameWorld.findLocation(tokens) : null);
+    }
 
-            gameWorld.addPlayer(currentPlayer);
-        } else {
-            currentPlayer = gameWorld.getPlayer(playerName);
+    // Every location the command could touch from where the player is, so that they can all be locked before it runs
+    private static List<GameLocation> planLocations(CommandTokens tokens, CommandPlan plan, GameLocation currentLocation, GameWorld gameWorld) {
+        CommandKind basicCommand = plan.basicCommand;
+        if (basicCommand == CommandKind.GOTO) {
+            GameLocation destination = findAdjacentLocation(tokens, currentLocation);
+            return destination == null ? List.of(currentLocation) : List.of(currentLocation, destination);
+        }
+        if (basicCommand == CommandKind.TRAVEL) {
+            // Every location along the way, worked out again once locked in case a path on the route closed while waiting
+            List<GameLocation> route = plan.destination == null ? null : routeTo(currentLocation, plan.destination, gameWorld);
+            if (route == null) {
+                return List.of(currentLocation);
+            }
+            List<GameLocation> locations = new ArrayList<>(route.size() + 1);
+            locations.add(currentLocation);
+            locations.addAll(route);
+            return locations;
+        }
+        if (basicCommand != null) {
+            return List.of(currentLocation);
+        }
+
+        if (!plan.action.isSuccess()) {
+            // The command will fail without touching anything else
+            return List.of(currentLocation);
+        }
+        GameAction action = plan.action.getValue();
+
+        List<GameLocation> locations = new ArrayList<>(3);
+        locations.add(currentLocation);
+        // Consumed entities go into the storeroom and produced ones come out of it
+        if (gameWorld.getStoreRoom() != null && (!action.getConsumed().isEmpty() || !action.getProduced().isEmpty())) {
+            locations.add(gameWorld.getStoreRoom());
+        }
+        // Losing health could kill the player and send them back to the start
+        if (action.getConsumed().contains("health")) {
+            locations.add(gameWorld.getStartingLocation());
+        }
+        return locations;
+    }
+
+    private GamePlayer parsePlayerName(CommandTokens tokens, GameWorld gameWorld) {
+        GamePlayer player = gameWorld.getPlayer(tokens.playerName());
+        if (player != null) {
+            return player;
+        }
+        // If the player doesn't already exist in the world, then a new player with that name joins at the start
+        if (locationLocks == null) {
+            return gameWorld.getOrCreatePlayer(tokens.playerName());
+        }
+        LocationLocks.Held held = locationLocks.lock(List.of(gameWorld.getStartingLocation()));
+        try {
+            return gameWorld.getOrCreatePlayer(tokens.playerName());
+        } finally {
+            held.close();
         }
-        return currentPlayer;
     }
 
-    private String handleBasicCommands(String command, GamePlayer currentPlayer) {
-        HashSet<GameArtefact> inventory = currentPlayer.getInventory();
+    private String handleBasicCommands(CommandTokens tokens, CommandPlan plan, GamePlayer currentPlayer, GameWorld gameWorld) {
+        Set<GameArtefact> inventory = currentPlayer.getInventory();
         GameLocation currentLocation = currentPlayer.getCurrentLocation();
-        if (command.contains("inventory") || command.contains("inv")) {
-            return inventoryBasicCommand(inventory);
+        CommandKind basicCommand = plan.basicCommand;
+        if (basicCommand == null) {
+            return null;
         }
-        else if (command.contains("get")) {
-            return getBasicCommand(command, currentPlayer, currentLocation);
+        tokens.setKind(basicCommand);
+        return switch (basicCommand) {
+            case INVENTORY -> inventoryBasicCommand(inventory);
+            case GET -> getBasicCommand(tokens, currentPlayer, currentLocation, gameWorld);
+            case DROP -> dropBasicCommand(tokens, currentPlayer, gameWorld);
+            case GOTO -> gotoBasicCommand(tokens, currentPlayer, currentLocation, gameWorld);
+            case TRAVEL -> travelBasicCommand(tokens, plan.destination, currentPlayer, currentLocation, gameWorld);
+            case LOOK -> lookBasicCommand(currentLocation);
+            default -> "Your current health is " + currentPlayer.getHealth() + ".";
+        };
+    }
+
+    // Returns which basic command the command holds, or null if it holds none
+    private static CommandKind identifyBasicCommand(CommandTokens tokens) {
+        if (tokens.containsPhrase("inventory") || tokens.containsPhrase("inv")) {
+            return CommandKind.INVENTORY;
+        }
+        else if (tokens.containsPhrase("get")) {
+            return CommandKind.GET;
         }
-        else if (command.contains("drop")) {
-            return dropBasicCommand(command, currentPlayer, currentLocation);
+        else if (tokens.containsPhrase("drop")) {
+            return CommandKind.DROP;
         }
-        else if (command.contains("goto")) {
-            return gotoBasicCommand(command, currentPlayer, currentLocation);
+        else if (tokens.containsPhrase("goto")) {
+            return CommandKind.GOTO;
         }
-        else if (command.contains("look")) {
-            return lookBasicCommand(currentLocation);
+        else if (tokens.containsPhrase("travel")) {
+            return CommandKind.TRAVEL;
         }
-        else if (command.contains("health")) {
-            return "Your current health is " + currentPlayer.getHealth() + ".";
+        else if (tokens.containsPhrase("look")) {
+            return CommandKind.LOOK;
+        }
+        else if (tokens.containsPhrase("health")) {
+            return CommandKind.HEALTH;
         }
         return null;
     }
 
-    private static String inventoryBasicCommand(HashSet<GameArtefact> inventory) {
+    private static String inventoryBasicCommand(Set<GameArtefact> inventory) {
         StringBuilder stb = new StringBuilder();
 
         if (inventory.isEmpty()) {
@@ -140,43 +334,104 @@ public class CommandParser {
 
     // The methods to handle goto, drop, and get are very similar
     // Iterate through relevant set, check for a match within the command, perform relevant actions
-    private static String gotoBasicCommand(String command, GamePlayer currentPlayer, GameLocation currentLocation) {
+    private static String gotoBasicCommand(CommandTokens tokens, GamePlayer currentPlayer, GameLocation currentLocation, GameWorld gameWorld) {
+        GameLocation adjacentLocation = findAdjacentLocation(tokens, currentLocation);
+        if (adjacentLocation == null) {
+            return tokens.fail(CommandFailure.NO_ROUTE);
+        }
+        gameWorld.apply(new WorldEvent.PlayerMoved(currentPlayer.getName(), currentLocation.getName(), adjacentLocation.getName()));
+        return "You have moved to the '" + adjacentLocation.getName() + "'.";
+    }
+
+    private static GameLocation findAdjacentLocation(CommandTokens tokens, GameLocation currentLocation) {
         for (GameLocation adjacentLocation : currentLocation.getAdjacentLocations()) {
-            if (command.contains(adjacentLocation.getName())) {
-                currentPlayer.setCurrentLocation(adjacentLocation);
-                currentLocation.removePlayer(currentPlayer);
-                adjacentLocation.addPlayer(currentPlayer);
-                return "You have moved to the '" + adjacentLocation.getName() + "'.";
+            if (tokens.containsPhrase(adjacentLocation.getName())) {
+                return adjacentLocation;
+            }
+        }
+        return null;
+    }
+
+    // Goes all the way to any location in one command, along the shortest route, which is cached in the world's Routes
+    // Each step is a move of its own, so recordings and anything else listening see the player walk the route
+    private static String travelBasicCommand(CommandTokens tokens, GameLocation destination, GamePlayer currentPlayer, GameLocation currentLocation, GameWorld gameWorld) {
+        if (destination == currentLocation) {
+            return "You are already in the '" + destination.getName() + "'.";
+        }
+        List<GameLocation> route = destination == null ? null : routeTo(currentLocation, destination, gameWorld);
+        if (route == null) {
+            return tokens.fail(CommandFailure.NO_ROUTE);
+        }
+        // The route was planned before the locations were locked, so check every path is still there before taking any of them
+        GameLocation at = currentLocation;
+        for (GameLocation next : route) {
+            if (!at.getAdjacentLocations().contains(next)) {
+                return tokens.fail(CommandFailure.NO_ROUTE);
+            }
+            at = next;
+        }
+        GameLocation end = route.get(route.size() - 1);
+        StringBuilder stb = new StringBuilder("You have moved to the '").append(end.getName()).append("'");
+        at = currentLocation;
+        for (int i = 0; i < route.size(); i++) {
+            GameLocation next = route.get(i);
+            gameWorld.apply(new WorldEvent.PlayerMoved(currentPlayer.getName(), at.getName(), next.getName()));
+            if (i < route.size() - 1) {
+                stb.append(i == 0 ? " by way of the '" : ", the '").append(next.getName()).append("'");
             }
+            at = next;
         }
-        return "You can't get there from here.";
+        if (end != destination) {
+            stb.append(" on the way to the '").append(destination.getName()).append("'");
+        }
+        return stb.append(".").toString();
+    }
+
+    // On a shard the route ends at the first location another shard owns, where the player is handed over to that shard
+    // Beyond its own locations a shard only knows the paths as they were loaded, so it can't lead the player any further
+    private static List<GameLocation> routeTo(GameLocation currentLocation, GameLocation destination, GameWorld gameWorld) {
+        List<GameLocation> route = gameWorld.getRoutes().shortestPath(currentLocation, destination);
+        if (route == null) {
+            return null;
+        }
+        for (int i = 0; i < route.size(); i++) {
+            if (!gameWorld.owns(route.get(i))) {
+                return route.subList(0, i + 1);
+            }
+        }
+        return route;
     }
 
-    private String dropBasicCommand(String command, GamePlayer currentPlayer, GameLocation currentLocation) {
-        for (GameArtefact artefact : currentPlayer.getInventory()) {
-            if (command.contains(artefact.getName())) {
-                currentPlayer.removeFromInventory(artefact);
-                currentLocation.addArtefact(artefact);
-                return "You dropped '" + artefact.getName() + "'.";
+    // Get and drop iterate over distinct artefact names, so piles of identical artefacts aren't scanned one by one
+    private String dropBasicCommand(CommandTokens tokens, GamePlayer currentPlayer, GameWorld gameWorld) {
+        for (String artefactName : currentPlayer.getInventoryNames()) {
+            if (tokens.containsPhrase(artefactName)) {
+                gameWorld.apply(new WorldEvent.ArtefactDropped(currentPlayer.getName(), currentPlayer.getCurrentLocation().getName(), artefactName));
+                return "You dropped '" + artefactName + "'.";
             }
         }
-        return "That isn't in your inventory.";
+        return tokens.fail(CommandFailure.ARTEFACT_NOT_CARRIED);
     }
 
-    private String getBasicCommand(String command, GamePlayer currentPlayer, GameLocation currentLocation) {
-        for (GameArtefact artefact : currentLocation.getPresentArtefacts()) {
-            if (command.contains(artefact.getName())) {
-                currentPlayer.addToInventory(artefact);
-                currentLocation.removeArtefact(artefact);
-                return "You picked up the '" + artefact.getName() + "' and placed it in your inventory.";
+    private String getBasicCommand(CommandTokens tokens, GamePlayer currentPlayer, GameLocation currentLocation, GameWorld gameWorld) {
+        for (String artefactName : currentLocation.getArtefactNames()) {
+            if (tokens.containsPhrase(artefactName)) {
+                gameWorld.apply(new WorldEvent.ArtefactPickedUp(currentPlayer.getName(), currentLocation.getName(), artefactName));
+                return "You picked up the '" + artefactName + "' and placed it in your inventory.";
             }
         }
-        return "That isn't at this location.";
+        return tokens.fail(CommandFailure.ARTEFACT_NOT_HERE);
     }
 
+    // Look is the most common command and a location's contents rarely change between looks,
+    // so the text is kept on the location and only rebuilt once something there has changed
     private static String lookBasicCommand(GameLocation currentLocation) {
+        return currentLocation.render(LOOK_RENDERER);
+    }
+
+    private static String renderLook(GameLocation currentLocation) {
         StringBuilder stb = new StringBuilder();
-        stb.append("You are currently in the ").append(currentLocation.getName()).append(", ").append(currentLocation.getDescription()).append(System.lineSeparator()).append(System.lineSeparator());
+        stb.append("You are currently in the ").append(currentLocation.getName()).append(", ").append(currentLocation.getDescription()).append(LINE_SEPARATOR).append(LINE_SEPARATOR);
         stb.append("These are all the artefacts in your current location:");
         appendEntitiesToLookString(stb, currentLocation.getPresentArtefacts());
 
@@ -197,44 +452,59 @@ public class CommandParser {
 
     private static <T extends GameEntity> void appendEntitiesToLookString(StringBuilder stb, Set<T> entities) {
         for (T entity : entities) {
-            stb.append(System.lineSeparator());
+            stb.append(LINE_SEPARATOR);
             stb.append(entity.getName()).append(": ").append(entity.getDescription());
         }
-        stb.append(System.lineSeparator()).append(System.lineSeparator());
+        stb.append(LINE_SEPARATOR).append(LINE_SEPARATOR);
     }
 
     
-    private GameAction parseAction (String command, GameWorld gameWorld) throws SubjectEntityNotFoundException, ActionTriggerNotFoundException, MultipleActionAvailableException, ExtraneousEntityException {
-        HashMap<String, HashSet<GameAction>> actions = gameWorld.getPossibleActions();
-        String trigger = identifyTriggerInCommand(command, actions);
-        HashSet<GameAction> possibleActionsForThisTrigger = actions.get(trigger);
-        return checkSubjects(command, gameWorld, trigger, possibleActionsForThisTrigger);
+    private Resolution<GameAction> parseAction (CommandTokens tokens, ActionIndex actionIndex) {
+        String trigger = identifyTriggerInCommand(tokens, actionIndex.getTriggerMatcher());
+        if (trigger == null) {
+            return Resolution.failure(CommandFailure.ACTION_TRIGGER_NOT_FOUND);
+        }
+        List<GameAction> possibleActionsForThisTrigger = actionIndex.getActionsForTrigger(trigger);
+        CommandEvents.CheckSubjects event = new CommandEvents.CheckSubjects();
+        event.begin();
+        Resolution<GameAction> resolution = checkSubjects(tokens, actionIndex, trigger, possibleActionsForThisTrigger);
+        if (event.shouldCommit()) {
+            event.player = tokens.playerName();
+            event.trigger = trigger;
+            event.action = CommandEvents.describe(resolution.getValue());
+            event.failure = resolution.isSuccess() ? null : resolution.getFailure().name();
+            event.commit();
+        }
+        return resolution;
     }
 
-    private String identifyTriggerInCommand (String command, HashMap<String, HashSet<GameAction>> triggerMap) throws ActionTriggerNotFoundException {
-        for (String trigger : triggerMap.keySet()) {
-
-            // Check for the trigger in the command string
-            if (command.contains(trigger)) {
-                return trigger;
-            }
+    // Returns null if there is no trigger in the command
+    private String identifyTriggerInCommand (CommandTokens tokens, PhraseMatcher triggerMatcher) {
+        CommandEvents.IdentifyTrigger event = new CommandEvents.IdentifyTrigger();
+        event.begin();
+        // Single pass over the command, the longest trigger wins so 'cut down' is preferred over 'cut'
+        String trigger = triggerMatcher.longestMatch(tokens.getSource(), tokens.getBodyStart(), tokens.getBodyEnd());
+        if (event.shouldCommit()) {
+            event.player = tokens.playerName();
+            event.trigger = trigger;
+            event.commit();
         }
-        throw new ActionTriggerNotFoundException("Couldn't find any action words in your command, please try again.");
+        return trigger;
     }
 
-    private GameAction checkSubjects(String command, GameWorld gameWorld, String trigger, HashSet<GameAction> actions) throws ExtraneousEntityException, SubjectEntityNotFoundException, MultipleActionAvailableException {
+    private Resolution<GameAction> checkSubjects(CommandTokens tokens, ActionIndex actionIndex, String trigger, List<GameAction> actions) {
         GameAction currentAction = null;
-        Set<String> presentSubjectEntities = identifySubjectEntitiesInCommand(command, gameWorld);
+        long[] presentSubjectEntities = identifySubjectEntitiesInCommand(tokens, actionIndex);
         // Integer for storing the number of possible actions with the trigger and subjects in command string
         int possibleActions = 0;
         for (GameAction action : actions) {
-            Set<String> subjectSet = action.getSubjects();
+            long[] subjectBits = action.getSubjectBits();
             boolean validAction = false;
-            for (String subject : subjectSet) {
-                if (presentSubjectEntities.contains(subject)) {
+            for (int word = 0; word < subjectBits.length && word < presentSubjectEntities.length; word++) {
+                if ((presentSubjectEntities[word] & subjectBits[word]) != 0) {
                     validAction = true;
                     currentAction = action;
-                    presentSubjectEntities.remove(subject);
+                    presentSubjectEntities[word] &= ~subjectBits[word];
                 }
             }
             if (validAction) {
@@ -244,135 +514,150 @@ public class CommandParser {
         // Correct subject entities are removed from presentSubjectEntities if found
         // If any are left over, then it means the user has given an extra subject entity for a different action
         // Or that they've given the wrong subject entity
-        if (presentSubjectEntities.size() > 0) {
-            throw new ExtraneousEntityException("You tried to perform the action using the incorrect object, please try again.");
+        for (long word : presentSubjectEntities) {
+            if (word != 0) {
+                return Resolution.failure(CommandFailure.EXTRANEOUS_ENTITY);
+            }
         }
         // possibleActions incremented if a matching action is found for the given trigger
         if (possibleActions == 0) {
-            throw new SubjectEntityNotFoundException("Couldn't find any matching subject entities in your command, please try again.");
+            return Resolution.failure(CommandFailure.SUBJECT_ENTITY_NOT_FOUND);
         } else if (possibleActions == 1) {
-            return currentAction;
+            return Resolution.of(currentAction);
         } else {
-            throw new MultipleActionAvailableException("There are multiple '" + trigger + "' actions available to you, which would you like to perform?");
+            return actionIndex.getAmbiguousTriggerFailure(trigger);
         }
     }
 
-    private HashSet<String> identifySubjectEntitiesInCommand (String command, GameWorld gameWorld) {
-        HashSet<String> allSubjectEntities = new HashSet<>();
-        HashMap<String, HashSet<GameAction>> actions = gameWorld.getPossibleActions();
-
-        // Collect all the possible subject entities for every action, so they can be identified in the command String
-        // This is to deal with extraneous entities from other actions in a command
-        actions.values().forEach(possibleActionsForThisTrigger -> {
-            for (GameAction action : possibleActionsForThisTrigger) {
-                allSubjectEntities.addAll(action.getSubjects());
-            }
-        });
-
-        HashSet<String> presentSubjectEntities = new HashSet<>();
-        String[] commandArray = command.split(" ");
-        for (String commandElement : commandArray) {
-            if (allSubjectEntities.contains(commandElement)) {
-                presentSubjectEntities.add(commandElement);
-            }
-        }
+    // Returns a bitset of the EntityIds of the subjects named in the command
+    private long[] identifySubjectEntitiesInCommand (CommandTokens tokens, ActionIndex actionIndex) {
+        // The vocabulary holds every subject of every action, so extraneous entities from other actions are picked up too
+        // It is compiled at load time, so this is a single pass over the command
+        long[] presentSubjectEntities = new long[actionIndex.getSubjectWords()];
+        actionIndex.getSubjectMatcher().collectMatchBits(tokens.getSource(), tokens.getBodyStart(), tokens.getBodyEnd(), actionIndex.getSubjectIds(), presentSubjectEntities);
         return presentSubjectEntities;
     }
 
-    private String performAction (GamePlayer currentPlayer, GameAction gameAction, GameWorld gameWorld) {
-        GameLocation currentLocation = currentPlayer.getCurrentLocation();
-        GameLocation storeRoom = gameWorld.getLocation("storeroom");
-        int numberOfSubjectEntities = gameAction.getSubjects().size();
-        int subjectsPresent = 0;
-
-        // Count the number of each entity needed for the current action that are present in the current location
-        for (String subject : gameAction.getSubjects()) {
-            subjectsPresent += currentLocation.getPresentArtefacts()
-
-                    // Create a stream of entities
-                    .stream()
-
-                    // Filter to keep only entities with name the same as the current subject
-                    .filter(a -> a.getName().equals(subject))
-
-                    // Count the number of entities that make it through the filter
-                    .count();
-                    // This is added to subjectsPresent
-
-            subjectsPresent += currentLocation.getPresentCharacters()
-                    .stream()
-                    .filter(c -> c.getName().equals(subject))
-                    .count();
-            subjectsPresent += currentLocation.getPresentFurniture()
-                    .stream()
-                    .filter(f -> f.getName().equals(subject))
-                    .count();
-            subjectsPresent += currentPlayer.getInventory()
-                    .stream()
-                    .filter(a -> a.getName().equals(subject))
-                    .count();
+    private String performAction (CommandTokens tokens, GamePlayer currentPlayer, GameAction gameAction, GameWorld gameWorld) {
+        CommandEvents.PerformAction event = new CommandEvents.PerformAction();
+        event.begin();
+        boolean available = subjectsAvailable(currentPlayer, gameAction);
+        if (available) {
+            consumeAndProduce(currentPlayer, gameAction, gameWorld);
         }
-
-        if (subjectsPresent != numberOfSubjectEntities) {
-            return "You cannot perform this action as you do not have everything that you need available to you at this time.";
+        if (event.shouldCommit()) {
+            event.player = currentPlayer.getName();
+            event.action = CommandEvents.describe(gameAction);
+            event.performed = available;
+            event.commit();
+        }
+        if (!available) {
+            return tokens.fail(CommandFailure.SUBJECTS_NOT_AVAILABLE);
         }
-
-        consumeEntities(currentPlayer, gameAction, currentLocation, storeRoom);
-
-        produceEntities(gameAction, gameWorld, currentLocation, storeRoom, currentPlayer);
-
         return gameAction.getNarration();
     }
 
-    private static void consumeEntities(GamePlayer gamePlayer, GameAction gameAction, GameLocation currentLocation, GameLocation storeRoom) {
-        gameAction.getConsumed().forEach(consumed -> {
-            handleEntity(gamePlayer.getInventory(), consumed, storeRoom::addArtefact, gamePlayer::removeFromInventory);
-            handleEntity(currentLocation.getPresentCharacters(), consumed, storeRoom::addCharacter, currentLocation::removeCharacter);
-            handleEntity(currentLocation.getPresentFurniture(), consumed, storeRoom::addFurniture, currentLocation::removeFurniture);
-            handleEntity(currentLocation.getAdjacentLocations(), consumed, currentLocation::removeAdjacentLocation);
-            if (consumed.equals("health")) {
-                gamePlayer.removeHealth();
+    // Every subject has to be somewhere in the location or in the player's inventory
+    // The location and inventory keep bitsets of the names they hold, so this is a few ANDs per word of the action's subjects
+    private static boolean subjectsAvailable (GamePlayer currentPlayer, GameAction gameAction) {
+        GameLocation currentLocation = currentPlayer.getCurrentLocation();
+        EntityIds ids = gameAction.getSubjectIds();
+        long[] subjectBits = gameAction.getSubjectBits();
+        for (int word = 0; word < subjectBits.length; word++) {
+            long available = currentLocation.presenceWord(ids, word) | currentPlayer.inventoryPresenceWord(ids, word);
+            if ((subjectBits[word] & ~available) != 0) {
+                return false;
             }
-        });
+        }
+        return true;
     }
 
+    // Everything is consumed before anything is produced
+    private static void consumeAndProduce (GamePlayer currentPlayer, GameAction gameAction, GameWorld gameWorld) {
+        CommandEvents.ConsumeEntities consumeEvent = new CommandEvents.ConsumeEntities();
+        consumeEvent.begin();
+        for (String consumed : gameAction.getConsumed()) {
+            consume(currentPlayer, consumed, gameWorld);
+        }
+        if (consumeEvent.shouldCommit()) {
+            consumeEvent.player = currentPlayer.getName();
+            consumeEvent.action = CommandEvents.describe(gameAction);
+            consumeEvent.entities = CommandEvents.describe(gameAction.getConsumed());
+            consumeEvent.commit();
+        }
 
-    private static void produceEntities(GameAction gameAction, GameWorld gameWorld, GameLocation currentLocation, GameLocation storeRoom, GamePlayer currentPlayer) {
-        gameAction.getProduced().forEach(produced -> {
-            handleEntity(storeRoom.getPresentArtefacts(), produced, currentLocation::addArtefact, storeRoom::removeArtefact);
-            handleEntity(storeRoom.getPresentCharacters(), produced, currentLocation::addCharacter, storeRoom::removeCharacter);
-            handleEntity(storeRoom.getPresentFurniture(), produced, currentLocation::addFurniture, storeRoom::removeFurniture);
-            handleEntity(gameWorld.getGameLocations(), produced, currentLocation::addAdjacentLocation);
-            if (produced.equals("health")) {
-                if (currentPlayer.getHealth() < 3) {
-                    currentPlayer.addHealth();
-                }
-            }
-        });
+        CommandEvents.ProduceEntities produceEvent = new CommandEvents.ProduceEntities();
+        produceEvent.begin();
+        for (String produced : gameAction.getProduced()) {
+            produce(currentPlayer, produced, gameWorld);
+        }
+        if (produceEvent.shouldCommit()) {
+            produceEvent.player = currentPlayer.getName();
+            produceEvent.action = CommandEvents.describe(gameAction);
+            produceEvent.entities = CommandEvents.describe(gameAction.getProduced());
+            produceEvent.commit();
+        }
     }
 
-    private static <T extends GameEntity> void handleEntity(Set<T> entities, String consumedOrProduced, Consumer<T> addEntity, Consumer<T> removeEntity) {
-        entities.stream()
-
-                // Filter inventory to get artefact for consumption
-                .filter(entity -> consumedOrProduced.equals(entity.getName()))
+    // Works out what consuming the named thing amounts to, raising an event only for what actually changes
+    // A name can stand for entities, a path to a location, or the player's health
+    private static void consume (GamePlayer currentPlayer, String consumed, GameWorld gameWorld) {
+        GameLocation currentLocation = currentPlayer.getCurrentLocation();
+        String playerName = currentPlayer.getName();
+        if (currentPlayer.countInInventory(consumed) > 0 || currentLocation.countCharacters(consumed) > 0 || currentLocation.countFurniture(consumed) > 0) {
+            gameWorld.apply(new WorldEvent.EntityConsumed(playerName, currentLocation.getName(), consumed));
+        }
+        GameLocation path = gameWorld.getLocation(consumed);
+        if (path != null && currentLocation.getAdjacentLocations().contains(path)) {
+            gameWorld.apply(new WorldEvent.PathClosed(playerName, currentLocation.getName(), consumed));
+        }
+        if (consumed.equals("health")) {
+            gameWorld.apply(new WorldEvent.HealthChanged(playerName, currentLocation.getName(), currentPlayer.getHealth() - 1));
+        }
+    }
 
-                // Find the first matching artefact
-                .findFirst()
+    private static void produce (GamePlayer currentPlayer, String produced, GameWorld gameWorld) {
+        GameLocation currentLocation = currentPlayer.getCurrentLocation();
+        GameLocation storeRoom = gameWorld.getStoreRoom();
+        String playerName = currentPlayer.getName();
+        if (storeRoom.countArtefacts(produced) > 0 || storeRoom.countCharacters(produced) > 0 || storeRoom.countFurniture(produced) > 0) {
+            gameWorld.apply(new WorldEvent.EntityProduced(playerName, currentLocation.getName(), produced));
+        }
+        GameLocation path = gameWorld.getLocation(produced);
+        if (path != null && !currentLocation.getAdjacentLocations().contains(path)) {
+            gameWorld.apply(new WorldEvent.PathOpened(playerName, currentLocation.getName(), produced));
+        }
+        if (produced.equals("health") && currentPlayer.getHealth() < 3) {
+            gameWorld.apply(new WorldEvent.HealthChanged(playerName, currentLocation.getName(), currentPlayer.getHealth() + 1));
+        }
+    }
 
-                // If a match is found, act accordingly for whichever entity type
-                .ifPresent(entity -> {
-                    removeEntity.accept(entity);
-                    addEntity.accept(entity);
-                });
+    // What a command was resolved to before anything was locked, so that its words are only matched once
+    private static final class CommandPlan {
+        // Null if the command isn't a basic one, in which case the action it names is resolved instead
+        private final CommandKind basicCommand;
+        private final Resolution<GameAction> action;
+        // Where a travel command is going, null if it names nowhere
+        private final GameLocation destination;
+
+        private CommandPlan(CommandKind basicCommand, Resolution<GameAction> action, GameLocation destination) {
+            this.basicCommand = basicCommand;
+            this.action = action;
+            this.destination = destination;
+        }
     }
 
-    // Same but just for location as only one action needs to be taken
-    private static <T extends GameEntity> void handleEntity(Set<T> entities, String consumed, Consumer<T> addOrRemoveLocation) {
-        entities.stream()
-                .filter(entity -> consumed.equals(entity.getName()))
-                .findFirst()
-                .ifPresent(addOrRemoveLocation);
+    // Remembers the last player resolved in a batch
+    private static final class BatchContext {
+        private GamePlayer player;
+
+        private GamePlayer previousPlayer(CommandTokens tokens) {
+            return player != null && tokens.playerNameEquals(player.getName()) ? player : null;
+        }
+
+        private void remember(GamePlayer currentPlayer) {
+            player = currentPlayer;
+        }
     }
 
 }
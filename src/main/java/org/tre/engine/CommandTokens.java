@@ -0,0 +1,129 @@
+package org.tre.engine;
+
+import java.util.Arrays;
+
+// Single-pass tokenizer for 'player: command' lines
+// The player name and where each word of the command starts are kept as offsets into the original string, so nothing is copied
+// Words are runs of letters and digits, and every comparison against them ignores case
+// An instance is reused from one command to the next, so it isn't safe to share between threads
+public final class CommandTokens {
+    private String source = "";
+    private int playerStart;
+    private int playerEnd;
+    private int bodyStart;
+    private int[] wordStarts = new int[16];
+    private int wordCount;
+    // What the command turned out to be, set by the parser as it runs so the command can be timed by kind
+    private CommandKind kind;
+    // Why the command failed, or null if it didn't, which for a command that was understood isn't part of its kind
+    private CommandFailure failure;
+
+    // Returns false if the command has no player name before a colon
+    public boolean tokenize(String command) {
+        source = command;
+        wordCount = 0;
+        kind = CommandKind.PLAYER_NOT_FOUND;
+        failure = CommandFailure.PLAYER_NOT_FOUND;
+
+        int colonIndex = command.indexOf(':');
+        if (colonIndex == -1) {
+            return false;
+        }
+        // Trim the player name the same way String.trim would
+        playerStart = 0;
+        playerEnd = colonIndex;
+        while (playerStart < playerEnd && command.charAt(playerStart) <= ' ') {
+            playerStart++;
+        }
+        while (playerEnd > playerStart && command.charAt(playerEnd - 1) <= ' ') {
+            playerEnd--;
+        }
+        bodyStart = colonIndex + 1;
+
+        int length = command.length();
+        int i = bodyStart;
+        while (i < length) {
+            while (i < length && !isWordChar(command.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            int start = i;
+            while (i < length && isWordChar(command.charAt(i))) {
+                i++;
+            }
+            addWord(start);
+        }
+        return playerStart < playerEnd;
+    }
+
+    CommandKind getKind() {
+        return kind;
+    }
+
+    void setKind(CommandKind kind) {
+        this.kind = kind;
+        failure = kind.getFailure();
+    }
+
+    CommandFailure getFailure() {
+        return failure;
+    }
+
+    // Keeps the kind, as a command that was understood but couldn't be carried out is still that kind of command
+    // Returns the failure's message, for the parser to answer with
+    String fail(CommandFailure failure) {
+        this.failure = failure;
+        return failure.getMessage();
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public int getBodyStart() {
+        return bodyStart;
+    }
+
+    public int getBodyEnd() {
+        return source.length();
+    }
+
+    public boolean playerNameEquals(String name) {
+        return name.length() == playerEnd - playerStart && source.startsWith(name, playerStart);
+    }
+
+    // The only copy made, needed as the key for the player registry
+    public String playerName() {
+        return source.substring(playerStart, playerEnd);
+    }
+
+    // Whether the phrase appears in the command starting and ending on word boundaries
+    // Names holding spaces or punctuation, such as 'log cabin' or 'old_key', are matched too
+    public boolean containsPhrase(String phrase) {
+        int length = phrase.length();
+        int end = source.length();
+        for (int i = 0; i < wordCount; i++) {
+            int start = wordStarts[i];
+            if (start + length <= end
+                    && source.regionMatches(true, start, phrase, 0, length)
+                    && (start + length == end || !isWordChar(source.charAt(start + length)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addWord(int start) {
+        if (wordCount == wordStarts.length) {
+            wordStarts = Arrays.copyOf(wordStarts, wordCount * 2);
+        }
+        wordStarts[wordCount] = start;
+        wordCount++;
+    }
+
+    static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c);
+    }
+}
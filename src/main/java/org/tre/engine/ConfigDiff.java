@@ -0,0 +1,295 @@
+package org.tre.engine;
+
+import org.tre.objects.GameArtefact;
+import org.tre.objects.GameCharacter;
+import org.tre.objects.GameEntity;
+import org.tre.objects.GameFurniture;
+import org.tre.objects.GameLocation;
+import org.tre.objects.GamePlayer;
+
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+// What changed between two versions of an entities file, applied to a running world without touching anything else
+// Entities are counted by name and description, so only the difference is applied: if a new coin was added to the cabin
+// one coin is added to the live cabin, whatever players have done with the coins that were there before
+// Exits are diffed the same way, by the names of the locations they lead to
+final class ConfigDiff {
+    private final List<GameLocation> addedLocations = new ArrayList<>();
+    private final List<String> removedLocations = new ArrayList<>();
+    private final List<LocationChange> changedLocations = new ArrayList<>();
+    private final Map<String, Set<String>> addedExits = new HashMap<>();
+    private final Map<String, Set<String>> removedExits = new HashMap<>();
+
+    private ConfigDiff() {
+    }
+
+    static ConfigDiff between(Collection<GameLocation> before, Collection<GameLocation> after) {
+        ConfigDiff diff = new ConfigDiff();
+        Map<String, GameLocation> beforeByName = byName(before);
+        Map<String, GameLocation> afterByName = byName(after);
+
+        for (GameLocation location : before) {
+            if (!afterByName.containsKey(location.getName())) {
+                diff.removedLocations.add(location.getName());
+            }
+        }
+        for (GameLocation location : after) {
+            GameLocation previous = beforeByName.get(location.getName());
+            if (previous == null) {
+                diff.addedLocations.add(location);
+            } else {
+                LocationChange change = new LocationChange(previous, location);
+                if (!change.isEmpty()) {
+                    diff.changedLocations.add(change);
+                }
+            }
+
+            Set<String> previousExits = previous == null ? Set.of() : exitNames(previous);
+            Set<String> exits = exitNames(location);
+            Set<String> added = new HashSet<>(exits);
+            added.removeAll(previousExits);
+            Set<String> removed = new HashSet<>(previousExits);
+            removed.removeAll(exits);
+            if (!added.isEmpty()) {
+                diff.addedExits.put(location.getName(), added);
+            }
+            if (!removed.isEmpty()) {
+                diff.removedExits.put(location.getName(), removed);
+            }
+        }
+        return diff;
+    }
+
+    boolean isEmpty() {
+        return addedLocations.isEmpty() && removedLocations.isEmpty() && changedLocations.isEmpty() && addedExits.isEmpty() && removedExits.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        int exitChanges = 0;
+        for (Set<String> exits : addedExits.values()) {
+            exitChanges += exits.size();
+        }
+        for (Set<String> exits : removedExits.values()) {
+            exitChanges += exits.size();
+        }
+        return addedLocations.size() + " locations added, " + removedLocations.size() + " removed, "
+                + changedLocations.size() + " changed and " + exitChanges + " paths changed";
+    }
+
+    // Each location is changed while holding its lock, if there are locks, so commands elsewhere carry on meanwhile
+    // The world's location names and routes are rebuilt once for the whole reload, however many locations it adds or removes
+    void applyTo(GameWorld world, LocationLocks locationLocks) {
+        // New locations can't be reached until the exits to them are added below, so they need no lock
+        List<GameLocation> added = new ArrayList<>();
+        for (GameLocation location : addedLocations) {
+            added.add(new GameLocation(location.getName(), location.getDescription(),
+                    copies(location.getPresentCharacters(), GameCharacter::new),
+                    copies(location.getPresentArtefacts(), GameArtefact::new),
+                    copies(location.getPresentFurniture(), GameFurniture::new)));
+        }
+        world.addLocations(added);
+
+        for (LocationChange change : changedLocations) {
+            GameLocation location = world.getLocation(change.name);
+            if (location != null) {
+                locked(locationLocks, List.of(location), () -> change.applyTo(location));
+                if (change.descriptionChanged) {
+                    for (GameLocation neighbour : location.getEntrances()) {
+                        neighbour.exitDescriptionChanged();
+                    }
+                }
+            }
+        }
+
+        for (String name : union(addedExits.keySet(), removedExits.keySet())) {
+            GameLocation location = world.getLocation(name);
+            if (location == null) {
+                continue;
+            }
+            locked(locationLocks, List.of(location), () -> {
+                for (String exit : removedExits.getOrDefault(name, Set.of())) {
+                    GameLocation destination = world.getLocation(exit);
+                    if (destination != null) {
+                        location.removeAdjacentLocation(destination);
+                        world.getRoutes().pathClosed(location, destination);
+                    }
+                }
+                for (String exit : addedExits.getOrDefault(name, Set.of())) {
+                    GameLocation destination = world.getLocation(exit);
+                    if (destination != null) {
+                        location.addAdjacentLocation(destination);
+                        world.getRoutes().pathOpened(location, destination);
+                    }
+                }
+            });
+        }
+
+        List<GameLocation> removed = new ArrayList<>();
+        for (String name : removedLocations) {
+            GameLocation location = world.getLocation(name);
+            if (location == null) {
+                continue;
+            }
+            if (location == world.getStartingLocation() || location == world.getStoreRoom()) {
+                System.out.println("Kept the '" + name + "' location, the starting location and storeroom can't be removed while the game is running.");
+                continue;
+            }
+            removed.add(location);
+        }
+        // Taken out of the index first, so no action can open a new path to them
+        world.removeLocations(removed);
+        for (GameLocation location : removed) {
+            // Includes paths that actions have opened since the world was loaded
+            for (GameLocation other : new ArrayList<>(location.getEntrances())) {
+                locked(locationLocks, List.of(other), () -> {
+                    other.removeAdjacentLocation(location);
+                    world.getRoutes().pathClosed(other, location);
+                });
+            }
+            // Nobody can walk in now, so anyone still there is sent back to the start
+            // Its own exits go too, so the locations they led to stop counting it as an entrance
+            GameLocation start = world.getStartingLocation();
+            locked(locationLocks, List.of(location, start), () -> {
+                for (GameLocation exit : new ArrayList<>(location.getAdjacentLocations())) {
+                    location.removeAdjacentLocation(exit);
+                }
+                for (GamePlayer player : new ArrayList<>(location.getPresentPlayers())) {
+                    player.setCurrentLocation(start);
+                    location.removePlayer(player);
+                    start.addPlayer(player);
+                }
+            });
+        }
+
+        if (!added.isEmpty() || !removed.isEmpty()) {
+            world.locationsChanged();
+        }
+    }
+
+    private static void locked(LocationLocks locationLocks, List<GameLocation> locations, Runnable change) {
+        if (locationLocks == null) {
+            change.run();
+            return;
+        }
+        LocationLocks.Held held = locationLocks.lock(locations);
+        try {
+            change.run();
+        } finally {
+            held.close();
+        }
+    }
+
+    private static Map<String, GameLocation> byName(Collection<GameLocation> locations) {
+        Map<String, GameLocation> byName = new HashMap<>();
+        for (GameLocation location : locations) {
+            byName.put(location.getName(), location);
+        }
+        return byName;
+    }
+
+    private static Set<String> exitNames(GameLocation location) {
+        Set<String> names = new HashSet<>();
+        for (GameLocation exit : location.getAdjacentLocations()) {
+            names.add(exit.getName());
+        }
+        return names;
+    }
+
+    private static Set<String> union(Set<String> first, Set<String> second) {
+        Set<String> union = new TreeSet<>(first);
+        union.addAll(second);
+        return union;
+    }
+
+    private static <T extends GameEntity> Set<T> copies(Set<T> entities, BiFunction<String, String, T> create) {
+        Set<T> copies = new HashSet<>();
+        for (T entity : entities) {
+            copies.add(create.apply(entity.getName(), entity.getDescription()));
+        }
+        return copies;
+    }
+
+    private static final class LocationChange {
+        private final String name;
+        private final boolean descriptionChanged;
+        private final String description;
+        private final EntityChanges<GameCharacter> characters;
+        private final EntityChanges<GameArtefact> artefacts;
+        private final EntityChanges<GameFurniture> furniture;
+
+        private LocationChange(GameLocation before, GameLocation after) {
+            name = after.getName();
+            descriptionChanged = !Objects.equals(before.getDescription(), after.getDescription());
+            description = after.getDescription();
+            characters = new EntityChanges<>(before.getPresentCharacters(), after.getPresentCharacters(), GameCharacter::new);
+            artefacts = new EntityChanges<>(before.getPresentArtefacts(), after.getPresentArtefacts(), GameArtefact::new);
+            furniture = new EntityChanges<>(before.getPresentFurniture(), after.getPresentFurniture(), GameFurniture::new);
+        }
+
+        private boolean isEmpty() {
+            return !descriptionChanged && characters.isEmpty() && artefacts.isEmpty() && furniture.isEmpty();
+        }
+
+        private void applyTo(GameLocation location) {
+            if (descriptionChanged) {
+                location.setDescription(description);
+            }
+            characters.applyTo(location.getPresentCharacters(), location::removeCharacter, location::addCharacter);
+            artefacts.applyTo(location.getPresentArtefacts(), location::removeArtefact, location::addArtefact);
+            furniture.applyTo(location.getPresentFurniture(), location::removeFurniture, location::addFurniture);
+        }
+    }
+
+    // Entities of one kind in one location, counted by name and description
+    private static final class EntityChanges<T extends GameEntity> {
+        private final Map<List<String>, Integer> changes = new HashMap<>();
+        private final BiFunction<String, String, T> create;
+
+        private EntityChanges(Set<T> before, Set<T> after, BiFunction<String, String, T> create) {
+            this.create = create;
+            for (T entity : after) {
+                changes.merge(key(entity), 1, Integer::sum);
+            }
+            for (T entity : before) {
+                changes.merge(key(entity), -1, Integer::sum);
+            }
+            changes.values().removeIf(count -> count == 0);
+        }
+
+        private boolean isEmpty() {
+            return changes.isEmpty();
+        }
+
+        private void applyTo(Set<T> present, Consumer<T> remove, Consumer<T> add) {
+            changes.forEach((key, count) -> {
+                for (int i = 0; i < count; i++) {
+                    add.accept(create.apply(key.get(0), key.get(1)));
+                }
+                // Entities players have already taken away are left alone
+                for (int i = 0; i > count; i--) {
+                    T entity = find(present, key);
+                    if (entity == null) {
+                        break;
+                    }
+                    remove.accept(entity);
+                }
+            });
+        }
+
+        private T find(Set<T> present, List<String> key) {
+            for (T entity : present) {
+                if (key.equals(key(entity))) {
+                    return entity;
+                }
+            }
+            return null;
+        }
+
+        private static List<String> key(GameEntity entity) {
+            return Arrays.asList(entity.getName(), entity.getDescription());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.tre.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Reloads an engine's config files whenever either of them changes, on a thread of its own
+// so that parsing them never holds up commands
+public final class ConfigWatcher implements Closeable {
+    // Editors often save a file in several writes, so a reload waits until the files have been quiet for this long
+    private static final long QUIET_MILLIS = 200;
+
+    private final GameEngine engine;
+    private final Set<Path> watchedFiles = new HashSet<>();
+    private final WatchService watchService;
+    private final Thread thread;
+
+    ConfigWatcher(GameEngine engine, File entitiesFile, File actionsFile) throws IOException {
+        this.engine = engine;
+        Path entitiesPath = entitiesFile.toPath().toAbsolutePath();
+        Path actionsPath = actionsFile.toPath().toAbsolutePath();
+        watchedFiles.add(entitiesPath);
+        watchedFiles.add(actionsPath);
+
+        // Directories are watched rather than the files, so that files replaced by a rename are noticed too
+        watchService = entitiesPath.getFileSystem().newWatchService();
+        for (Path directory : new HashSet<>(List.of(entitiesPath.getParent(), actionsPath.getParent()))) {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        thread = new Thread(this::run, "config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                if (!isRelevant(watchService.take())) {
+                    continue;
+                }
+                // Wait for the writes to stop, then reload once for all of them
+                WatchKey key;
+                while ((key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    isRelevant(key);
+                }
+                // A reload that fails in some unexpected way is reported, and the next change to the files is still picked up
+                try {
+                    engine.reloadConfig();
+                } catch (RuntimeException e) {
+                    System.out.println("Kept the current config, reloading it failed: " + e);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    private boolean isRelevant(WatchKey key) {
+        boolean relevant = false;
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                relevant = true;
+            } else if (watchedFiles.contains(directory.resolve((Path) event.context()))) {
+                relevant = true;
+            }
+        }
+        key.reset();
+        return relevant;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.tre.engine;
+
+import com.alexmerz.graphviz.ParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+
+// Streaming lexer for the subset of the DOT language used by entities files
+// Reads through a fixed buffer, so only the text of the current token is ever held, and tracks line and column for errors
+final class DotLexer {
+    enum Token { ID, LEFT_BRACE, RIGHT_BRACE, LEFT_BRACKET, RIGHT_BRACKET, EQUALS, SEMICOLON, COMMA, EDGE, END }
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int bufferPosition;
+    private int bufferLength;
+
+    private int line = 1;
+    private int column = 1;
+    private int tokenLine;
+    private int tokenColumn;
+
+    private final StringBuilder text = new StringBuilder();
+    private boolean quoted;
+    // One token of lookahead, for telling node statements from edges and assignments
+    private Token pushedBack;
+
+    DotLexer(Reader reader) {
+        this.reader = reader;
+    }
+
+    // The text of the last ID token, without quotes
+    String text() {
+        return text.toString();
+    }
+
+    // Keywords only count when they aren't quoted
+    boolean isKeyword(String keyword) {
+        return !quoted && text.length() == keyword.length() && keyword.equalsIgnoreCase(text.toString());
+    }
+
+    void pushBack(Token token) {
+        pushedBack = token;
+    }
+
+    ParseException error(String message) {
+        return new ParseException(message + " at line " + tokenLine + ", column " + tokenColumn);
+    }
+
+    Token expect(Token expected, String description) throws IOException, ParseException {
+        Token token = next();
+        if (token != expected) {
+            throw error("Expected " + description);
+        }
+        return token;
+    }
+
+    Token next() throws IOException, ParseException {
+        if (pushedBack != null) {
+            Token token = pushedBack;
+            pushedBack = null;
+            return token;
+        }
+
+        skipWhitespaceAndComments();
+        tokenLine = line;
+        tokenColumn = column;
+        int c = read();
+        switch (c) {
+            case -1 -> { return Token.END; }
+            case '{' -> { return Token.LEFT_BRACE; }
+            case '}' -> { return Token.RIGHT_BRACE; }
+            case '[' -> { return Token.LEFT_BRACKET; }
+            case ']' -> { return Token.RIGHT_BRACKET; }
+            case '=' -> { return Token.EQUALS; }
+            case ';' -> { return Token.SEMICOLON; }
+            case ',' -> { return Token.COMMA; }
+            case '"' -> {
+                readQuoted();
+                return Token.ID;
+            }
+            case '-' -> {
+                int following = peek();
+                if (following == '>' || following == '-') {
+                    read();
+                    return Token.EDGE;
+                }
+            }
+            default -> {
+            }
+        }
+
+        if (isIdStart(c) || isNumeralStart(c)) {
+            readUnquoted(c);
+            return Token.ID;
+        }
+        throw error("Unexpected character '" + (char) c + "'");
+    }
+
+    private void readQuoted() throws IOException, ParseException {
+        text.setLength(0);
+        quoted = true;
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw error("Unterminated string");
+            }
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                int escaped = peek();
+                if (escaped == '"') {
+                    c = read();
+                } else if (escaped == '\n') {
+                    // A backslash before a newline continues the string on the next line
+                    read();
+                    continue;
+                }
+            }
+            text.append((char) c);
+        }
+    }
+
+    private void readUnquoted(int first) throws IOException {
+        text.setLength(0);
+        quoted = false;
+        text.append((char) first);
+        boolean numeral = !isIdStart(first);
+        while (true) {
+            int c = peek();
+            if (numeral ? (c >= '0' && c <= '9') || c == '.' : isIdStart(c) || (c >= '0' && c <= '9')) {
+                text.append((char) read());
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void skipWhitespaceAndComments() throws IOException, ParseException {
+        while (true) {
+            int c = peek();
+            if (c == -1) {
+                return;
+            }
+            if (Character.isWhitespace(c)) {
+                read();
+            } else if (c == '#' && column == 1) {
+                skipLine();
+            } else if (c == '/') {
+                read();
+                int following = peek();
+                if (following == '/') {
+                    skipLine();
+                } else if (following == '*') {
+                    read();
+                    skipBlockComment();
+                } else {
+                    throw error("Unexpected character '/'");
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void skipLine() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && c != '\n');
+    }
+
+    private void skipBlockComment() throws IOException, ParseException {
+        int previous = 0;
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw error("Unterminated comment");
+            }
+            if (previous == '*' && c == '/') {
+                return;
+            }
+            previous = c;
+        }
+    }
+
+    private static boolean isIdStart(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c >= 0x80;
+    }
+
+    private static boolean isNumeralStart(int c) {
+        return (c >= '0' && c <= '9') || c == '.' || c == '-';
+    }
+
+    private int peek() throws IOException {
+        if (bufferPosition == bufferLength && !fill()) {
+            return -1;
+        }
+        return buffer[bufferPosition];
+    }
+
+    private int read() throws IOException {
+        if (bufferPosition == bufferLength && !fill()) {
+            return -1;
+        }
+        char c = buffer[bufferPosition++];
+        if (c == '\n') {
+            line++;
+            column = 1;
+        } else {
+            column++;
+        }
+        return c;
+    }
+
+    private boolean fill() throws IOException {
+        bufferLength = reader.read(buffer, 0, buffer.length);
+        bufferPosition = 0;
+        if (bufferLength <= 0) {
+            bufferLength = 0;
+            return false;
+        }
+        return true;
+    }
+}
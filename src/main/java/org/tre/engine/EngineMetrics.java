@@ -0,0 +1,181 @@
+package org.tre.engine;
+
+import org.tre.metrics.LatencyHistogram;
+import org.tre.objects.GameLocation;
+import org.tre.objects.GamePlayer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+// Latency of every command an engine runs, by what kind of command it was, along with how big the world is
+// Latencies are timed from the command being parsed to its response, including any wait for location locks
+// but not the wait for the journal, which WorldStore reports on itself
+// The sizes of the world are only counted when asked for, so keeping them costs commands nothing
+// Each kind of command only gets its histogram once one is run, so engines hosting many small worlds only pay for what they use
+public final class EngineMetrics implements EngineMetricsMBean {
+    private static final LatencyHistogram.Snapshot NO_LATENCIES = new LatencyHistogram().snapshot();
+
+    private final Supplier<GameWorld> world;
+    private final AtomicReferenceArray<LatencyHistogram> latencies = new AtomicReferenceArray<>(CommandKind.values().length);
+    private final List<ObjectName> registeredNames = new ArrayList<>();
+
+    EngineMetrics(Supplier<GameWorld> world) {
+        this.world = world;
+    }
+
+    void record(CommandKind kind, long nanos) {
+        getLatency(kind).record(nanos);
+    }
+
+    public LatencyHistogram getLatency(CommandKind kind) {
+        LatencyHistogram latency = latencies.get(kind.ordinal());
+        if (latency == null) {
+            // Whichever thread gets there first makes the histogram, the others use it
+            latencies.compareAndSet(kind.ordinal(), null, new LatencyHistogram());
+            latency = latencies.get(kind.ordinal());
+        }
+        return latency;
+    }
+
+    // How many kinds of command have a histogram so far
+    public int getHistogramCount() {
+        int histograms = 0;
+        for (int i = 0; i < latencies.length(); i++) {
+            if (latencies.get(i) != null) {
+                histograms++;
+            }
+        }
+        return histograms;
+    }
+
+    @Override
+    public long getCommands() {
+        long commands = 0;
+        for (int i = 0; i < latencies.length(); i++) {
+            LatencyHistogram latency = latencies.get(i);
+            if (latency != null) {
+                commands += latency.getCount();
+            }
+        }
+        return commands;
+    }
+
+    @Override
+    public int getPlayers() {
+        return world.get().getPlayerCount();
+    }
+
+    @Override
+    public int getLocations() {
+        return world.get().getGameLocations().size();
+    }
+
+    // Characters, artefacts and furniture wherever they are, including the storeroom and inventories
+    // Counted while commands carry on, so under load this is close rather than exact
+    @Override
+    public int getEntities() {
+        GameWorld gameWorld = world.get();
+        int entities = 0;
+        for (GameLocation location : gameWorld.getGameLocations()) {
+            entities += location.getPresentCharacters().size() + location.getPresentArtefacts().size() + location.getPresentFurniture().size();
+        }
+        for (GamePlayer player : gameWorld.getPlayers()) {
+            entities += player.getInventory().size();
+        }
+        return entities;
+    }
+
+    public Snapshot snapshot() {
+        Map<CommandKind, LatencyHistogram.Snapshot> commands = new EnumMap<>(CommandKind.class);
+        for (CommandKind kind : CommandKind.values()) {
+            LatencyHistogram latency = latencies.get(kind.ordinal());
+            commands.put(kind, latency == null ? NO_LATENCIES : latency.snapshot());
+        }
+        return new Snapshot(commands, getPlayers(), getLocations(), getEntities());
+    }
+
+    // Registers 'org.tre:type=Engine,name=<name>' with the world's sizes, and 'org.tre:type=Commands,name=<name>,kind=<kind>'
+    // with the latencies of each kind of command, on the platform MBean server so that JConsole and the like can watch them
+    // Every kind of command gets its histogram here, as the beans have to be there before the commands are
+    public synchronized void registerMBeans(String name) throws JMException {
+        unregisterMBeans();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String quotedName = ObjectName.quote(name);
+        register(server, this, new ObjectName("org.tre:type=Engine,name=" + quotedName));
+        for (CommandKind kind : CommandKind.values()) {
+            register(server, getLatency(kind), new ObjectName("org.tre:type=Commands,name=" + quotedName + ",kind=" + kind.getLabel()));
+        }
+    }
+
+    private void register(MBeanServer server, Object mbean, ObjectName objectName) throws JMException {
+        server.registerMBean(mbean, objectName);
+        registeredNames.add(objectName);
+    }
+
+    public synchronized void unregisterMBeans() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registeredNames) {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        }
+        registeredNames.clear();
+    }
+
+    // The metrics at one moment, for reports and tests
+    public static final class Snapshot {
+        private final Map<CommandKind, LatencyHistogram.Snapshot> commands;
+        private final int players;
+        private final int locations;
+        private final int entities;
+
+        private Snapshot(Map<CommandKind, LatencyHistogram.Snapshot> commands, int players, int locations, int entities) {
+            this.commands = Collections.unmodifiableMap(commands);
+            this.players = players;
+            this.locations = locations;
+            this.entities = entities;
+        }
+
+        public Map<CommandKind, LatencyHistogram.Snapshot> getCommands() {
+            return commands;
+        }
+
+        public LatencyHistogram.Snapshot getLatency(CommandKind kind) {
+            return commands.get(kind);
+        }
+
+        public int getPlayers() {
+            return players;
+        }
+
+        public int getLocations() {
+            return locations;
+        }
+
+        public int getEntities() {
+            return entities;
+        }
+
+        // One line for the world and one per kind of command that has been run
+        @Override
+        public String toString() {
+            StringBuilder stb = new StringBuilder();
+            stb.append("players=").append(players).append(" locations=").append(locations).append(" entities=").append(entities);
+            commands.forEach((kind, latency) -> {
+                if (latency.getCount() > 0) {
+                    stb.append(System.lineSeparator()).append(kind.getLabel()).append(": ").append(latency);
+                }
+            });
+            return stb.toString();
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package org.tre.engine;
+
+// What an engine shows over JMX, alongside a LatencyHistogramMBean per kind of command
+public interface EngineMetricsMBean {
+    long getCommands();
+
+    int getPlayers();
+
+    int getLocations();
+
+    int getEntities();
+}
@@ -1,115 +1,265 @@
 package org.tre.engine;
 
 import java.util.*;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
 
-import com.alexmerz.graphviz.Parser;
 import com.alexmerz.graphviz.ParseException;
-import com.alexmerz.graphviz.objects.Graph;
-import com.alexmerz.graphviz.objects.Node;
-import com.alexmerz.graphviz.objects.Edge;
 import org.tre.objects.GameArtefact;
 import org.tre.objects.GameCharacter;
 import org.tre.objects.GameFurniture;
 import org.tre.objects.GameLocation;
 
+// Builds the world straight from the entities file in a single pass, without building a graph of the whole file first
+// The first subgraph of the file holds a subgraph per location and the second holds the paths between them
+// Each location subgraph starts with the location's own node, followed by subgraphs of characters, artefacts and furniture
 public class EntityParser {
 
     public EntityParser() {}
 
     public Set<GameLocation> parseEntitiesFile(File entitiesFile) throws FileNotFoundException, ParseException {
-        // Create GraphViz parser
-        Parser parser = new Parser();
+        try (Reader reader = new InputStreamReader(new FileInputStream(entitiesFile), StandardCharsets.UTF_8)) {
+            return parseGraph(new DotLexer(reader));
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new ParseException("Couldn't read entities file: " + e.getMessage());
+        }
+    }
 
-        // Parse file
-        FileReader reader = new FileReader(entitiesFile);
-        parser.parse(reader);
+    private Set<GameLocation> parseGraph(DotLexer lexer) throws IOException, ParseException {
+        lexer.expect(DotLexer.Token.ID, "'digraph' or 'graph'");
+        if (lexer.isKeyword("strict")) {
+            lexer.expect(DotLexer.Token.ID, "'digraph' or 'graph'");
+        }
+        if (!lexer.isKeyword("digraph") && !lexer.isKeyword("graph")) {
+            throw lexer.error("Expected 'digraph' or 'graph'");
+        }
+        DotLexer.Token token = lexer.next();
+        if (token == DotLexer.Token.ID) {
+            token = lexer.next();
+        }
+        if (token != DotLexer.Token.LEFT_BRACE) {
+            throw lexer.error("Expected '{'");
+        }
 
-        // Begin parsing
-        Graph wholeDocument = parser.getGraphs().get(0);
-        List<Graph> sections = wholeDocument.getSubgraphs();
+        Map<String, GameLocation> locationMap = new HashMap<>();
+        // Descriptions are often shared by many entities, so every occurrence shares one string
+        Map<String, String> descriptions = new HashMap<>();
+        int[] sections = {0};
+        parseBody(lexer, new GraphBody() {
+            @Override
+            void subgraph(DotLexer lexer, String name) throws IOException, ParseException {
+                switch (sections[0]++) {
+                    case 0 -> parseLocations(lexer, locationMap, descriptions);
+                    case 1 -> parsePaths(lexer, locationMap);
+                    default -> super.subgraph(lexer, name);
+                }
+            }
+        });
+        if (lexer.next() != DotLexer.Token.END) {
+            throw lexer.error("Unexpected content after the end of the graph");
+        }
+        if (sections[0] < 2) {
+            throw new ParseException("Entities file needs a subgraph of locations followed by a subgraph of paths");
+        }
 
-        // Get locations
-        Map<String, GameLocation> locationMap = parseLocations(sections.get(0).getSubgraphs());
+        return new HashSet<>(locationMap.values());
+    }
 
-        // Iterate through all paths in this graph
-        ArrayList<Edge> paths = sections.get(1).getEdges();
+    private void parseLocations(DotLexer lexer, Map<String, GameLocation> locationMap, Map<String, String> descriptions) throws IOException, ParseException {
+        parseBody(lexer, new GraphBody() {
+            @Override
+            void subgraph(DotLexer lexer, String name) throws IOException, ParseException {
+                GameLocation location = parseLocation(lexer, descriptions);
+                // The first location in the file is where players start
+                if (locationMap.isEmpty()) {
+                    location.setStartingLocation(true);
+                }
+                locationMap.put(location.getName(), location);
+            }
+        });
+    }
 
-        for (Edge pathEdge : paths) {
-            // Extract nodes
-            Node fromLocationNode = pathEdge.getSource().getNode();
-            Node toLocationNode = pathEdge.getTarget().getNode();
+    private GameLocation parseLocation(DotLexer lexer, Map<String, String> descriptions) throws IOException, ParseException {
+        String[] locationDetails = new String[2];
+        Set<GameCharacter> gameCharacterList = new HashSet<>();
+        Set<GameArtefact> gameArtefactList = new HashSet<>();
+        Set<GameFurniture> gameFurnitureList = new HashSet<>();
 
-            String fromName = fromLocationNode.getId().getId();
-            String toName = toLocationNode.getId().getId();
+        parseBody(lexer, new GraphBody() {
+            @Override
+            void node(String id, String description) {
+                // Only the first node names the location, as in the example files
+                if (locationDetails[0] == null) {
+                    locationDetails[0] = id;
+                    locationDetails[1] = description;
+                }
+            }
 
-            // Extract locations
-            if (!locationMap.containsKey(fromName)) {
-                throw new ParseException("Invalid location supplied in path");
+            @Override
+            void subgraph(DotLexer lexer, String name) throws IOException, ParseException {
+                GraphBody entities;
+                if ("characters".equals(name)) {
+                    entities = nodesInto((id, description) -> gameCharacterList.add(new GameCharacter(id, share(descriptions, description))));
+                } else if ("artefacts".equals(name)) {
+                    entities = nodesInto((id, description) -> gameArtefactList.add(new GameArtefact(id, share(descriptions, description))));
+                } else if ("furniture".equals(name)) {
+                    entities = nodesInto((id, description) -> gameFurnitureList.add(new GameFurniture(id, share(descriptions, description))));
+                } else {
+                    throw lexer.error("Invalid entity type encountered during parsing.");
+                }
+                parseBody(lexer, entities);
             }
-            GameLocation fromLocation = locationMap.get(fromName);
+        });
 
-            if (!locationMap.containsKey(toName)) {
-                throw new ParseException("Invalid location supplied in path");
+        if (locationDetails[0] == null) {
+            throw lexer.error("Location subgraph has no location node");
+        }
+        return new GameLocation(locationDetails[0], locationDetails[1], gameCharacterList, gameArtefactList, gameFurnitureList);
+    }
+
+    private void parsePaths(DotLexer lexer, Map<String, GameLocation> locationMap) throws IOException, ParseException {
+        parseBody(lexer, new GraphBody() {
+            @Override
+            void edge(DotLexer lexer, String fromName, String toName) throws ParseException {
+                // Extract locations
+                GameLocation fromLocation = locationMap.get(fromName);
+                GameLocation toLocation = locationMap.get(toName);
+                if (fromLocation == null || toLocation == null) {
+                    throw lexer.error("Invalid location supplied in path");
+                }
+                fromLocation.addAdjacentLocation(toLocation);
             }
-            GameLocation toLocation = locationMap.get(toName);
+        });
+    }
 
-            fromLocation.addAdjacentLocation(toLocation);
+    private static GraphBody nodesInto(BiConsumer<String, String> addNode) {
+        return new GraphBody() {
+            @Override
+            void node(String id, String description) {
+                addNode.accept(id, description);
+            }
+        };
+    }
+
+    private static String share(Map<String, String> descriptions, String description) {
+        return description == null ? null : descriptions.computeIfAbsent(description, d -> d);
+    }
 
+    // What to do with each statement in the body of a graph or subgraph
+    // Anything not overridden is read and ignored, such as the layout attributes in the example files
+    private abstract static class GraphBody {
+        // Has to read the subgraph's body, up to and including its closing brace
+        void subgraph(DotLexer lexer, String name) throws IOException, ParseException {
+            parseBody(lexer, new GraphBody() {});
         }
 
-        return new HashSet<>(locationMap.values());
-    }
+        void node(String id, String description) {
+        }
 
-    private Map<String, GameLocation> parseLocations(List<Graph> locations) throws ParseException {
-        Map<String, GameLocation> locationMap = new HashMap<>();
+        void edge(DotLexer lexer, String from, String to) throws ParseException {
+        }
+    }
 
-        // Begin the location parsing
-        for (Graph location : locations) {
-            Node locationDetails = location.getNodes(false).get(0);
-            String locationName = locationDetails.getId().getId();
-            String locationDescription = locationDetails.getAttribute("description");
-
-            List<Graph> entityTypes = location.getSubgraphs();
-            Set<GameCharacter> gameCharacterList = new HashSet<>();
-            Set<GameArtefact> gameArtefactList = new HashSet<>();
-            Set<GameFurniture> gameFurnitureList = new HashSet<>();
-
-            for (Graph entityType : entityTypes) {
-                ArrayList<Node> entities = entityType.getNodes(false);
-
-                switch (entityType.getId().getId()) {
-                    case "characters" -> {
-                        for (Node entity : entities) {
-                            GameCharacter gameCharacter = new GameCharacter(entity.getId().getId(), entity.getAttribute("description"));
-                            gameCharacterList.add(gameCharacter);
-                        }
-                    }
-                    case "artefacts" -> {
-                        for (Node entity : entities) {
-                            GameArtefact gameArtefact = new GameArtefact(entity.getId().getId(), entity.getAttribute("description"));
-                            gameArtefactList.add(gameArtefact);
-                        }
-                    }
-                    case "furniture" -> {
-                        for (Node entity : entities) {
-                            GameFurniture gameFurniture = new GameFurniture(entity.getId().getId(), entity.getAttribute("description"));
-                            gameFurnitureList.add(gameFurniture);
-                        }
-                    }
-                    default -> throw new ParseException("Invalid entity type encountered during parsing.");
+    // Reads statements up to and including the closing brace of the current graph or subgraph, passing each to the body
+    private static void parseBody(DotLexer lexer, GraphBody body) throws IOException, ParseException {
+        while (true) {
+            DotLexer.Token token = lexer.next();
+            switch (token) {
+                case RIGHT_BRACE -> {
+                    return;
                 }
+                case SEMICOLON -> {
+                }
+                case LEFT_BRACE -> body.subgraph(lexer, null);
+                case ID -> parseStatement(lexer, body);
+                case END -> throw lexer.error("Missing '}'");
+                default -> throw lexer.error("Unexpected " + token);
+            }
+        }
+    }
+
+    // Called with the first ID of the statement already read
+    private static void parseStatement(DotLexer lexer, GraphBody body) throws IOException, ParseException {
+        if (lexer.isKeyword("subgraph")) {
+            DotLexer.Token token = lexer.next();
+            String name = null;
+            if (token == DotLexer.Token.ID) {
+                name = lexer.text();
+                token = lexer.next();
+            }
+            if (token != DotLexer.Token.LEFT_BRACE) {
+                throw lexer.error("Expected '{'");
             }
-            GameLocation thisLocation = new GameLocation(locationName, locationDescription, gameCharacterList, gameArtefactList, gameFurnitureList);
-            if (location.equals(locations.get(0))) {
-                thisLocation.setStartingLocation(true);
+            body.subgraph(lexer, name);
+            return;
+        }
+
+        boolean isAttributeStatement = lexer.isKeyword("graph") || lexer.isKeyword("node") || lexer.isKeyword("edge");
+        String id = lexer.text();
+        DotLexer.Token token = lexer.next();
+        if (isAttributeStatement && token == DotLexer.Token.LEFT_BRACKET) {
+            parseAttributes(lexer);
+        } else if (token == DotLexer.Token.EQUALS) {
+            // A graph attribute such as 'splines = ortho'
+            lexer.expect(DotLexer.Token.ID, "an attribute value");
+        } else if (token == DotLexer.Token.EDGE) {
+            String from = id;
+            do {
+                lexer.expect(DotLexer.Token.ID, "a node name after the edge");
+                String to = lexer.text();
+                body.edge(lexer, from, to);
+                from = to;
+                token = lexer.next();
+            } while (token == DotLexer.Token.EDGE);
+            if (token == DotLexer.Token.LEFT_BRACKET) {
+                parseAttributes(lexer);
+            } else {
+                lexer.pushBack(token);
             }
-            locationMap.put(locationName, thisLocation);
+        } else if (token == DotLexer.Token.LEFT_BRACKET) {
+            String description = parseAttributes(lexer);
+            body.node(id, description);
+        } else {
+            lexer.pushBack(token);
+            body.node(id, null);
         }
+    }
 
-        return locationMap;
+    // Reads attribute lists up to and including the closing bracket, returning the description if there is one
+    private static String parseAttributes(DotLexer lexer) throws IOException, ParseException {
+        String description = null;
+        while (true) {
+            DotLexer.Token token = lexer.next();
+            if (token == DotLexer.Token.RIGHT_BRACKET) {
+                // Further attribute lists may follow straight after, as in 'a [x = 1] [y = 2]'
+                token = lexer.next();
+                if (token != DotLexer.Token.LEFT_BRACKET) {
+                    lexer.pushBack(token);
+                    return description;
+                }
+                continue;
+            }
+            if (token == DotLexer.Token.COMMA || token == DotLexer.Token.SEMICOLON) {
+                continue;
+            }
+            if (token != DotLexer.Token.ID) {
+                throw lexer.error("Expected an attribute name");
+            }
+            boolean isDescription = lexer.text().equals("description");
+            lexer.expect(DotLexer.Token.EQUALS, "'=' after the attribute name");
+            lexer.expect(DotLexer.Token.ID, "an attribute value");
+            if (isDescription) {
+                description = lexer.text();
+            }
+        }
     }
 
-}
\ No newline at end of file
+}
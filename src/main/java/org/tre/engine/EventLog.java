@@ -0,0 +1,82 @@
+package org.tre.engine;
+
+import org.tre.persistence.Journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Consumer;
+
+// A recording of everything that happens to a world, kept in a directory as a journal with one record per command
+// Replaying it onto the world as it was when recording started rebuilds the world as it was when recording stopped,
+// so a world freshly loaded from the same config files will do if recording started before any commands were handled
+// Reading it gives every change made to the world without having to parse any commands
+// Records aren't synced, so a recording survives the engine crashing but not necessarily the machine
+public final class EventLog implements WorldEvent.Listener, Closeable {
+    private final GameWorld world;
+    private final Journal journal;
+
+    private EventLog(GameWorld world, Journal journal) {
+        this.world = world;
+        this.journal = journal;
+        world.addEventListener(this);
+    }
+
+    // Prints every event recorded in a directory, one per line
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("Usage: EventLog <directory>");
+            return;
+        }
+        read(Paths.get(args[0]), events -> events.forEach(System.out::println));
+    }
+
+    // The directory must not already hold a recording, as the events wouldn't follow on from it
+    public static EventLog record(GameWorld world, Path directory) throws IOException {
+        Journal journal = Journal.open(directory, 0, (sequence, record) -> {
+            throw new IOException(directory + " already holds a recording of events.");
+        }, false);
+        return new EventLog(world, journal);
+    }
+
+    // Hands the events of each command to the handler, in the order they were applied
+    public static void read(Path directory, Consumer<List<WorldEvent>> handler) throws IOException {
+        Journal.read(directory, (sequence, record) -> {
+            try {
+                handler.accept(WorldEvents.decode(record));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Event record " + sequence + " in " + directory + " can't be read: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    // Applies every recorded event to the world, returning how many there were
+    // Throws IOException if the events don't fit the world, such as when it isn't the world the recording started from
+    public static long replay(Path directory, GameWorld world) throws IOException {
+        long[] count = {0};
+        Journal.read(directory, (sequence, record) -> {
+            try {
+                List<WorldEvent> events = WorldEvents.decode(record);
+                WorldEvents.replay(world, events);
+                count[0] += events.size();
+            } catch (RuntimeException e) {
+                throw new IOException("Event record " + sequence + " in " + directory + " doesn't apply to this world: " + e.getMessage(), e);
+            }
+        });
+        return count[0];
+    }
+
+    @Override
+    public void onEvents(List<WorldEvent> events) {
+        journal.append(WorldEvents.encode(events));
+    }
+
+    // Writes out every event recorded so far
+    @Override
+    public void close() throws IOException {
+        world.removeEventListener(this);
+        journal.close();
+    }
+}
@@ -1,5 +1,7 @@
 package org.tre.engine;
 
+import org.tre.objects.EntityIds;
+
 import java.util.Set;
 
 public class GameAction
@@ -8,6 +10,10 @@ public class GameAction
     private final Set<String> consumed;
     private final Set<String> produced;
     private final String narration;
+    // The subjects as a bitset of the EntityIds of the ActionIndex holding the action, so commands can check for them a word at a time
+    // Set once, when the action is compiled into its ActionIndex
+    private EntityIds subjectIds;
+    private long[] subjectBits;
 
     // Constructor for Action class
     public GameAction(Set<String> subjects, Set<String> consumed, Set<String> produced, String narration) {
@@ -17,9 +23,20 @@ public class GameAction
         this.narration = narration;
     }
 
+    // An action is only ever compiled into one ActionIndex, as its bits are laid out by that index's EntityIds
+    void bindSubjects(EntityIds ids) {
+        if (subjectIds != null && subjectIds != ids) {
+            throw new IllegalStateException("The action is already in another ActionIndex.");
+        }
+        subjectIds = ids;
+        subjectBits = ids.bitsOf(subjects);
+    }
+
     public Set<String> getSubjects() { return subjects; }
     public Set<String> getConsumed() { return consumed; }
     public Set<String> getProduced() { return produced; }
     public String getNarration() { return narration; }
+    EntityIds getSubjectIds() { return subjectIds; }
+    long[] getSubjectBits() { return subjectBits; }
 
 }
@@ -2,25 +2,160 @@ package org.tre.engine;
 
 import com.alexmerz.graphviz.ParseException;
 import org.tre.objects.GameLocation;
+import org.tre.server.CommandHandler;
+import org.tre.server.GameServer;
+import org.tre.server.StatusHandler;
+import org.tre.shard.ShardHandler;
+import org.tre.shard.ShardMap;
 
+import javax.management.JMException;
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
-public class GameEngine {
+public class GameEngine implements CommandHandler, Closeable {
+
+  // Enough stripes that unrelated locations rarely share a lock
+  public static final int DEFAULT_LOCK_STRIPES = 256;
+  private static final int SHARD_BUFFER_SIZE = 65536;
 
   GameWorld gameWorld;
+  // Only set when the engine accepts commands from several threads at once
+  private LocationLocks locationLocks;
+  // Parsers hold no per-command state, so one is shared by every call
+  private CommandParser commandParser;
+  // Every command is timed, reading the world through the field as persisting can replace it
+  private final EngineMetrics metrics = new EngineMetrics(() -> gameWorld);
+  // Only set when the world is kept on disk between runs
+  private WorldStore worldStore;
+  // Only set while the world's events are being recorded
+  private EventLog eventLog;
+  // The config files the world was loaded from, if known
+  private File entitiesFile;
+  private File actionsFile;
+  // The entities file as it was last loaded, which the next reload is compared against
+  private Set<GameLocation> loadedLocations;
+  private ConfigWatcher configWatcher;
+  // Without location locks a reload can't safely change the world while a command runs,
+  // so it waits here for the next command to apply it first
+  private final AtomicReference<Runnable> pendingReload = new AtomicReference<>();
 
   public static void main(String[] args) throws IOException {
+    // With '--port <number>' players connect over loopback instead of typing commands here
+    // With '--data <directory>' the world is kept in that directory and picks up where it left off next time
+    // With '--watch' changes to the config files are picked up while the game runs
+    // With '--shard <index>/<count>' this process runs one shard of the world for a ShardRouter, on the given port
+    // With '--record <directory>' every change to the world is recorded there as events, which EventLog can replay or print
+    // With '--status' each response sent to a connection starts with a status line saying whether the command failed, see StatusHandler
+    String port = null;
+    String shard = null;
+    String data = null;
+    String record = null;
+    boolean watch = false;
+    boolean status = false;
+    // Checked before the config files are asked for, so a misspelt flag stops here rather than starting a game without it
+    for (int i = 0; i < args.length; i++) {
+      String flag = args[i];
+      if (flag.equals("--watch")) {
+        watch = true;
+        continue;
+      }
+      if (flag.equals("--status")) {
+        status = true;
+        continue;
+      }
+      String value = i + 1 < args.length ? args[++i] : null;
+      switch (value == null ? "" : flag) {
+        case "--port" -> port = value;
+        case "--shard" -> shard = value;
+        case "--data" -> data = value;
+        case "--record" -> record = value;
+        default -> {
+          System.out.println("Usage: GameEngine [--port <number>] [--data <directory>] [--watch] [--shard <index>/<count>] [--record <directory>] [--status]");
+          return;
+        }
+      }
+    }
+
     BufferedReader consoleReader = new BufferedReader(new InputStreamReader(System.in));
-    GameEngine engine = new GameEngine(consoleReader, false);
+    // Concurrent, as a GameServer runs a persisted engine's commands on its worker threads
+    GameEngine engine = new GameEngine(consoleReader, false, true);
+    // Command latencies and the size of the world can be watched with JConsole or any other JMX client
+    try {
+      engine.getMetrics().registerMBeans("default");
+    } catch (JMException e) {
+      System.out.println("Couldn't register the engine's metrics over JMX: " + e.getMessage());
+    }
+
+    // Whatever order the flags came in, the world is restored before anything starts watching it
+    if (record != null && watch) {
+      System.out.println("A watched world's events can't be recorded, as reloading the config changes the world without raising events.");
+      engine.close();
+      return;
+    }
+    if (data != null) {
+      engine.persistTo(Paths.get(data));
+      WorldStore store = engine.getWorldStore();
+      System.out.println("Restored the world from " + data + ", replaying " + store.getReplayedRecords() + " journaled commands in " + store.getRecoveryNanos() / 1_000_000 + " ms.");
+    }
+    if (record != null) {
+      engine.recordEventsTo(Paths.get(record));
+    }
+    if (watch) {
+      engine.watchConfig();
+    }
+
+    if (shard != null) {
+      if (port == null) {
+        System.out.println("A shard needs a port for the router to connect to, give one with '--port <number>'.");
+        engine.close();
+        return;
+      }
+      if (engine.eventLog != null) {
+        System.out.println("A shard's events can't be recorded, as players walking between shards aren't events.");
+        engine.close();
+        return;
+      }
+      String[] shardParts = shard.split("/");
+      int shardIndex = Integer.parseInt(shardParts[0]);
+      ShardMap shardMap = ShardMap.partition(engine.getGameWorld().getGameLocations(), Integer.parseInt(shardParts[1]));
+      // Connections from the router are long-lived and carry whole players, so they never time out and have room for big handoffs
+      GameServer server = new GameServer(new ShardHandler(engine, shardMap, shardIndex),
+          new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(port)), SHARD_BUFFER_SIZE, SHARD_BUFFER_SIZE, 0);
+      server.start();
+      System.out.println("Shard " + shardIndex + " of " + shardMap.getShardCount() + " listening on port " + server.getLocalPort() + ", enter 'exit' to stop.");
+      while (!"exit".equalsIgnoreCase(consoleReader.readLine())) {
+        System.out.println("Enter 'exit' to stop the shard.");
+      }
+      server.close();
+      engine.close();
+      return;
+    }
+
+    if (port != null) {
+      GameServer server = new GameServer(status ? new StatusHandler(engine) : engine, Integer.parseInt(port));
+      server.start();
+      System.out.println("Listening for players on port " + server.getLocalPort() + ", enter 'exit' to stop.");
+      while (!"exit".equalsIgnoreCase(consoleReader.readLine())) {
+        System.out.println("Enter 'exit' to stop the server.");
+      }
+      server.close();
+      engine.close();
+      return;
+    }
 
     while (true) {
       System.out.print("Enter command: ");
       String command = consoleReader.readLine();
       if (command.equalsIgnoreCase("exit")) {
         System.out.println("Thank you for playing!");
+        engine.close();
         return;
       }
       String response = engine.handleCommand(command);
@@ -67,19 +202,36 @@ public class GameEngine {
   }
 
   public GameEngine(BufferedReader consoleReader, boolean isTest) throws IOException {
+    this(consoleReader, isTest, false);
+  }
+
+  // In concurrent mode handleCommand may be called from many threads
+  // Commands touching different locations then run in parallel
+  public GameEngine(BufferedReader consoleReader, boolean isTest, boolean concurrent) throws IOException {
+    if (concurrent) {
+      locationLocks = new LocationLocks(DEFAULT_LOCK_STRIPES);
+    }
+    commandParser = new CommandParser(locationLocks, metrics);
     List<File> fileList = loadFiles(consoleReader, isTest);
+    entitiesFile = fileList.get(0);
+    actionsFile = fileList.get(1);
+
+    // A compiled image of these files loads far faster than parsing them, as long as it is up to date
+    gameWorld = WorldImage.load(WorldImage.imagePathFor(fileList.get(0)), fileList.get(0), fileList.get(1));
+    if (gameWorld != null) {
+      return;
+    }
 
-    HashMap<String, HashSet<GameAction>> possibleActions;
     Set<GameLocation> gameLocations;
 
     ActionParser actionParser = new ActionParser();
-    possibleActions = actionParser.parseActionsFile(fileList.get(1));
+    actionParser.parseActionsFile(fileList.get(1));
 
     try {
       EntityParser entityParser = new EntityParser();
       gameLocations = entityParser.parseEntitiesFile(fileList.get(0));
 
-      gameWorld = new GameWorld(possibleActions, gameLocations);
+      gameWorld = new GameWorld(actionParser.getActionIndex(), gameLocations);
     }
     catch (ParseException | FileNotFoundException e) {
       System.out.println(e.getMessage());
@@ -87,8 +239,231 @@ public class GameEngine {
   }
 
 
+  public GameEngine(GameWorld gameWorld, boolean concurrent) {
+    this.gameWorld = gameWorld;
+    if (concurrent) {
+      locationLocks = new LocationLocks(DEFAULT_LOCK_STRIPES);
+    }
+    commandParser = new CommandParser(locationLocks, metrics);
+  }
+
+  // One of any number of games played in the same world, see WorldDefinition
+  public GameEngine(WorldDefinition definition, boolean concurrent) {
+    this(definition.newWorld(), concurrent);
+  }
+
+  public GameWorld getGameWorld() {
+    return gameWorld;
+  }
+
+  @Override
+  public boolean isConcurrent() {
+    return locationLocks != null;
+  }
+
+  // Keeps the world in the given directory from now on, first restoring whatever was kept there before
+  // Must be called before any commands are handled
+  public void persistTo(Path directory) throws IOException {
+    persistTo(directory, WorldStore.DEFAULT_SNAPSHOT_INTERVAL, true);
+  }
+
+  // Without sync, journaled commands survive the engine crashing but not the machine
+  public void persistTo(Path directory, int snapshotInterval, boolean sync) throws IOException {
+    if (eventLog != null) {
+      throw new IllegalStateException("Restoring the world would replace the one being recorded, keep it in a directory before recording its events.");
+    }
+    worldStore = WorldStore.open(directory, gameWorld, snapshotInterval, sync);
+    gameWorld = worldStore.getWorld();
+  }
+
+  // Records every change made to the world from now on, until the engine is closed
+  // Call it after persistTo, as that can replace the world, and before any commands if the recording is to be replayed onto a freshly loaded world
+  // Reloading the config changes the world without raising events, so a watched world can't be recorded
+  public synchronized void recordEventsTo(Path directory) throws IOException {
+    if (eventLog != null) {
+      throw new IllegalStateException("The world's events are already being recorded.");
+    }
+    if (configWatcher != null) {
+      throw new IllegalStateException("A watched world's events can't be recorded, reloads change the world without raising events.");
+    }
+    eventLog = EventLog.record(gameWorld, directory);
+  }
+
+  public EngineMetrics getMetrics() {
+    return metrics;
+  }
+
+  public WorldStore getWorldStore() {
+    return worldStore;
+  }
+
+  // Reloads the config files the engine was started with whenever they change
+  public void watchConfig() throws IOException {
+    if (entitiesFile == null) {
+      throw new IllegalStateException("The engine wasn't loaded from config files, give the files to watch.");
+    }
+    watchConfig(entitiesFile, actionsFile);
+  }
+
+  // The files should hold the world the engine is running, as later versions are compared against them
+  public synchronized void watchConfig(File entitiesFile, File actionsFile) throws IOException {
+    if (eventLog != null) {
+      throw new IllegalStateException("A recorded world can't be watched, reloads change the world without raising events.");
+    }
+    if (configWatcher != null) {
+      configWatcher.close();
+    }
+    this.entitiesFile = entitiesFile;
+    this.actionsFile = actionsFile;
+    // Watching starts before the files are read, so a change made in between still causes a reload
+    configWatcher = new ConfigWatcher(this, entitiesFile, actionsFile);
+    try {
+      loadedLocations = new EntityParser().parseEntitiesFile(entitiesFile);
+    } catch (ParseException e) {
+      throw new IOException("Couldn't read entities file: " + e.getMessage(), e);
+    }
+  }
+
+  // Parses the watched config files and applies whatever changed since they were last loaded to the running world
+  // Players and everything they have done are kept, and the new actions replace the old ones all at once
+  // Returns false, leaving the world as it was, if either file can't be parsed
+  public synchronized boolean reloadConfig() {
+    if (loadedLocations == null) {
+      throw new IllegalStateException("Config files aren't being watched.");
+    }
+    ActionParser actionParser = new ActionParser();
+    if (actionParser.parseActionsFile(actionsFile) == null) {
+      System.out.println("Kept the current config, the actions file couldn't be reloaded: " + actionParser.getParseError());
+      return false;
+    }
+    Set<GameLocation> locations;
+    try {
+      locations = new EntityParser().parseEntitiesFile(entitiesFile);
+    } catch (ParseException | FileNotFoundException e) {
+      System.out.println("Kept the current config, the entities file couldn't be reloaded: " + e.getMessage());
+      return false;
+    }
+
+    ConfigDiff diff = ConfigDiff.between(loadedLocations, locations);
+    loadedLocations = locations;
+    ActionIndex actionIndex = actionParser.getActionIndex();
+    Runnable reload = () -> applyReload(diff, actionIndex);
+    if (locationLocks != null) {
+      reload.run();
+    } else {
+      pendingReload.accumulateAndGet(reload, (earlier, later) -> earlier == null ? later : () -> {
+        earlier.run();
+        later.run();
+      });
+    }
+    return true;
+  }
+
+  private void applyReload(ConfigDiff diff, ActionIndex actionIndex) {
+    Runnable change = () -> {
+      diff.applyTo(gameWorld, locationLocks);
+      gameWorld.setActionIndex(actionIndex);
+    };
+    if (worldStore == null) {
+      change.run();
+    } else {
+      // Reloads aren't journaled, so the world is snapshotted straight after for the journal to carry on from
+      try {
+        worldStore.snapshotAfter(change);
+      } catch (IOException e) {
+        System.out.println("Couldn't snapshot the world after reloading the config: " + e.getMessage());
+      }
+    }
+    System.out.println("Reloaded the config files: " + diff + ".");
+  }
+
+  private void applyPendingReload() {
+    if (pendingReload.get() != null) {
+      Runnable reload = pendingReload.getAndSet(null);
+      if (reload != null) {
+        reload.run();
+      }
+    }
+  }
+
+  // Once persisted, a response is only returned after the changes the command made have been journaled
+  @Override
   public String handleCommand(String command) {
-    CommandParser commandParser = new CommandParser();
+    applyPendingReload();
+    if (worldStore != null) {
+      return worldStore.run(() -> commandParser.parseCommandString(command, this.gameWorld));
+    }
     return commandParser.parseCommandString(command, this.gameWorld);
   }
+
+  // Runs a batch of 'player: command' lines in order, returning one response per line
+  // Intended for bots, replays and imports that would otherwise call handleCommand in a loop
+  @Override
+  public List<String> handleCommands(List<String> commands) {
+    applyPendingReload();
+    if (worldStore != null) {
+      return worldStore.run(() -> commandParser.parseCommandStrings(commands, this.gameWorld));
+    }
+    return commandParser.parseCommandStrings(commands, this.gameWorld);
+  }
+
+  public List<String> handleCommands(Stream<String> commands) {
+    return handleCommands(commands.toList());
+  }
+
+  // The action the command would run, or null if it wouldn't run one, without running it
+  public GameAction findAction(String command) {
+    return commandParser.findAction(command, gameWorld);
+  }
+
+  // Runs a change made to locations from outside a command, such as a shard moving entities in or out of its storeroom,
+  // holding their locks if commands run concurrently
+  // The change isn't journaled, so this isn't for an engine kept in a directory
+  public <T> T changeLocations(Collection<GameLocation> locations, Supplier<T> change) {
+    if (locationLocks == null) {
+      return change.get();
+    }
+    LocationLocks.Held held = locationLocks.lock(locations);
+    try {
+      return change.get();
+    } finally {
+      held.close();
+    }
+  }
+
+  // What the last command the calling thread ran turned out to be, null before it has run one
+  public CommandKind getLastKind() {
+    return commandParser.getLastKind();
+  }
+
+  @Override
+  public CommandFailure getLastFailure() {
+    return commandParser.getLastFailure();
+  }
+
+  // Once persisted every command waits for the journal to reach the disk, so a GameServer shouldn't run it on its selector thread
+  // A single-threaded engine is run on one worker thread of its own, a concurrent one on a pool of them
+  // Persist the engine before starting a server for it, as the server asks when it starts
+  @Override
+  public boolean isBlocking() {
+    return worldStore != null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      metrics.unregisterMBeans();
+    } catch (JMException e) {
+      throw new IOException("Couldn't unregister the engine's metrics: " + e.getMessage(), e);
+    }
+    if (configWatcher != null) {
+      configWatcher.close();
+    }
+    if (eventLog != null) {
+      eventLog.close();
+    }
+    if (worldStore != null) {
+      worldStore.close();
+    }
+  }
 }
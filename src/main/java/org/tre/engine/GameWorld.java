@@ -3,46 +3,193 @@ package org.tre.engine;
 import org.tre.objects.GameLocation;
 import org.tre.objects.GamePlayer;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 public class GameWorld {
-    private final HashSet<GamePlayer> playerSet;
-    private final HashMap<String, HashSet<GameAction>> possibleActions;
-    private final Set<GameLocation> gameLocations;
+    private final ConcurrentMap<String, GamePlayer> players = new ConcurrentHashMap<>();
+    // Numbers players as they join, so each is described as a different player
+    private final AtomicInteger playerCount = new AtomicInteger();
+    // Held while a player joins, so two commands from a new player can't both have them join
+    private final Object joining = new Object();
+    // Replaced as a whole when the actions file is reloaded
+    private volatile ActionIndex actionIndex;
+    // Locations can be added and removed by a reload while commands run
+    private final Set<GameLocation> gameLocations = ConcurrentHashMap.newKeySet();
+    private final Map<String, GameLocation> locationIndex = new ConcurrentHashMap<>();
+    // Every location's name, compiled again whenever a reload adds or removes locations
+    private volatile PhraseMatcher locationNames;
     private GameLocation startingLocation;
+    private final GameLocation storeRoom;
+    // Set while a WorldStore keeps this world, every change is then journaled
+    private volatile WorldStore worldStore;
+    private final List<WorldEvent.Listener> eventListeners = new CopyOnWriteArrayList<>();
+    // The events the calling thread's command has applied, only kept while something journals or listens for them
+    private final ThreadLocal<List<WorldEvent>> pendingEvents = ThreadLocal.withInitial(ArrayList::new);
+    private final Routes routes = new Routes(this);
+    // Only set on a shard, which only runs commands for the locations it owns
+    private volatile Predicate<GameLocation> ownedLocations;
 
-    public GameWorld(HashMap<String, HashSet<GameAction>> possibleActions, Set<GameLocation> gameLocations) {
-        this.possibleActions = possibleActions;
-        this.gameLocations = gameLocations;
-        playerSet = new HashSet<>();
+    public GameWorld(ActionIndex actionIndex, Set<GameLocation> gameLocations) {
+        this.actionIndex = actionIndex;
+        this.gameLocations.addAll(gameLocations);
         for (GameLocation location : gameLocations) {
+            locationIndex.put(location.getName(), location);
             if (location.isStartingLocation()) {
                 startingLocation = location;
             }
         }
+        // Resolved once here as every action produces from and consumes into the storeroom
+        storeRoom = locationIndex.get("storeroom");
+        locationNames = PhraseMatcher.compile(locationIndex.keySet());
     }
 
-    public HashSet<GamePlayer> getPlayerSet() {
-        return playerSet;
+    // Made by WorldDefinition.newWorld
+    GameWorld(WorldDefinition definition) {
+        this(definition.getActionIndex(), definition.createLocations());
+    }
+
+    public Collection<GamePlayer> getPlayers() {
+        return players.values();
+    }
+
+    public int getPlayerCount() {
+        return players.size();
     }
 
     public GamePlayer getPlayer(String playerName) {
-        for (GamePlayer player : playerSet) {
-            if (player.getName().equals((playerName))) {
-                return player;
+        return players.get(playerName);
+    }
+
+    // Returns the named player, who joins at the starting location if they don't exist yet
+    // When commands run on several threads, hold the starting location's lock, as joining changes it
+    // Nothing else the player does can then be journaled ahead of them joining, as it would have to wait for the same lock
+    public GamePlayer getOrCreatePlayer(String playerName) {
+        GamePlayer player = players.get(playerName);
+        if (player != null) {
+            return player;
+        }
+        boolean joined = false;
+        synchronized (joining) {
+            if (!players.containsKey(playerName)) {
+                apply(new WorldEvent.PlayerJoined(playerName, "Player #" + (playerCount.get() + 1), startingLocation.getName()));
+                joined = true;
             }
         }
-        return null;
+        if (joined) {
+            commitEvents();
+        }
+        return players.get(playerName);
     }
 
-    public void addPlayer(GamePlayer player) {
-        playerSet.add(player);
+    // Takes in a player who has walked over from another world, such as another shard of the same world
+    // Players moving between worlds aren't events, so this isn't for a world kept by a WorldStore or whose events are recorded
+    // Returns false, changing nothing, if there is already a player with that name
+    public boolean addPlayer(GamePlayer player, GameLocation location) {
+        requireUnjournaled();
+        if (players.putIfAbsent(player.getName(), player) != null) {
+            return false;
+        }
+        player.setCurrentLocation(location);
+        location.addPlayer(player);
+        return true;
+    }
+
+    // Lets go of a player who has walked over to another world, along with their inventory
+    public boolean removePlayer(GamePlayer player) {
+        requireUnjournaled();
+        if (!players.remove(player.getName(), player)) {
+            return false;
+        }
+        player.getCurrentLocation().removePlayer(player);
+        return true;
+    }
+
+    private void requireUnjournaled() {
+        if (worldStore != null || !eventListeners.isEmpty()) {
+            throw new IllegalStateException("Players can't move in or out of a world that is journaled or has its events recorded.");
+        }
     }
 
-    public HashMap<String, HashSet<GameAction>> getPossibleActions() {
-        return possibleActions;
+    // Puts a player in the world, whether they are joining or being restored from a snapshot or the journal
+    void restorePlayer(GamePlayer player, GameLocation location) {
+        players.put(player.getName(), player);
+        playerCount.incrementAndGet();
+        player.setCurrentLocation(location);
+        location.addPlayer(player);
+    }
+
+    // Every change a command makes to the world goes through here
+    void apply(WorldEvent event) {
+        WorldEvents.apply(this, event);
+        record(event);
+    }
+
+    private void record(WorldEvent event) {
+        if (worldStore != null || !eventListeners.isEmpty()) {
+            pendingEvents.get().add(event);
+        }
+    }
+
+    // Journals the events the calling thread has applied since it last committed, as one record, and passes them to the listeners
+    // Called while the command still holds its locks, so the WorldStore can tell what the command could have seen
+    void commitEvents() {
+        // Nothing was recorded, and looking would leave the thread holding a list for this world
+        if (worldStore == null && eventListeners.isEmpty()) {
+            return;
+        }
+        WorldStore store = worldStore;
+        List<WorldEvent> events = pendingEvents.get();
+        if (events.isEmpty()) {
+            // Changed nothing, but may have shown the player changes other commands haven't made durable yet
+            if (store != null) {
+                store.seen();
+            }
+            return;
+        }
+        try {
+            if (store != null) {
+                store.append(events);
+            }
+            if (!eventListeners.isEmpty()) {
+                List<WorldEvent> committed = List.copyOf(events);
+                for (WorldEvent.Listener listener : eventListeners) {
+                    listener.onEvents(committed);
+                }
+            }
+        } finally {
+            events.clear();
+        }
+    }
+
+    // Listeners only hear about events applied after they are added, so add them before any commands are handled
+    // if the events are to be replayed onto a freshly loaded world
+    public void addEventListener(WorldEvent.Listener listener) {
+        eventListeners.add(listener);
+    }
+
+    public void removeEventListener(WorldEvent.Listener listener) {
+        eventListeners.remove(listener);
+    }
+
+    void setWorldStore(WorldStore worldStore) {
+        this.worldStore = worldStore;
+    }
+
+    public ActionIndex getActionIndex() {
+        return actionIndex;
+    }
+
+    void setActionIndex(ActionIndex actionIndex) {
+        this.actionIndex = actionIndex;
     }
 
     public Set<GameLocation> getGameLocations() {
@@ -50,16 +197,58 @@ public class GameWorld {
     }
 
     public GameLocation getLocation(String locationName) {
-        for (GameLocation location : gameLocations) {
-            if (location.getName().equals(locationName)) {
-                return location;
-            }
+        return locationIndex.get(locationName);
+    }
+
+    // Used by reloads, the starting location and storeroom stay as they were when the world was loaded
+    // A reload adds and removes all of its locations before calling locationsChanged once
+    void addLocations(Collection<GameLocation> locations) {
+        for (GameLocation location : locations) {
+            gameLocations.add(location);
+            locationIndex.put(location.getName(), location);
+        }
+    }
+
+    void removeLocations(Collection<GameLocation> locations) {
+        for (GameLocation location : locations) {
+            locationIndex.remove(location.getName(), location);
+            gameLocations.remove(location);
         }
-        return null;
+    }
+
+    // Compiles the location names again and throws away every route, once for however many locations were added or removed
+    void locationsChanged() {
+        locationNames = PhraseMatcher.compile(locationIndex.keySet());
+        routes.reset();
+    }
+
+    // The location with the longest name in the command, so 'dark forest' wins over 'forest', or null if it names none
+    GameLocation findLocation(CommandTokens tokens) {
+        String name = locationNames.longestMatch(tokens.getSource(), tokens.getBodyStart(), tokens.getBodyEnd());
+        return name == null ? null : locationIndex.get(name);
+    }
+
+    public Routes getRoutes() {
+        return routes;
+    }
+
+    // Set by a shard, so that commands leave the world's other locations to the shards owning them
+    public void setOwnedLocations(Predicate<GameLocation> ownedLocations) {
+        this.ownedLocations = ownedLocations;
+    }
+
+    // Every location is owned unless the world is a shard
+    public boolean owns(GameLocation location) {
+        Predicate<GameLocation> owned = ownedLocations;
+        return owned == null || owned.test(location);
     }
 
     public GameLocation getStartingLocation() {
         return startingLocation;
     }
 
+    public GameLocation getStoreRoom() {
+        return storeRoom;
+    }
+
 }
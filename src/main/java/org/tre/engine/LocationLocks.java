@@ -0,0 +1,91 @@
+package org.tre.engine;
+
+import org.tre.objects.GameLocation;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Striped locks guarding location state when commands run concurrently
+// A location's artefacts, characters, furniture and the state of every player standing in it are guarded by its stripe
+// Stripes are always taken in ascending order, so commands spanning several locations can't deadlock
+public final class LocationLocks {
+    private final ReentrantLock[] stripes;
+
+    public LocationLocks(int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("At least one lock stripe is needed.");
+        }
+        stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    int stripeFor(GameLocation location) {
+        int hash = location.getName().hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), stripes.length);
+    }
+
+    // Locks the stripes of every given location in ascending order
+    public Held lock(Collection<GameLocation> locations) {
+        int[] held = new int[locations.size()];
+        int count = 0;
+        for (GameLocation location : locations) {
+            held[count++] = stripeFor(location);
+        }
+        Arrays.sort(held);
+
+        // Drop duplicates, two locations can share a stripe
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || held[distinct - 1] != held[i]) {
+                held[distinct++] = held[i];
+            }
+        }
+        held = Arrays.copyOf(held, distinct);
+
+        for (int stripe : held) {
+            stripes[stripe].lock();
+        }
+        return new Held(held);
+    }
+
+    // Locks every stripe, for operations that need the whole world to stand still
+    public Held lockAll() {
+        int[] held = new int[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            held[i] = i;
+            stripes[i].lock();
+        }
+        return new Held(held);
+    }
+
+    public final class Held implements AutoCloseable {
+        private final int[] heldStripes;
+
+        private Held(int[] heldStripes) {
+            this.heldStripes = heldStripes;
+        }
+
+        public boolean covers(Collection<GameLocation> locations) {
+            for (GameLocation location : locations) {
+                if (Arrays.binarySearch(heldStripes, stripeFor(location)) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            for (int i = heldStripes.length - 1; i >= 0; i--) {
+                stripes[heldStripes[i]].unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package org.tre.engine;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+// Aho-Corasick automaton over a fixed set of phrases
+// Built once from the loaded action triggers, then used to find every phrase in a command in a single pass
+// Matching is case-insensitive and phrases only match on whole words, so 'hit' is not found inside 'white'
+public final class PhraseMatcher {
+    private static final int ROOT = 0;
+
+    // Per-state sorted transition labels and their target states
+    private final char[][] transitionChars;
+    private final int[][] transitionTargets;
+    private final int[] failure;
+
+    // Index of the phrase ending exactly at each state, or -1
+    private final int[] terminal;
+
+    // Nearest state down the failure chain that is terminal, or -1
+    private final int[] outputLink;
+
+    private final String[] phrases;
+    private final int[] phraseLengths;
+
+    private PhraseMatcher(char[][] transitionChars, int[][] transitionTargets, int[] failure, int[] terminal, int[] outputLink, String[] phrases) {
+        this.transitionChars = transitionChars;
+        this.transitionTargets = transitionTargets;
+        this.failure = failure;
+        this.terminal = terminal;
+        this.outputLink = outputLink;
+        this.phrases = phrases;
+        this.phraseLengths = new int[phrases.length];
+        for (int i = 0; i < phrases.length; i++) {
+            phraseLengths[i] = phrases[i].length();
+        }
+    }
+
+    public static PhraseMatcher compile(Collection<String> phraseSet) {
+        // Sort so that state numbering, and therefore tie-breaking, never depends on HashMap iteration order
+        List<String> sortedPhrases = new ArrayList<>(new TreeSet<>(phraseSet));
+        sortedPhrases.removeIf(String::isEmpty);
+
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Integer> terminalList = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        terminalList.add(-1);
+
+        // Build the trie of lowercased phrases
+        for (int p = 0; p < sortedPhrases.size(); p++) {
+            String phrase = sortedPhrases.get(p);
+            int state = ROOT;
+            for (int i = 0; i < phrase.length(); i++) {
+                char c = Character.toLowerCase(phrase.charAt(i));
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    terminalList.add(-1);
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            // Two phrases differing only in case share a state, keep the first
+            if (terminalList.get(state) == -1) {
+                terminalList.set(state, p);
+            }
+        }
+
+        int stateCount = trie.size();
+        char[][] transitionChars = new char[stateCount][];
+        int[][] transitionTargets = new int[stateCount][];
+        int[] terminal = new int[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            TreeMap<Character, Integer> edges = trie.get(s);
+            transitionChars[s] = new char[edges.size()];
+            transitionTargets[s] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                transitionChars[s][i] = edge.getKey();
+                transitionTargets[s][i] = edge.getValue();
+                i++;
+            }
+            terminal[s] = terminalList.get(s);
+        }
+
+        // Breadth-first pass to fill in failure and output links
+        int[] failure = new int[stateCount];
+        int[] outputLink = new int[stateCount];
+        Arrays.fill(outputLink, -1);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int target : transitionTargets[ROOT]) {
+            failure[target] = ROOT;
+            queue.add(target);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int i = 0; i < transitionChars[state].length; i++) {
+                char c = transitionChars[state][i];
+                int child = transitionTargets[state][i];
+                int fallback = failure[state];
+                int next = step(transitionChars, transitionTargets, failure, fallback, c);
+                failure[child] = next;
+                outputLink[child] = terminal[next] != -1 ? next : outputLink[next];
+                queue.add(child);
+            }
+        }
+
+        String[] phrases = sortedPhrases.toArray(new String[0]);
+        return new PhraseMatcher(transitionChars, transitionTargets, failure, terminal, outputLink, phrases);
+    }
+
+    // Returns the longest phrase found in the text, or null if none is present
+    // Ties between equally long phrases go to the one that starts earliest in the text
+    public String longestMatch(CharSequence text) {
+        return longestMatch(text, 0, text.length());
+    }
+
+    public String longestMatch(CharSequence text, int from, int to) {
+        int best = -1;
+        int state = ROOT;
+        for (int end = from; end < to; end++) {
+            state = step(transitionChars, transitionTargets, failure, state, Character.toLowerCase(text.charAt(end)));
+            if (!endsWord(text, end, to)) {
+                continue;
+            }
+            // The first phrase down the output chain that also starts on a word boundary is the longest one ending here
+            for (int s = terminal[state] != -1 ? state : outputLink[state]; s != -1; s = outputLink[s]) {
+                int phrase = terminal[s];
+                if (startsWord(text, end + 1 - phraseLengths[phrase], from)) {
+                    if (best == -1 || phraseLengths[phrase] > phraseLengths[best]) {
+                        best = phrase;
+                    }
+                    break;
+                }
+            }
+        }
+        return best == -1 ? null : phrases[best];
+    }
+
+    // Adds every phrase found in the text to the given collection
+    public void collectMatches(CharSequence text, Collection<String> matches) {
+        collectMatches(text, 0, text.length(), matches);
+    }
+
+    public void collectMatches(CharSequence text, int from, int to, Collection<String> matches) {
+        int state = ROOT;
+        for (int end = from; end < to; end++) {
+            state = step(transitionChars, transitionTargets, failure, state, Character.toLowerCase(text.charAt(end)));
+            if (!endsWord(text, end, to)) {
+                continue;
+            }
+            for (int s = terminal[state] != -1 ? state : outputLink[state]; s != -1; s = outputLink[s]) {
+                int phrase = terminal[s];
+                if (startsWord(text, end + 1 - phraseLengths[phrase], from)) {
+                    matches.add(phrases[phrase]);
+                }
+            }
+        }
+    }
+
+    // Sets the bit for every phrase found in the text, numbering each phrase by its place in the ID array
+    // The ID array holds one ID for each index up to size(), which phraseAt gives the phrase for
+    public void collectMatchBits(CharSequence text, int from, int to, int[] phraseIds, long[] bits) {
+        int state = ROOT;
+        for (int end = from; end < to; end++) {
+            state = step(transitionChars, transitionTargets, failure, state, Character.toLowerCase(text.charAt(end)));
+            if (!endsWord(text, end, to)) {
+                continue;
+            }
+            for (int s = terminal[state] != -1 ? state : outputLink[state]; s != -1; s = outputLink[s]) {
+                int phrase = terminal[s];
+                if (startsWord(text, end + 1 - phraseLengths[phrase], from)) {
+                    int id = phraseIds[phrase];
+                    bits[id >>> 6] |= 1L << id;
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return phrases.length;
+    }
+
+    public String phraseAt(int index) {
+        return phrases[index];
+    }
+
+    // Writes the compiled automaton for a world image, with each phrase written as its index in the image's string table
+    void writeTo(DataOutputStream out, ToIntFunction<String> stringIndex) throws IOException {
+        out.writeInt(phrases.length);
+        for (String phrase : phrases) {
+            out.writeInt(stringIndex.applyAsInt(phrase));
+        }
+        out.writeInt(failure.length);
+        for (int s = 0; s < failure.length; s++) {
+            out.writeInt(transitionChars[s].length);
+            for (int i = 0; i < transitionChars[s].length; i++) {
+                out.writeChar(transitionChars[s][i]);
+                out.writeInt(transitionTargets[s][i]);
+            }
+            out.writeInt(failure[s]);
+            out.writeInt(terminal[s]);
+            out.writeInt(outputLink[s]);
+        }
+    }
+
+    // Reads an automaton written by writeTo, so it doesn't have to be compiled again
+    static PhraseMatcher readFrom(ByteBuffer in, String[] strings) {
+        String[] phrases = new String[in.getInt()];
+        for (int i = 0; i < phrases.length; i++) {
+            phrases[i] = strings[in.getInt()];
+        }
+        int stateCount = in.getInt();
+        char[][] transitionChars = new char[stateCount][];
+        int[][] transitionTargets = new int[stateCount][];
+        int[] failure = new int[stateCount];
+        int[] terminal = new int[stateCount];
+        int[] outputLink = new int[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            int transitionCount = in.getInt();
+            transitionChars[s] = new char[transitionCount];
+            transitionTargets[s] = new int[transitionCount];
+            for (int i = 0; i < transitionCount; i++) {
+                transitionChars[s][i] = in.getChar();
+                transitionTargets[s][i] = in.getInt();
+            }
+            failure[s] = in.getInt();
+            terminal[s] = in.getInt();
+            outputLink[s] = in.getInt();
+        }
+        return new PhraseMatcher(transitionChars, transitionTargets, failure, terminal, outputLink, phrases);
+    }
+
+    private static int step(char[][] transitionChars, int[][] transitionTargets, int[] failure, int state, char c) {
+        while (true) {
+            int i = Arrays.binarySearch(transitionChars[state], c);
+            if (i >= 0) {
+                return transitionTargets[state][i];
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = failure[state];
+        }
+    }
+
+    // A match starting at this index begins a word if nothing alphanumeric comes directly before it
+    private static boolean startsWord(CharSequence text, int start, int from) {
+        return start == from || !Character.isLetterOrDigit(text.charAt(start - 1));
+    }
+
+    // A match ending at this index ends a word if nothing alphanumeric comes directly after it
+    private static boolean endsWord(CharSequence text, int end, int to) {
+        return end + 1 == to || !Character.isLetterOrDigit(text.charAt(end + 1));
+    }
+}
@@ -0,0 +1,54 @@
+package org.tre.engine;
+
+// Outcome of resolving part of a command, either a value or the reason it couldn't be resolved
+// Expected failures are ordinary values rather than exceptions, so they cost no stack trace
+// Failures with a fixed message are preallocated and shared
+public final class Resolution<T> {
+    private static final Resolution<?>[] FIXED_FAILURES = new Resolution<?>[CommandFailure.values().length];
+
+    static {
+        for (CommandFailure failure : CommandFailure.values()) {
+            FIXED_FAILURES[failure.ordinal()] = new Resolution<>(null, failure, failure.getMessage());
+        }
+    }
+
+    private final T value;
+    private final CommandFailure failure;
+    private final String message;
+
+    private Resolution(T value, CommandFailure failure, String message) {
+        this.value = value;
+        this.failure = failure;
+        this.message = message;
+    }
+
+    public static <T> Resolution<T> of(T value) {
+        return new Resolution<>(value, null, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> Resolution<T> failure(CommandFailure failure) {
+        return (Resolution<T>) FIXED_FAILURES[failure.ordinal()];
+    }
+
+    // For failures whose message depends on the command, such as which trigger was ambiguous
+    public static <T> Resolution<T> failure(CommandFailure failure, String message) {
+        return new Resolution<>(null, failure, message);
+    }
+
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    public CommandFailure getFailure() {
+        return failure;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,190 @@
+package org.tre.engine;
+
+import org.tre.objects.GameLocation;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Shortest routes between locations, following paths the way a player walking them would
+// A breadth first search from a location gives the shortest route from it to everywhere else, so one is kept per starting
+// point once asked for, in as many as fit the budget, which is every location of a small world and the busiest ones of a large one
+// Paths opening or closing only throw away the searches they change: closing a path matters only to searches that went along it,
+// and opening one only to searches that reach its start sooner than its end
+// Locations being added or removed, which only happens on a reload, throws everything away
+public final class Routes {
+    // Searches are two ints per location each, this keeps them to about 32 MB
+    private static final int MAX_CACHED_INTS = 1 << 23;
+    private static final int MIN_CACHED_TREES = 16;
+
+    private final GameWorld world;
+    // Rebuilt when a route is asked for after the locations have changed
+    private volatile Graph graph;
+    private final AtomicLong resets = new AtomicLong();
+    private final ConcurrentMap<GameLocation, Tree> trees = new ConcurrentHashMap<>();
+    // Counts every change to the paths, so a search that overlapped one is never kept
+    private final AtomicLong changes = new AtomicLong();
+    private final LongAdder searches = new LongAdder();
+
+    Routes(GameWorld world) {
+        this.world = world;
+    }
+
+    // The locations walked through from one location to the other, ending with the destination
+    // Empty if they are the same location, null if there is no way there
+    public List<GameLocation> shortestPath(GameLocation from, GameLocation to) {
+        Tree tree = treeFrom(from);
+        Integer destination = tree.graph.numbers.get(to);
+        if (destination == null || tree.distances[destination] < 0) {
+            return null;
+        }
+        GameLocation[] path = new GameLocation[tree.distances[destination]];
+        for (int at = destination, i = path.length - 1; i >= 0; at = tree.parents[at], i--) {
+            path[i] = tree.graph.locations[at];
+        }
+        return Arrays.asList(path);
+    }
+
+    // The number of paths walked along, or -1 if there is no way there
+    public int distance(GameLocation from, GameLocation to) {
+        Tree tree = treeFrom(from);
+        Integer destination = tree.graph.numbers.get(to);
+        return destination == null ? -1 : tree.distances[destination];
+    }
+
+    // Searches made since the world was loaded, the rest of the routes asked for came from earlier searches
+    public long getSearches() {
+        return searches.sum();
+    }
+
+    public int getCachedSearches() {
+        return trees.size();
+    }
+
+    private Tree treeFrom(GameLocation from) {
+        Tree tree = trees.get(from);
+        if (tree != null) {
+            return tree;
+        }
+        long changesBefore = changes.get();
+        long resetsBefore = resets.get();
+        Graph currentGraph = graph;
+        if (currentGraph == null || currentGraph.resets != resetsBefore) {
+            currentGraph = new Graph(resetsBefore, world.getGameLocations());
+            graph = currentGraph;
+        }
+        tree = search(currentGraph, from);
+        searches.increment();
+
+        if (trees.size() >= Math.max(MIN_CACHED_TREES, MAX_CACHED_INTS / Math.max(1, 2 * currentGraph.locations.length))) {
+            // Any one will do, a search that is wanted again soon is cheap to make again
+            Iterator<GameLocation> oldest = trees.keySet().iterator();
+            if (oldest.hasNext()) {
+                trees.remove(oldest.next());
+            }
+        }
+        trees.put(from, tree);
+        // The paths changed while searching, so the search may have seen some of the change but not all of it
+        if (changes.get() != changesBefore) {
+            trees.remove(from, tree);
+        }
+        return tree;
+    }
+
+    private static Tree search(Graph graph, GameLocation from) {
+        int size = graph.locations.length;
+        int[] parents = new int[size];
+        int[] distances = new int[size];
+        Arrays.fill(distances, -1);
+        Integer start = graph.numbers.get(from);
+        if (start == null) {
+            // Somewhere the graph doesn't know about, such as a location removed by a reload, where nobody can walk from
+            return new Tree(graph, parents, distances);
+        }
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        distances[start] = 0;
+        parents[start] = start;
+        queue[tail++] = start;
+        while (head < tail) {
+            int at = queue[head++];
+            for (GameLocation exit : graph.locations[at].getAdjacentLocations()) {
+                Integer next = graph.numbers.get(exit);
+                if (next != null && distances[next] < 0) {
+                    distances[next] = distances[at] + 1;
+                    parents[next] = at;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return new Tree(graph, parents, distances);
+    }
+
+    // Called once the path is open
+    void pathOpened(GameLocation from, GameLocation to) {
+        changes.incrementAndGet();
+        trees.values().removeIf(tree -> tree.shortenedBy(from, to));
+    }
+
+    // Called once the path is closed
+    void pathClosed(GameLocation from, GameLocation to) {
+        changes.incrementAndGet();
+        trees.values().removeIf(tree -> tree.uses(from, to));
+    }
+
+    // Called once locations have been added or removed
+    void reset() {
+        resets.incrementAndGet();
+        changes.incrementAndGet();
+        trees.clear();
+    }
+
+    // Every location numbered, so searches can be kept in arrays
+    // Stamped with the resets before it was numbered, so one numbered just before a reset is never mistaken for a current one
+    private static final class Graph {
+        private final long resets;
+        private final GameLocation[] locations;
+        private final Map<GameLocation, Integer> numbers = new IdentityHashMap<>();
+
+        private Graph(long resets, Collection<GameLocation> gameLocations) {
+            this.resets = resets;
+            locations = gameLocations.toArray(new GameLocation[0]);
+            for (int i = 0; i < locations.length; i++) {
+                numbers.put(locations[i], i);
+            }
+        }
+    }
+
+    private static final class Tree {
+        private final Graph graph;
+        // The location each one is reached from, and how many paths away it is or -1 if it can't be reached
+        private final int[] parents;
+        private final int[] distances;
+
+        private Tree(Graph graph, int[] parents, int[] distances) {
+            this.graph = graph;
+            this.parents = parents;
+            this.distances = distances;
+        }
+
+        private boolean uses(GameLocation from, GameLocation to) {
+            Integer fromNumber = graph.numbers.get(from);
+            Integer toNumber = graph.numbers.get(to);
+            return fromNumber == null || toNumber == null || (distances[toNumber] > 0 && parents[toNumber] == fromNumber);
+        }
+
+        private boolean shortenedBy(GameLocation from, GameLocation to) {
+            Integer fromNumber = graph.numbers.get(from);
+            Integer toNumber = graph.numbers.get(to);
+            if (fromNumber == null || toNumber == null) {
+                return true;
+            }
+            int fromDistance = distances[fromNumber];
+            int toDistance = distances[toNumber];
+            return fromDistance >= 0 && (toDistance < 0 || fromDistance + 1 < toDistance);
+        }
+    }
+}
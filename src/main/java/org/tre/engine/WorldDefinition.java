@@ -0,0 +1,101 @@
+package org.tre.engine;
+
+import com.alexmerz.graphviz.ParseException;
+import org.tre.objects.EntityStore;
+import org.tre.objects.GameArtefact;
+import org.tre.objects.GameCharacter;
+import org.tre.objects.GameEntity;
+import org.tre.objects.GameFurniture;
+import org.tre.objects.GameLocation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+// Everything about a world that is the same for every game played in it: the actions, and each location as the game starts,
+// with its description, what is there and where its paths lead
+// It never changes once made, so one definition can start any number of worlds from any number of threads
+// Those worlds share the actions and, through frozen EntityStores, the contents of every location, as well as the entities
+// themselves, which hold nothing but their names and descriptions
+// A world only copies a location's contents once something there changes, so the rest of what it holds is its players and
+// one small location for each of the definition's, that knows its own paths
+public final class WorldDefinition {
+    private final ActionIndex actionIndex;
+    private final LocationDefinition[] locations;
+
+    // Takes the contents of the locations as they are now, the locations themselves aren't kept
+    public WorldDefinition(ActionIndex actionIndex, Collection<GameLocation> gameLocations) {
+        this.actionIndex = actionIndex;
+        List<GameLocation> ordered = new ArrayList<>(gameLocations);
+        Map<GameLocation, Integer> numbers = new IdentityHashMap<>();
+        for (int i = 0; i < ordered.size(); i++) {
+            numbers.put(ordered.get(i), i);
+        }
+        locations = new LocationDefinition[ordered.size()];
+        for (int i = 0; i < locations.length; i++) {
+            GameLocation location = ordered.get(i);
+            // Paths only lead to locations of the same world
+            int[] exits = location.getAdjacentLocations().stream().map(numbers::get).filter(Objects::nonNull).mapToInt(Integer::intValue).toArray();
+            locations[i] = new LocationDefinition(location.getName(), location.getDescription(), location.isStartingLocation(),
+                    frozen(location.getPresentCharacters()), frozen(location.getPresentArtefacts()), frozen(location.getPresentFurniture()), exits);
+        }
+    }
+
+    // From the world image of the files if it is up to date, otherwise from the files themselves
+    public static WorldDefinition load(File entitiesFile, File actionsFile) throws IOException {
+        GameWorld imageWorld = WorldImage.load(WorldImage.imagePathFor(entitiesFile), entitiesFile, actionsFile);
+        if (imageWorld != null) {
+            return new WorldDefinition(imageWorld.getActionIndex(), imageWorld.getGameLocations());
+        }
+        ActionParser actionParser = new ActionParser();
+        if (actionParser.parseActionsFile(actionsFile) == null) {
+            throw new IOException("Couldn't read actions file: " + actionParser.getParseError());
+        }
+        try {
+            return new WorldDefinition(actionParser.getActionIndex(), new EntityParser().parseEntitiesFile(entitiesFile));
+        } catch (ParseException e) {
+            throw new IOException("Couldn't read entities file: " + e.getMessage(), e);
+        }
+    }
+
+    private static <T extends GameEntity> EntityStore<T> frozen(Collection<T> entities) {
+        EntityStore<T> store = new EntityStore<>(entities);
+        store.freeze();
+        return store;
+    }
+
+    // A world as the game starts, with no players
+    public GameWorld newWorld() {
+        return new GameWorld(this);
+    }
+
+    public ActionIndex getActionIndex() {
+        return actionIndex;
+    }
+
+    public int getLocationCount() {
+        return locations.length;
+    }
+
+    // Locations of their own, sharing the definition's contents, with paths between them as the definition has them
+    Set<GameLocation> createLocations() {
+        GameLocation[] created = new GameLocation[locations.length];
+        for (int i = 0; i < locations.length; i++) {
+            LocationDefinition definition = locations[i];
+            created[i] = new GameLocation(definition.name(), definition.description(),
+                    definition.characters().share(), definition.artefacts().share(), definition.furniture().share());
+            created[i].setStartingLocation(definition.starting());
+        }
+        for (int i = 0; i < locations.length; i++) {
+            for (int exit : locations[i].exits()) {
+                created[i].addAdjacentLocation(created[exit]);
+            }
+        }
+        return new HashSet<>(Arrays.asList(created));
+    }
+
+    // Exits are the indexes of the locations they lead to
+    private record LocationDefinition(String name, String description, boolean starting, EntityStore<GameCharacter> characters,
+                                      EntityStore<GameArtefact> artefacts, EntityStore<GameFurniture> furniture, int[] exits) {
+    }
+}
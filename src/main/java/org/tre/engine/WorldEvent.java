@@ -0,0 +1,54 @@
+package org.tre.engine;
+
+import java.util.List;
+
+// Something that happened to the world, as a fact about its outcome rather than the command that caused it
+// Commands change the world only by raising events, which WorldEvents.apply turns into changes, so a recorded stream
+// of events applied to the world it started from rebuilds exactly the world that was left behind
+// Players, locations and entities are referred to by name, so events can be applied to a world loaded in another process
+// Every event names the location it happened in as it was when the event was raised, which replay checks before applying it
+public sealed interface WorldEvent {
+    // The player whose command raised the event
+    String player();
+
+    record PlayerJoined(String player, String description, String location) implements WorldEvent {
+    }
+
+    record PlayerMoved(String player, String from, String to) implements WorldEvent {
+    }
+
+    record ArtefactPickedUp(String player, String location, String artefact) implements WorldEvent {
+    }
+
+    record ArtefactDropped(String player, String location, String artefact) implements WorldEvent {
+    }
+
+    // The oldest entity with the name is moved to the storeroom, from the player's inventory and the location's characters and furniture
+    record EntityConsumed(String player, String location, String entity) implements WorldEvent {
+    }
+
+    // The oldest entity with the name is moved from the storeroom into the location
+    record EntityProduced(String player, String location, String entity) implements WorldEvent {
+    }
+
+    record PathOpened(String player, String from, String to) implements WorldEvent {
+    }
+
+    record PathClosed(String player, String from, String to) implements WorldEvent {
+    }
+
+    // Health after the change
+    record HealthChanged(String player, String location, int health) implements WorldEvent {
+    }
+
+    // Everything the player carried is left where they died, and they start again at the starting location with full health
+    record PlayerDied(String player, String location) implements WorldEvent {
+    }
+
+    // Told about the events of each command once the command has finished, in the order they were applied
+    // Called on the thread that ran the command while its locations are still locked, so it should be quick and must not run commands
+    @FunctionalInterface
+    interface Listener {
+        void onEvents(List<WorldEvent> events);
+    }
+}
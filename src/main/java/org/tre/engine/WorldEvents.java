@@ -0,0 +1,246 @@
+package org.tre.engine;
+
+import org.tre.engine.WorldEvent.*;
+import org.tre.objects.GameArtefact;
+import org.tre.objects.GameEntity;
+import org.tre.objects.GameLocation;
+import org.tre.objects.GamePlayer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// The one place where events change the world, used both while commands run and when recorded events are replayed
+// Events are binary encoded in batches, one batch for the events of each command, for the journal and for event logs
+public final class WorldEvents {
+    // Batches written before events were versioned start with a zero byte
+    private static final byte FORMAT_VERSION = 1;
+    // A type byte and the lengths of two strings, the least any event takes up
+    private static final int MIN_EVENT_BYTES = 1 + 4 + 4;
+
+    private static final byte PLAYER_JOINED = 0;
+    private static final byte PLAYER_MOVED = 1;
+    private static final byte ARTEFACT_PICKED_UP = 2;
+    private static final byte ARTEFACT_DROPPED = 3;
+    private static final byte ENTITY_CONSUMED = 4;
+    private static final byte ENTITY_PRODUCED = 5;
+    private static final byte PATH_OPENED = 6;
+    private static final byte PATH_CLOSED = 7;
+    private static final byte HEALTH_CHANGED = 8;
+    private static final byte PLAYER_DIED = 9;
+
+    private WorldEvents() {
+    }
+
+    // Applies recorded events, in order, to the world they were recorded against
+    // Throws IllegalStateException if an event doesn't fit the world, such as a player not being where the event says they were
+    public static void replay(GameWorld world, Iterable<? extends WorldEvent> events) {
+        for (WorldEvent event : events) {
+            apply(world, event);
+        }
+    }
+
+    static void apply(GameWorld world, WorldEvent event) {
+        if (event instanceof PlayerJoined joined) {
+            if (world.getPlayer(joined.player()) != null) {
+                throw new IllegalStateException("Player '" + joined.player() + "' has already joined");
+            }
+            world.restorePlayer(new GamePlayer(joined.player(), joined.description()), location(world, joined.location()));
+            return;
+        }
+        GamePlayer player = world.getPlayer(event.player());
+        if (player == null) {
+            throw new IllegalStateException("Player '" + event.player() + "' hasn't joined, can't apply " + event);
+        }
+        GameLocation currentLocation = player.getCurrentLocation();
+        GameLocation storeRoom = world.getStoreRoom();
+
+        if (event instanceof PlayerMoved moved) {
+            requireAt(player, moved.from(), event);
+            GameLocation destination = location(world, moved.to());
+            player.setCurrentLocation(destination);
+            currentLocation.removePlayer(player);
+            destination.addPlayer(player);
+        } else if (event instanceof ArtefactPickedUp pickedUp) {
+            requireAt(player, pickedUp.location(), event);
+            player.addToInventory(require(currentLocation.takeArtefact(pickedUp.artefact()), event));
+        } else if (event instanceof ArtefactDropped dropped) {
+            requireAt(player, dropped.location(), event);
+            currentLocation.addArtefact(require(player.takeFromInventory(dropped.artefact()), event));
+        } else if (event instanceof EntityConsumed consumed) {
+            requireAt(player, consumed.location(), event);
+            String name = consumed.entity();
+            moveEntity(player::takeFromInventory, name, storeRoom::addArtefact);
+            moveEntity(currentLocation::takeCharacter, name, storeRoom::addCharacter);
+            moveEntity(currentLocation::takeFurniture, name, storeRoom::addFurniture);
+        } else if (event instanceof EntityProduced produced) {
+            requireAt(player, produced.location(), event);
+            String name = produced.entity();
+            moveEntity(storeRoom::takeArtefact, name, currentLocation::addArtefact);
+            moveEntity(storeRoom::takeCharacter, name, currentLocation::addCharacter);
+            moveEntity(storeRoom::takeFurniture, name, currentLocation::addFurniture);
+        } else if (event instanceof PathOpened opened) {
+            requireAt(player, opened.from(), event);
+            GameLocation destination = location(world, opened.to());
+            currentLocation.addAdjacentLocation(destination);
+            world.getRoutes().pathOpened(currentLocation, destination);
+        } else if (event instanceof PathClosed closed) {
+            requireAt(player, closed.from(), event);
+            GameLocation destination = location(world, closed.to());
+            currentLocation.removeAdjacentLocation(destination);
+            world.getRoutes().pathClosed(currentLocation, destination);
+        } else if (event instanceof HealthChanged healthChanged) {
+            requireAt(player, healthChanged.location(), event);
+            player.setHealth(healthChanged.health());
+        } else if (event instanceof PlayerDied died) {
+            requireAt(player, died.location(), event);
+            // Copy of inventory made to avoid ConcurrentModificationException
+            for (GameArtefact artefact : new ArrayList<>(player.getInventory())) {
+                player.removeFromInventory(artefact);
+                currentLocation.addArtefact(artefact);
+            }
+            player.setCurrentLocation(world.getStartingLocation());
+            currentLocation.removePlayer(player);
+            world.getStartingLocation().addPlayer(player);
+            player.fullHealth();
+        } else {
+            throw new IllegalStateException("Unhandled event " + event);
+        }
+    }
+
+    private static <T extends GameEntity> void moveEntity(Function<String, T> takeEntity, String name, Consumer<T> addEntity) {
+        // Take the first entity with a matching name, if there is one, then act accordingly for whichever entity type
+        T entity = takeEntity.apply(name);
+        if (entity != null) {
+            addEntity.accept(entity);
+        }
+    }
+
+    private static GameLocation location(GameWorld world, String name) {
+        GameLocation location = world.getLocation(name);
+        if (location == null) {
+            throw new IllegalStateException("There is no location '" + name + "' in this world");
+        }
+        return location;
+    }
+
+    private static void requireAt(GamePlayer player, String location, WorldEvent event) {
+        if (!player.getCurrentLocation().getName().equals(location)) {
+            throw new IllegalStateException("Player '" + player.getName() + "' is in the " + player.getCurrentLocation().getName() + ", can't apply " + event);
+        }
+    }
+
+    private static <T> T require(T entity, WorldEvent event) {
+        if (entity == null) {
+            throw new IllegalStateException("Nothing to move, can't apply " + event);
+        }
+        return entity;
+    }
+
+    // A batch is the format version, the number of events, then for each its type and its fields in the order the record declares them
+    // Strings are a UTF-8 length and bytes
+    public static byte[] encode(List<? extends WorldEvent> events) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + 32 * events.size());
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(events.size());
+            for (WorldEvent event : events) {
+                write(out, event);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Writing to memory doesn't fail
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write(DataOutputStream out, WorldEvent event) throws IOException {
+        if (event instanceof PlayerJoined joined) {
+            writeStrings(out, PLAYER_JOINED, joined.player(), joined.description(), joined.location());
+        } else if (event instanceof PlayerMoved moved) {
+            writeStrings(out, PLAYER_MOVED, moved.player(), moved.from(), moved.to());
+        } else if (event instanceof ArtefactPickedUp pickedUp) {
+            writeStrings(out, ARTEFACT_PICKED_UP, pickedUp.player(), pickedUp.location(), pickedUp.artefact());
+        } else if (event instanceof ArtefactDropped dropped) {
+            writeStrings(out, ARTEFACT_DROPPED, dropped.player(), dropped.location(), dropped.artefact());
+        } else if (event instanceof EntityConsumed consumed) {
+            writeStrings(out, ENTITY_CONSUMED, consumed.player(), consumed.location(), consumed.entity());
+        } else if (event instanceof EntityProduced produced) {
+            writeStrings(out, ENTITY_PRODUCED, produced.player(), produced.location(), produced.entity());
+        } else if (event instanceof PathOpened opened) {
+            writeStrings(out, PATH_OPENED, opened.player(), opened.from(), opened.to());
+        } else if (event instanceof PathClosed closed) {
+            writeStrings(out, PATH_CLOSED, closed.player(), closed.from(), closed.to());
+        } else if (event instanceof HealthChanged healthChanged) {
+            writeStrings(out, HEALTH_CHANGED, healthChanged.player(), healthChanged.location());
+            out.writeInt(healthChanged.health());
+        } else if (event instanceof PlayerDied died) {
+            writeStrings(out, PLAYER_DIED, died.player(), died.location());
+        } else {
+            throw new IllegalStateException("Unhandled event " + event);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, byte type, String... values) throws IOException {
+        out.writeByte(type);
+        for (String value : values) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    // Throws IllegalArgumentException if the batch isn't one that encode writes
+    public static List<WorldEvent> decode(byte[] batch) {
+        ByteBuffer in = ByteBuffer.wrap(batch);
+        try {
+            byte version = in.get();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Events are in format " + version + ", only format " + FORMAT_VERSION + " can be read");
+            }
+            int count = in.getInt();
+            // Checked before allocating, so a damaged count can't ask for more memory than the batch could fill
+            if (count < 0 || count > in.remaining() / MIN_EVENT_BYTES) {
+                throw new IllegalArgumentException("Events are damaged: " + count + " events can't fit in " + in.remaining() + " bytes");
+            }
+            List<WorldEvent> events = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte type = in.get();
+                String player = readString(in);
+                events.add(switch (type) {
+                    case PLAYER_JOINED -> new PlayerJoined(player, readString(in), readString(in));
+                    case PLAYER_MOVED -> new PlayerMoved(player, readString(in), readString(in));
+                    case ARTEFACT_PICKED_UP -> new ArtefactPickedUp(player, readString(in), readString(in));
+                    case ARTEFACT_DROPPED -> new ArtefactDropped(player, readString(in), readString(in));
+                    case ENTITY_CONSUMED -> new EntityConsumed(player, readString(in), readString(in));
+                    case ENTITY_PRODUCED -> new EntityProduced(player, readString(in), readString(in));
+                    case PATH_OPENED -> new PathOpened(player, readString(in), readString(in));
+                    case PATH_CLOSED -> new PathClosed(player, readString(in), readString(in));
+                    case HEALTH_CHANGED -> new HealthChanged(player, readString(in), in.getInt());
+                    case PLAYER_DIED -> new PlayerDied(player, readString(in));
+                    default -> throw new IllegalArgumentException("Unknown event type " + type);
+                });
+            }
+            return events;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Events are damaged: " + e, e);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,365 @@
+package org.tre.engine;
+
+import com.alexmerz.graphviz.ParseException;
+import org.tre.objects.GameArtefact;
+import org.tre.objects.GameCharacter;
+import org.tre.objects.GameEntity;
+import org.tre.objects.GameFurniture;
+import org.tre.objects.GameLocation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// A precompiled entities and actions pair, loaded through a memory mapping instead of parsing the text files
+//
+// Layout, all big-endian:
+//   header:  magic, format version, size and CRC32 of both source files, payload length, payload CRC32
+//   payload: string table, then locations with their entities, then each location's exits, then actions,
+//            then the compiled trigger and subject matchers
+// Every name, description and narration is stored once in the string table and referred to by its index
+// The image is only used while both source files have the contents it was built from; modification times are not
+// trusted, as an edit within the filesystem's timestamp granularity can keep both the size and the time
+public final class WorldImage {
+    private static final int MAGIC = 0x54524557;
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_BYTES = 4 + 4 + 8 * 4 + 4 + 8;
+    private static final String EXTENSION = ".world";
+    private static final int CHECKSUM_BUFFER_BYTES = 64 * 1024;
+
+    private WorldImage() {
+    }
+
+    // Compiles the given files into an image next to the entities file
+    // Usage: WorldImage <entities file> <actions file> [image file]
+    public static void main(String[] args) throws IOException, ParseException {
+        if (args.length < 2 || args.length > 3) {
+            System.out.println("Usage: WorldImage <entities file> <actions file> [image file]");
+            return;
+        }
+        File entitiesFile = new File(args[0]);
+        File actionsFile = new File(args[1]);
+        Path imagePath = args.length == 3 ? Path.of(args[2]) : imagePathFor(entitiesFile);
+        compile(entitiesFile, actionsFile, imagePath);
+        System.out.println("Wrote world image to " + imagePath);
+    }
+
+    // Where the engine looks for an image of the given entities file, e.g. config/example-entities.world
+    public static Path imagePathFor(File entitiesFile) {
+        String name = entitiesFile.getName();
+        int extensionIndex = name.lastIndexOf('.');
+        String baseName = extensionIndex > 0 ? name.substring(0, extensionIndex) : name;
+        return entitiesFile.toPath().resolveSibling(baseName + EXTENSION);
+    }
+
+    public static void compile(File entitiesFile, File actionsFile, Path imagePath) throws IOException, ParseException {
+        ActionParser actionParser = new ActionParser();
+        if (actionParser.parseActionsFile(actionsFile) == null) {
+            throw new IOException("Couldn't compile world image: " + actionParser.getParseError());
+        }
+        Set<GameLocation> locations = new EntityParser().parseEntitiesFile(entitiesFile);
+        write(imagePath, entitiesFile, actionsFile, locations, actionParser.getActionIndex());
+    }
+
+    // The image is written to a temporary file and moved into place, so a half written image is never picked up
+    public static void write(Path imagePath, File entitiesFile, File actionsFile, Set<GameLocation> locations, ActionIndex actionIndex) throws IOException {
+        StringTable strings = new StringTable();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+
+        writeLocations(out, strings, locations);
+
+        // Actions are shared between their triggers, so each one is written once along with all of its triggers
+        Map<GameAction, List<String>> triggersByAction = new IdentityHashMap<>();
+        List<GameAction> actionOrder = new ArrayList<>();
+        actionIndex.getActionsByTrigger().forEach((trigger, actions) -> {
+            for (GameAction action : actions) {
+                triggersByAction.computeIfAbsent(action, a -> {
+                    actionOrder.add(a);
+                    return new ArrayList<>();
+                }).add(trigger);
+            }
+        });
+        out.writeInt(actionOrder.size());
+        for (GameAction action : actionOrder) {
+            writeStrings(out, strings, triggersByAction.get(action));
+            writeStrings(out, strings, action.getSubjects());
+            writeStrings(out, strings, action.getConsumed());
+            writeStrings(out, strings, action.getProduced());
+            out.writeInt(strings.indexOf(action.getNarration()));
+        }
+        // Compiling the matchers is most of the cost of building the action index, so they are stored compiled
+        actionIndex.getTriggerMatcher().writeTo(out, strings::indexOf);
+        actionIndex.getSubjectMatcher().writeTo(out, strings::indexOf);
+        out.flush();
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(body.size() + strings.byteSize());
+        DataOutputStream payloadOut = new DataOutputStream(payload);
+        strings.writeTo(payloadOut);
+        body.writeTo(payloadOut);
+        payloadOut.flush();
+        byte[] payloadBytes = payload.toByteArray();
+        CRC32 checksum = new CRC32();
+        checksum.update(payloadBytes);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION);
+        header.putLong(entitiesFile.length()).putLong(fileChecksum(entitiesFile));
+        header.putLong(actionsFile.length()).putLong(fileChecksum(actionsFile));
+        header.putInt(payloadBytes.length).putLong(checksum.getValue());
+        header.flip();
+
+        Path temporaryPath = imagePath.resolveSibling(imagePath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer payloadBuffer = ByteBuffer.wrap(payloadBytes);
+            while (header.hasRemaining() || payloadBuffer.hasRemaining()) {
+                channel.write(new ByteBuffer[] {header, payloadBuffer});
+            }
+            channel.force(true);
+        }
+        Files.move(temporaryPath, imagePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Returns null if there is no image, it was built from other versions of the files, or it fails its checksum
+    // The caller should then load the text files instead
+    public static GameWorld load(Path imagePath, File entitiesFile, File actionsFile) {
+        try (FileChannel channel = FileChannel.open(imagePath, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                System.out.println("World image " + imagePath + " is damaged, loading the text files instead.");
+                return null;
+            }
+            if (channel.size() > Integer.MAX_VALUE) {
+                System.out.println("World image " + imagePath + " is too large to map, loading the text files instead.");
+                return null;
+            }
+            MappedByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (image.getInt() != MAGIC || image.getInt() != FORMAT_VERSION) {
+                System.out.println("World image " + imagePath + " is from another version, loading the text files instead.");
+                return null;
+            }
+            // The sizes are compared first, so most edits are caught without reading the source files
+            long entitiesLength = image.getLong();
+            long entitiesChecksum = image.getLong();
+            long actionsLength = image.getLong();
+            long actionsChecksum = image.getLong();
+            if (entitiesLength != entitiesFile.length() || actionsLength != actionsFile.length()
+                    || entitiesChecksum != fileChecksum(entitiesFile) || actionsChecksum != fileChecksum(actionsFile)) {
+                System.out.println("World image " + imagePath + " is out of date, loading the text files instead.");
+                return null;
+            }
+            int payloadLength = image.getInt();
+            long expectedChecksum = image.getLong();
+            if (payloadLength != image.remaining()) {
+                System.out.println("World image " + imagePath + " is damaged, loading the text files instead.");
+                return null;
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(image.slice());
+            if (checksum.getValue() != expectedChecksum) {
+                System.out.println("World image " + imagePath + " is damaged, loading the text files instead.");
+                return null;
+            }
+            return readWorld(image);
+
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            System.out.println("Couldn't read world image " + imagePath + ", loading the text files instead: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Still far cheaper than parsing the file, which is what the image saves
+    // Read through a fixed buffer, as actions files can be far larger than the heap
+    private static long fileChecksum(File file) throws IOException {
+        CRC32 checksum = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(CHECKSUM_BUFFER_BYTES);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                checksum.update(buffer);
+                buffer.clear();
+            }
+        }
+        return checksum.getValue();
+    }
+
+    private static GameWorld readWorld(ByteBuffer image) {
+        String[] strings = readStringTable(image);
+
+        GameLocation[] locations = readLocations(image, strings);
+
+        HashMap<String, HashSet<GameAction>> actions = new HashMap<>();
+        int actionCount = image.getInt();
+        for (int i = 0; i < actionCount; i++) {
+            Set<String> triggers = readStrings(image, strings);
+            Set<String> subjects = readStrings(image, strings);
+            Set<String> consumed = readStrings(image, strings);
+            Set<String> produced = readStrings(image, strings);
+            GameAction action = new GameAction(subjects, consumed, produced, strings[image.getInt()]);
+            for (String trigger : triggers) {
+                actions.computeIfAbsent(trigger, t -> new HashSet<>()).add(action);
+            }
+        }
+
+        PhraseMatcher triggerMatcher = PhraseMatcher.readFrom(image, strings);
+        PhraseMatcher subjectMatcher = PhraseMatcher.readFrom(image, strings);
+        return new GameWorld(ActionIndex.compile(actions, triggerMatcher, subjectMatcher), new HashSet<>(Arrays.asList(locations)));
+    }
+
+    // Writes the locations with their entities, then each location's exits as the indexes of the locations they lead to
+    // Snapshots of a running world share this layout
+    static Map<GameLocation, Integer> writeLocations(DataOutputStream out, StringTable strings, Collection<GameLocation> locations) throws IOException {
+        List<GameLocation> locationOrder = new ArrayList<>(locations);
+        Map<GameLocation, Integer> locationNumbers = new HashMap<>();
+        for (GameLocation location : locationOrder) {
+            locationNumbers.put(location, locationNumbers.size());
+        }
+
+        out.writeInt(locationOrder.size());
+        for (GameLocation location : locationOrder) {
+            out.writeInt(strings.indexOf(location.getName()));
+            out.writeInt(strings.indexOf(location.getDescription()));
+            out.writeBoolean(location.isStartingLocation());
+            writeEntities(out, strings, location.getPresentCharacters());
+            writeEntities(out, strings, location.getPresentArtefacts());
+            writeEntities(out, strings, location.getPresentFurniture());
+        }
+        for (GameLocation location : locationOrder) {
+            Set<GameLocation> exits = location.getAdjacentLocations();
+            out.writeInt(exits.size());
+            for (GameLocation exit : exits) {
+                out.writeInt(locationNumbers.get(exit));
+            }
+        }
+        return locationNumbers;
+    }
+
+    // Returns the locations in the order they were written
+    static GameLocation[] readLocations(ByteBuffer image, String[] strings) {
+        int locationCount = image.getInt();
+        GameLocation[] locations = new GameLocation[locationCount];
+        for (int i = 0; i < locationCount; i++) {
+            String name = strings[image.getInt()];
+            String description = strings[image.getInt()];
+            boolean isStartingLocation = image.get() != 0;
+            Set<GameCharacter> characters = new HashSet<>();
+            readEntities(image, strings, (entityName, entityDescription) -> characters.add(new GameCharacter(entityName, entityDescription)));
+            Set<GameArtefact> artefacts = new HashSet<>();
+            readEntities(image, strings, (entityName, entityDescription) -> artefacts.add(new GameArtefact(entityName, entityDescription)));
+            Set<GameFurniture> furniture = new HashSet<>();
+            readEntities(image, strings, (entityName, entityDescription) -> furniture.add(new GameFurniture(entityName, entityDescription)));
+            locations[i] = new GameLocation(name, description, characters, artefacts, furniture);
+            locations[i].setStartingLocation(isStartingLocation);
+        }
+        for (GameLocation location : locations) {
+            int exitCount = image.getInt();
+            for (int j = 0; j < exitCount; j++) {
+                location.addAdjacentLocation(locations[image.getInt()]);
+            }
+        }
+        return locations;
+    }
+
+    static String[] readStringTable(ByteBuffer image) {
+        String[] strings = new String[image.getInt()];
+        byte[] bytes = new byte[64];
+        for (int i = 0; i < strings.length; i++) {
+            int length = image.getInt();
+            if (length < 0) {
+                strings[i] = null;
+                continue;
+            }
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            image.get(bytes, 0, length);
+            strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    interface EntityConsumer {
+        void accept(String name, String description);
+    }
+
+    static void readEntities(ByteBuffer image, String[] strings, EntityConsumer addEntity) {
+        int count = image.getInt();
+        for (int i = 0; i < count; i++) {
+            addEntity.accept(strings[image.getInt()], strings[image.getInt()]);
+        }
+    }
+
+    private static Set<String> readStrings(ByteBuffer image, String[] strings) {
+        int count = image.getInt();
+        Set<String> values = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            values.add(strings[image.getInt()]);
+        }
+        return values;
+    }
+
+    static void writeEntities(DataOutputStream out, StringTable strings, Set<? extends GameEntity> entities) throws IOException {
+        out.writeInt(entities.size());
+        for (GameEntity entity : entities) {
+            out.writeInt(strings.indexOf(entity.getName()));
+            out.writeInt(strings.indexOf(entity.getDescription()));
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, StringTable strings, Collection<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeInt(strings.indexOf(value));
+        }
+    }
+
+    // Each distinct string is stored once, as its UTF-8 length and bytes, with a length of -1 standing for null
+    static final class StringTable {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<byte[]> encoded = new ArrayList<>();
+        private int byteSize = 4;
+
+        int indexOf(String value) {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = encoded.size();
+                indexes.put(value, index);
+                byte[] bytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+                encoded.add(bytes);
+                byteSize += 4 + (bytes == null ? 0 : bytes.length);
+            }
+            return index;
+        }
+
+        int byteSize() {
+            return byteSize;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(encoded.size());
+            for (byte[] bytes : encoded) {
+                if (bytes == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.tre.engine;
+
+import org.tre.objects.GameArtefact;
+import org.tre.objects.GameLocation;
+import org.tre.objects.GamePlayer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// The whole state of a running world at one point in its journal, so the journal before that point can be thrown away
+//
+// Layout, all big-endian:
+//   header:  magic, format version, sequence number of the last journal record it includes, payload length, payload CRC32
+//   payload: string table, then locations as in a WorldImage, then the player count and each player
+//            with their name, description, location index, health and inventory
+// Snapshots are named after that sequence number, e.g. snapshot-00000000000000010000.snap
+final class WorldSnapshot {
+    private static final int MAGIC = 0x54524553;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 8;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+
+    private WorldSnapshot() {
+    }
+
+    // Nothing may change the world while this runs
+    static byte[] encode(GameWorld world, long sequence) {
+        try {
+            WorldImage.StringTable strings = new WorldImage.StringTable();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+
+            Map<GameLocation, Integer> locationNumbers = WorldImage.writeLocations(out, strings, world.getGameLocations());
+            Collection<GamePlayer> players = world.getPlayers();
+            out.writeInt(players.size());
+            for (GamePlayer player : players) {
+                out.writeInt(strings.indexOf(player.getName()));
+                out.writeInt(strings.indexOf(player.getDescription()));
+                out.writeInt(locationNumbers.get(player.getCurrentLocation()));
+                out.writeInt(player.getHealth());
+                WorldImage.writeEntities(out, strings, player.getInventory());
+            }
+            out.flush();
+
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(HEADER_BYTES + strings.byteSize() + body.size());
+            DataOutputStream payloadOut = new DataOutputStream(payload);
+            payloadOut.write(new byte[HEADER_BYTES]);
+            strings.writeTo(payloadOut);
+            body.writeTo(payloadOut);
+            payloadOut.flush();
+
+            byte[] snapshot = payload.toByteArray();
+            CRC32 checksum = new CRC32();
+            checksum.update(snapshot, HEADER_BYTES, snapshot.length - HEADER_BYTES);
+            ByteBuffer.wrap(snapshot).putInt(MAGIC).putInt(FORMAT_VERSION).putLong(sequence)
+                    .putInt(snapshot.length - HEADER_BYTES).putLong(checksum.getValue());
+            return snapshot;
+        } catch (IOException e) {
+            // Writing to memory doesn't fail
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Written to a temporary file and moved into place, so a half written snapshot is never picked up
+    // Returns once the snapshot is in place on disk, so the caller can delete what it covers
+    static void save(Path directory, long sequence, byte[] snapshot) throws IOException {
+        Path path = pathFor(directory, sequence);
+        Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // The rename has to survive a crash before the snapshots and journal it replaces are deleted
+        try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch (IOException e) {
+            // Not every platform allows a directory to be opened, there is nothing more to be done on those
+        }
+    }
+
+    // Returns the sequence number of the newest snapshot in the directory, or 0 if there isn't one
+    static long latest(Path directory) throws IOException {
+        return listSnapshots(directory).stream().max(Long::compare).orElse(0L);
+    }
+
+    // Deletes every snapshot older than the given one
+    static void deleteBefore(Path directory, long sequence) throws IOException {
+        for (long older : listSnapshots(directory)) {
+            if (older < sequence) {
+                Files.deleteIfExists(pathFor(directory, older));
+            }
+        }
+    }
+
+    // The world's locations are replaced by the snapshot's, only its actions are kept
+    static GameWorld read(Path directory, long sequence, ActionIndex actionIndex) throws IOException {
+        Path path = pathFor(directory, sequence);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + path + " is damaged");
+            }
+            MappedByteBuffer snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (snapshot.getInt() != MAGIC || snapshot.getInt() != FORMAT_VERSION) {
+                throw new IOException("Snapshot " + path + " is from another version");
+            }
+            if (snapshot.getLong() != sequence) {
+                throw new IOException("Snapshot " + path + " doesn't match its name");
+            }
+            int payloadLength = snapshot.getInt();
+            long expectedChecksum = snapshot.getLong();
+            CRC32 checksum = new CRC32();
+            checksum.update(snapshot.slice());
+            if (payloadLength != snapshot.remaining() || checksum.getValue() != expectedChecksum) {
+                throw new IOException("Snapshot " + path + " is damaged");
+            }
+            return readWorld(snapshot, actionIndex);
+
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Snapshot " + path + " is damaged", e);
+        }
+    }
+
+    private static GameWorld readWorld(ByteBuffer snapshot, ActionIndex actionIndex) {
+        String[] strings = WorldImage.readStringTable(snapshot);
+        GameLocation[] locations = WorldImage.readLocations(snapshot, strings);
+        GameWorld world = new GameWorld(actionIndex, new HashSet<>(Arrays.asList(locations)));
+
+        int playerCount = snapshot.getInt();
+        for (int i = 0; i < playerCount; i++) {
+            GamePlayer player = new GamePlayer(strings[snapshot.getInt()], strings[snapshot.getInt()]);
+            GameLocation location = locations[snapshot.getInt()];
+            player.setHealth(snapshot.getInt());
+            WorldImage.readEntities(snapshot, strings, (name, description) -> player.addToInventory(new GameArtefact(name, description)));
+            world.restorePlayer(player, location);
+        }
+        return world;
+    }
+
+    private static Path pathFor(Path directory, long sequence) {
+        return directory.resolve(PREFIX + String.format("%020d", sequence) + SUFFIX);
+    }
+
+    private static List<Long> listSnapshots(Path directory) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    sequences.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        return sequences;
+    }
+}
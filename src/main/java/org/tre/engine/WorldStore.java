@@ -0,0 +1,181 @@
+package org.tre.engine;
+
+import org.tre.persistence.Journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+// Keeps a world's state in a directory, so that it survives the engine restarting
+// The changes made by each command are appended to a journal, and every so often the whole world is written to a snapshot
+// Opening the store loads the newest snapshot and replays the journal after it, so recovery never replays more than
+// the snapshot interval's worth of commands
+public final class WorldStore implements Closeable {
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 10_000;
+
+    private final Path directory;
+    private final GameWorld world;
+    private final Journal journal;
+    private final int snapshotInterval;
+    // Commands share it, snapshots take it alone so that they see the world between commands
+    private final ReadWriteLock commandLock = new ReentrantReadWriteLock();
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    private volatile long snapshotSequence;
+    // The last record journaled when the calling thread's command committed, while it still held its locks
+    // Whatever that command showed the player is in this record or an earlier one
+    private final ThreadLocal<long[]> seenSequence = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final long recoveryNanos;
+    private final long replayedRecords;
+
+    private WorldStore(Path directory, GameWorld world, Journal journal, int snapshotInterval, long snapshotSequence, long recoveryNanos, long replayedRecords) {
+        this.directory = directory;
+        this.world = world;
+        this.journal = journal;
+        this.snapshotInterval = snapshotInterval;
+        this.snapshotSequence = snapshotSequence;
+        this.recoveryNanos = recoveryNanos;
+        this.replayedRecords = replayedRecords;
+        world.setWorldStore(this);
+    }
+
+    // The initial world is the one loaded from the config files, it is only used if the directory holds no snapshot yet
+    // Use getWorld afterwards, as the store may have restored a different one
+    public static WorldStore open(Path directory, GameWorld initialWorld, int snapshotInterval, boolean sync) throws IOException {
+        if (snapshotInterval < 1) {
+            throw new IllegalArgumentException("Snapshot interval must be positive.");
+        }
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+
+        long snapshotSequence = WorldSnapshot.latest(directory);
+        GameWorld world = snapshotSequence == 0 ? initialWorld : WorldSnapshot.read(directory, snapshotSequence, initialWorld.getActionIndex());
+        long[] replayed = {0};
+        Journal journal = Journal.open(directory, snapshotSequence, (sequence, record) -> {
+            try {
+                WorldEvents.replay(world, WorldEvents.decode(record));
+            } catch (RuntimeException e) {
+                throw new IOException("Journal record " + sequence + " doesn't apply to this world: " + e, e);
+            }
+            replayed[0]++;
+        }, sync);
+        return new WorldStore(directory, world, journal, snapshotInterval, snapshotSequence, System.nanoTime() - start, replayed[0]);
+    }
+
+    public GameWorld getWorld() {
+        return world;
+    }
+
+    // Runs commands against the world and waits for everything they saw to be journaled, not just their own changes,
+    // so a player is never shown a change that a crash could still take back
+    // Takes a snapshot afterwards if enough has been journaled since the last one
+    public <T> T run(Supplier<T> commands) {
+        T result;
+        Lock readLock = commandLock.readLock();
+        readLock.lock();
+        try {
+            result = commands.get();
+        } finally {
+            readLock.unlock();
+        }
+
+        // Waiting happens outside the lock, so that other threads' commands can join the same write to the journal
+        try {
+            journal.awaitDurable(seenSequence.get()[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't journal changes to the world", e);
+        }
+
+        if (journal.getLastSequence() - snapshotSequence >= snapshotInterval && snapshotting.compareAndSet(false, true)) {
+            try {
+                snapshot();
+            } catch (IOException e) {
+                // The journal still holds everything, so this only makes the next recovery slower
+                System.out.println("Couldn't write a snapshot of the world: " + e.getMessage());
+            } finally {
+                snapshotting.set(false);
+            }
+        }
+        return result;
+    }
+
+    // Writes the whole world to a new snapshot, then deletes the older snapshots and the journal it covers
+    // Commands are held back only while the world is copied into memory, not while the copy is written out
+    public void snapshot() throws IOException {
+        snapshotAfter(null);
+    }
+
+    // Makes a change that isn't journaled, such as a reload of the config files, while no commands are running
+    // The snapshot taken straight after means the journal carries on from the changed world
+    synchronized void snapshotAfter(Runnable change) throws IOException {
+        byte[] snapshot;
+        long sequence;
+        Lock writeLock = commandLock.writeLock();
+        writeLock.lock();
+        try {
+            if (change != null) {
+                change.run();
+            }
+            sequence = journal.getLastSequence();
+            snapshot = WorldSnapshot.encode(world, sequence);
+            journal.roll();
+        } finally {
+            writeLock.unlock();
+        }
+        WorldSnapshot.save(directory, sequence, snapshot);
+        snapshotSequence = sequence;
+        WorldSnapshot.deleteBefore(directory, sequence);
+        journal.deleteBefore(sequence + 1);
+    }
+
+    // The events of one command
+    void append(List<WorldEvent> events) {
+        // Appended after every record the command could have seen
+        seenSequence.get()[0] = journal.append(WorldEvents.encode(events));
+    }
+
+    // Called by a command that changed nothing, while it holds its locks, as it may still have read other commands' changes
+    void seen() {
+        seenSequence.get()[0] = journal.getLastSequence();
+    }
+
+    // The last record journaled, whether or not it has reached the disk yet
+    public long getLastSequence() {
+        return journal.getLastSequence();
+    }
+
+    public long getDurableSequence() {
+        return journal.getDurableSequence();
+    }
+
+    public long getSnapshotSequence() {
+        return snapshotSequence;
+    }
+
+    public long getRecoveryNanos() {
+        return recoveryNanos;
+    }
+
+    // Journal records replayed on top of the snapshot when the store was opened, one per command that changed the world
+    public long getReplayedRecords() {
+        return replayedRecords;
+    }
+
+    public Journal.Stats getJournalStats() {
+        return journal.getStats();
+    }
+
+    @Override
+    public void close() throws IOException {
+        world.setWorldStore(null);
+        journal.close();
+    }
+}
@@ -1,7 +0,0 @@
-package org.tre.exceptions;
-
-public class ActionTriggerNotFoundException extends Exception{
-    public ActionTriggerNotFoundException(String message) {
-        super(message);
-    }
-}
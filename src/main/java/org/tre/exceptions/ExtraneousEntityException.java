@@ -1,7 +0,0 @@
-package org.tre.exceptions;
-
-public class ExtraneousEntityException extends Exception{
-    public ExtraneousEntityException(String message) {
-        super(message);
-    }
-}
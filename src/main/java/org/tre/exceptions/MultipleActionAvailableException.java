@@ -1,7 +0,0 @@
-package org.tre.exceptions;
-
-public class MultipleActionAvailableException extends Exception{
-    public MultipleActionAvailableException(String message) {
-        super(message);
-    }
-}
@@ -1,7 +0,0 @@
-package org.tre.exceptions;
-
-public class PlayerNotFoundException extends Exception {
-    public PlayerNotFoundException(String message) {
-        super(message);
-    }
-}
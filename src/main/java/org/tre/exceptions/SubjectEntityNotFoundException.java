@@ -1,7 +0,0 @@
-package org.tre.exceptions;
-
-public class SubjectEntityNotFoundException extends Exception{
-    public SubjectEntityNotFoundException(String message) {
-        super(message);
-    }
-}
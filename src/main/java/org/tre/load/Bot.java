@@ -0,0 +1,122 @@
+package org.tre.load;
+
+import org.tre.engine.CommandKind;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// A simulated player that wanders the world, picking things up, dropping them and trying actions
+// Commands are chosen from a map of the world as it was loaded rather than the world being played, which may be in another
+// process, so a bot only knows where it is and what it carries from the responses it gets back
+// Each bot is only ever driven by one thread
+final class Bot {
+    // Out of 100, the rest are actions
+    private static final int GOTO_WEIGHT = 20;
+    private static final int TRAVEL_WEIGHT = 5;
+    private static final int GET_WEIGHT = 20;
+    private static final int DROP_WEIGHT = 15;
+    private static final int LOOK_WEIGHT = 15;
+    private static final int INVENTORY_WEIGHT = 3;
+    private static final int HEALTH_WEIGHT = 2;
+
+    private static final String MOVED = "You have moved to the '";
+    private static final String PICKED_UP = "You picked up the '";
+    private static final String DROPPED = "You dropped '";
+    private static final String DIED = "You died";
+
+    private final String name;
+    private final BotMap map;
+    private final SplittableRandom random;
+    private String location;
+    private final List<String> inventory = new ArrayList<>();
+    private CommandKind kind;
+    // What the last command would do if it was an action that worked, otherwise null
+    private BotMap.ActionOutcome action;
+
+    Bot(String name, BotMap map, long seed) {
+        this.name = name;
+        this.map = map;
+        this.random = new SplittableRandom(seed);
+        location = map.getStart();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    // The kind of the command last returned by nextCommand
+    CommandKind getKind() {
+        return kind;
+    }
+
+    // Falls back to looking around whenever the chosen kind of command has nothing to act on
+    String nextCommand() {
+        int roll = random.nextInt(100);
+        String command = null;
+        action = null;
+        if ((roll -= GOTO_WEIGHT) < 0) {
+            command = pick(CommandKind.GOTO, "goto ", map.getExits(location));
+        } else if ((roll -= TRAVEL_WEIGHT) < 0) {
+            // Anywhere at all, including places with no way there
+            command = pick(CommandKind.TRAVEL, "travel to ", map.getDestinations());
+        } else if ((roll -= GET_WEIGHT) < 0) {
+            command = pick(CommandKind.GET, "get ", map.getArtefacts(location));
+        } else if ((roll -= DROP_WEIGHT) < 0) {
+            command = pick(CommandKind.DROP, "drop ", inventory);
+        } else if ((roll -= LOOK_WEIGHT) < 0) {
+            kind = CommandKind.LOOK;
+            command = "look";
+        } else if ((roll -= INVENTORY_WEIGHT) < 0) {
+            kind = CommandKind.INVENTORY;
+            command = "inv";
+        } else if ((roll -= HEALTH_WEIGHT) < 0) {
+            kind = CommandKind.HEALTH;
+            command = "health";
+        } else {
+            // Whether or not the subjects are to hand
+            command = pick(CommandKind.ACTION, "", map.getActionCommands());
+            action = command == null ? null : map.getActionOutcome(command);
+        }
+        if (command == null) {
+            kind = CommandKind.LOOK;
+            command = "look";
+        }
+        return name + ": " + command;
+    }
+
+    private String pick(CommandKind commandKind, String verb, List<String> choices) {
+        if (choices.isEmpty()) {
+            return null;
+        }
+        kind = commandKind;
+        return verb + choices.get(random.nextInt(choices.size()));
+    }
+
+    // Keeps track of where the bot is and what it carries
+    void observe(String response) {
+        if (response.startsWith(MOVED)) {
+            String destination = quoted(response, MOVED.length());
+            if (map.hasLocation(destination)) {
+                location = destination;
+            }
+        } else if (response.startsWith(PICKED_UP)) {
+            inventory.add(quoted(response, PICKED_UP.length()));
+        } else if (response.startsWith(DROPPED)) {
+            inventory.remove(quoted(response, DROPPED.length()));
+        } else if (response.contains(DIED)) {
+            inventory.clear();
+            location = map.getStart();
+        } else if (action != null && response.startsWith(action.narration())) {
+            // Actions only ever use up artefacts from the inventory, anything else consumed isn't there to remove
+            for (String consumed : action.consumed()) {
+                inventory.remove(consumed);
+            }
+        }
+    }
+
+    private static String quoted(String response, int start) {
+        int end = response.indexOf('\'', start);
+        return end == -1 ? response.substring(start) : response.substring(start, end);
+    }
+}
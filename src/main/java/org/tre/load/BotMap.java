@@ -0,0 +1,72 @@
+package org.tre.load;
+
+import org.tre.engine.GameAction;
+import org.tre.engine.GameWorld;
+import org.tre.objects.GameLocation;
+
+import java.util.*;
+
+// What bots know of the world, taken from it as it was loaded and never changed, so every bot can read it at once
+// Everything is in name order, so that bots given the same seeds send the same commands
+final class BotMap {
+    private final String start;
+    private final Map<String, List<String>> exits = new HashMap<>();
+    private final Map<String, List<String>> artefacts = new HashMap<>();
+    // Every location but the storeroom, which players never go to
+    private final List<String> destinations;
+    // A trigger followed by every subject of one of its actions, for each action of each trigger
+    private final List<String> actionCommands = new ArrayList<>();
+    // What each of those commands answers and uses up when it works, so bots know what it took from their inventories
+    private final Map<String, ActionOutcome> actionOutcomes = new HashMap<>();
+
+    BotMap(GameWorld world) {
+        start = world.getStartingLocation().getName();
+        for (GameLocation location : world.getGameLocations()) {
+            exits.put(location.getName(), location.getAdjacentLocations().stream().map(GameLocation::getName).sorted().toList());
+            artefacts.put(location.getName(), location.getArtefactNames().stream().sorted().toList());
+        }
+        destinations = exits.keySet().stream().filter(name -> !name.equals("storeroom")).sorted().toList();
+        new TreeMap<>(world.getActionIndex().getActionsByTrigger()).forEach((trigger, actions) -> {
+            List<String> commands = new ArrayList<>();
+            for (GameAction action : actions) {
+                String command = trigger + " " + String.join(" ", new TreeSet<>(action.getSubjects()));
+                commands.add(command);
+                actionOutcomes.putIfAbsent(command, new ActionOutcome(action.getNarration(), List.copyOf(action.getConsumed())));
+            }
+            commands.sort(null);
+            actionCommands.addAll(commands);
+        });
+    }
+
+    String getStart() {
+        return start;
+    }
+
+    boolean hasLocation(String location) {
+        return exits.containsKey(location);
+    }
+
+    List<String> getExits(String location) {
+        return exits.getOrDefault(location, List.of());
+    }
+
+    List<String> getDestinations() {
+        return destinations;
+    }
+
+    List<String> getArtefacts(String location) {
+        return artefacts.getOrDefault(location, List.of());
+    }
+
+    List<String> getActionCommands() {
+        return actionCommands;
+    }
+
+    // Null if the command isn't one of the action commands
+    ActionOutcome getActionOutcome(String command) {
+        return actionOutcomes.get(command);
+    }
+
+    record ActionOutcome(String narration, List<String> consumed) {
+    }
+}
@@ -0,0 +1,186 @@
+package org.tre.load;
+
+import org.tre.engine.CommandKind;
+import org.tre.engine.GameEngine;
+import org.tre.engine.GameWorld;
+import org.tre.engine.WorldDefinition;
+import org.tre.server.GameClient;
+import org.tre.server.StatusHandler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+// Drives an engine with simulated players, to find out how many commands it can take and how quickly it answers them
+// Bots are shared out between threads, and each thread sends its bots' commands one at a time, taking turns between them
+// With a target rate, each thread sends at its share of the rate whatever the engine does, so a slow engine shows up as
+// latency rather than as the bots politely sending less; without one, each thread sends its next command as soon as it is answered
+public final class LoadGenerator {
+    // Made once, so that a run after a warmup carries on from where the warmup left each player
+    private final List<List<Bot>> botsByThread = new ArrayList<>();
+    private final int threads;
+    private final double rate;
+
+    // Where the bots' commands go, such as an engine in this process or a GameServer
+    // Each reply says whether the command failed, so failures are counted without reading the text of the response
+    @FunctionalInterface
+    public interface Target {
+        StatusHandler.Reply send(String command) throws IOException;
+    }
+
+    // The map is the world as loaded from the config files the engine is running, which bots plan their moves from
+    // A rate of zero sends commands as fast as they are answered
+    public LoadGenerator(GameWorld map, int players, int threads, double rate, long seed) {
+        if (players < 1 || threads < 1 || rate < 0) {
+            throw new IllegalArgumentException("There must be at least one player and one thread, and the rate can't be negative.");
+        }
+        this.threads = Math.min(threads, players);
+        this.rate = rate;
+        BotMap botMap = new BotMap(map);
+        for (int i = 0; i < this.threads; i++) {
+            botsByThread.add(new ArrayList<>());
+        }
+        for (int i = 0; i < players; i++) {
+            botsByThread.get(i % this.threads).add(new Bot("bot" + i, botMap, seed * 31 + i));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // '--players <n>', '--threads <n>', '--rate <commands per second>' (0 for as fast as possible), '--seconds <n>',
+        // '--warmup <seconds>' run first and left out of the report, '--seed <n>',
+        // and '--connect <port or host:port>' to drive a running server, started with '--status', instead of an engine in this process
+        int players = 100;
+        int threads = Runtime.getRuntime().availableProcessors();
+        double rate = 0;
+        int seconds = 30;
+        int warmupSeconds = 0;
+        long seed = 1;
+        String connect = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--players" -> players = Integer.parseInt(args[i + 1]);
+                case "--threads" -> threads = Integer.parseInt(args[i + 1]);
+                case "--rate" -> rate = Double.parseDouble(args[i + 1]);
+                case "--seconds" -> seconds = Integer.parseInt(args[i + 1]);
+                case "--warmup" -> warmupSeconds = Integer.parseInt(args[i + 1]);
+                case "--seed" -> seed = Long.parseLong(args[i + 1]);
+                case "--connect" -> connect = args[i + 1];
+                default -> {
+                    System.out.println("Usage: LoadGenerator [--players <n>] [--threads <n>] [--rate <per second>] [--seconds <n>] [--warmup <seconds>] [--seed <n>] [--connect <port or host:port>]");
+                    return;
+                }
+            }
+        }
+
+        // The same config files as the engine being driven
+        List<File> files = GameEngine.loadFiles(new BufferedReader(new InputStreamReader(System.in)), false);
+        WorldDefinition definition = WorldDefinition.load(files.get(0), files.get(1));
+        LoadGenerator generator = new LoadGenerator(definition.newWorld(), players, threads, rate, seed);
+        Duration duration = Duration.ofSeconds(seconds);
+        Duration warmup = Duration.ofSeconds(warmupSeconds);
+        LoadReport report;
+        if (connect == null) {
+            GameEngine engine = new GameEngine(definition, true);
+            generator.run(inProcess(engine), warmup);
+            report = generator.run(inProcess(engine), duration);
+            engine.close();
+        } else {
+            int colon = connect.lastIndexOf(':');
+            InetSocketAddress address = colon == -1
+                    ? new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(connect.trim()))
+                    : new InetSocketAddress(connect.substring(0, colon).trim(), Integer.parseInt(connect.substring(colon + 1).trim()));
+            try (GameClient client = new GameClient(address)) {
+                generator.run(overSocket(client), warmup);
+                report = generator.run(overSocket(client), duration);
+            }
+        }
+        System.out.println(report);
+    }
+
+    // Commands from several threads need an engine that takes commands from several threads
+    public static Target inProcess(GameEngine engine) {
+        return command -> {
+            String response = engine.handleCommand(command);
+            return new StatusHandler.Reply(response, engine.getLastFailure());
+        };
+    }
+
+    // The server has to be running a StatusHandler, such as one started with '--status'
+    public static Target overSocket(GameClient client) {
+        return command -> StatusHandler.Reply.parse(client.request(command));
+    }
+
+    // Blocks for the duration, then waits for the commands still being answered
+    // Each run carries on with the same bots, so only run one at a time, against the same target
+    public LoadReport run(Target target, Duration duration) {
+        LoadReport report = new LoadReport(rate);
+
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        // Each thread's share of the rate, with the threads starting at even steps so they don't all send at once
+        long interval = rate == 0 ? 0 : (long) (1e9 * threads / rate);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            List<Bot> bots = botsByThread.get(i);
+            long first = start + interval * i / threads;
+            Thread worker = new Thread(() -> drive(target, bots, report, first, end, interval), "load-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                workers.forEach(Thread::interrupt);
+                break;
+            }
+        }
+        report.finish(System.nanoTime() - start);
+        return report;
+    }
+
+    private static void drive(Target target, List<Bot> bots, LoadReport report, long first, long end, long interval) {
+        long due = first;
+        int turn = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            long now = System.nanoTime();
+            if (interval == 0) {
+                due = now;
+            }
+            if (due >= end) {
+                return;
+            }
+            // Parking can end early, so keep going until the command is due
+            while (due > now) {
+                LockSupport.parkNanos(due - now);
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                now = System.nanoTime();
+            }
+
+            Bot bot = bots.get(turn);
+            turn = (turn + 1) % bots.size();
+            String command = bot.nextCommand();
+            CommandKind kind = bot.getKind();
+            try {
+                StatusHandler.Reply reply = target.send(command);
+                report.record(kind, System.nanoTime() - due, reply.failure());
+                bot.observe(reply.response());
+            } catch (IOException e) {
+                report.error(kind, LoadReport.UNREACHABLE);
+            } catch (RuntimeException e) {
+                report.error(kind, LoadReport.CRASHED);
+            }
+            due += interval;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.tre.load;
+
+import org.tre.engine.CommandFailure;
+import org.tre.engine.CommandKind;
+import org.tre.metrics.LatencyHistogram;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// What a load run sent and how the engine coped, by the kind of command the bots meant to send
+// A command is an error if the engine reported one of the CommandFailures for it, or it couldn't be answered at all
+// That includes commands that were understood but couldn't be carried out, such as a 'goto' with no path there
+// Latencies are from when each command was due to be sent, so a run that falls behind its rate shows the wait in its latencies
+public final class LoadReport {
+    // The reason recorded for commands that couldn't be sent or answered
+    public static final String UNREACHABLE = "unreachable";
+    // The reason recorded for commands that threw an exception in an engine in the same process
+    public static final String CRASHED = "crashed";
+
+    private final Map<CommandKind, LatencyHistogram> latencies = new EnumMap<>(CommandKind.class);
+    private final Map<CommandKind, LongAdder> errors = new EnumMap<>(CommandKind.class);
+    private final ConcurrentMap<String, LongAdder> errorReasons = new ConcurrentHashMap<>();
+    private final double targetRate;
+    private volatile long elapsedNanos;
+
+    LoadReport(double targetRate) {
+        this.targetRate = targetRate;
+        for (CommandKind kind : CommandKind.values()) {
+            if (kind.getFailure() == null) {
+                latencies.put(kind, new LatencyHistogram());
+                errors.put(kind, new LongAdder());
+            }
+        }
+    }
+
+    void record(CommandKind kind, long nanos, CommandFailure failure) {
+        latencies.get(kind).record(nanos);
+        if (failure != null) {
+            CommandKind failureKind = CommandKind.of(failure);
+            error(kind, failureKind != null ? failureKind.getLabel() : failure.name().toLowerCase().replace('_', '-'));
+        }
+    }
+
+    void error(CommandKind kind, String reason) {
+        errors.get(kind).increment();
+        errorReasons.computeIfAbsent(reason, r -> new LongAdder()).increment();
+    }
+
+    void finish(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    // Commands answered, whether or not the engine rejected them
+    public long getCommands() {
+        long commands = 0;
+        for (LatencyHistogram histogram : latencies.values()) {
+            commands += histogram.getCount();
+        }
+        return commands;
+    }
+
+    public long getErrors() {
+        long total = 0;
+        for (LongAdder count : errors.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    // Commands answered per second over the whole run
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : getCommands() * 1e9 / elapsedNanos;
+    }
+
+    // Zero when the bots sent commands as fast as they were answered
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    // Only the kinds bots send have latencies, the kinds for failures are reasons for errors instead
+    public LatencyHistogram.Snapshot getLatency(CommandKind kind) {
+        LatencyHistogram histogram = latencies.get(kind);
+        if (histogram == null) {
+            throw new IllegalArgumentException("Bots don't send '" + kind.getLabel() + "' commands.");
+        }
+        return histogram.snapshot();
+    }
+
+    public long getErrors(CommandKind kind) {
+        LongAdder count = errors.get(kind);
+        return count == null ? 0 : count.sum();
+    }
+
+    // By the label of the CommandKind of the failure, the failure's name in lower case for failures without a kind, or UNREACHABLE or CRASHED
+    public Map<String, Long> getErrorReasons() {
+        Map<String, Long> reasons = new TreeMap<>();
+        errorReasons.forEach((reason, count) -> reasons.put(reason, count.sum()));
+        return reasons;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stb = new StringBuilder();
+        stb.append(String.format("%d commands in %.1f s, %.0f per second", getCommands(), elapsedNanos / 1e9, getThroughput()));
+        if (targetRate > 0) {
+            stb.append(String.format(" against a target of %.0f", targetRate));
+        }
+        stb.append(", ").append(getErrors()).append(" errors").append(System.lineSeparator());
+        stb.append(String.format("%-10s %10s %8s %10s %10s %10s %10s %10s", "kind", "count", "errors", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us"));
+        latencies.forEach((kind, histogram) -> {
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            if (snapshot.getCount() == 0) {
+                return;
+            }
+            stb.append(System.lineSeparator()).append(String.format("%-10s %10d %8d %10.1f %10.1f %10.1f %10.1f %10.1f", kind.getLabel(), snapshot.getCount(), getErrors(kind),
+                    snapshot.getValueAtPercentile(50) / 1000.0, snapshot.getValueAtPercentile(90) / 1000.0, snapshot.getValueAtPercentile(99) / 1000.0,
+                    snapshot.getValueAtPercentile(99.9) / 1000.0, snapshot.getMax() / 1000.0));
+        });
+        Map<String, Long> reasons = getErrorReasons();
+        if (!reasons.isEmpty()) {
+            stb.append(System.lineSeparator()).append("errors by reason: ").append(reasons);
+        }
+        return stb.toString();
+    }
+}
@@ -0,0 +1,146 @@
+package org.tre.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histogram of latencies in nanoseconds that many threads can record into at once without locking
+// Buckets are laid out the way HdrHistogram lays them out: every power of two is split into 32 equal sub-buckets,
+// so any value is kept to within about 3% and the whole range of a long fits in under 2000 buckets
+// Recording is a few arithmetic operations and an atomic increment, and never allocates
+public final class LatencyHistogram implements LatencyHistogramMBean {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = bucketOf(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        total.add(nanos);
+        long currentMax = max.get();
+        while (nanos > currentMax && !max.compareAndSet(currentMax, nanos)) {
+            currentMax = max.get();
+        }
+    }
+
+    // Values below 32 get a bucket each, above that the bucket is picked by the top six bits of the value
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    // The largest value that falls in the bucket
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + ((1L << shift) - 1);
+    }
+
+    // Copies the counts out, recording carries on meanwhile so a snapshot may miss values recorded while it is taken
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, total.sum(), max.get());
+    }
+
+    @Override
+    public long getCount() {
+        return snapshot().getCount();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return snapshot().getMean() / 1000.0;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return snapshot().getValueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getP90Micros() {
+        return snapshot().getValueAtPercentile(90) / 1000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return snapshot().getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return snapshot().getValueAtPercentile(99.9) / 1000.0;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return snapshot().getMax() / 1000.0;
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long total, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        // In nanoseconds, as are the rest
+        public double getMean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        // The value that the given percentage of recorded values are at or below, to within the bucket's precision
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueIn(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                    count, getMean() / 1000, getValueAtPercentile(50) / 1000.0, getValueAtPercentile(90) / 1000.0,
+                    getValueAtPercentile(99) / 1000.0, getValueAtPercentile(99.9) / 1000.0, max / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.tre.metrics;
+
+// What a latency histogram shows over JMX, in microseconds as that is what a console can usefully display
+public interface LatencyHistogramMBean {
+    long getCount();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP90Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+}
@@ -0,0 +1,64 @@
+package org.tre.objects;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+// Dense integer IDs for the names one ActionIndex's actions can ask for, so that sets of names can be held as bitsets and
+// compared a word at a time
+// Only the subjects of those actions are given an ID, so a bitset is as wide as the subjects of the world being played,
+// however many other worlds or reloads the JVM has seen; names without an ID never need a bit, as no action checks for them
+// A table never changes once made, a reload of the actions file makes a new one along with the new ActionIndex
+public final class EntityIds {
+    private final Map<String, Integer> ids;
+    private final int words;
+
+    private EntityIds(Map<String, Integer> ids) {
+        this.ids = ids;
+        words = (ids.size() + 63) >>> 6;
+    }
+
+    // Numbers the names in the order given, any repeated name keeps its first ID
+    public static EntityIds of(Collection<String> names) {
+        Map<String, Integer> ids = new HashMap<>();
+        for (String name : names) {
+            ids.putIfAbsent(name, ids.size());
+        }
+        return new EntityIds(ids);
+    }
+
+    // -1 if the name has no ID in this table
+    public int idOf(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    // Words needed for a bitset of every name in the table
+    public int words() {
+        return words;
+    }
+
+    public static int wordOf(int id) {
+        return id >>> 6;
+    }
+
+    public static long bitOf(int id) {
+        return 1L << id;
+    }
+
+    // Names without an ID are left out
+    public long[] bitsOf(Collection<String> names) {
+        long[] bits = new long[words];
+        for (String name : names) {
+            int id = idOf(name);
+            if (id >= 0) {
+                bits[wordOf(id)] |= bitOf(id);
+            }
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,210 @@
+package org.tre.objects;
+
+import java.util.*;
+
+// Multimap of entities keyed by name, so that counting or taking an entity by name doesn't need a scan
+// Entities are compared by identity, so several entities can share a name
+// Alongside, a bitset with a bit set for the ID of every name held, so a set of names can be checked for a word at a time
+// The bitset is laid out by the EntityIds of whichever ActionIndex last asked, and built again when another one asks,
+// which only happens after the actions file is reloaded
+// A frozen store can be shared by many others, which read its contents until their first change and only then copy them,
+// so worlds started from the same WorldDefinition only hold their own copy of the locations whose contents have changed
+public class EntityStore<T extends GameEntity> {
+    private Map<String, LinkedHashSet<T>> entitiesByName = new HashMap<>();
+    // Null until an ActionIndex's EntityIds first asks
+    private EntityIds presenceIds;
+    private long[] presence;
+    private Set<String> names = Collections.unmodifiableSet(entitiesByName.keySet());
+    private final Set<T> entities = new EntitySetView();
+    private int size = 0;
+    // Set while the contents are still a frozen store's, which are copied before the first change
+    private boolean shared;
+    private boolean frozen;
+
+    public EntityStore() {
+    }
+
+    public EntityStore(Collection<? extends T> initialEntities) {
+        for (T entity : initialEntities) {
+            add(entity);
+        }
+    }
+
+    // A store holding the same entities as this frozen one, without copying them until it changes
+    public EntityStore<T> share() {
+        if (!frozen) {
+            throw new IllegalStateException("Only a frozen store can be shared, others could change underneath the stores sharing it.");
+        }
+        EntityStore<T> store = new EntityStore<>();
+        store.entitiesByName = entitiesByName;
+        store.presenceIds = presenceIds;
+        store.presence = presence;
+        store.names = names;
+        store.size = size;
+        store.shared = true;
+        return store;
+    }
+
+    // No more changes can be made, after which the store can be shared
+    public void freeze() {
+        frozen = true;
+    }
+
+    // Whether the contents are still those of the frozen store this one was shared from
+    public boolean isShared() {
+        return shared;
+    }
+
+    private void beforeChange() {
+        if (frozen) {
+            throw new IllegalStateException("The store is frozen.");
+        }
+        if (shared) {
+            Map<String, LinkedHashSet<T>> copy = new HashMap<>(entitiesByName);
+            copy.replaceAll((name, sameName) -> new LinkedHashSet<>(sameName));
+            entitiesByName = copy;
+            if (presence != null) {
+                presence = presence.clone();
+            }
+            names = Collections.unmodifiableSet(entitiesByName.keySet());
+            shared = false;
+        }
+    }
+
+    public boolean add(T entity) {
+        beforeChange();
+        LinkedHashSet<T> sameName = entitiesByName.get(entity.getName());
+        if (sameName == null) {
+            sameName = new LinkedHashSet<>();
+            entitiesByName.put(entity.getName(), sameName);
+            setPresent(entity.getName());
+        }
+        boolean added = sameName.add(entity);
+        if (added) {
+            size++;
+        }
+        return added;
+    }
+
+    public boolean remove(T entity) {
+        LinkedHashSet<T> sameName = entitiesByName.get(entity.getName());
+        if (sameName == null || !sameName.contains(entity)) {
+            return false;
+        }
+        beforeChange();
+        sameName = entitiesByName.get(entity.getName());
+        sameName.remove(entity);
+        if (sameName.isEmpty()) {
+            entitiesByName.remove(entity.getName());
+            clearPresent(entity.getName());
+        }
+        size--;
+        return true;
+    }
+
+    public int countByName(String name) {
+        LinkedHashSet<T> sameName = entitiesByName.get(name);
+        return sameName == null ? 0 : sameName.size();
+    }
+
+    // Removes and returns the oldest entity with the given name, or null if there isn't one
+    public T takeByName(String name) {
+        if (!entitiesByName.containsKey(name)) {
+            return null;
+        }
+        beforeChange();
+        LinkedHashSet<T> sameName = entitiesByName.get(name);
+        Iterator<T> iterator = sameName.iterator();
+        T entity = iterator.next();
+        iterator.remove();
+        if (sameName.isEmpty()) {
+            entitiesByName.remove(name);
+            clearPresent(name);
+        }
+        size--;
+        return entity;
+    }
+
+    // One word of the bitset of names held, as laid out by the given EntityIds
+    public long presenceWord(EntityIds ids, int word) {
+        if (ids != presenceIds) {
+            long[] bits = ids.bitsOf(entitiesByName.keySet());
+            // A frozen store is read by every store sharing it, so it answers without keeping the bitset
+            if (frozen) {
+                return word < bits.length ? bits[word] : 0;
+            }
+            presence = bits;
+            presenceIds = ids;
+        }
+        return word < presence.length ? presence[word] : 0;
+    }
+
+    // Called once the name is in the store, the bitset is left for presenceWord to build if no EntityIds has asked yet
+    private void setPresent(String name) {
+        int id = presenceIds == null ? -1 : presenceIds.idOf(name);
+        if (id >= 0) {
+            presence[EntityIds.wordOf(id)] |= EntityIds.bitOf(id);
+        }
+    }
+
+    private void clearPresent(String name) {
+        int id = presenceIds == null ? -1 : presenceIds.idOf(name);
+        if (id >= 0) {
+            presence[EntityIds.wordOf(id)] &= ~EntityIds.bitOf(id);
+        }
+    }
+
+    // Read-only view of the distinct names held
+    public Set<String> getNames() {
+        return names;
+    }
+
+    // Read-only view of every entity held
+    public Set<T> asSet() {
+        return entities;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private final class EntitySetView extends AbstractSet<T> {
+        @Override
+        public Iterator<T> iterator() {
+            Iterator<LinkedHashSet<T>> groups = entitiesByName.values().iterator();
+            return new Iterator<>() {
+                private Iterator<T> current = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext() {
+                    while (!current.hasNext() && groups.hasNext()) {
+                        current = groups.next().iterator();
+                    }
+                    return current.hasNext();
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return current.next();
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof GameEntity entity)) {
+                return false;
+            }
+            LinkedHashSet<T> sameName = entitiesByName.get(entity.getName());
+            return sameName != null && sameName.contains(entity);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
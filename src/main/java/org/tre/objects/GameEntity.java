@@ -3,7 +3,8 @@ package org.tre.objects;
 public abstract class GameEntity
 {
     private final String name;
-    private final String description;
+    // Only locations change their description, when the entities file is reloaded
+    private volatile String description;
 
     public GameEntity(String name, String description)
     {
@@ -20,4 +21,9 @@ public abstract class GameEntity
     {
         return description;
     }
+
+    protected void setDescription(String description)
+    {
+        this.description = description;
+    }
 }
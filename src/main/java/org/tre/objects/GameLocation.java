@@ -1,23 +1,48 @@
 package org.tre.objects;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 public class GameLocation extends GameEntity{
 
     public GameLocation(String name, String description, Set<GameCharacter> presentCharacters, Set<GameArtefact> presentArtefacts, Set<GameFurniture> presentFurniture) {
+        super(name, description);
+        this.presentCharacters = new EntityStore<>(presentCharacters);
+        this.presentArtefacts = new EntityStore<>(presentArtefacts);
+        this.presentFurniture = new EntityStore<>(presentFurniture);
+    }
+
+    // Takes the stores as they are, such as ones still sharing the contents of a WorldDefinition's location
+    public GameLocation(String name, String description, EntityStore<GameCharacter> presentCharacters, EntityStore<GameArtefact> presentArtefacts, EntityStore<GameFurniture> presentFurniture) {
         super(name, description);
         this.presentCharacters = presentCharacters;
         this.presentArtefacts = presentArtefacts;
         this.presentFurniture = presentFurniture;
     }
 
-    private final Set<GameLocation> adjacentLocations = new HashSet<>();
-    private final Set<GameCharacter> presentCharacters;
-    private final Set<GamePlayer> presentPlayers = new HashSet<>();
-    private final Set<GameArtefact> presentArtefacts;
-    private final Set<GameFurniture> presentFurniture;
+    // Exits and players can be read without holding the location's lock, so these two sets are concurrent
+    // Everything else is only touched while the location's lock is held
+    private final Set<GameLocation> adjacentLocations = ConcurrentHashMap.newKeySet();
+    // The locations with an exit to this one, kept alongside their exits so a reload never has to search the world for them
+    private final Set<GameLocation> entrances = ConcurrentHashMap.newKeySet();
+    private final EntityStore<GameCharacter> presentCharacters;
+    private final Set<GamePlayer> presentPlayers = ConcurrentHashMap.newKeySet();
+    private final EntityStore<GameArtefact> presentArtefacts;
+    private final EntityStore<GameFurniture> presentFurniture;
     private boolean isStartingLocation = false;
+    // Bumped after every change to what the location holds, so cached renders can tell when they are out of date
+    // Players move without holding the location's lock, so the stamp has to be atomic
+    private final AtomicLong version = new AtomicLong();
+    private volatile Render cachedRender;
+
 
+    @Override
+    public void setDescription(String description) {
+        super.setDescription(description);
+        changed(true);
+    }
 
     public boolean isStartingLocation() {
         return isStartingLocation;
@@ -32,50 +57,136 @@ public class GameLocation extends GameEntity{
     }
 
     public void addAdjacentLocation(GameLocation location) {
-        adjacentLocations.add(location);
+        if (adjacentLocations.add(location)) {
+            location.entrances.add(this);
+            changed(true);
+        }
     }
 
     public void removeAdjacentLocation(GameLocation location) {
-        adjacentLocations.remove(location);
+        if (adjacentLocations.remove(location)) {
+            location.entrances.remove(this);
+            changed(true);
+        }
+    }
+
+    public Set<GameLocation> getEntrances() {
+        return Collections.unmodifiableSet(entrances);
+    }
+
+    // Renders show each exit's description, so a location whose exit is described anew has to be rendered again too
+    public void exitDescriptionChanged() {
+        changed(true);
     }
 
+    // Read-only view, use addCharacter and removeCharacter to make changes
     public Set<GameCharacter> getPresentCharacters() {
-        return presentCharacters;
+        return presentCharacters.asSet();
     }
 
     public void addCharacter (GameCharacter character) {
-        presentCharacters.add(character);
+        changed(presentCharacters.add(character));
     }
 
-    public void removeCharacter (GameCharacter character) { presentCharacters.remove(character); }
+    public void removeCharacter (GameCharacter character) { changed(presentCharacters.remove(character)); }
+
+    public int countCharacters (String name) { return presentCharacters.countByName(name); }
+
+    public GameCharacter takeCharacter (String name) { return taken(presentCharacters.takeByName(name)); }
 
     public Set<GamePlayer> getPresentPlayers() {
         return presentPlayers;
     }
 
     public void addPlayer (GamePlayer player) {
-        presentPlayers.add(player);
+        changed(presentPlayers.add(player));
     }
 
-    public void removePlayer (GamePlayer player) { presentPlayers.remove(player); }
+    public void removePlayer (GamePlayer player) { changed(presentPlayers.remove(player)); }
 
+    // Read-only view, use addArtefact and removeArtefact to make changes
     public Set<GameArtefact> getPresentArtefacts() {
-        return presentArtefacts;
+        return presentArtefacts.asSet();
+    }
+
+    public Set<String> getArtefactNames() {
+        return presentArtefacts.getNames();
     }
 
     public void addArtefact (GameArtefact artefact) {
-        presentArtefacts.add(artefact);
+        changed(presentArtefacts.add(artefact));
     }
 
-    public void removeArtefact (GameArtefact artefact) { presentArtefacts.remove(artefact); }
+    public void removeArtefact (GameArtefact artefact) { changed(presentArtefacts.remove(artefact)); }
+
+    public int countArtefacts (String name) { return presentArtefacts.countByName(name); }
 
+    public GameArtefact takeArtefact (String name) { return taken(presentArtefacts.takeByName(name)); }
+
+    // Read-only view, use addFurniture and removeFurniture to make changes
     public Set<GameFurniture> getPresentFurniture() {
-        return presentFurniture;
+        return presentFurniture.asSet();
     }
 
     public void addFurniture (GameFurniture furniture) {
-        presentFurniture.add(furniture);
+        changed(presentFurniture.add(furniture));
+    }
+
+    public void removeFurniture (GameFurniture furniture) { changed(presentFurniture.remove(furniture)); }
+
+    public int countFurniture (String name) { return presentFurniture.countByName(name); }
+
+    public GameFurniture takeFurniture (String name) { return taken(presentFurniture.takeByName(name)); }
+
+    // One word of the bitset of every character, artefact and piece of furniture here, by name, as laid out by the given EntityIds
+    public long presenceWord(EntityIds ids, int word) {
+        return presentCharacters.presenceWord(ids, word) | presentArtefacts.presenceWord(ids, word) | presentFurniture.presenceWord(ids, word);
+    }
+
+    // Whether the characters, artefacts and furniture here are all still shared with the location's definition
+    public boolean isSharingContents() {
+        return presentCharacters.isShared() && presentArtefacts.isShared() && presentFurniture.isShared();
+    }
+
+    public long getVersion() {
+        return version.get();
     }
 
-    public void removeFurniture (GameFurniture furniture) { presentFurniture.remove(furniture); }
+    // Returns the text the renderer last produced for this location, rendering again only if the location has changed since
+    // A render is only kept if nothing changed while it was being built, so a stale render is never cached under a newer stamp
+    public String render(Function<GameLocation, String> renderer) {
+        long renderVersion = version.get();
+        Render render = cachedRender;
+        if (render != null && render.version == renderVersion && render.renderer == renderer) {
+            return render.text;
+        }
+        String text = renderer.apply(this);
+        if (version.get() == renderVersion) {
+            cachedRender = new Render(renderVersion, renderer, text);
+        }
+        return text;
+    }
+
+    private void changed(boolean changed) {
+        if (changed) {
+            version.incrementAndGet();
+        }
+    }
+
+    private <T> T taken(T entity) {
+        changed(entity != null);
+        return entity;
+    }
+
+    private static final class Render {
+        private final long version;
+        private final Function<GameLocation, String> renderer;
+        private final String text;
+
+        private Render(long version, Function<GameLocation, String> renderer, String text) {
+            this.version = version;
+            this.renderer = renderer;
+            this.text = text;
+        }
+    }
 }
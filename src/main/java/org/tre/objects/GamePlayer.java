@@ -1,14 +1,14 @@
 package org.tre.objects;
 
-import java.util.HashSet;
+import java.util.Set;
 
 public class GamePlayer extends GameCharacter {
-    private GameLocation currentLocation;
-    private final HashSet<GameArtefact> inventory;
+    private volatile GameLocation currentLocation;
+    private final EntityStore<GameArtefact> inventory;
     private int health;
     public GamePlayer(String name, String description) {
         super(name, description);
-        inventory = new HashSet<>();
+        inventory = new EntityStore<>();
         health = 3;
     }
 
@@ -20,8 +20,13 @@ public class GamePlayer extends GameCharacter {
         this.currentLocation = currentLocation;
     }
 
-    public HashSet<GameArtefact> getInventory() {
-        return inventory;
+    // Read-only view, use addToInventory and removeFromInventory to make changes
+    public Set<GameArtefact> getInventory() {
+        return inventory.asSet();
+    }
+
+    public Set<String> getInventoryNames() {
+        return inventory.getNames();
     }
 
     public void addToInventory(GameArtefact artefact) {
@@ -32,6 +37,19 @@ public class GamePlayer extends GameCharacter {
         inventory.remove(artefact);
     }
 
+    public int countInInventory(String name) {
+        return inventory.countByName(name);
+    }
+
+    // One word of the bitset of the inventory's artefacts, by name, as laid out by the given EntityIds
+    public long inventoryPresenceWord(EntityIds ids, int word) {
+        return inventory.presenceWord(ids, word);
+    }
+
+    public GameArtefact takeFromInventory(String name) {
+        return inventory.takeByName(name);
+    }
+
     public int getHealth() {
         return health;
     }
@@ -43,4 +61,6 @@ public class GamePlayer extends GameCharacter {
     public void removeHealth() { health--; }
 
     public void fullHealth() { health = 3; }
+
+    public void setHealth(int health) { this.health = health; }
 }
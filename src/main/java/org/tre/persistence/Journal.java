@@ -0,0 +1,416 @@
+package org.tre.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+// Append-only log of records, each given the next sequence number
+// Records are written by a single writer thread, which takes everything appended since its last write
+// and writes and syncs it in one go, so threads appending at the same time share the cost of a sync
+//
+// The log is split into segment files named after the sequence number of their first record, e.g. journal-00000000000000000001.log
+// Each record is framed as its length, its sequence number and a CRC32C of both the sequence number and the record
+// A frame cut short by a crash is dropped when the journal is next opened
+public final class Journal implements Closeable {
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int FRAME_HEADER_BYTES = 4 + 8 + 4;
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+
+    private final Path directory;
+    private final boolean sync;
+    private final Object lock = new Object();
+    private final Thread writer;
+
+    // Everything below is guarded by lock
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private ByteBuffer writing = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private int pendingRecords;
+    private long lastSequence;
+    private long durableSequence;
+    private FileChannel segment;
+    private boolean closed;
+    private IOException failure;
+
+    private long recordCount;
+    private long byteCount;
+    private long commitCount;
+    private long syncNanos;
+    private int largestCommit;
+
+    private Journal(Path directory, boolean sync, long lastSequence) throws IOException {
+        this.directory = directory;
+        this.sync = sync;
+        this.lastSequence = lastSequence;
+        this.durableSequence = lastSequence;
+        segment = openSegment(lastSequence + 1);
+        writer = new Thread(this::runWriter, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public interface RecordHandler {
+        void accept(long sequence, byte[] record) throws IOException;
+    }
+
+    // Hands every record after the given sequence number to the handler in order, then opens the journal for appending after the last of them
+    // Without sync, records are only handed to the operating system, so they survive the process crashing but not the machine
+    public static Journal open(Path directory, long afterSequence, RecordHandler handler, boolean sync) throws IOException {
+        Files.createDirectories(directory);
+        long lastSequence = replay(directory, afterSequence, handler, true);
+        return new Journal(directory, sync, lastSequence);
+    }
+
+    // Hands every record to the handler in order without opening the journal, leaving the files as they are
+    // A record cut short at the end, such as one still being written by another process, is skipped rather than discarded
+    public static void read(Path directory, RecordHandler handler) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("There is no journal in " + directory);
+        }
+        replay(directory, 0, handler, false);
+    }
+
+    private static long replay(Path directory, long afterSequence, RecordHandler handler, boolean repair) throws IOException {
+        TreeMap<Long, Path> segments = listSegments(directory);
+        long lastSequence = afterSequence;
+        if (!segments.isEmpty() && segments.firstKey() > afterSequence + 1) {
+            throw new IOException("Journal in " + directory + " is missing records " + (afterSequence + 1) + " to " + (segments.firstKey() - 1));
+        }
+
+        for (var entry : segments.entrySet()) {
+            long start = entry.getKey();
+            Path path = entry.getValue();
+            boolean isLastSegment = start == segments.lastKey();
+            if (start > lastSequence + 1) {
+                throw new IOException("Journal segment " + path + " doesn't follow on from record " + lastSequence);
+            }
+            lastSequence = Math.max(lastSequence, start - 1);
+            lastSequence = replaySegment(path, start, afterSequence, handler, isLastSegment, lastSequence, repair);
+        }
+        return lastSequence;
+    }
+
+    private static long replaySegment(Path path, long start, long afterSequence, RecordHandler handler, boolean isLastSegment, long lastSequence, boolean repair) throws IOException {
+        try (FileChannel channel = repair ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE) : FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Journal segment " + path + " is too large");
+            }
+            ByteBuffer contents = ByteBuffer.allocate((int) channel.size());
+            while (contents.hasRemaining() && channel.read(contents) >= 0) {
+            }
+            contents.flip();
+
+            long expectedSequence = start;
+            CRC32C checksum = new CRC32C();
+            while (contents.hasRemaining()) {
+                int frameStart = contents.position();
+                String problem = null;
+                if (contents.remaining() < FRAME_HEADER_BYTES) {
+                    problem = "a record header is cut short";
+                } else {
+                    int length = contents.getInt();
+                    long sequence = contents.getLong();
+                    int expectedChecksum = contents.getInt();
+                    if (length < 0 || length > contents.remaining()) {
+                        problem = "a record is cut short";
+                    } else {
+                        byte[] record = new byte[length];
+                        contents.get(record);
+                        checksum.reset();
+                        checksum.update(ByteBuffer.allocate(8).putLong(0, sequence));
+                        checksum.update(record);
+                        if ((int) checksum.getValue() != expectedChecksum) {
+                            problem = "a record fails its checksum";
+                        } else if (sequence != expectedSequence) {
+                            problem = "record " + sequence + " is out of order";
+                        } else {
+                            if (sequence > afterSequence) {
+                                handler.accept(sequence, record);
+                            }
+                            lastSequence = sequence;
+                            expectedSequence++;
+                        }
+                    }
+                }
+
+                if (problem != null) {
+                    // Only the end of the newest segment can have been cut short by a crash, anything else is damage
+                    if (!isLastSegment) {
+                        throw new IOException("Journal segment " + path + " is damaged: " + problem);
+                    }
+                    if (repair) {
+                        System.out.println("Discarding the end of journal segment " + path + " from byte " + frameStart + " as " + problem + ".");
+                        channel.truncate(frameStart);
+                        channel.force(true);
+                    }
+                    break;
+                }
+            }
+            return lastSequence;
+        }
+    }
+
+    // Queues the record to be written and returns its sequence number, without waiting for it to be written
+    public long append(byte[] record) {
+        synchronized (lock) {
+            if (failure != null) {
+                throw new UncheckedIOException("Journal can no longer be written", failure);
+            }
+            if (closed) {
+                throw new IllegalStateException("Journal is closed.");
+            }
+            long sequence = ++lastSequence;
+            pending = ensureCapacity(pending, FRAME_HEADER_BYTES + record.length);
+            CRC32C checksum = new CRC32C();
+            checksum.update(ByteBuffer.allocate(8).putLong(0, sequence));
+            checksum.update(record);
+            pending.putInt(record.length).putLong(sequence).putInt((int) checksum.getValue()).put(record);
+            pendingRecords++;
+            lock.notifyAll();
+            return sequence;
+        }
+    }
+
+    // Waits until every record up to the given one is written, and synced if the journal syncs
+    public void awaitDurable(long sequence) throws IOException {
+        synchronized (lock) {
+            while (durableSequence < sequence) {
+                if (failure != null) {
+                    throw failure;
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the journal", e);
+                }
+            }
+        }
+    }
+
+    public long getLastSequence() {
+        synchronized (lock) {
+            return lastSequence;
+        }
+    }
+
+    // The last record written, and synced if the journal syncs
+    public long getDurableSequence() {
+        synchronized (lock) {
+            return durableSequence;
+        }
+    }
+
+    // Starts a new segment after writing out everything appended so far, returning the sequence number the new segment starts at
+    // Segments before it can then be deleted once a snapshot covers them
+    public long roll() throws IOException {
+        synchronized (lock) {
+            // Waiting lets go of the lock, so more may have been appended by the time it returns
+            while (durableSequence < lastSequence) {
+                awaitDurable(lastSequence);
+            }
+            segment.close();
+            segment = openSegment(lastSequence + 1);
+            return lastSequence + 1;
+        }
+    }
+
+    // Deletes every segment holding only records before the given sequence number
+    public void deleteBefore(long sequence) throws IOException {
+        TreeMap<Long, Path> segments = listSegments(directory);
+        List<Long> starts = new ArrayList<>(segments.keySet());
+        for (int i = 0; i + 1 < starts.size(); i++) {
+            if (starts.get(i + 1) <= sequence) {
+                Files.deleteIfExists(segments.get(starts.get(i)));
+            }
+        }
+    }
+
+    public Stats getStats() {
+        synchronized (lock) {
+            return new Stats(recordCount, byteCount, commitCount, syncNanos, largestCommit);
+        }
+    }
+
+    // Writes out everything appended so far before closing
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            segment.close();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private void runWriter() {
+        while (true) {
+            ByteBuffer batch;
+            FileChannel target;
+            long batchSequence;
+            int batchRecords;
+            synchronized (lock) {
+                while (pendingRecords == 0 && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pendingRecords == 0) {
+                    return;
+                }
+                // Swap buffers, so appends carry on into the other one while this batch is written
+                batch = pending;
+                pending = writing;
+                writing = batch;
+                target = segment;
+                batchSequence = lastSequence;
+                batchRecords = pendingRecords;
+                pendingRecords = 0;
+            }
+
+            batch.flip();
+            int batchBytes = batch.remaining();
+            long syncTime = 0;
+            try {
+                while (batch.hasRemaining()) {
+                    target.write(batch);
+                }
+                if (sync) {
+                    long syncStart = System.nanoTime();
+                    target.force(false);
+                    syncTime = System.nanoTime() - syncStart;
+                }
+            } catch (IOException e) {
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            } finally {
+                batch.clear();
+            }
+
+            synchronized (lock) {
+                durableSequence = batchSequence;
+                recordCount += batchRecords;
+                byteCount += batchBytes;
+                commitCount++;
+                syncNanos += syncTime;
+                largestCommit = Math.max(largestCommit, batchRecords);
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private FileChannel openSegment(long start) throws IOException {
+        Path path = directory.resolve(SEGMENT_PREFIX + String.format("%020d", start) + SEGMENT_SUFFIX);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (sync) {
+            // Make sure the new file itself survives a crash, not only what is written to it
+            try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                directoryChannel.force(true);
+            } catch (IOException e) {
+                // Not every platform allows a directory to be opened, there is nothing more to be done on those
+            }
+        }
+        return channel;
+    }
+
+    private static TreeMap<Long, Path> listSegments(Path directory) throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        return segments;
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int needed) {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    // Totals since the journal was opened
+    public static final class Stats {
+        private final long records;
+        private final long bytes;
+        private final long commits;
+        private final long syncNanos;
+        private final int largestCommit;
+
+        private Stats(long records, long bytes, long commits, long syncNanos, int largestCommit) {
+            this.records = records;
+            this.bytes = bytes;
+            this.commits = commits;
+            this.syncNanos = syncNanos;
+            this.largestCommit = largestCommit;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        // Each commit is one write, and one sync if the journal syncs
+        public long getCommits() {
+            return commits;
+        }
+
+        public long getSyncNanos() {
+            return syncNanos;
+        }
+
+        public double getAverageRecordsPerCommit() {
+            return commits == 0 ? 0 : (double) records / commits;
+        }
+
+        public int getLargestCommit() {
+            return largestCommit;
+        }
+
+        @Override
+        public String toString() {
+            return records + " records, " + bytes + " bytes in " + commits + " commits, "
+                    + String.format("%.1f", getAverageRecordsPerCommit()) + " records per commit, "
+                    + (commits == 0 ? 0 : syncNanos / commits / 1000) + " us per sync";
+        }
+    }
+}
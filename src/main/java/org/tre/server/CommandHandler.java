@@ -0,0 +1,30 @@
+package org.tre.server;
+
+import org.tre.engine.CommandFailure;
+
+import java.util.List;
+
+// Whatever a GameServer passes its clients' commands to, usually a GameEngine
+public interface CommandHandler {
+    String handleCommand(String command);
+
+    // Runs the commands in order, returning one response per command
+    List<String> handleCommands(List<String> commands);
+
+    // Whether handling a command can wait on something slow, such as another server
+    // A GameServer runs the commands of blocking handlers on worker threads, so one slow command doesn't hold up every player
+    default boolean isBlocking() {
+        return false;
+    }
+
+    // Whether commands can be handled on several threads at once
+    // A blocking handler that can't is run on a single worker thread, which still keeps it off the selector thread
+    default boolean isConcurrent() {
+        return true;
+    }
+
+    // Why the last command the calling thread passed to handleCommand failed, or null if it didn't or the handler can't tell
+    default CommandFailure getLastFailure() {
+        return null;
+    }
+}
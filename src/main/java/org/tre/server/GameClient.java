@@ -0,0 +1,115 @@
+package org.tre.server;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Blocking connections to a GameServer, for programs that send it commands, such as a ShardRouter or a load generator
+// Each connection carries one request at a time, so connections are pooled and opened as more are needed at once
+public final class GameClient implements Closeable {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
+
+    private final InetSocketAddress address;
+    private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    public GameClient(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    // A connection that fails is dropped rather than reused, as it may be part way through a response
+    public String request(String line) throws IOException {
+        if (closed) {
+            throw new IOException("Connection to " + address + " is closed.");
+        }
+        Connection connection = idle.poll();
+        if (connection == null) {
+            connection = new Connection(address);
+        }
+        String response;
+        try {
+            response = connection.request(line);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        idle.add(connection);
+        if (closed) {
+            closeIdle();
+        }
+        return response;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        closeIdle();
+    }
+
+    private void closeIdle() {
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    private static final class Connection {
+        private final Socket socket;
+        private final Writer writer;
+        private final BufferedReader reader;
+
+        private Connection(InetSocketAddress address) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        // Sends one line and reads back the response, up to its terminating "." line
+        // The lines are joined with '\n' as they were sent, so a response reads the same whatever system either end runs on
+        private String request(String line) throws IOException {
+            writer.write(line);
+            writer.write('\n');
+            writer.flush();
+            StringBuilder stb = new StringBuilder();
+            String responseLine;
+            while (!(responseLine = readLine()).equals(".")) {
+                if (stb.length() > 0) {
+                    stb.append('\n');
+                }
+                stb.append(responseLine.startsWith("..") ? responseLine.substring(1) : responseLine);
+            }
+            return stb.toString();
+        }
+
+        private String readLine() throws IOException {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new EOFException("Server closed the connection.");
+            }
+            return line;
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package org.tre.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Single-threaded, non-blocking front end for a GameEngine, or any other CommandHandler
+// Every connection is multiplexed on one Selector, so no thread is held per player
+// Clients send newline-terminated commands, each response is sent back as its lines followed by a line holding only "."
+// A response line that itself starts with "." has another "." put in front of it, as in SMTP
+// A blocking handler's commands are run on a pool of worker threads instead, each connection's one batch at a time so its
+// responses stay in order, and the responses are handed back to the selector thread to be sent
+// The pool is a single thread for a blocking handler that isn't concurrent
+public class GameServer implements Closeable {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 300_000;
+    public static final int DEFAULT_WORKER_THREADS = 32;
+
+    // Stop reading from a client once this many responses are waiting to be sent to it
+    private static final int MAX_PENDING_OUTPUT_BUFFERS = 64;
+
+    private final CommandHandler engine;
+    private final InetSocketAddress address;
+    private final int readBufferSize;
+    private final int writeBufferSize;
+    private final long idleTimeoutMillis;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    // Only used when the handler is blocking
+    private ExecutorService workers;
+    private final ConcurrentLinkedQueue<Runnable> finishedCommands = new ConcurrentLinkedQueue<>();
+    private volatile boolean running;
+    private volatile int connectionCount;
+
+    public GameServer(CommandHandler engine, int port) {
+        this(engine, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_SIZE, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    // An idle timeout of zero keeps connections open until the client closes them
+    public GameServer(CommandHandler engine, InetSocketAddress address, int readBufferSize, int writeBufferSize, long idleTimeoutMillis) {
+        if (readBufferSize < 1 || writeBufferSize < 1) {
+            throw new IllegalArgumentException("Buffer sizes must be positive.");
+        }
+        if (idleTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Idle timeout can't be negative.");
+        }
+        this.engine = engine;
+        this.address = address;
+        this.readBufferSize = readBufferSize;
+        this.writeBufferSize = writeBufferSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(address, 1024);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        if (engine.isBlocking()) {
+            // A handler that can't take commands from several threads at once gets a single worker, so the selector still never waits on it
+            workers = Executors.newFixedThreadPool(engine.isConcurrent() ? DEFAULT_WORKER_THREADS : 1, runnable -> {
+                Thread worker = new Thread(runnable, "game-server-worker");
+                worker.setDaemon(true);
+                return worker;
+            });
+        }
+        running = true;
+        selectorThread = new Thread(this::runSelectorLoop, "game-server-selector");
+        selectorThread.start();
+    }
+
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (workers != null) {
+            // Commands already running finish, but their responses have nowhere to go
+            workers.shutdown();
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private void runSelectorLoop() {
+        // Idle connections are swept a few times per timeout period rather than tracked with individual timers
+        long sweepInterval = idleTimeoutMillis == 0 ? 0 : Math.max(10, idleTimeoutMillis / 4);
+        long nextSweep = System.currentTimeMillis() + sweepInterval;
+        while (running) {
+            try {
+                selector.select(sweepInterval);
+                Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                while (selectedKeys.hasNext()) {
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+                    handleKey(key);
+                }
+                Runnable finished;
+                while ((finished = finishedCommands.poll()) != null) {
+                    finished.run();
+                }
+                if (sweepInterval > 0 && System.currentTimeMillis() >= nextSweep) {
+                    closeIdleConnections();
+                    nextSweep = System.currentTimeMillis() + sweepInterval;
+                }
+            } catch (IOException e) {
+                System.err.println("Error in game server selector loop: " + e.getMessage());
+            }
+        }
+    }
+
+    private void handleKey(SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                acceptConnection();
+                return;
+            }
+            if (key.isReadable()) {
+                readCommands(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+                writeResponses(key);
+            }
+        } catch (IOException e) {
+            closeConnection(key);
+        }
+    }
+
+    private void acceptConnection() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, readBufferSize);
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, writeBufferSize);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(readBufferSize, writeBufferSize));
+            connectionCount++;
+        }
+    }
+
+    private void readCommands(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer input = connection.input;
+
+        int read = channel.read(input);
+        if (read == -1) {
+            closeConnection(key);
+            return;
+        }
+        connection.lastActivity = System.currentTimeMillis();
+
+        // Collect every complete line, keeping any partial line for the next read
+        input.flip();
+        List<String> commands = new ArrayList<>();
+        int lineStart = input.position();
+        for (int i = input.position(); i < input.limit(); i++) {
+            if (input.get(i) == '\n') {
+                int lineEnd = i > lineStart && input.get(i - 1) == '\r' ? i - 1 : i;
+                String command = decode(input, lineStart, lineEnd);
+                lineStart = i + 1;
+                if (!command.isBlank()) {
+                    commands.add(command);
+                }
+            }
+        }
+        input.position(lineStart);
+        input.compact();
+
+        if (!input.hasRemaining()) {
+            // A single command filled the whole read buffer without ending, so the client is misbehaving
+            closeConnection(key);
+            return;
+        }
+
+        // Pipelined commands from one read are run as a single batch
+        if (workers != null && !commands.isEmpty()) {
+            // Nothing more is read from the connection until the batch is answered
+            connection.running = true;
+            workers.execute(() -> runCommands(key, connection, commands));
+        } else if (commands.size() == 1) {
+            connection.queueResponse(engine.handleCommand(commands.get(0)));
+        } else if (!commands.isEmpty()) {
+            engine.handleCommands(commands).forEach(connection::queueResponse);
+        }
+
+        updateInterest(key, connection);
+        if (connection.hasPendingOutput()) {
+            writeResponses(key);
+        }
+    }
+
+    // Runs on a worker thread
+    private void runCommands(SelectionKey key, Connection connection, List<String> commands) {
+        List<String> responses;
+        try {
+            responses = commands.size() == 1 ? List.of(engine.handleCommand(commands.get(0))) : engine.handleCommands(commands);
+        } catch (RuntimeException e) {
+            System.err.println("Error running commands: " + e);
+            responses = null;
+        }
+        List<String> finished = responses;
+        finishedCommands.add(() -> queueResponses(key, connection, finished));
+        selector.wakeup();
+    }
+
+    // Runs on the selector thread, once a worker has run a connection's commands
+    private void queueResponses(SelectionKey key, Connection connection, List<String> responses) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (responses == null) {
+            // The client can't be told which of its commands failed, so it has to start again
+            closeConnection(key);
+            return;
+        }
+        connection.running = false;
+        connection.lastActivity = System.currentTimeMillis();
+        responses.forEach(connection::queueResponse);
+        try {
+            writeResponses(key);
+        } catch (IOException e) {
+            closeConnection(key);
+        }
+    }
+
+    private void writeResponses(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        while (connection.fillOutput()) {
+            connection.output.flip();
+            channel.write(connection.output);
+            boolean blocked = connection.output.hasRemaining();
+            connection.output.compact();
+            if (blocked) {
+                break;
+            }
+        }
+        updateInterest(key, connection);
+    }
+
+    // Only ask for writes while output is waiting, and stop reading while too much output is waiting or commands are running
+    private void updateInterest(SelectionKey key, Connection connection) {
+        if (!key.isValid()) {
+            return;
+        }
+        int interest = 0;
+        if (!connection.running && connection.pending.size() < MAX_PENDING_OUTPUT_BUFFERS) {
+            interest |= SelectionKey.OP_READ;
+        }
+        if (connection.hasPendingOutput()) {
+            interest |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(interest);
+    }
+
+    private void closeIdleConnections() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection connection && !connection.running && connection.lastActivity < cutoff) {
+                closeConnection(key);
+            }
+        }
+    }
+
+    // A cancelled key stays in the selector's key set until the next select, where the idle sweep can find it again,
+    // so only the first call for a connection closes it and counts it as closed
+    private void closeConnection(SelectionKey key) {
+        if (!key.isValid() || !key.channel().isOpen()) {
+            return;
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
+        }
+        connectionCount--;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Frames a response as its lines followed by a terminating "." line
+    static byte[] frameResponse(String response) {
+        StringBuilder stb = new StringBuilder(response.length() + 8);
+        for (String line : response.split("\r?\n", -1)) {
+            if (line.startsWith(".")) {
+                stb.append('.');
+            }
+            stb.append(line).append('\n');
+        }
+        stb.append(".\n");
+        return stb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class Connection {
+        private final ByteBuffer input;
+        private final ByteBuffer output;
+        private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+        private long lastActivity = System.currentTimeMillis();
+        // Whether a worker is running the connection's commands
+        private boolean running;
+
+        private Connection(int readBufferSize, int writeBufferSize) {
+            input = ByteBuffer.allocate(readBufferSize);
+            output = ByteBuffer.allocate(writeBufferSize);
+        }
+
+        private void queueResponse(String response) {
+            pending.add(ByteBuffer.wrap(frameResponse(response)));
+        }
+
+        private boolean hasPendingOutput() {
+            return !pending.isEmpty() || output.position() > 0;
+        }
+
+        // Copies as much pending output as fits into the output buffer, returns whether there is anything to send
+        private boolean fillOutput() {
+            while (output.hasRemaining() && !pending.isEmpty()) {
+                ByteBuffer next = pending.peek();
+                int count = Math.min(output.remaining(), next.remaining());
+                output.put(output.position(), next, next.position(), count);
+                output.position(output.position() + count);
+                next.position(next.position() + count);
+                if (!next.hasRemaining()) {
+                    pending.poll();
+                }
+            }
+            return output.position() > 0;
+        }
+    }
+}
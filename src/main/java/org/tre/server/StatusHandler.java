@@ -0,0 +1,79 @@
+package org.tre.server;
+
+import org.tre.engine.CommandFailure;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Puts a status line ahead of each response, so programs driving a server can tell how each command went without reading its text
+//   OK                   the command did what it asked
+//   FAILED <failure>     the command failed, for the reason named by the CommandFailure
+// The status line is ended the same way as a ShardHandler's, whatever systems the server and the program run on
+public final class StatusHandler implements CommandHandler {
+    public static final String OK = "OK";
+    public static final String FAILED = "FAILED";
+    public static final String STATUS_END = "\n";
+
+    private final CommandHandler handler;
+
+    public StatusHandler(CommandHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public String handleCommand(String command) {
+        String response = handler.handleCommand(command);
+        return status(handler.getLastFailure()) + STATUS_END + response;
+    }
+
+    // Each command is handled on its own, as the handler can only tell how the last one went
+    @Override
+    public List<String> handleCommands(List<String> commands) {
+        List<String> responses = new ArrayList<>(commands.size());
+        for (String command : commands) {
+            responses.add(handleCommand(command));
+        }
+        return responses;
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return handler.isBlocking();
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return handler.isConcurrent();
+    }
+
+    @Override
+    public CommandFailure getLastFailure() {
+        return handler.getLastFailure();
+    }
+
+    private static String status(CommandFailure failure) {
+        return failure == null ? OK : FAILED + " " + failure.name();
+    }
+
+    // A response along with why its command failed, null if it didn't
+    public record Reply(String response, CommandFailure failure) {
+        // Splits what a server running a StatusHandler sent back
+        public static Reply parse(String reply) throws IOException {
+            int newline = reply.indexOf(STATUS_END);
+            String status = newline == -1 ? reply : reply.substring(0, newline);
+            String response = newline == -1 ? "" : reply.substring(newline + STATUS_END.length());
+            if (status.equals(OK)) {
+                return new Reply(response, null);
+            }
+            if (status.startsWith(FAILED + " ")) {
+                try {
+                    return new Reply(response, CommandFailure.valueOf(status.substring(FAILED.length() + 1)));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Unknown failure in status line '" + status + "'.");
+                }
+            }
+            throw new IOException("Expected a status line but got '" + status + "', was the server started with '--status'?");
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.tre.shard;
+
+import org.tre.engine.GameWorld;
+import org.tre.objects.GameArtefact;
+import org.tre.objects.GameLocation;
+import org.tre.objects.GamePlayer;
+
+import java.io.*;
+import java.util.Base64;
+
+// Moves a player and everything they carry from one shard's world to another's
+// The player is written as a single line of text, so it can travel in the same line-based protocol as commands
+public final class PlayerHandoff {
+    private PlayerHandoff() {
+    }
+
+    // Takes the player out of the world, returning them as a line for the shard they are moving to
+    public static String detach(GameWorld world, GamePlayer player) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(player.getName());
+            out.writeUTF(player.getDescription());
+            out.writeInt(player.getHealth());
+            out.writeUTF(player.getCurrentLocation().getName());
+            out.writeInt(player.getInventory().size());
+            for (GameArtefact artefact : player.getInventory()) {
+                out.writeUTF(artefact.getName());
+                out.writeUTF(artefact.getDescription());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        world.removePlayer(player);
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    // Puts a player written by detach into the world, at the location they were walking to
+    public static GamePlayer adopt(GameWorld world, String line) throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(line)));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Handoff isn't valid Base64.", e);
+        }
+        GamePlayer player = new GamePlayer(in.readUTF(), in.readUTF());
+        player.setHealth(in.readInt());
+        String locationName = in.readUTF();
+        int inventorySize = in.readInt();
+        for (int i = 0; i < inventorySize; i++) {
+            player.addToInventory(new GameArtefact(in.readUTF(), in.readUTF()));
+        }
+
+        GameLocation location = world.getLocation(locationName);
+        if (location == null) {
+            throw new IOException("Can't take in '" + player.getName() + "', there is no location called '" + locationName + "'.");
+        }
+        if (!world.addPlayer(player, location)) {
+            throw new IOException("Can't take in '" + player.getName() + "', there is already a player with that name.");
+        }
+        return player;
+    }
+}
@@ -0,0 +1,297 @@
+package org.tre.shard;
+
+import org.tre.engine.CommandFailure;
+import org.tre.engine.GameAction;
+import org.tre.engine.CommandTokens;
+import org.tre.engine.GameEngine;
+import org.tre.engine.GameWorld;
+import org.tre.objects.GameEntity;
+import org.tre.objects.GameLocation;
+import org.tre.objects.GamePlayer;
+import org.tre.server.CommandHandler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs one shard of a world behind a GameServer, taking requests from a ShardRouter rather than from players
+// Each request is one line, and each response starts with a status line followed by the text for the player:
+//   COMMAND <player: command>  runs the command and answers
+//     OK [failure]              the player is still on this shard, followed by the CommandFailure if the command failed
+//     MOVED <shard> <handoff>   the player walked off this shard, the router passes the handoff on with ADOPT
+//     REDIRECT <shard>          a new player, who has to start on the shard owning the starting location
+//     NEEDS <shard> <names>     the command's action produces entities from the storeroom, which is owned by that shard,
+//                               the router borrows them with WITHDRAW and sends the command again with STOCKED
+//     LEFTOVER <shard> <id> <stock>  the command left these in the storeroom, the router gives them back to that shard
+//                               with DEPOSIT, and the status line for the command itself follows
+//   STOCKED <stock> <player: command>  runs the command with the stock borrowed for it in the storeroom
+//   ADOPT <handoff>             takes in a player from another shard and answers OK
+//   RELEASE <player>            the player handed off has been taken in elsewhere, so this shard forgets them
+//   REATTACH <player>           the player handed off couldn't be taken in, so they go back where they were
+//   WHERE <player>              answers OK followed by HERE, HANDING_OFF or ABSENT, so a router can find its players again
+//   WITHDRAW <names>            takes what producing the names would out of the storeroom and answers OK <id> with the stock
+//   DEPOSIT <stock>             puts stock back in the storeroom and answers OK
+//   SETTLE <id>                 the stock sent out under the id arrived, so this shard forgets it
+//   RESTOCK <id>                the stock sent out under the id didn't arrive, so it goes back in this shard's storeroom
+// Anything that goes wrong answers ERROR with the reason
+// The router never sends two requests for the same player at once, which is what keeps a handoff from racing a command
+// The storeroom is owned by a single shard, so an entity produced on one shard can't also be produced on another
+// Players and stock leaving a shard are kept aside until the router says whether they arrived, so a shard that can't be
+// reached loses neither; if the router itself stops in between they stay kept aside rather than risk being doubled
+public final class ShardHandler implements CommandHandler {
+    public static final String COMMAND = "COMMAND ";
+    public static final String STOCKED = "STOCKED ";
+    public static final String ADOPT = "ADOPT ";
+    public static final String RELEASE = "RELEASE ";
+    public static final String REATTACH = "REATTACH ";
+    public static final String WHERE = "WHERE ";
+    public static final String WITHDRAW = "WITHDRAW ";
+    public static final String DEPOSIT = "DEPOSIT ";
+    public static final String SETTLE = "SETTLE ";
+    public static final String RESTOCK = "RESTOCK ";
+    public static final String OK = "OK";
+    public static final String MOVED = "MOVED";
+    public static final String REDIRECT = "REDIRECT";
+    public static final String NEEDS = "NEEDS";
+    public static final String LEFTOVER = "LEFTOVER";
+    public static final String ERROR = "ERROR";
+    public static final String HERE = "HERE";
+    public static final String HANDING_OFF = "HANDING_OFF";
+    public static final String ABSENT = "ABSENT";
+    // Ends the status line whatever systems the shard and the router run on
+    public static final String STATUS_END = "\n";
+
+    private final GameEngine engine;
+    private final ShardMap shardMap;
+    private final int shard;
+    private final ThreadLocal<CommandTokens> commandTokens = ThreadLocal.withInitial(CommandTokens::new);
+    // Held by a command using the storeroom on a shard that doesn't own it, so what is left in the storeroom afterwards is
+    // what that command left
+    // Taken before any location lock, and commands never wait for it while holding one, so it can't deadlock with them
+    private final Object borrowing = new Object();
+    // Players who have walked off this shard, until the router says whether the shard they walked onto took them in
+    private final ConcurrentMap<String, Departure> departures = new ConcurrentHashMap<>();
+    // Stock sent out of the storeroom, until the router says whether it arrived
+    private final ConcurrentMap<Long, List<GameEntity>> sentStock = new ConcurrentHashMap<>();
+    private final AtomicLong nextStockId = new AtomicLong();
+
+    // Empties the locations of the engine's world that this shard doesn't own
+    public ShardHandler(GameEngine engine, ShardMap shardMap, int shard) {
+        if (shard < 0 || shard >= shardMap.getShardCount()) {
+            throw new IllegalArgumentException("Shard " + shard + " isn't one of the " + shardMap.getShardCount() + " shards.");
+        }
+        if (engine.getWorldStore() != null) {
+            throw new IllegalArgumentException("A sharded world can't be kept in a directory, players moving between shards aren't journaled.");
+        }
+        this.engine = engine;
+        this.shardMap = shardMap;
+        this.shard = shard;
+        shardMap.restrict(engine.getGameWorld(), shard);
+    }
+
+    @Override
+    public String handleCommand(String request) {
+        try {
+            if (request.startsWith(COMMAND)) {
+                return runCommand(request.substring(COMMAND.length()), null);
+            }
+            if (request.startsWith(STOCKED)) {
+                String[] parts = request.substring(STOCKED.length()).split(" ", 2);
+                if (parts.length < 2) {
+                    return ERROR + STATUS_END + "Stocked command is missing.";
+                }
+                return runCommand(parts[1], StoreroomStock.read(parts[0]));
+            }
+            if (request.startsWith(ADOPT)) {
+                PlayerHandoff.adopt(engine.getGameWorld(), request.substring(ADOPT.length()));
+                return OK;
+            }
+            if (request.startsWith(RELEASE)) {
+                departures.remove(request.substring(RELEASE.length()));
+                return OK;
+            }
+            if (request.startsWith(REATTACH)) {
+                reattach(request.substring(REATTACH.length()));
+                return OK;
+            }
+            if (request.startsWith(WHERE)) {
+                String playerName = request.substring(WHERE.length());
+                String where = engine.getGameWorld().getPlayer(playerName) != null ? HERE : departures.containsKey(playerName) ? HANDING_OFF : ABSENT;
+                return OK + STATUS_END + where;
+            }
+            if (request.startsWith(WITHDRAW)) {
+                List<String> names = StoreroomStock.readNames(request.substring(WITHDRAW.length()));
+                GameLocation storeRoom = ownStoreRoom();
+                List<GameEntity> stock = engine.changeLocations(List.of(storeRoom), () -> StoreroomStock.take(storeRoom, names));
+                return OK + " " + send(stock) + STATUS_END + StoreroomStock.write(stock);
+            }
+            if (request.startsWith(DEPOSIT)) {
+                List<GameEntity> stock = StoreroomStock.read(request.substring(DEPOSIT.length()));
+                GameLocation storeRoom = ownStoreRoom();
+                engine.changeLocations(List.of(storeRoom), () -> {
+                    StoreroomStock.put(storeRoom, stock);
+                    return null;
+                });
+                return OK;
+            }
+            if (request.startsWith(SETTLE)) {
+                sentStock.remove(Long.parseLong(request.substring(SETTLE.length())));
+                return OK;
+            }
+            if (request.startsWith(RESTOCK)) {
+                List<GameEntity> stock = sentStock.remove(Long.parseLong(request.substring(RESTOCK.length())));
+                if (stock != null) {
+                    GameLocation storeRoom = engine.getGameWorld().getStoreRoom();
+                    engine.changeLocations(List.of(storeRoom), () -> {
+                        StoreroomStock.put(storeRoom, stock);
+                        return null;
+                    });
+                }
+                return OK;
+            }
+            return ERROR + STATUS_END + "Unknown request.";
+        } catch (IOException | RuntimeException e) {
+            return ERROR + STATUS_END + e.getMessage();
+        }
+    }
+
+    @Override
+    public List<String> handleCommands(List<String> requests) {
+        List<String> responses = new ArrayList<>(requests.size());
+        for (String request : requests) {
+            responses.add(handleCommand(request));
+        }
+        return responses;
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return engine.isBlocking();
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return engine.isConcurrent();
+    }
+
+    private GameLocation ownStoreRoom() throws IOException {
+        GameLocation storeRoom = engine.getGameWorld().getStoreRoom();
+        if (storeRoom == null || !shardMap.isOwnedBy(storeRoom, shard)) {
+            throw new IOException("Shard " + shard + " doesn't own the storeroom.");
+        }
+        return storeRoom;
+    }
+
+    // Keeps the stock until the router settles or restocks it, returning the id it is kept under
+    private long send(List<GameEntity> stock) {
+        long id = nextStockId.incrementAndGet();
+        sentStock.put(id, stock);
+        return id;
+    }
+
+    // Puts a player who couldn't be handed off back where they walked off from, which this shard owns
+    private void reattach(String playerName) throws IOException {
+        Departure departure = departures.remove(playerName);
+        if (departure == null) {
+            throw new IOException("'" + playerName + "' isn't being handed off from shard " + shard + ".");
+        }
+        boolean added = engine.changeLocations(List.of(departure.from), () -> engine.getGameWorld().addPlayer(departure.player, departure.from));
+        if (!added) {
+            throw new IOException("Can't take back '" + playerName + "', there is already a player with that name.");
+        }
+    }
+
+    // Stock is null until the router has borrowed what the command needs from the storeroom
+    private String runCommand(String command, List<GameEntity> stock) {
+        GameWorld world = engine.getGameWorld();
+        CommandTokens tokens = commandTokens.get();
+        String playerName = tokens.tokenize(command) ? tokens.playerName() : null;
+
+        // A player being handed off isn't on any shard until the router says where they ended up
+        if (playerName != null && departures.containsKey(playerName)) {
+            return ERROR + STATUS_END + "'" + playerName + "' is being handed off from shard " + shard + ".";
+        }
+        // New players appear at the start, so only the shard owning it can let them join
+        if (playerName != null && world.getPlayer(playerName) == null && !shardMap.isOwnedBy(world.getStartingLocation(), shard)) {
+            return REDIRECT + " " + shardMap.ownerOf(world.getStartingLocation().getName());
+        }
+
+        GameLocation storeRoom = world.getStoreRoom();
+        if (storeRoom == null || shardMap.isOwnedBy(storeRoom, shard)) {
+            return runOwnCommand(world, command, playerName);
+        }
+        if (stock == null) {
+            GameAction action = engine.findAction(command);
+            if (action == null || action.getConsumed().isEmpty() && action.getProduced().isEmpty()) {
+                return runOwnCommand(world, command, playerName);
+            }
+            List<String> needed = storeRoomNames(world, action.getProduced());
+            if (!needed.isEmpty()) {
+                return NEEDS + " " + shardMap.getStoreRoomOwner() + " " + StoreroomStock.writeNames(needed);
+            }
+        }
+        return runBorrowingCommand(world, command, playerName, stock == null ? List.of() : stock);
+    }
+
+    // Puts the stock in the storeroom for the command, and hands back whatever is left there afterwards, including anything
+    // the command consumed
+    // Should a reload change the actions between finding the action and running it, anything an unexpected action consumed
+    // waits in the storeroom for the next command that borrows
+    private String runBorrowingCommand(GameWorld world, String command, String playerName, List<GameEntity> stock) {
+        GameLocation storeRoom = world.getStoreRoom();
+        synchronized (borrowing) {
+            engine.changeLocations(List.of(storeRoom), () -> {
+                StoreroomStock.put(storeRoom, stock);
+                return null;
+            });
+            String reply;
+            try {
+                reply = runOwnCommand(world, command, playerName);
+            } catch (RuntimeException e) {
+                // Still hands the stock back, so nothing is lost with the command
+                reply = ERROR + STATUS_END + e.getMessage();
+            }
+            List<GameEntity> leftover = engine.changeLocations(List.of(storeRoom), () -> StoreroomStock.takeAll(storeRoom));
+            if (leftover.isEmpty()) {
+                return reply;
+            }
+            return LEFTOVER + " " + shardMap.getStoreRoomOwner() + " " + send(leftover) + " " + StoreroomStock.write(leftover) + STATUS_END + reply;
+        }
+    }
+
+    private String runOwnCommand(GameWorld world, String command, String playerName) {
+        // Where the player would go back to should the shard they walk onto not take them in, the start for a new player
+        GamePlayer before = playerName == null ? null : world.getPlayer(playerName);
+        GameLocation from = before == null ? world.getStartingLocation() : before.getCurrentLocation();
+        String response = engine.handleCommand(command);
+        CommandFailure failure = engine.getLastFailure();
+
+        // Going somewhere, or dying and being sent back to the start, can take the player to a location owned elsewhere
+        GamePlayer player = playerName == null ? null : world.getPlayer(playerName);
+        if (player != null && !shardMap.isOwnedBy(player.getCurrentLocation(), shard)) {
+            int owner = shardMap.ownerOf(player.getCurrentLocation().getName());
+            String handoff = PlayerHandoff.detach(world, player);
+            departures.put(playerName, new Departure(player, from));
+            return MOVED + " " + owner + " " + handoff + STATUS_END + response;
+        }
+        return (failure == null ? OK : OK + " " + failure.name()) + STATUS_END + response;
+    }
+
+    // Produced names that stand for entities, rather than paths to locations or the player's health
+    private static List<String> storeRoomNames(GameWorld world, Set<String> produced) {
+        List<String> names = new ArrayList<>(produced.size());
+        for (String name : produced) {
+            if (!name.equals("health") && world.getLocation(name) == null) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    private record Departure(GamePlayer player, GameLocation from) {
+    }
+}
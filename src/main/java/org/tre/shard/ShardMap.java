@@ -0,0 +1,110 @@
+package org.tre.shard;
+
+import org.tre.engine.GameWorld;
+import org.tre.objects.GameArtefact;
+import org.tre.objects.GameCharacter;
+import org.tre.objects.GameFurniture;
+import org.tre.objects.GameLocation;
+
+import java.util.*;
+
+// Which shard owns each location of a world split across several engine processes
+// Every process loads the same entities file and works out the same map from it, so they agree without talking
+// Locations are taken breadth first from the starting location, neighbours in name order, and cut into equal runs,
+// so neighbouring locations tend to share a shard and few paths cross from one shard to another
+// The storeroom is owned by the shard owning the starting location, so every unique entity in it exists once however many
+// shards there are; other shards borrow from it through the ShardRouter for the actions their players run
+public final class ShardMap {
+    private static final String STOREROOM = "storeroom";
+
+    private final Map<String, Integer> owners;
+    private final int shardCount;
+
+    private ShardMap(Map<String, Integer> owners, int shardCount) {
+        this.owners = owners;
+        this.shardCount = shardCount;
+    }
+
+    public static ShardMap partition(Collection<GameLocation> locations, int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("There must be at least one shard.");
+        }
+        List<GameLocation> sorted = new ArrayList<>(locations);
+        sorted.sort(Comparator.comparing(GameLocation::getName));
+
+        // Breadth first from the start, then whatever can't be reached from it yet, such as locations behind locked doors
+        List<String> order = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        seen.add(STOREROOM);
+        ArrayDeque<GameLocation> queue = new ArrayDeque<>();
+        for (GameLocation location : sorted) {
+            if (location.isStartingLocation() && seen.add(location.getName())) {
+                queue.add(location);
+            }
+        }
+        while (!queue.isEmpty()) {
+            GameLocation location = queue.poll();
+            order.add(location.getName());
+            List<GameLocation> neighbours = new ArrayList<>(location.getAdjacentLocations());
+            neighbours.sort(Comparator.comparing(GameLocation::getName));
+            for (GameLocation neighbour : neighbours) {
+                if (seen.add(neighbour.getName())) {
+                    queue.add(neighbour);
+                }
+            }
+        }
+        for (GameLocation location : sorted) {
+            if (seen.add(location.getName())) {
+                order.add(location.getName());
+            }
+        }
+
+        Map<String, Integer> owners = new HashMap<>();
+        int perShard = Math.max(1, (order.size() + shardCount - 1) / shardCount);
+        for (int i = 0; i < order.size(); i++) {
+            owners.put(order.get(i), i / perShard);
+        }
+        // The start is always first in the order, so this is the shard that owns it
+        owners.put(STOREROOM, 0);
+        return new ShardMap(owners, shardCount);
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    // Locations added to the world since the map was made, by reloading the config, are spread by their name
+    public int ownerOf(String locationName) {
+        Integer owner = owners.get(locationName);
+        return owner != null ? owner : Math.floorMod(locationName.hashCode(), shardCount);
+    }
+
+    public boolean isOwnedBy(GameLocation location, int shard) {
+        return ownerOf(location.getName()) == shard;
+    }
+
+    public int getStoreRoomOwner() {
+        return owners.get(STOREROOM);
+    }
+
+    // Empties the locations the shard doesn't own, leaving them in the world only as places paths lead to
+    // Whatever is in them is kept by the shard that owns them, and the world is told which are owned so travel stops at them
+    // That includes the storeroom, which on every other shard only holds what one command has borrowed while it runs
+    public void restrict(GameWorld world, int shard) {
+        world.setOwnedLocations(location -> isOwnedBy(location, shard));
+        for (GameLocation location : world.getGameLocations()) {
+            if (isOwnedBy(location, shard)) {
+                continue;
+            }
+            for (GameCharacter character : new ArrayList<>(location.getPresentCharacters())) {
+                location.removeCharacter(character);
+            }
+            for (GameArtefact artefact : new ArrayList<>(location.getPresentArtefacts())) {
+                location.removeArtefact(artefact);
+            }
+            for (GameFurniture furniture : new ArrayList<>(location.getPresentFurniture())) {
+                location.removeFurniture(furniture);
+            }
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package org.tre.shard;
+
+import org.tre.engine.CommandFailure;
+import org.tre.engine.CommandTokens;
+import org.tre.server.CommandHandler;
+import org.tre.server.GameClient;
+import org.tre.server.GameServer;
+import org.tre.server.StatusHandler;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Front end for a world split across several shards, sending each player's commands to the shard they are on
+// Players connect to it exactly as they would to a single engine, through a GameServer, which runs its commands on worker
+// threads as each one waits on a shard
+// When a command takes a player off their shard, the router hands them to the shard they walked onto before answering,
+// and each player's commands are sent one at a time so nothing they do can overtake the handoff
+// Actions on a shard that doesn't own the storeroom borrow what they produce from the shard that does, and give back
+// whatever they consumed or didn't use, all before the player is answered
+public final class ShardRouter implements CommandHandler, Closeable {
+    // Enough that players rarely wait on each other's commands, as players sharing a stripe are routed one at a time
+    private static final int PLAYER_LOCK_STRIPES = 1024;
+
+    private final List<GameClient> shards = new ArrayList<>();
+    // Only holds players who have been seen, new players are found a shard by asking
+    private final ConcurrentMap<String, Integer> playerShards = new ConcurrentHashMap<>();
+    // Striped by player name, so the router holds the same few locks however many players it has ever seen
+    private final Object[] playerLocks = new Object[PLAYER_LOCK_STRIPES];
+    private final ThreadLocal<CommandTokens> commandTokens = ThreadLocal.withInitial(CommandTokens::new);
+    // As the shard reported it, so the router can report it in turn
+    private final ThreadLocal<CommandFailure> lastFailure = new ThreadLocal<>();
+
+    // Shards are listed in order, so that shard n of the ShardMap is at the nth address
+    public ShardRouter(List<InetSocketAddress> shardAddresses) {
+        if (shardAddresses.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one shard.");
+        }
+        for (InetSocketAddress address : shardAddresses) {
+            shards.add(new GameClient(address));
+        }
+        for (int i = 0; i < playerLocks.length; i++) {
+            playerLocks[i] = new Object();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // '--port <number>' to listen for players on, '--shards <port or host:port>,...' for the shards in order
+        // and '--status' to start each response with a status line, as a StatusHandler does
+        String port = null;
+        String shardList = null;
+        boolean status = false;
+        for (int i = 0; i < args.length; i += 2) {
+            if (args[i].equals("--status")) {
+                status = true;
+                i--;
+            } else if (i + 1 == args.length) {
+                break;
+            } else if (args[i].equals("--port")) {
+                port = args[i + 1];
+            } else if (args[i].equals("--shards")) {
+                shardList = args[i + 1];
+            }
+        }
+        if (port == null || shardList == null) {
+            System.out.println("Usage: ShardRouter --port <number> --shards <port or host:port>,... [--status]");
+            return;
+        }
+
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String shard : shardList.split(",")) {
+            int colon = shard.lastIndexOf(':');
+            addresses.add(colon == -1
+                    ? new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(shard.trim()))
+                    : new InetSocketAddress(shard.substring(0, colon).trim(), Integer.parseInt(shard.substring(colon + 1).trim())));
+        }
+
+        try (ShardRouter router = new ShardRouter(addresses)) {
+            GameServer server = new GameServer(status ? new StatusHandler(router) : router, Integer.parseInt(port));
+            server.start();
+            System.out.println("Routing players on port " + server.getLocalPort() + " to " + addresses.size() + " shards, enter 'exit' to stop.");
+            BufferedReader consoleReader = new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            while ((line = consoleReader.readLine()) != null && !line.equalsIgnoreCase("exit")) {
+                System.out.println("Enter 'exit' to stop the router.");
+            }
+            server.close();
+        }
+    }
+
+    // Null if the player hasn't been seen yet
+    public Integer getShardOf(String playerName) {
+        return playerShards.get(playerName);
+    }
+
+    @Override
+    public String handleCommand(String command) {
+        CommandTokens tokens = commandTokens.get();
+        if (!tokens.tokenize(command)) {
+            // Any shard can tell the player what's wrong with the command
+            return route(null, command);
+        }
+        String playerName = tokens.playerName();
+        synchronized (playerLocks[Math.floorMod(playerName.hashCode(), playerLocks.length)]) {
+            return route(playerName, command);
+        }
+    }
+
+    @Override
+    public List<String> handleCommands(List<String> commands) {
+        List<String> responses = new ArrayList<>(commands.size());
+        for (String command : commands) {
+            responses.add(handleCommand(command));
+        }
+        return responses;
+    }
+
+    @Override
+    public CommandFailure getLastFailure() {
+        return lastFailure.get();
+    }
+
+    private String route(String playerName, String command) {
+        lastFailure.set(CommandFailure.WORLD_UNAVAILABLE);
+        int shard = playerName == null ? 0 : findShard(playerName);
+        if (shard == -1) {
+            return CommandFailure.WORLD_UNAVAILABLE.getMessage();
+        }
+        String request = ShardHandler.COMMAND + command;
+        // Set while the command is being sent with stock borrowed from the storeroom
+        Borrowed borrowed = null;
+        // A new player is redirected at most once, to the shard owning the start, and a command is stocked at most once
+        for (int attempt = 0; attempt <= shards.size() + 1; attempt++) {
+            String reply;
+            try {
+                reply = shards.get(shard).request(request);
+            } catch (IOException e) {
+                System.err.println("Couldn't reach shard " + shard + ": " + e.getMessage());
+                reply = null;
+            }
+            // Borrowed stock goes back to the storeroom unless the shard answered, as then it was put in the shard's storeroom
+            if (borrowed != null) {
+                settle(borrowed.owner, borrowed.id, reply != null);
+                borrowed = null;
+            }
+            if (reply == null) {
+                return CommandFailure.WORLD_UNAVAILABLE.getMessage();
+            }
+            int newline = reply.indexOf(ShardHandler.STATUS_END);
+            String status = newline == -1 ? reply : reply.substring(0, newline);
+            String response = newline == -1 ? "" : reply.substring(newline + ShardHandler.STATUS_END.length());
+            String[] parts = status.split(" ", 3);
+
+            // Whatever the command left in a storeroom the shard doesn't own goes back before anything else
+            if (parts[0].equals(ShardHandler.LEFTOVER)) {
+                String[] leftover = parts[2].split(" ", 2);
+                boolean deposited = deposit(Integer.parseInt(parts[1]), leftover[1]);
+                settle(shard, Long.parseLong(leftover[0]), deposited);
+                newline = response.indexOf(ShardHandler.STATUS_END);
+                status = newline == -1 ? response : response.substring(0, newline);
+                response = newline == -1 ? "" : response.substring(newline + ShardHandler.STATUS_END.length());
+                parts = status.split(" ", 3);
+            }
+
+            switch (parts[0]) {
+                case ShardHandler.OK -> {
+                    if (playerName != null) {
+                        playerShards.put(playerName, shard);
+                    }
+                    lastFailure.set(parts.length > 1 ? CommandFailure.valueOf(parts[1]) : null);
+                    return response;
+                }
+                case ShardHandler.REDIRECT -> shard = Integer.parseInt(parts[1]);
+                case ShardHandler.MOVED -> {
+                    int destination = Integer.parseInt(parts[1]);
+                    if (!handOff(playerName, shard, destination, parts[2])) {
+                        // Back where they were before the command, so what it said happened didn't
+                        return CommandFailure.WORLD_UNAVAILABLE.getMessage();
+                    }
+                    lastFailure.set(null);
+                    return response;
+                }
+                case ShardHandler.NEEDS -> {
+                    borrowed = withdraw(Integer.parseInt(parts[1]), parts[2]);
+                    if (borrowed == null) {
+                        return CommandFailure.WORLD_UNAVAILABLE.getMessage();
+                    }
+                    request = ShardHandler.STOCKED + borrowed.stock + " " + command;
+                }
+                default -> {
+                    System.err.println("Shard " + shard + " couldn't run '" + command + "': " + response);
+                    return CommandFailure.WORLD_UNAVAILABLE.getMessage();
+                }
+            }
+        }
+        System.err.println("Shards kept redirecting '" + command + "', do they all agree on the shard map?");
+        return CommandFailure.WORLD_UNAVAILABLE.getMessage();
+    }
+
+    // Borrows what the names stand for from the storeroom's owner, null if it can't be reached
+    private Borrowed withdraw(int owner, String names) {
+        try {
+            String reply = shards.get(owner).request(ShardHandler.WITHDRAW + names);
+            int newline = reply.indexOf(ShardHandler.STATUS_END);
+            String[] status = newline == -1 ? new String[0] : reply.substring(0, newline).split(" ");
+            if (status.length != 2 || !status[0].equals(ShardHandler.OK)) {
+                throw new IOException(reply);
+            }
+            return new Borrowed(owner, Long.parseLong(status[1]), reply.substring(newline + ShardHandler.STATUS_END.length()));
+        } catch (IOException e) {
+            System.err.println("Couldn't borrow from the storeroom on shard " + owner + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean deposit(int owner, String stock) {
+        try {
+            String reply = shards.get(owner).request(ShardHandler.DEPOSIT + stock);
+            if (!reply.equals(ShardHandler.OK)) {
+                throw new IOException(reply);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Couldn't give back to the storeroom on shard " + owner + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Tells the shard that sent stock whether it arrived, so it forgets the stock or puts it back in its own storeroom
+    // If the shard can't be told, it keeps the stock aside rather than risk it being doubled
+    private void settle(int sender, long id, boolean arrived) {
+        try {
+            String reply = shards.get(sender).request((arrived ? ShardHandler.SETTLE : ShardHandler.RESTOCK) + id);
+            if (!reply.equals(ShardHandler.OK)) {
+                throw new IOException(reply);
+            }
+        } catch (IOException e) {
+            System.err.println("Couldn't tell shard " + sender + " whether its stock " + id + " arrived: " + e.getMessage());
+        }
+    }
+
+    // The shard the player is on, asking every shard if the router hasn't seen them, such as after it restarts
+    // A player none of the shards has is new, and goes to the first shard to be redirected to the start
+    // Returns -1 if a shard can't be reached, as it could be the one with the player
+    private int findShard(String playerName) {
+        Integer known = playerShards.get(playerName);
+        if (known != null) {
+            return known;
+        }
+        int handingOff = -1;
+        for (int shard = 0; shard < shards.size(); shard++) {
+            String reply;
+            try {
+                reply = shards.get(shard).request(ShardHandler.WHERE + playerName);
+            } catch (IOException e) {
+                System.err.println("Couldn't ask shard " + shard + " for '" + playerName + "': " + e.getMessage());
+                return -1;
+            }
+            if (reply.equals(ShardHandler.OK + ShardHandler.STATUS_END + ShardHandler.HERE)) {
+                playerShards.put(playerName, shard);
+                return shard;
+            }
+            if (reply.equals(ShardHandler.OK + ShardHandler.STATUS_END + ShardHandler.HANDING_OFF)) {
+                handingOff = shard;
+            }
+        }
+        if (handingOff == -1) {
+            return 0;
+        }
+        // The player walked off a shard but was never taken in by the next, so they go back to where they were
+        if (!reattach(playerName, handingOff)) {
+            return -1;
+        }
+        playerShards.put(playerName, handingOff);
+        return handingOff;
+    }
+
+    // The shard the player walked off keeps them aside until the new one takes them in, and takes them back if it can't
+    // Returns whether the player reached the new shard
+    private boolean handOff(String playerName, int source, int destination, String handoff) {
+        boolean adopted;
+        try {
+            String reply = shards.get(destination).request(ShardHandler.ADOPT + handoff);
+            if (!reply.equals(ShardHandler.OK)) {
+                throw new IOException(reply);
+            }
+            adopted = true;
+        } catch (IOException e) {
+            System.err.println("Couldn't hand '" + playerName + "' to shard " + destination + ", sending them back to shard " + source + ": " + e.getMessage());
+            adopted = false;
+        }
+        if (adopted) {
+            playerShards.put(playerName, destination);
+            try {
+                shards.get(source).request(ShardHandler.RELEASE + playerName);
+            } catch (IOException e) {
+                // The old shard only keeps them aside, where no command can reach them, so the player isn't doubled
+                System.err.println("Couldn't tell shard " + source + " that '" + playerName + "' was handed off: " + e.getMessage());
+            }
+            return true;
+        }
+        if (reattach(playerName, source)) {
+            playerShards.put(playerName, source);
+        } else {
+            // Still kept aside by the old shard, where the next command for them finds them by asking
+            playerShards.remove(playerName);
+        }
+        return false;
+    }
+
+    private boolean reattach(String playerName, int shard) {
+        try {
+            String reply = shards.get(shard).request(ShardHandler.REATTACH + playerName);
+            if (!reply.equals(ShardHandler.OK)) {
+                throw new IOException(reply);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Couldn't send '" + playerName + "' back to shard " + shard + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        for (GameClient shard : shards) {
+            shard.close();
+        }
+    }
+
+    // Stock borrowed from the storeroom's owner for one command, kept aside there under the id until settled
+    private record Borrowed(int owner, long id, String stock) {
+    }
+}
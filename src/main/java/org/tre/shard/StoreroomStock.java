@@ -0,0 +1,148 @@
+package org.tre.shard;
+
+import org.tre.objects.GameArtefact;
+import org.tre.objects.GameCharacter;
+import org.tre.objects.GameEntity;
+import org.tre.objects.GameFurniture;
+import org.tre.objects.GameLocation;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+
+// Moves entities between the storeroom of the shard owning it and the storeroom of a shard borrowing from it
+// Names and entities are each written as a single line of text, so they travel in the same line-based protocol as commands
+// Callers hold the storeroom's lock, if there are locks, as this changes it like a command would
+public final class StoreroomStock {
+    private static final int ARTEFACT = 0;
+    private static final int CHARACTER = 1;
+    private static final int FURNITURE = 2;
+
+    private StoreroomStock() {
+    }
+
+    public static String writeNames(Collection<String> names) {
+        return encode(out -> {
+            out.writeInt(names.size());
+            for (String name : names) {
+                out.writeUTF(name);
+            }
+        });
+    }
+
+    public static List<String> readNames(String line) throws IOException {
+        DataInputStream in = decode(line);
+        int count = in.readInt();
+        if (count < 0 || count > in.available()) {
+            throw new IOException("Names line holds a count of " + count + " it can't fit.");
+        }
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(in.readUTF());
+        }
+        return names;
+    }
+
+    // Takes out what producing each name would, the oldest artefact, character and piece of furniture with that name
+    public static List<GameEntity> take(GameLocation storeRoom, Collection<String> names) {
+        List<GameEntity> taken = new ArrayList<>();
+        for (String name : names) {
+            addIfTaken(taken, storeRoom.takeArtefact(name));
+            addIfTaken(taken, storeRoom.takeCharacter(name));
+            addIfTaken(taken, storeRoom.takeFurniture(name));
+        }
+        return taken;
+    }
+
+    public static List<GameEntity> takeAll(GameLocation storeRoom) {
+        List<GameEntity> taken = new ArrayList<>();
+        for (GameArtefact artefact : new ArrayList<>(storeRoom.getPresentArtefacts())) {
+            storeRoom.removeArtefact(artefact);
+            taken.add(artefact);
+        }
+        for (GameCharacter character : new ArrayList<>(storeRoom.getPresentCharacters())) {
+            storeRoom.removeCharacter(character);
+            taken.add(character);
+        }
+        for (GameFurniture furniture : new ArrayList<>(storeRoom.getPresentFurniture())) {
+            storeRoom.removeFurniture(furniture);
+            taken.add(furniture);
+        }
+        return taken;
+    }
+
+    // Reads entities written by write, all of them before any are put anywhere, so a damaged line changes nothing
+    public static List<GameEntity> read(String line) throws IOException {
+        DataInputStream in = decode(line);
+        int count = in.readInt();
+        if (count < 0 || count > in.available()) {
+            throw new IOException("Stock line holds a count of " + count + " it can't fit.");
+        }
+        List<GameEntity> entities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int kind = in.readByte();
+            String name = in.readUTF();
+            String description = in.readUTF();
+            entities.add(switch (kind) {
+                case ARTEFACT -> new GameArtefact(name, description);
+                case CHARACTER -> new GameCharacter(name, description);
+                case FURNITURE -> new GameFurniture(name, description);
+                default -> throw new IOException("Unknown kind of entity " + kind + " in stock line.");
+            });
+        }
+        return entities;
+    }
+
+    public static void put(GameLocation storeRoom, List<GameEntity> entities) {
+        for (GameEntity entity : entities) {
+            if (entity instanceof GameArtefact artefact) {
+                storeRoom.addArtefact(artefact);
+            } else if (entity instanceof GameCharacter character) {
+                storeRoom.addCharacter(character);
+            } else {
+                storeRoom.addFurniture((GameFurniture) entity);
+            }
+        }
+    }
+
+    private static void addIfTaken(List<GameEntity> taken, GameEntity entity) {
+        if (entity != null) {
+            taken.add(entity);
+        }
+    }
+
+    public static String write(List<GameEntity> entities) {
+        return encode(out -> {
+            out.writeInt(entities.size());
+            for (GameEntity entity : entities) {
+                out.writeByte(entity instanceof GameArtefact ? ARTEFACT : entity instanceof GameCharacter ? CHARACTER : FURNITURE);
+                out.writeUTF(entity.getName());
+                out.writeUTF(entity.getDescription());
+            }
+        });
+    }
+
+    private interface Writer {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    private static String encode(Writer writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    private static DataInputStream decode(String line) throws IOException {
+        try {
+            return new DataInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(line)));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Stock isn't valid Base64.", e);
+        }
+    }
+}
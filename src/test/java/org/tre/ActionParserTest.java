@@ -1,13 +1,19 @@
 package org.tre;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tre.engine.ActionIndex;
 import org.tre.engine.ActionParser;
 import org.tre.engine.GameAction;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -35,4 +41,37 @@ class ActionParserTest {
         assertEquals("You unlock the door and see steps leading down into a cellar", openAction.getNarration(), "Narration incorrect for open action");
 
     }
-}
\ No newline at end of file
+
+    @Test
+    void testActionIndex() {
+        File extendedActionsFile = Paths.get("config" + File.separator + "example-actions.xml").toAbsolutePath().toFile();
+        ActionParser parser = new ActionParser();
+        parser.parseActionsFile(extendedActionsFile);
+        ActionIndex index = parser.getActionIndex();
+
+        assertNotNull(index, "Action index should be compiled once the file is parsed");
+        assertTrue(index.getSubjectVocabulary().containsAll(Set.of("trapdoor", "key", "elf", "coin", "horn")), "Subject vocabulary is missing entities");
+        assertEquals(2, index.getActionsForSubject("elf").size(), "Expected the attack and pay actions to be posted under elf");
+        assertSame(index.getActionsForTrigger("cut").get(0), index.getActionsForTrigger("chop").get(0), "Triggers of one action should share the same action");
+        assertTrue(index.getActionsForTrigger("dance").isEmpty(), "Unknown trigger should have no actions");
+    }
+
+    @Test
+    void testMalformedActionsFile(@TempDir Path directory) throws IOException {
+        ActionParser parser = new ActionParser();
+
+        File unclosed = directory.resolve("unclosed.xml").toFile();
+        Files.writeString(unclosed.toPath(), "<actions>\n    <action>\n        <triggers>\n            <keyphrase>open</triggers>\n");
+        assertNull(parser.parseActionsFile(unclosed), "A file with mismatched tags shouldn't load");
+        assertTrue(parser.getParseError().contains("line 4"), "Parse error should give the line of the mismatched tag, but was: " + parser.getParseError());
+
+        File noNarration = directory.resolve("no-narration.xml").toFile();
+        Files.writeString(noNarration.toPath(), "<actions>\n    <action>\n        <triggers><keyphrase>open</keyphrase></triggers>\n    </action>\n</actions>\n");
+        assertNull(parser.parseActionsFile(noNarration), "An action without a narration shouldn't load");
+        assertTrue(parser.getParseError().contains("line 4") && parser.getParseError().contains("narration"), "Parse error should name the missing narration and where, but was: " + parser.getParseError());
+
+        File exampleActionsFile = Paths.get("config" + File.separator + "example-actions.xml").toAbsolutePath().toFile();
+        assertNotNull(parser.parseActionsFile(exampleActionsFile), "Example actions file should load after a failed one");
+        assertNull(parser.getParseError(), "A successful load should clear the previous parse error");
+    }
+}
@@ -0,0 +1,93 @@
+package org.tre;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tre.engine.GameEngine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandEventsTest {
+    @TempDir
+    Path directory;
+
+    private List<RecordedEvent> record(GameEngine engine, List<String> commands) throws IOException {
+        Path file = directory.resolve("commands.jfr");
+        try (Recording recording = new Recording()) {
+            for (String event : List.of("Command", "ResolvePlayer", "LockLocations", "BasicCommand", "IdentifyTrigger",
+                    "CheckSubjects", "PerformAction", "ConsumeEntities", "ProduceEntities")) {
+                recording.enable("org.tre." + event).withoutThreshold();
+            }
+            recording.start();
+            for (String command : commands) {
+                engine.handleCommand(command);
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file);
+    }
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        return events.stream().filter(event -> event.getEventType().getName().equals("org.tre." + name)).collect(Collectors.toList());
+    }
+
+    @Test
+    void testEventPerStage() throws IOException {
+        GameEngine engine = new GameEngine(new BufferedReader(new InputStreamReader(System.in)), true);
+        List<RecordedEvent> events = record(engine, List.of("sam: look", "sam: get axe", "sam: goto forest", "sam: chop tree", "sam: dance"));
+
+        List<RecordedEvent> commands = named(events, "Command");
+        assertEquals(5, commands.size(), "Every command should have an event");
+        assertEquals("sam", commands.get(0).getString("player"), "Command events should name the player");
+        assertEquals("look", commands.get(0).getString("kind"), "Command events should say what kind of command it was");
+        assertEquals("trigger-not-found", commands.get(4).getString("kind"), "Failed commands should say why they failed");
+
+        assertEquals(5, named(events, "ResolvePlayer").size(), "Resolving the player should have an event per command");
+        assertEquals(5, named(events, "BasicCommand").size(), "Looking for a basic command should have an event per command");
+        assertEquals(2, named(events, "IdentifyTrigger").size(), "Only commands that aren't basic should look for a trigger");
+
+        List<RecordedEvent> checks = named(events, "CheckSubjects");
+        assertEquals(1, checks.size(), "Only commands with a trigger should check subjects");
+        assertEquals("chop", checks.get(0).getString("trigger"), "Subject checks should name the trigger");
+        assertEquals("axe, tree", checks.get(0).getString("action"), "Subject checks should name the resolved action by its subjects");
+
+        List<RecordedEvent> performed = named(events, "PerformAction");
+        assertEquals(1, performed.size(), "Resolved actions should have an event");
+        assertTrue(performed.get(0).getBoolean("performed"), "The axe was at hand, so the action should have been performed");
+        assertEquals("tree", named(events, "ConsumeEntities").get(0).getString("entities"), "Consuming should name what was consumed");
+        assertEquals("log", named(events, "ProduceEntities").get(0).getString("entities"), "Producing should name what was produced");
+    }
+
+    // With locks, the command is matched once before locking, and the locations it touches are worked out from that
+    @Test
+    void testLockEvents() throws IOException {
+        GameEngine engine = new GameEngine(new BufferedReader(new InputStreamReader(System.in)), true, true);
+        List<RecordedEvent> events = record(engine, List.of("sam: goto forest", "sam: chop tree"));
+
+        List<RecordedEvent> locks = named(events, "LockLocations");
+        assertEquals(2, locks.size(), "Locking should have an event per command");
+        assertEquals(2, locks.get(0).getInt("locations"), "Goto should lock where the player is and where they are going");
+        assertEquals(1, locks.get(0).getInt("attempts"), "Nothing else ran, so the first attempt should have held");
+        assertEquals(1, named(events, "IdentifyTrigger").size(), "The trigger should only be found once, however many times the locations are planned");
+        assertEquals(1, named(events, "CheckSubjects").size(), "The subjects should only be checked once");
+        assertEquals(1, named(events, "PerformAction").size(), "The resolved action should be performed");
+    }
+
+    @Test
+    void testNoEventsWhenNotRecording() throws IOException {
+        GameEngine engine = new GameEngine(new BufferedReader(new InputStreamReader(System.in)), true);
+        engine.handleCommand("sam: get axe");
+        List<RecordedEvent> events = record(engine, List.of());
+        assertTrue(named(events, "Command").isEmpty(), "Commands run before recording started shouldn't be recorded");
+    }
+}
@@ -2,11 +2,20 @@ package org.tre;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.tre.engine.ActionIndex;
+import org.tre.engine.GameAction;
 import org.tre.engine.GameEngine;
+import org.tre.engine.GameWorld;
+import org.tre.objects.GameArtefact;
+import org.tre.objects.GameLocation;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -41,6 +50,42 @@ class CommandParserTest {
         assertTrue(response.contains("wizard") && response.contains("dog      man") && response.contains("cat   elf"), "All three players not shown in current location");
     }
 
+    @Test
+    void testLookReflectsChanges() {
+        String first = sendCommandToEngine("wizard: look");
+        String second = sendCommandToEngine("wizard: look");
+        assertSame(first, second, "Looking at an unchanged location should reuse the previous description");
+
+        sendCommandToEngine("wizard: get coin");
+        String response = sendCommandToEngine("wizard: look");
+        assertFalse(response.toLowerCase().contains("coin"), "Look still shows the coin after it was picked up");
+
+        sendCommandToEngine("elf: goto forest");
+        response = sendCommandToEngine("wizard: look");
+        assertFalse(response.toLowerCase().contains("elf"), "Look still shows a player who has left the location");
+    }
+
+    @Test
+    void testPlayerDescriptions() {
+        sendCommandToEngine("wizard: look");
+        sendCommandToEngine("wizard: look");
+        String response = sendCommandToEngine("sorcerer: look");
+        response = response.toLowerCase();
+        assertTrue(response.contains("wizard: player #1"), "Returning player shouldn't be created a second time");
+        assertTrue(response.contains("sorcerer: player #2"), "New player should be numbered after existing players");
+    }
+
+    @Test
+    void testBatchCommands() {
+        List<String> responses = gameEngine.handleCommands(List.of("wizard: get coin", "wizard: inv", "hello from my bedroom", "wizard : drop coin", "elf: inv"));
+        assertEquals(5, responses.size(), "Expected one response per command");
+        assertTrue(responses.get(0).contains("picked up the 'coin'"), "Coin should have been picked up");
+        assertTrue(responses.get(1).contains("coin"), "Coin should be in the inventory");
+        assertEquals("Couldn't locate a player name in your command, please try again.", responses.get(2), "Batch should carry on past a bad command");
+        assertEquals("You dropped 'coin'.", responses.get(3), "Same player with different spacing should still be found");
+        assertTrue(responses.get(4).contains("empty"), "A different player shouldn't see the wizard's inventory");
+    }
+
     @Test
     void testEmptyInventory() {
         String response;
@@ -80,6 +125,22 @@ class CommandParserTest {
         assertFalse(response.contains("coin"), "Coin is still present in this location after an attempt to pick it up");
     }
 
+    @Test
+    void testCommandWords() {
+        String response;
+
+        // Commands are matched on whole words regardless of case or punctuation
+        sendCommandToEngine("wizard: Please GET the Coin!");
+
+        response = sendCommandToEngine("wizard: inv.");
+        response = response.toLowerCase();
+        assertTrue(response.contains("coin"), "Couldn't see the coin in inventory after picking it up with a capitalised command");
+
+        // 'together' contains 'get' but isn't the word itself
+        response = sendCommandToEngine("wizard: together");
+        assertFalse(response.contains("picked up"), "A basic command was matched inside a longer word");
+    }
+
     @Test
     void testDrop() {
         String response;
@@ -362,4 +423,21 @@ class CommandParserTest {
 
     }
 
-}
\ No newline at end of file
+
+    // Subjects only need to be at hand, holding one and seeing another shouldn't stop the action
+    @Test
+    void testSubjectsNeedOnlyBePresent() {
+        Set<GameArtefact> tokens = new HashSet<>(List.of(new GameArtefact("token", "A brass token"), new GameArtefact("token", "A brass token")));
+        GameLocation room = new GameLocation("room", "A plain room", new HashSet<>(), tokens, new HashSet<>());
+        room.setStartingLocation(true);
+        GameLocation storeroom = new GameLocation("storeroom", "Storage", new HashSet<>(), new HashSet<>(), new HashSet<>());
+        HashMap<String, HashSet<GameAction>> actions = new HashMap<>();
+        actions.put("polish", new HashSet<>(List.of(new GameAction(Set.of("token", "cloth"), Set.of(), Set.of(), "You polish the token."))));
+        actions.put("spin", new HashSet<>(List.of(new GameAction(Set.of("token"), Set.of(), Set.of(), "You spin the token."))));
+        gameEngine = new GameEngine(new GameWorld(ActionIndex.compile(actions), Set.of(room, storeroom)), false);
+
+        sendCommandToEngine("sam: get token");
+        assertEquals("You spin the token.", sendCommandToEngine("sam: spin token"), "A token in hand and one on the floor should be enough");
+        assertTrue(sendCommandToEngine("sam: polish token").contains("do not have everything"), "Every subject has to be at hand");
+    }
+}
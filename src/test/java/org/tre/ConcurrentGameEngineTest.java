@@ -0,0 +1,114 @@
+package org.tre;
+
+import org.junit.jupiter.api.Test;
+import org.tre.engine.ActionIndex;
+import org.tre.engine.GameAction;
+import org.tre.engine.GameEngine;
+import org.tre.engine.GameWorld;
+import org.tre.objects.GameArtefact;
+import org.tre.objects.GameLocation;
+import org.tre.objects.GamePlayer;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentGameEngineTest {
+    private static final int ROOMS = 64;
+    private static final int GEMS_PER_ROOM = 8;
+    private static final int ROUNDS_PER_THREAD = 2_000;
+
+    // A ring of rooms, each holding gems and a token, with an action that swaps a token through the storeroom
+    private static GameWorld buildRingWorld() {
+        Set<GameLocation> locations = new HashSet<>();
+        List<GameLocation> rooms = new ArrayList<>();
+        for (int i = 0; i < ROOMS; i++) {
+            Set<GameArtefact> artefacts = new HashSet<>();
+            for (int j = 0; j < GEMS_PER_ROOM; j++) {
+                artefacts.add(new GameArtefact("gem", "A shiny gem"));
+            }
+            artefacts.add(new GameArtefact("token", "A brass token"));
+            GameLocation room = new GameLocation(String.format("room%02d", i), "A plain room", new HashSet<>(), artefacts, new HashSet<>());
+            rooms.add(room);
+            locations.add(room);
+        }
+        rooms.get(0).setStartingLocation(true);
+        for (int i = 0; i < ROOMS; i++) {
+            rooms.get(i).addAdjacentLocation(rooms.get((i + 1) % ROOMS));
+            rooms.get(i).addAdjacentLocation(rooms.get((i + ROOMS - 1) % ROOMS));
+        }
+        Set<GameArtefact> spareTokens = new HashSet<>();
+        spareTokens.add(new GameArtefact("token", "A brass token"));
+        locations.add(new GameLocation("storeroom", "Storage", new HashSet<>(), spareTokens, new HashSet<>()));
+
+        GameAction swap = new GameAction(Set.of("token"), Set.of("token"), Set.of("token"), "You swap the token.");
+        HashMap<String, HashSet<GameAction>> actions = new HashMap<>();
+        actions.put("swap", new HashSet<>(List.of(swap)));
+        return new GameWorld(ActionIndex.compile(actions), locations);
+    }
+
+    private static int countArtefacts(GameWorld world, String name) {
+        int count = 0;
+        for (GameLocation location : world.getGameLocations()) {
+            count += location.countArtefacts(name);
+        }
+        for (GamePlayer player : world.getPlayers()) {
+            count += player.countInInventory(name);
+        }
+        return count;
+    }
+
+    // Runs every thread's bot through the ring
+    private static void runBots(GameEngine engine, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String player = "bot" + threads + "x" + t;
+            // Spread the bots around the ring before timing starts
+            for (int step = 0; step < t * (ROOMS / threads); step++) {
+                engine.handleCommand(player + ": goto " + String.format("room%02d", step + 1));
+            }
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int round = 0; round < ROUNDS_PER_THREAD; round++) {
+                    engine.handleCommand(player + ": get gem");
+                    engine.handleCommand(player + ": look");
+                    engine.handleCommand(player + ": swap token");
+                    engine.handleCommand(player + ": drop gem");
+                    if (round % 50 == 0) {
+                        GameLocation here = engine.getGameWorld().getPlayer(player).getCurrentLocation();
+                        int next = (Integer.parseInt(here.getName().substring(4)) + 1) % ROOMS;
+                        engine.handleCommand(player + ": goto " + String.format("room%02d", next));
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    void testConcurrentCommandsKeepWorldConsistent() throws Exception {
+        GameEngine engine = new GameEngine(buildRingWorld(), true);
+        GameWorld world = engine.getGameWorld();
+        int gems = countArtefacts(world, "gem");
+        int tokens = countArtefacts(world, "token");
+
+        runBots(engine, 8);
+
+        assertEquals(gems, countArtefacts(world, "gem"), "Gems were lost or duplicated");
+        assertEquals(tokens, countArtefacts(world, "token"), "Tokens were lost or duplicated");
+        for (GamePlayer player : world.getPlayers()) {
+            for (GameLocation location : world.getGameLocations()) {
+                assertEquals(location == player.getCurrentLocation(), location.getPresentPlayers().contains(player),
+                        "Player " + player.getName() + " should be present in exactly their current location");
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package org.tre;
+
+import com.alexmerz.graphviz.ParseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tre.engine.ActionParser;
+import org.tre.engine.EntityParser;
+import org.tre.engine.GameEngine;
+import org.tre.engine.GameWorld;
+import org.tre.objects.GameLocation;
+import org.tre.objects.GamePlayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConfigReloadTest {
+    @TempDir
+    Path directory;
+    private File entitiesFile;
+    private File actionsFile;
+    private GameEngine engine;
+
+    private static final String LAMP_ACTION = "<action><triggers><keyphrase>rub</keyphrase></triggers>"
+            + "<subjects><entity>lamp</entity></subjects><consumed></consumed><produced><entity>gold</entity></produced>"
+            + "<narration>A genie appears and hands you a pot of gold</narration></action>";
+
+    @AfterEach
+    void closeEngine() throws IOException {
+        if (engine != null) {
+            engine.close();
+        }
+    }
+
+    // The example files are copied so they can be edited while the engine runs
+    private GameEngine startEngine(boolean concurrent) throws IOException, ParseException {
+        entitiesFile = directory.resolve("example-entities.dot").toFile();
+        actionsFile = directory.resolve("example-actions.xml").toFile();
+        Files.copy(Paths.get("config", "example-entities.dot"), entitiesFile.toPath());
+        Files.copy(Paths.get("config", "example-actions.xml"), actionsFile.toPath());
+        ActionParser actionParser = new ActionParser();
+        actionParser.parseActionsFile(actionsFile);
+        GameWorld world = new GameWorld(actionParser.getActionIndex(), new EntityParser().parseEntitiesFile(entitiesFile));
+        engine = new GameEngine(world, concurrent);
+        engine.watchConfig(entitiesFile, actionsFile);
+        return engine;
+    }
+
+    // Adds an attic with a lamp off the cabin, takes the coin out of the cabin, renames the forest and removes the riverbank
+    private void editConfig() throws IOException {
+        String entities = Files.readString(entitiesFile.toPath())
+                .replace("coin [description = \"A silver coin\"];", "")
+                .replace("A deep dark forest", "A misty forest")
+                .replace("subgraph cluster999 {", "subgraph cluster006 { attic [description = \"A cramped attic\"]; "
+                        + "subgraph artefacts { lamp [description = \"A dusty oil lamp\"]; } }\n subgraph cluster999 {")
+                .replaceAll("subgraph cluster004 \\{[^}]*\\{[^}]*}[^}]*\\{[^}]*}\\s*}", "")
+                .replace("forest -> riverbank", "cabin -> attic; attic -> cabin")
+                .replace("riverbank -> forest", "")
+                .replace("clearing -> riverbank", "");
+        Files.writeString(entitiesFile.toPath(), entities);
+        Files.writeString(actionsFile.toPath(), Files.readString(actionsFile.toPath()).replace("</actions>", LAMP_ACTION + "</actions>"));
+    }
+
+    @Test
+    void testReloadKeepsPlayers() throws Exception {
+        startEngine(true);
+        engine.handleCommand("sam: get axe");
+        engine.handleCommand("sam: goto forest");
+        engine.handleCommand("kim: goto forest");
+        engine.handleCommand("kim: goto riverbank");
+
+        editConfig();
+        assertTrue(engine.reloadConfig(), "Edited files should reload");
+
+        assertTrue(engine.handleCommand("sam: inv").contains("axe"), "Players should keep their inventories");
+        assertTrue(engine.handleCommand("sam: look").contains("A misty forest"), "Location descriptions should be updated");
+        assertNull(engine.getGameWorld().getLocation("riverbank"), "Removed locations should be gone");
+        assertTrue(engine.handleCommand("kim: look").contains("A log cabin in the woods"), "Players in a removed location should be sent to the start");
+        assertFalse(engine.handleCommand("kim: look").contains("riverbank"), "Paths to removed locations should be gone");
+
+        assertFalse(engine.handleCommand("sam: goto cabin").contains("can't"), "Sam should be able to walk back");
+        String look = engine.handleCommand("sam: look");
+        assertFalse(look.contains("coin"), "Entities removed from the file should be removed from the world");
+        assertTrue(look.contains("potion"), "Entities left in the file should stay");
+        assertTrue(engine.handleCommand("sam: goto attic").contains("attic"), "New paths should lead to new locations");
+        engine.handleCommand("sam: get lamp");
+        assertEquals("A genie appears and hands you a pot of gold", engine.handleCommand("sam: rub lamp"), "New actions should be usable");
+        assertTrue(engine.handleCommand("sam: look").contains("gold"), "New actions should produce from the storeroom");
+    }
+
+    // The cabin's look lists the forest with its description, so it has to be rendered again when only the forest changed
+    @Test
+    void testNeighboursShowNewDescription() throws Exception {
+        startEngine(false);
+        assertTrue(engine.handleCommand("sam: look").contains("forest: A deep dark forest"), "The cabin should show the forest as loaded");
+        Files.writeString(entitiesFile.toPath(), Files.readString(entitiesFile.toPath()).replace("A deep dark forest", "A burnt forest"));
+
+        assertTrue(engine.reloadConfig(), "Edited files should reload");
+        String look = engine.handleCommand("sam: look");
+        assertTrue(look.contains("forest: A burnt forest"), "The cabin should show the forest's new description");
+        assertFalse(look.contains("A deep dark forest"), "The cabin shouldn't show the forest's old description");
+    }
+
+    // The trapdoor's path to the cellar is opened by an action, so it isn't in either version of the file
+    @Test
+    void testRemovingLocationClosesPathsActionsOpened() throws Exception {
+        startEngine(false);
+        engine.handleCommand("sam: goto forest");
+        engine.handleCommand("sam: get key");
+        engine.handleCommand("sam: goto cabin");
+        engine.handleCommand("sam: open trapdoor");
+        GameLocation cabin = engine.getGameWorld().getLocation("cabin");
+        GameLocation cellar = engine.getGameWorld().getLocation("cellar");
+        assertTrue(cellar.getEntrances().contains(cabin), "Opening the trapdoor should make the cabin an entrance to the cellar");
+
+        Files.writeString(entitiesFile.toPath(), Files.readString(entitiesFile.toPath())
+                .replaceAll("subgraph cluster003 \\{[^}]*\\{[^}]*}\\s*}", "")
+                .replace("cellar -> cabin;", "")
+                .replace("subgraph cluster999 {", "subgraph cluster006 { attic [description = \"A cramped attic\"]; }\n subgraph cluster999 {")
+                .replace("cabin -> forest;", "cabin -> forest; forest -> attic;"));
+        assertTrue(engine.reloadConfig(), "Edited files should reload");
+
+        assertFalse(engine.handleCommand("sam: look").contains("cellar"), "The cabin shouldn't show the cellar");
+        assertNull(engine.getGameWorld().getLocation("cellar"), "The cellar should be gone");
+        assertFalse(cabin.getAdjacentLocations().contains(cellar), "The path the action opened to the cellar should be closed");
+        assertFalse(cabin.getEntrances().contains(cellar), "The cellar's own path to the cabin should be gone with it");
+        assertTrue(engine.handleCommand("sam: travel to attic").contains("moved to the 'attic'"), "Travel should find locations the reload added");
+    }
+
+    @Test
+    void testBrokenFileKeepsWorld() throws Exception {
+        startEngine(false);
+        engine.handleCommand("sam: get axe");
+        Files.writeString(actionsFile.toPath(), "<actions><action>");
+
+        assertFalse(engine.reloadConfig(), "A broken file shouldn't reload");
+        assertTrue(engine.handleCommand("sam: look").contains("A log cabin in the woods"), "World should be as it was");
+        assertTrue(engine.handleCommand("sam: inv").contains("axe"), "Players should be as they were");
+        assertTrue(engine.handleCommand("sam: open trapdoor").contains("do not have everything"), "Actions should be as they were");
+    }
+
+    @Test
+    void testWatchPicksUpChanges() throws Exception {
+        startEngine(false);
+        engine.handleCommand("sam: get axe");
+        editConfig();
+
+        // The watcher reloads in the background, without a lock the change is applied ahead of the next command
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!engine.handleCommand("sam: look").contains("attic")) {
+            assertTrue(System.currentTimeMillis() < deadline, "Edited files should have been reloaded");
+            Thread.sleep(50);
+        }
+        assertTrue(engine.handleCommand("sam: inv").contains("axe"), "Players should keep their inventories");
+    }
+
+    @Test
+    void testReloadWhileCommandsRun() throws Exception {
+        startEngine(true);
+        String original = Files.readString(entitiesFile.toPath());
+        String originalActions = Files.readString(actionsFile.toPath());
+        editConfig();
+        String edited = Files.readString(entitiesFile.toPath());
+        String editedActions = Files.readString(actionsFile.toPath());
+
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            String player = "player" + i;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int round = 0; round < 200; round++) {
+                        engine.handleCommand(player + ": get axe");
+                        engine.handleCommand(player + ": goto attic");
+                        engine.handleCommand(player + ": goto forest");
+                        engine.handleCommand(player + ": goto riverbank");
+                        engine.handleCommand(player + ": goto forest");
+                        engine.handleCommand(player + ": goto cabin");
+                        engine.handleCommand(player + ": drop axe");
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (int i = 0; i < 20; i++) {
+            Files.writeString(entitiesFile.toPath(), i % 2 == 0 ? original : edited);
+            Files.writeString(actionsFile.toPath(), i % 2 == 0 ? originalActions : editedActions);
+            engine.reloadConfig();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(failures.isEmpty(), "Commands shouldn't fail while the config reloads: " + failures);
+        for (GamePlayer player : engine.getGameWorld().getPlayers()) {
+            assertTrue(player.getCurrentLocation().getPresentPlayers().contains(player), "Every player should be where they think they are");
+            assertSame(player.getCurrentLocation(), engine.getGameWorld().getLocation(player.getCurrentLocation().getName()), "Every player should be in a location of the world");
+        }
+    }
+}
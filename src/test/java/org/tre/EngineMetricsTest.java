@@ -0,0 +1,136 @@
+package org.tre;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.tre.engine.CommandKind;
+import org.tre.engine.EngineMetrics;
+import org.tre.engine.GameEngine;
+import org.tre.metrics.LatencyHistogram;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EngineMetricsTest {
+    private GameEngine gameEngine;
+
+    @BeforeEach
+    void setup() throws IOException {
+        BufferedReader consoleReader = new BufferedReader(new InputStreamReader(System.in));
+        gameEngine = new GameEngine(consoleReader, true);
+    }
+
+    @AfterEach
+    void closeEngine() throws IOException {
+        gameEngine.close();
+    }
+
+    @Test
+    void testPercentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100_000, snapshot.getCount(), "Every value should be counted");
+        assertEquals(50_000.5, snapshot.getMean(), 0.001, "Mean should be exact");
+        assertEquals(100_000, snapshot.getMax(), "Max should be exact");
+        for (double percentile : new double[] {1, 50, 90, 99, 99.9, 100}) {
+            double expected = percentile * 1000;
+            assertEquals(expected, snapshot.getValueAtPercentile(percentile), expected * 0.035, "p" + percentile + " should be within the bucket precision");
+        }
+        assertEquals(0, new LatencyHistogram().snapshot().getValueAtPercentile(99), "An empty histogram has no percentiles");
+    }
+
+    @Test
+    void testConcurrentRecording() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                for (long value = 0; value < 100_000; value++) {
+                    histogram.record(value * 1000);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400_000, histogram.getCount(), "No recording should be lost between threads");
+        assertEquals(99_999_000, histogram.snapshot().getMax(), "Max should be the largest value from any thread");
+    }
+
+    @Test
+    void testHistogramsMadeOnFirstUse() {
+        assertEquals(0, gameEngine.getMetrics().getHistogramCount(), "No histograms should be made before any command is run");
+        assertEquals(0, gameEngine.getMetrics().snapshot().getLatency(CommandKind.LOOK).getCount(), "A kind never run should read as empty");
+        assertEquals(0, gameEngine.getMetrics().getHistogramCount(), "Taking a snapshot shouldn't make any histograms");
+        gameEngine.handleCommand("sam: look");
+        gameEngine.handleCommand("sam: look");
+        assertEquals(1, gameEngine.getMetrics().getHistogramCount(), "Only the kind of command run should get a histogram");
+        assertEquals(2, gameEngine.getMetrics().getCommands(), "Both looks should be counted");
+    }
+
+    @Test
+    void testCommandsRecordedByKind() {
+        gameEngine.handleCommand("sam: inv");
+        gameEngine.handleCommand("sam: get axe");
+        gameEngine.handleCommand("sam: get dragon");
+        gameEngine.handleCommand("sam: goto forest");
+        gameEngine.handleCommand("sam: look");
+        gameEngine.handleCommand("sam: health");
+        gameEngine.handleCommand("sam: drop axe");
+        gameEngine.handleCommand("sam: chop tree");
+        gameEngine.handleCommand("sam: dance");
+        gameEngine.handleCommand("sam: chop tree with potion");
+        gameEngine.handleCommand("no player name");
+
+        EngineMetrics.Snapshot snapshot = gameEngine.getMetrics().snapshot();
+        assertEquals(1, snapshot.getLatency(CommandKind.INVENTORY).getCount(), "Inventory should be counted");
+        assertEquals(2, snapshot.getLatency(CommandKind.GET).getCount(), "Gets should be counted whether or not they succeed");
+        assertEquals(1, snapshot.getLatency(CommandKind.GOTO).getCount(), "Goto should be counted");
+        assertEquals(1, snapshot.getLatency(CommandKind.LOOK).getCount(), "Look should be counted");
+        assertEquals(1, snapshot.getLatency(CommandKind.HEALTH).getCount(), "Health should be counted");
+        assertEquals(1, snapshot.getLatency(CommandKind.DROP).getCount(), "Drop should be counted");
+        assertEquals(1, snapshot.getLatency(CommandKind.ACTION).getCount(), "Actions should be counted");
+        assertEquals(1, snapshot.getLatency(CommandKind.ACTION_TRIGGER_NOT_FOUND).getCount(), "Commands without a trigger should be counted as such");
+        assertEquals(1, snapshot.getLatency(CommandKind.EXTRANEOUS_ENTITY).getCount(), "Commands with the wrong entity should be counted as such");
+        assertEquals(1, snapshot.getLatency(CommandKind.PLAYER_NOT_FOUND).getCount(), "Commands without a player should be counted as such");
+        assertEquals(11, gameEngine.getMetrics().getCommands(), "Every command should be counted once");
+        assertTrue(snapshot.getLatency(CommandKind.LOOK).getMax() > 0, "Latencies should be recorded");
+
+        assertEquals(1, snapshot.getPlayers(), "Players should be counted");
+        assertEquals(gameEngine.getGameWorld().getGameLocations().size(), snapshot.getLocations(), "Locations should be counted");
+        int entities = snapshot.getEntities();
+        gameEngine.handleCommand("sam: get axe");
+        assertEquals(entities, gameEngine.getMetrics().getEntities(), "Picking something up shouldn't change how many entities there are");
+    }
+
+    @Test
+    void testMBeansRegistered() throws Exception {
+        gameEngine.getMetrics().registerMBeans("metrics-test");
+        gameEngine.handleCommand("sam: look");
+        gameEngine.handleCommand("sam: look");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName engineName = new ObjectName("org.tre:type=Engine,name=\"metrics-test\"");
+        ObjectName lookName = new ObjectName("org.tre:type=Commands,name=\"metrics-test\",kind=look");
+        assertEquals(1, server.getAttribute(engineName, "Players"), "Players should be readable over JMX");
+        assertEquals(2L, server.getAttribute(engineName, "Commands"), "Commands should be readable over JMX");
+        assertEquals(2L, server.getAttribute(lookName, "Count"), "Latencies should be readable over JMX");
+        assertTrue((Double) server.getAttribute(lookName, "P99Micros") > 0, "Percentiles should be readable over JMX");
+
+        gameEngine.close();
+        assertFalse(server.isRegistered(engineName), "Closing the engine should unregister its MBeans");
+        assertFalse(server.isRegistered(lookName), "Closing the engine should unregister its MBeans");
+    }
+}
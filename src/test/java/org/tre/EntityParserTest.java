@@ -2,12 +2,18 @@ package org.tre;
 
 import com.alexmerz.graphviz.ParseException;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.tre.engine.EntityParser;
 import org.tre.objects.GameLocation;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -69,4 +75,42 @@ class EntityParserTest {
         }
     }
 
-    }
\ No newline at end of file
+    @Test
+    void testDotSyntax(@TempDir Path directory) throws IOException, ParseException {
+        // Comments, quoted names with escaped quotes, chained edges and attribute lists on edges should all be understood
+        File entitiesFile = directory.resolve("syntax.dot").toFile();
+        Files.writeString(entitiesFile.toPath(), String.join("\n",
+                "// A small world",
+                "digraph layout {",
+                "    subgraph locations {",
+                "        subgraph cluster001 { hall [description = \"The \\\"great\\\" hall\"]; /* the start */",
+                "            subgraph artefacts { node [shape = \"diamond\"]; \"lamp\" [description = \"A lamp\", colour = red] } }",
+                "        subgraph cluster002 { yard [description = \"A yard\"] }",
+                "        subgraph cluster003 { storeroom [description = \"Storage\"] }",
+                "    }",
+                "    subgraph paths { hall -> yard -> storeroom [style = dotted]; yard -> hall }",
+                "}"));
+
+        Map<String, GameLocation> locations = new HashMap<>();
+        new EntityParser().parseEntitiesFile(entitiesFile).forEach(location -> locations.put(location.getName(), location));
+
+        assertEquals(Set.of("hall", "yard", "storeroom"), locations.keySet(), "Expected three locations to be parsed");
+        GameLocation hall = locations.get("hall");
+        assertEquals("The \"great\" hall", hall.getDescription(), "Escaped quotes in a description should be kept");
+        assertTrue(hall.isStartingLocation(), "First location should be the starting location");
+        assertEquals(1, hall.countArtefacts("lamp"), "Quoted entity name should be parsed");
+        assertTrue(locations.get("yard").getAdjacentLocations().containsAll(Set.of(hall, locations.get("storeroom"))), "Chained edge should join each pair of locations");
+    }
+
+    @Test
+    void testMalformedEntitiesFile(@TempDir Path directory) throws IOException {
+        File entitiesFile = directory.resolve("malformed.dot").toFile();
+        Files.writeString(entitiesFile.toPath(), "digraph layout {\n    subgraph locations {\n        subgraph cluster001 {\n            cabin [description = \"A cabin\"\n        }\n");
+        ParseException exception = assertThrows(ParseException.class, () -> new EntityParser().parseEntitiesFile(entitiesFile), "Unclosed attribute list should fail to parse");
+        assertTrue(exception.getMessage().contains("line 5"), "Parse error should give the line it happened on, but was: " + exception.getMessage());
+
+        Files.writeString(entitiesFile.toPath(), "digraph layout {\n    subgraph locations {\n        subgraph cluster001 { cabin [description = \"A cabin\"] }\n    }\n    subgraph paths {\n        cabin -> nowhere\n    }\n}\n");
+        exception = assertThrows(ParseException.class, () -> new EntityParser().parseEntitiesFile(entitiesFile), "Path to an unknown location should fail to parse");
+        assertTrue(exception.getMessage().contains("Invalid location supplied in path") && exception.getMessage().contains("line 6"), "Parse error should name the bad path and its line, but was: " + exception.getMessage());
+    }
+}
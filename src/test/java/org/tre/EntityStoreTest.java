@@ -0,0 +1,109 @@
+package org.tre;
+
+import org.junit.jupiter.api.Test;
+import org.tre.objects.EntityIds;
+import org.tre.objects.EntityStore;
+import org.tre.objects.GameArtefact;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityStoreTest {
+
+    @Test
+    void testCountAndTakeByName() {
+        GameArtefact firstCoin = new GameArtefact("coin", "A silver coin");
+        GameArtefact secondCoin = new GameArtefact("coin", "A silver coin");
+        GameArtefact axe = new GameArtefact("axe", "A razor sharp axe");
+        EntityStore<GameArtefact> store = new EntityStore<>(List.of(firstCoin, secondCoin, axe));
+
+        assertEquals(3, store.size(), "Expected all three artefacts in the store");
+        assertEquals(2, store.countByName("coin"), "Expected two coins in the store");
+        assertSame(firstCoin, store.takeByName("coin"), "Oldest coin should be taken first");
+        assertEquals(1, store.countByName("coin"), "Expected one coin left after taking one");
+        assertSame(secondCoin, store.takeByName("coin"), "Remaining coin should be taken next");
+        assertNull(store.takeByName("coin"), "No coins should be left to take");
+        assertFalse(store.getNames().contains("coin"), "Name should be dropped once no entities have it");
+    }
+
+    @Test
+    void testSetView() {
+        GameArtefact axe = new GameArtefact("axe", "A razor sharp axe");
+        EntityStore<GameArtefact> store = new EntityStore<>();
+        store.add(axe);
+
+        assertTrue(store.asSet().contains(axe), "Set view should reflect added artefacts");
+        assertFalse(store.asSet().contains(new GameArtefact("axe", "A razor sharp axe")), "Entities are compared by identity");
+        assertThrows(UnsupportedOperationException.class, () -> store.asSet().add(axe), "Set view should be read-only");
+
+        store.remove(axe);
+        assertTrue(store.asSet().isEmpty(), "Set view should reflect removed artefacts");
+    }
+
+    @Test
+    void testPresenceBits() {
+        GameArtefact firstCoin = new GameArtefact("coin", "A silver coin");
+        GameArtefact secondCoin = new GameArtefact("coin", "A silver coin");
+        EntityStore<GameArtefact> store = new EntityStore<>(List.of(firstCoin, secondCoin));
+        EntityIds ids = EntityIds.of(List.of("axe", "coin"));
+        int coin = ids.idOf("coin");
+        int axe = ids.idOf("axe");
+
+        assertNotEquals(0, store.presenceWord(ids, EntityIds.wordOf(coin)) & EntityIds.bitOf(coin), "Coin should be marked present");
+        assertEquals(0, store.presenceWord(ids, EntityIds.wordOf(axe)) & EntityIds.bitOf(axe), "Axe shouldn't be marked present");
+        store.remove(firstCoin);
+        assertNotEquals(0, store.presenceWord(ids, EntityIds.wordOf(coin)) & EntityIds.bitOf(coin), "Coin should stay present while one is left");
+        store.takeByName("coin");
+        assertEquals(0, store.presenceWord(ids, EntityIds.wordOf(coin)) & EntityIds.bitOf(coin), "Coin should be cleared once none are left");
+        assertEquals(0, store.presenceWord(ids, 1_000), "Words past the end should be empty");
+
+        // Another table, such as one from a reloaded actions file, lays the bits out afresh
+        store.add(firstCoin);
+        EntityIds reloaded = EntityIds.of(List.of("coin"));
+        assertEquals(1, store.presenceWord(reloaded, 0), "Coin should be the only bit of the new table");
+        assertEquals(EntityIds.bitOf(coin), store.presenceWord(ids, 0), "Going back to the old table should lay the bits out its way again");
+    }
+
+    // IDs belong to one table, so names numbered by one world never widen the bitsets of another
+    @Test
+    void testTablesAreSeparate() {
+        EntityIds small = EntityIds.of(List.of("coin"));
+        EntityIds large = EntityIds.of(IntStream.range(0, 1_000).mapToObj(i -> "name" + i).toList());
+        assertEquals(1, small.words(), "One name should need one word");
+        assertEquals(16, large.words(), "A thousand names should need sixteen words");
+        assertEquals(-1, small.idOf("name999"), "Names from another table shouldn't have an ID");
+        assertEquals(1, EntityIds.of(List.of("coin")).words(), "A new table shouldn't be widened by the tables made before it");
+        assertEquals(0, EntityIds.of(List.of()).words(), "An empty table needs no words");
+    }
+
+    @Test
+    void testSharedStoresCopyOnChange() {
+        GameArtefact coin = new GameArtefact("coin", "A silver coin");
+        GameArtefact axe = new GameArtefact("axe", "A razor sharp axe");
+        EntityStore<GameArtefact> frozen = new EntityStore<>(List.of(coin, axe));
+        assertThrows(IllegalStateException.class, frozen::share, "Only frozen stores can be shared");
+        frozen.freeze();
+        assertThrows(IllegalStateException.class, () -> frozen.add(coin), "A frozen store can't change");
+
+        EntityStore<GameArtefact> first = frozen.share();
+        EntityStore<GameArtefact> second = frozen.share();
+        assertTrue(first.isShared(), "A store should share the frozen contents until it changes");
+        assertFalse(first.remove(new GameArtefact("coin", "A silver coin")), "Removing something that isn't there changes nothing");
+        assertNull(first.takeByName("key"), "Taking something that isn't there changes nothing");
+        assertTrue(first.isShared(), "Changing nothing shouldn't copy the contents");
+
+        assertSame(coin, first.takeByName("coin"), "The shared coin should be taken");
+        assertFalse(first.isShared(), "Taking the coin should copy the contents first");
+        EntityIds ids = EntityIds.of(List.of("coin", "axe"));
+        int coinId = ids.idOf("coin");
+        assertEquals(0, first.presenceWord(ids, EntityIds.wordOf(coinId)) & EntityIds.bitOf(coinId), "The coin should be gone from the store that took it");
+        assertFalse(first.getNames().contains("coin"), "Names should follow the copied contents");
+
+        assertTrue(second.asSet().contains(coin), "Other stores sharing the contents shouldn't see the change");
+        assertNotEquals(0, second.presenceWord(ids, EntityIds.wordOf(coinId)) & EntityIds.bitOf(coinId), "Nor should their presence bits");
+        assertEquals(2, frozen.size(), "Nor should the frozen store");
+        assertTrue(second.isShared(), "Other stores should still be sharing");
+    }
+}
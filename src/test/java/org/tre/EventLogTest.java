@@ -0,0 +1,177 @@
+package org.tre;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tre.engine.EventLog;
+import org.tre.engine.GameEngine;
+import org.tre.engine.GameWorld;
+import org.tre.engine.WorldEvent;
+import org.tre.engine.WorldEvents;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventLogTest {
+    @TempDir
+    Path directory;
+
+    private static GameEngine loadEngine(boolean concurrent) throws IOException {
+        return new GameEngine(new BufferedReader(new InputStreamReader(System.in)), true, concurrent);
+    }
+
+    private List<WorldEvent> readEvents() throws IOException {
+        List<WorldEvent> events = new ArrayList<>();
+        EventLog.read(directory, events::addAll);
+        return events;
+    }
+
+    @Test
+    void testEventsDescribeWhatHappened() throws IOException {
+        GameEngine engine = loadEngine(false);
+        engine.recordEventsTo(directory);
+        WorldStoreTest.COMMANDS.forEach(engine::handleCommand);
+        engine.close();
+
+        List<WorldEvent> events = readEvents();
+        assertEquals(new WorldEvent.PlayerJoined("sam", "Player #1", "cabin"), events.get(0), "Sam joining should be the first event");
+        assertEquals(new WorldEvent.ArtefactPickedUp("sam", "cabin", "axe"), events.get(1), "Then Sam picks up the axe");
+        assertTrue(events.contains(new WorldEvent.PathOpened("sam", "cabin", "cellar")), "Opening the trapdoor should open a path to the cellar");
+        assertTrue(events.contains(new WorldEvent.EntityConsumed("kim", "cabin", "potion")), "Drinking the potion should consume it");
+        assertFalse(events.stream().anyMatch(event -> event instanceof WorldEvent.HealthChanged && event.player().equals("kim")),
+                "Drinking the potion at full health shouldn't change Kim's health");
+        assertTrue(events.contains(new WorldEvent.HealthChanged("sam", "cellar", 1)), "The elf should take Sam's health down");
+        assertEquals(new WorldEvent.PlayerDied("sam", "cellar"), events.get(events.size() - 1), "Sam dying should be the last event");
+    }
+
+    @Test
+    void testReplayRebuildsWorld() throws IOException {
+        GameEngine engine = loadEngine(false);
+        engine.recordEventsTo(directory);
+        WorldStoreTest.COMMANDS.forEach(engine::handleCommand);
+        String before = WorldStoreTest.describe(engine.getGameWorld());
+        engine.close();
+
+        GameEngine replayed = loadEngine(false);
+        assertEquals(readEvents().size(), EventLog.replay(directory, replayed.getGameWorld()), "Every recorded event should be replayed");
+        assertEquals(before, WorldStoreTest.describe(replayed.getGameWorld()), "Replaying the events should rebuild the world they left behind");
+        assertTrue(replayed.handleCommand("pat: look").contains("Player #3"), "Replayed players should be counted");
+
+        // The recording starts from the world as it was loaded, so it doesn't fit a world that has moved on
+        IOException e = assertThrows(IOException.class, () -> EventLog.replay(directory, replayed.getGameWorld()), "Replaying twice should fail");
+        assertTrue(e.getMessage().contains("doesn't apply"), "The failure should say the events don't fit");
+    }
+
+    @Test
+    void testReplayConcurrentCommands() throws Exception {
+        GameEngine engine = loadEngine(true);
+        engine.recordEventsTo(directory);
+        // Players fighting over the same artefacts, so the events have to be recorded in the order they were applied
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            String player = "player" + i;
+            threads.add(new Thread(() -> {
+                for (int round = 0; round < 100; round++) {
+                    engine.handleCommand(player + ": get axe");
+                    engine.handleCommand(player + ": get coin");
+                    engine.handleCommand(player + ": goto forest");
+                    engine.handleCommand(player + ": drop axe");
+                    engine.handleCommand(player + ": get axe");
+                    engine.handleCommand(player + ": chop tree");
+                    engine.handleCommand(player + ": goto cabin");
+                    engine.handleCommand(player + ": drop coin");
+                    engine.handleCommand(player + ": drop axe");
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        String before = WorldStoreTest.describe(engine.getGameWorld());
+        engine.close();
+
+        GameEngine replayed = loadEngine(false);
+        EventLog.replay(directory, replayed.getGameWorld());
+        assertEquals(before, WorldStoreTest.describe(replayed.getGameWorld()), "Replaying should rebuild the world the threads left behind");
+    }
+
+    // Listeners hear about a player joining once the player is in the world, and only once however many commands race to join them
+    @Test
+    void testJoiningIsOneEvent() throws Exception {
+        GameEngine engine = loadEngine(true);
+        GameWorld world = engine.getGameWorld();
+        List<WorldEvent> joins = new CopyOnWriteArrayList<>();
+        List<String> missing = new CopyOnWriteArrayList<>();
+        world.addEventListener(events -> {
+            for (WorldEvent event : events) {
+                if (event instanceof WorldEvent.PlayerJoined) {
+                    joins.add(event);
+                    if (world.getPlayer(event.player()) == null) {
+                        missing.add(event.player());
+                    }
+                }
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> looks = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            looks.add(executor.submit(() -> engine.handleCommand("sam: look")));
+        }
+        for (Future<String> look : looks) {
+            assertTrue(look.get().contains("sam"), "Every look should find Sam in the cabin");
+        }
+        executor.shutdown();
+        engine.close();
+
+        assertEquals(List.of(new WorldEvent.PlayerJoined("sam", "Player #1", "cabin")), joins, "Sam should join exactly once");
+        assertTrue(missing.isEmpty(), "Listeners should find the player who joined");
+    }
+
+    @Test
+    void testRecordingNeedsEmptyDirectory() throws IOException {
+        GameEngine engine = loadEngine(false);
+        engine.recordEventsTo(directory);
+        engine.handleCommand("sam: get axe");
+        engine.close();
+
+        GameEngine another = loadEngine(false);
+        assertThrows(IOException.class, () -> another.recordEventsTo(directory), "A second recording shouldn't be appended to the first");
+        another.close();
+    }
+
+    // Reloads and restoring a kept world change the world without raising events, so neither can go with a recording
+    @Test
+    void testRecordingRefusesUnrecordedChanges() throws IOException {
+        GameEngine recorded = loadEngine(false);
+        recorded.recordEventsTo(directory.resolve("recording"));
+        assertThrows(IllegalStateException.class, recorded::watchConfig, "A recorded world shouldn't be watched");
+        assertThrows(IllegalStateException.class, () -> recorded.persistTo(directory.resolve("data")), "A recorded world shouldn't be replaced by a restored one");
+        recorded.close();
+
+        GameEngine watched = loadEngine(false);
+        watched.watchConfig();
+        assertThrows(IllegalStateException.class, () -> watched.recordEventsTo(directory.resolve("other")), "A watched world shouldn't be recorded");
+        watched.close();
+    }
+
+    @Test
+    void testDamagedCountIsRejected() {
+        byte[] batch = WorldEvents.encode(List.of(new WorldEvent.PlayerDied("simon", "forest")));
+        ByteBuffer.wrap(batch).putInt(1, Integer.MAX_VALUE);
+        assertThrows(IllegalArgumentException.class, () -> WorldEvents.decode(batch), "A count larger than the batch should be rejected before allocating");
+        ByteBuffer.wrap(batch).putInt(1, -1);
+        assertThrows(IllegalArgumentException.class, () -> WorldEvents.decode(batch), "A negative count should be rejected");
+    }
+}
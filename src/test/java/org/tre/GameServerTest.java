@@ -0,0 +1,201 @@
+package org.tre;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tre.engine.GameEngine;
+import org.tre.server.GameServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GameServerTest {
+    @TempDir
+    Path directory;
+    private GameServer server;
+
+    @BeforeEach
+    void setup() throws IOException {
+        BufferedReader consoleReader = new BufferedReader(new InputStreamReader(System.in));
+        GameEngine gameEngine = new GameEngine(consoleReader, true);
+        server = new GameServer(gameEngine, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024, 1024, 500);
+        server.start();
+    }
+
+    @AfterEach
+    void teardown() throws IOException {
+        server.close();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    // Reads one response, up to the terminating "." line
+    private static String readResponse(BufferedReader reader) throws IOException {
+        StringBuilder stb = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null && !line.equals(".")) {
+            stb.append(line.startsWith("..") ? line.substring(1) : line).append('\n');
+        }
+        return stb.toString();
+    }
+
+    @Test
+    void testPipelinedCommands() throws IOException {
+        try (Socket socket = connect()) {
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+            // Several commands in one write, one split across two writes
+            writer.write("wizard: get coin\r\nwizard: inv\nwizard: lo");
+            writer.flush();
+            writer.write("ok\n");
+            writer.flush();
+
+            assertTrue(readResponse(reader).contains("picked up the 'coin'"), "Expected the coin to be picked up");
+            assertTrue(readResponse(reader).contains("coin"), "Expected the coin in the inventory");
+            String look = readResponse(reader);
+            assertTrue(look.contains("cabin") && look.contains("wizard"), "Expected the multi-line look response");
+        }
+    }
+
+    @Test
+    void testManyConnections() throws IOException {
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                Socket socket = connect();
+                sockets.add(socket);
+                socket.getOutputStream().write(("player" + i + ": health\n").getBytes(StandardCharsets.UTF_8));
+            }
+            for (Socket socket : sockets) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                assertEquals("Your current health is 3.\n", readResponse(reader), "Each connection should get its own response");
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    // A persisted engine waits on the journal for every command, so the server runs its commands on worker threads
+    @Test
+    void testPersistedEngine() throws IOException {
+        GameEngine persisted = new GameEngine(new BufferedReader(new InputStreamReader(System.in)), true, true);
+        persisted.persistTo(directory);
+        assertTrue(persisted.isBlocking(), "A persisted engine should be run off the selector thread");
+        GameServer persistedServer = new GameServer(persisted, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024, 1024, 0);
+        persistedServer.start();
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 20; i++) {
+                Socket socket = new Socket(InetAddress.getLoopbackAddress(), persistedServer.getLocalPort());
+                socket.setSoTimeout(5000);
+                sockets.add(socket);
+                socket.getOutputStream().write(("player" + i + ": goto forest\nplayer" + i + ": look\n").getBytes(StandardCharsets.UTF_8));
+            }
+            for (Socket socket : sockets) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                assertTrue(readResponse(reader).contains("moved to the 'forest'"), "Each player should walk to the forest");
+                assertTrue(readResponse(reader).contains("You are currently in the forest"), "Each player's look should come after their move");
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            persistedServer.close();
+            persisted.close();
+        }
+
+        GameEngine restored = new GameEngine(new BufferedReader(new InputStreamReader(System.in)), true, true);
+        restored.persistTo(directory);
+        assertEquals(20, restored.getGameWorld().getLocation("forest").getPresentPlayers().size(), "Every move should have been journaled");
+        restored.close();
+    }
+
+    // A single-threaded engine can't take commands from the worker pool, but mustn't wait for the journal on the selector thread either
+    @Test
+    void testPersistedSingleThreadedEngine() throws IOException {
+        GameEngine persisted = new GameEngine(new BufferedReader(new InputStreamReader(System.in)), true, false);
+        persisted.persistTo(directory);
+        assertTrue(persisted.isBlocking(), "A persisted engine should be run off the selector thread even if it isn't concurrent");
+        assertFalse(persisted.isConcurrent(), "The engine should only take commands from one thread");
+        GameServer persistedServer = new GameServer(persisted, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024, 1024, 0);
+        persistedServer.start();
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 5; i++) {
+                Socket socket = new Socket(InetAddress.getLoopbackAddress(), persistedServer.getLocalPort());
+                socket.setSoTimeout(5000);
+                sockets.add(socket);
+                socket.getOutputStream().write(("player" + i + ": goto forest\n").getBytes(StandardCharsets.UTF_8));
+            }
+            for (Socket socket : sockets) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                assertTrue(readResponse(reader).contains("moved to the 'forest'"), "Each player should walk to the forest");
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            persistedServer.close();
+            persisted.close();
+        }
+        assertEquals(5, persisted.getGameWorld().getLocation("forest").getPresentPlayers().size(), "Every player's command should have run");
+    }
+
+    // Clients closing just as the idle sweep would close them shouldn't be counted as closed twice
+    @Test
+    void testConnectionCountAfterClientsClose() throws Exception {
+        for (int round = 0; round < 3; round++) {
+            List<Socket> sockets = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                sockets.add(connect());
+            }
+            Thread.sleep(480 + round * 10);
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            Thread.sleep(800);
+            assertEquals(0, server.getConnectionCount(), "Every connection should have been counted as closed once");
+        }
+    }
+
+    @Test
+    void testIdleConnectionIsClosed() throws IOException {
+        try (Socket socket = connect()) {
+            // The server closes the connection after its 500ms idle timeout, which ends the stream
+            assertEquals(-1, socket.getInputStream().read(), "Idle connection should have been closed by the server");
+        }
+    }
+
+    // A misspelt flag would otherwise start an interactive game in place of the server that was asked for
+    @Test
+    void testUnknownFlagPrintsUsage() throws IOException {
+        PrintStream out = System.out;
+        InputStream in = System.in;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(printed, true, StandardCharsets.UTF_8));
+            System.setIn(new ByteArrayInputStream(new byte[0]));
+            GameEngine.main(new String[] {"--prot", "4000"});
+        } finally {
+            System.setOut(out);
+            System.setIn(in);
+        }
+        assertTrue(printed.toString(StandardCharsets.UTF_8).startsWith("Usage: GameEngine"), "An unknown flag should print the usage and stop");
+    }
+}
@@ -0,0 +1,138 @@
+package org.tre;
+
+import org.junit.jupiter.api.Test;
+import org.tre.engine.CommandFailure;
+import org.tre.engine.CommandKind;
+import org.tre.engine.GameEngine;
+import org.tre.load.LoadGenerator;
+import org.tre.load.LoadReport;
+import org.tre.server.GameClient;
+import org.tre.server.GameServer;
+import org.tre.server.StatusHandler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadGeneratorTest {
+    private static final List<CommandKind> BOT_KINDS = List.of(CommandKind.GOTO, CommandKind.GET, CommandKind.DROP, CommandKind.LOOK, CommandKind.ACTION);
+
+    private static GameEngine loadEngine(boolean concurrent) throws IOException {
+        return new GameEngine(new BufferedReader(new InputStreamReader(System.in)), true, concurrent);
+    }
+
+    @Test
+    void testInProcess() throws IOException {
+        GameEngine engine = loadEngine(true);
+        LoadGenerator generator = new LoadGenerator(loadEngine(false).getGameWorld(), 20, 4, 0, 1);
+        LoadReport report = generator.run(LoadGenerator.inProcess(engine), Duration.ofMillis(500));
+        engine.close();
+
+        assertTrue(report.getCommands() > 100, "Bots should send commands as fast as they are answered: " + report);
+        for (CommandKind kind : BOT_KINDS) {
+            assertTrue(report.getLatency(kind).getCount() > 0, "Bots should send '" + kind.getLabel() + "' commands: " + report);
+        }
+        assertEquals(20, engine.getGameWorld().getPlayerCount(), "Every bot should have joined");
+        assertFalse(report.getErrorReasons().containsKey(LoadReport.UNREACHABLE), "Nothing should fail to be answered in process");
+        assertFalse(report.getErrorReasons().containsKey(LoadReport.CRASHED), "The engine shouldn't throw");
+        assertEquals(0, report.getErrors(CommandKind.GOTO), "Bots only go where there are paths, which are never rejected as failures");
+        assertTrue(report.toString().contains("goto"), "The report should have a row for each kind sent");
+    }
+
+    @Test
+    void testOverSocketAtRate() throws IOException {
+        GameEngine engine = loadEngine(true);
+        GameServer server = new GameServer(new StatusHandler(engine), 0);
+        server.start();
+        LoadReport report;
+        try (GameClient client = new GameClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()))) {
+            LoadGenerator generator = new LoadGenerator(loadEngine(false).getGameWorld(), 10, 2, 2000, 1);
+            report = generator.run(LoadGenerator.overSocket(client), Duration.ofSeconds(1));
+        } finally {
+            server.close();
+            engine.close();
+        }
+
+        assertEquals(0, report.getErrorReasons().getOrDefault(LoadReport.UNREACHABLE, 0L), "Every command should be answered: " + report);
+        assertTrue(report.getCommands() > 500 && report.getCommands() <= 2000, "Bots should keep to the target rate: " + report);
+        assertEquals(10, engine.getGameWorld().getPlayerCount(), "Every bot should have joined over the socket");
+    }
+
+    @Test
+    void testUnreachableServer() throws IOException {
+        // Nothing listens on a port once its server is closed
+        GameServer server = new GameServer(loadEngine(false), 0);
+        server.start();
+        int port = server.getLocalPort();
+        server.close();
+
+        try (GameClient client = new GameClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), port))) {
+            LoadReport report = new LoadGenerator(loadEngine(false).getGameWorld(), 2, 1, 100, 1).run(LoadGenerator.overSocket(client), Duration.ofMillis(200));
+            assertEquals(0, report.getCommands(), "Nothing should have been answered");
+            assertEquals(report.getErrors(), report.getErrorReasons().get(LoadReport.UNREACHABLE), "Every command should be counted as unreachable");
+        }
+    }
+
+    @Test
+    void testEngineReportsFailures() throws IOException {
+        GameEngine engine = loadEngine(false);
+        engine.handleCommand("look");
+        assertEquals(CommandFailure.PLAYER_NOT_FOUND, engine.getLastFailure(), "A command without a player should fail");
+        engine.handleCommand("sam: goto riverbank");
+        assertEquals(CommandKind.GOTO, engine.getLastKind(), "A goto with no path there is still a goto");
+        assertEquals(CommandFailure.NO_ROUTE, engine.getLastFailure(), "A goto with no path there should fail");
+        engine.handleCommand("sam: open");
+        assertEquals(CommandFailure.SUBJECT_ENTITY_NOT_FOUND, engine.getLastFailure(), "An action without its subjects should fail");
+        engine.handleCommand("sam: open trapdoor");
+        assertEquals(CommandKind.ACTION, engine.getLastKind(), "Unlocking the trapdoor is an action");
+        assertEquals(CommandFailure.SUBJECTS_NOT_AVAILABLE, engine.getLastFailure(), "An action without the key should fail");
+        engine.handleCommand("sam: goto forest");
+        assertNull(engine.getLastFailure(), "A goto along a path shouldn't fail");
+        engine.close();
+    }
+
+    @Test
+    void testStatusLines() throws IOException {
+        GameEngine engine = loadEngine(false);
+        StatusHandler handler = new StatusHandler(engine);
+        StatusHandler.Reply failed = StatusHandler.Reply.parse(handler.handleCommand("sam: goto riverbank"));
+        assertEquals(CommandFailure.NO_ROUTE, failed.failure(), "The status line should name the failure");
+        assertEquals(CommandFailure.NO_ROUTE.getMessage(), failed.response(), "The response should follow the status line");
+        List<String> replies = handler.handleCommands(List.of("sam: goto forest", "sam: get key"));
+        assertNull(StatusHandler.Reply.parse(replies.get(0)).failure(), "Each command in a batch should get its own status");
+        assertEquals("You picked up the 'key' and placed it in your inventory.", StatusHandler.Reply.parse(replies.get(1)).response(), "Each command in a batch should get its own response");
+        assertThrows(IOException.class, () -> StatusHandler.Reply.parse("You have moved to the 'forest'."), "A response without a status line should be refused");
+        engine.close();
+    }
+
+    @Test
+    void testFailuresCountedByKind() throws IOException {
+        LoadGenerator generator = new LoadGenerator(loadEngine(false).getGameWorld(), 4, 1, 0, 1);
+        LoadReport report = generator.run(command -> command.contains("goto")
+                ? new StatusHandler.Reply(CommandFailure.NO_ROUTE.getMessage(), CommandFailure.NO_ROUTE) : new StatusHandler.Reply("Done.", null), Duration.ofMillis(200));
+
+        assertTrue(report.getLatency(CommandKind.GOTO).getCount() > 0, "Bots should have sent 'goto' commands: " + report);
+        assertEquals(report.getLatency(CommandKind.GOTO).getCount(), report.getErrors(CommandKind.GOTO), "Every 'goto' should be counted as an error");
+        assertEquals(report.getErrors(CommandKind.GOTO), report.getErrorReasons().get("no-route"), "The errors should be counted against their reason");
+        assertEquals(0, report.getErrors(CommandKind.LOOK), "Other kinds should have no errors");
+    }
+
+    @Test
+    void testRunCarriesOnFromWarmup() throws IOException {
+        GameEngine engine = loadEngine(true);
+        LoadGenerator generator = new LoadGenerator(loadEngine(false).getGameWorld(), 10, 2, 0, 1);
+        generator.run(LoadGenerator.inProcess(engine), Duration.ofMillis(200));
+        LoadReport report = generator.run(LoadGenerator.inProcess(engine), Duration.ofMillis(200));
+        engine.close();
+
+        assertTrue(report.getLatency(CommandKind.GOTO).getCount() > 0, "Bots should have gone on walking after the warmup: " + report);
+        assertEquals(0, report.getErrors(CommandKind.GOTO), "Bots should know where the warmup left them: " + report);
+        assertEquals(0, report.getErrors(CommandKind.DROP), "Bots should know what the warmup left them carrying: " + report);
+    }
+}
@@ -0,0 +1,63 @@
+package org.tre;
+
+import org.junit.jupiter.api.Test;
+import org.tre.engine.PhraseMatcher;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PhraseMatcherTest {
+
+    @Test
+    void testLongestMatchWins() {
+        PhraseMatcher matcher = PhraseMatcher.compile(List.of("cut", "cut down", "chop"));
+        assertEquals("cut down", matcher.longestMatch("please cut down the tree"), "Longer trigger should be preferred");
+        assertEquals("cut", matcher.longestMatch("cut the tree down"), "Shorter trigger should still match on its own");
+        assertNull(matcher.longestMatch("hello from my bedroom"), "No trigger should be found");
+    }
+
+    @Test
+    void testEqualLengthTieGoesToEarliest() {
+        PhraseMatcher matcher = PhraseMatcher.compile(List.of("pay", "hit"));
+        assertEquals("hit", matcher.longestMatch("hit then pay the elf"), "Earliest of two equal length triggers should win");
+        assertEquals("pay", matcher.longestMatch("pay then hit the elf"), "Earliest of two equal length triggers should win");
+    }
+
+    @Test
+    void testWholeWordsOnly() {
+        PhraseMatcher matcher = PhraseMatcher.compile(List.of("hit", "open"));
+        assertNull(matcher.longestMatch("look at the white wall"), "Trigger shouldn't match inside another word");
+        assertEquals("open", matcher.longestMatch("OPEN, the trapdoor"), "Trigger should match regardless of case and punctuation");
+    }
+
+    @Test
+    void testCollectMatches() {
+        PhraseMatcher matcher = PhraseMatcher.compile(List.of("axe", "tree", "log"));
+        Set<String> matches = new HashSet<>();
+        matcher.collectMatches("chop the tree with the axe", matches);
+        assertEquals(Set.of("axe", "tree"), matches, "Every phrase present should be collected");
+    }
+
+    @Test
+    void testCollectMatchBits() {
+        PhraseMatcher matcher = PhraseMatcher.compile(List.of("axe", "tree", "log"));
+        int[] ids = new int[matcher.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = matcher.phraseAt(i).equals("log") ? 70 : i;
+        }
+        long[] bits = new long[2];
+        matcher.collectMatchBits("chop the tree with the axe and log", 0, 34, ids, bits);
+
+        long expected = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] < 64) {
+                expected |= 1L << ids[i];
+            }
+        }
+        assertEquals(expected, bits[0], "Axe and tree should be set by their IDs");
+        assertEquals(1L << 6, bits[1], "Log should be set in the second word");
+    }
+}
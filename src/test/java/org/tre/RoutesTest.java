@@ -0,0 +1,152 @@
+package org.tre;
+
+import com.alexmerz.graphviz.ParseException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tre.engine.ActionIndex;
+import org.tre.engine.ActionParser;
+import org.tre.engine.EntityParser;
+import org.tre.engine.GameEngine;
+import org.tre.engine.GameWorld;
+import org.tre.engine.Routes;
+import org.tre.objects.GameLocation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoutesTest {
+    @TempDir
+    Path directory;
+    private GameEngine engine;
+    private GameWorld world;
+
+    // Closes the path to the cellar again, as none of the example actions close a path
+    private static final String SEAL_ACTION = "<action><triggers><keyphrase>seal</keyphrase></triggers>"
+            + "<subjects><entity>trapdoor</entity></subjects><consumed><entity>cellar</entity></consumed><produced></produced>"
+            + "<narration>You seal the trapdoor shut</narration></action>";
+
+    @BeforeEach
+    void setup() throws IOException, ParseException {
+        File actionsFile = directory.resolve("example-actions.xml").toFile();
+        Files.writeString(actionsFile.toPath(), Files.readString(Paths.get("config", "example-actions.xml")).replace("</actions>", SEAL_ACTION + "</actions>"));
+        ActionParser actionParser = new ActionParser();
+        actionParser.parseActionsFile(actionsFile);
+        world = new GameWorld(actionParser.getActionIndex(), new EntityParser().parseEntitiesFile(Paths.get("config", "example-entities.dot").toFile()));
+        engine = new GameEngine(world, false);
+    }
+
+    private GameLocation location(String name) {
+        return world.getLocation(name);
+    }
+
+    private void openTrapdoor() {
+        engine.handleCommand("wizard: goto forest");
+        engine.handleCommand("wizard: get key");
+        engine.handleCommand("wizard: goto cabin");
+        engine.handleCommand("wizard: open trapdoor");
+    }
+
+    @Test
+    void testTravel() {
+        assertEquals("You have moved to the 'riverbank' by way of the 'forest'.", engine.handleCommand("wizard: travel to riverbank"),
+                "Travelling should walk the whole route in one command");
+        assertTrue(engine.handleCommand("wizard: look").contains("You are currently in the riverbank"), "Wizard should be at the riverbank");
+        assertEquals("You are already in the 'riverbank'.", engine.handleCommand("wizard: travel to riverbank"), "Wizard is already there");
+        assertEquals("You can't get there from here.", engine.handleCommand("wizard: travel to cellar"), "The trapdoor hasn't been opened yet");
+        assertEquals("You can't get there from here.", engine.handleCommand("wizard: travel to nowhere"), "There is no such place");
+
+        engine.handleCommand("wizard: travel to cabin");
+        openTrapdoor();
+        engine.handleCommand("wizard: travel to riverbank");
+        assertEquals("You have moved to the 'cellar' by way of the 'forest', the 'cabin'.", engine.handleCommand("wizard: travel to cellar"),
+                "The cellar should be reachable once the trapdoor is open");
+        assertEquals("You have moved to the 'cabin'.", engine.handleCommand("wizard: travel to cabin"), "A single step reads the same as 'goto'");
+    }
+
+    @Test
+    void testRoutesAreCached() {
+        Routes routes = world.getRoutes();
+        assertEquals(List.of(location("forest"), location("riverbank")), routes.shortestPath(location("cabin"), location("riverbank")), "Cabin to riverbank is by way of the forest");
+        assertEquals(2, routes.distance(location("cabin"), location("riverbank")), "Cabin to riverbank is two paths");
+        assertEquals(List.of(), routes.shortestPath(location("cabin"), location("cabin")), "Going nowhere takes no steps");
+        assertNull(routes.shortestPath(location("cabin"), location("clearing")), "Nothing leads to the clearing yet");
+        assertEquals(1, routes.getSearches(), "Every route from the cabin should come from one search");
+
+        engine.handleCommand("wizard: travel to riverbank");
+        engine.handleCommand("wizard: travel to cabin");
+        engine.handleCommand("wizard: travel to riverbank");
+        assertEquals(2, routes.getSearches(), "Travelling again should reuse the searches from the cabin and the riverbank");
+    }
+
+    @Test
+    void testOnlyAffectedRoutesAreDropped() {
+        Routes routes = world.getRoutes();
+        routes.distance(location("cellar"), location("riverbank"));
+        routes.distance(location("cabin"), location("riverbank"));
+        routes.distance(location("forest"), location("riverbank"));
+        assertEquals(3, routes.getCachedSearches(), "A search should be kept from each location asked about");
+
+        // The cellar can't be reached from the cabin or the forest, but its own routes don't go through the trapdoor
+        openTrapdoor();
+        assertEquals(1, routes.getCachedSearches(), "Opening the trapdoor should only drop the searches it shortens");
+        assertEquals(2, routes.distance(location("forest"), location("cellar")), "The cellar is two paths from the forest, by way of the cabin");
+
+        routes.distance(location("riverbank"), location("cellar"));
+        assertEquals(3, routes.getCachedSearches(), "The searches should be kept again once made");
+        engine.handleCommand("wizard: seal trapdoor");
+        assertEquals(1, routes.getCachedSearches(), "Sealing the trapdoor should only drop the searches that went through it");
+        assertEquals(-1, routes.distance(location("riverbank"), location("cellar")), "The cellar should be out of reach again");
+        assertEquals(3, routes.distance(location("cellar"), location("riverbank")), "The way out of the cellar never used the trapdoor");
+    }
+
+    // Whichever order the world holds its locations in, the longest name in the command is the one travelled to
+    @Test
+    void testLongestLocationNameWins() {
+        GameLocation cabin = new GameLocation("cabin", "A log cabin", Set.of(), Set.of(), Set.of());
+        GameLocation forest = new GameLocation("forest", "A forest", Set.of(), Set.of(), Set.of());
+        GameLocation darkForest = new GameLocation("dark forest", "A dark forest", Set.of(), Set.of(), Set.of());
+        cabin.setStartingLocation(true);
+        cabin.addAdjacentLocation(forest);
+        forest.addAdjacentLocation(darkForest);
+        darkForest.addAdjacentLocation(forest);
+        GameEngine forestEngine = new GameEngine(new GameWorld(ActionIndex.compile(Map.of()), Set.of(cabin, forest, darkForest)), true);
+
+        assertEquals("You have moved to the 'dark forest' by way of the 'forest'.", forestEngine.handleCommand("sam: travel to the dark forest"),
+                "The dark forest should win over the forest inside its name");
+        assertEquals("You have moved to the 'forest'.", forestEngine.handleCommand("sam: travel to forest"), "The forest alone should still be found");
+    }
+
+    // Actions files written before travel existed keep working, an action the command names runs instead of travelling
+    @Test
+    void testActionsWinOverTravel() throws IOException, ParseException {
+        String travelAction = "<action><triggers><keyphrase>travel</keyphrase></triggers>"
+                + "<subjects><entity>horn</entity></subjects><consumed></consumed><produced></produced>"
+                + "<narration>You travel in your mind to the sound of the horn</narration></action>";
+        File actionsFile = directory.resolve("travel-actions.xml").toFile();
+        Files.writeString(actionsFile.toPath(), Files.readString(Paths.get("config", "example-actions.xml")).replace("</actions>", travelAction + "</actions>"));
+        ActionParser actionParser = new ActionParser();
+        actionParser.parseActionsFile(actionsFile);
+        GameEngine travelEngine = new GameEngine(new GameWorld(actionParser.getActionIndex(),
+                new EntityParser().parseEntitiesFile(Paths.get("config", "example-entities.dot").toFile())), false);
+
+        assertEquals("You have moved to the 'riverbank' by way of the 'forest'.", travelEngine.handleCommand("sam: travel to riverbank"),
+                "Travel should still route when no action can run");
+        assertEquals("You travel in your mind to the sound of the horn", travelEngine.handleCommand("sam: travel with the horn"),
+                "An action triggered by 'travel' should win over travelling");
+        assertEquals("You have moved to the 'forest'.", travelEngine.handleCommand("sam: travel to forest"), "Sam should still be able to travel on");
+        travelEngine.handleCommand("sam: travel to cabin");
+        travelEngine.handleCommand("sam: get axe");
+        travelEngine.handleCommand("sam: travel to forest");
+        assertEquals("You cut down the tree with the axe", travelEngine.handleCommand("sam: cut down the tree before you travel"),
+                "An action named alongside 'travel' should run instead of travelling");
+    }
+}
@@ -0,0 +1,360 @@
+package org.tre;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.tre.engine.CommandFailure;
+import org.tre.engine.GameEngine;
+import org.tre.objects.GameLocation;
+import org.tre.server.CommandHandler;
+import org.tre.server.GameClient;
+import org.tre.server.GameServer;
+import org.tre.shard.ShardHandler;
+import org.tre.shard.ShardMap;
+import org.tre.shard.ShardRouter;
+import org.tre.shard.StoreroomStock;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardingTest {
+    private final List<Closeable> toClose = new ArrayList<>();
+    private final List<Process> processes = new ArrayList<>();
+
+    @AfterEach
+    void stopShards() throws Exception {
+        for (Closeable closeable : toClose) {
+            closeable.close();
+        }
+        for (Process process : processes) {
+            process.getOutputStream().write("exit\n".getBytes(StandardCharsets.UTF_8));
+            process.getOutputStream().flush();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private static GameEngine loadEngine() throws IOException {
+        return new GameEngine(new BufferedReader(new InputStreamReader(System.in)), true);
+    }
+
+    private static ShardHandler loadShard(int shard, int shardCount) throws IOException {
+        GameEngine engine = loadEngine();
+        return new ShardHandler(engine, ShardMap.partition(engine.getGameWorld().getGameLocations(), shardCount), shard);
+    }
+
+    private InetSocketAddress startShard(int shard, int shardCount) throws IOException {
+        return serve(loadShard(shard, shardCount));
+    }
+
+    private InetSocketAddress serve(CommandHandler handler) throws IOException {
+        GameServer server = new GameServer(handler, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 65536, 65536, 0);
+        server.start();
+        toClose.add(server);
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+    }
+
+    // Runs a shard in a JVM of its own, the same way it would be started by hand
+    private InetSocketAddress startShardProcess(int shard, int shardCount) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), GameEngine.class.getName(),
+                "--shard", shard + "/" + shardCount, "--port", "0").redirectErrorStream(true).start();
+        processes.add(process);
+        process.getOutputStream().write("y\n".getBytes(StandardCharsets.UTF_8));
+        process.getOutputStream().flush();
+
+        BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = output.readLine()) != null) {
+            int at = line.indexOf("listening on port ");
+            if (at != -1) {
+                String port = line.substring(at + "listening on port ".length(), line.indexOf(',', at));
+                // Keep draining the output so the shard never blocks writing to it
+                Thread drain = new Thread(() -> output.lines().forEach(ignored -> { }));
+                drain.setDaemon(true);
+                drain.start();
+                return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(port));
+            }
+        }
+        fail("Shard " + shard + " exited without listening");
+        return null;
+    }
+
+    private ShardRouter startRouter(List<InetSocketAddress> shards) {
+        ShardRouter router = new ShardRouter(shards);
+        toClose.add(router);
+        return router;
+    }
+
+    @Test
+    void testPartition() throws IOException {
+        ShardMap first = ShardMap.partition(loadEngine().getGameWorld().getGameLocations(), 2);
+        ShardMap second = ShardMap.partition(loadEngine().getGameWorld().getGameLocations(), 2);
+        for (String location : List.of("cabin", "forest", "riverbank", "cellar", "clearing")) {
+            assertEquals(first.ownerOf(location), second.ownerOf(location), "Separately loaded worlds should be split the same way");
+        }
+        assertEquals(0, first.ownerOf("cabin"), "The start should be on the first shard");
+        assertEquals(first.ownerOf("cabin"), first.ownerOf("forest"), "Neighbours should tend to share a shard");
+        assertEquals(1, first.ownerOf("cellar"), "Locations that can't be reached yet should come last");
+    }
+
+    @Test
+    void testNewPlayersRedirectedToStart() throws IOException {
+        GameEngine engine = loadEngine();
+        ShardHandler handler = new ShardHandler(engine, ShardMap.partition(engine.getGameWorld().getGameLocations(), 2), 1);
+        assertEquals("REDIRECT 0", handler.handleCommand("COMMAND sam: look"), "New players should be sent to the shard owning the start");
+        assertNull(engine.getGameWorld().getPlayer("sam"), "A redirected player shouldn't be created");
+        assertTrue(engine.getGameWorld().getLocation("cabin").getPresentArtefacts().isEmpty(), "Locations owned by other shards should be emptied");
+
+        GameEngine startEngine = loadEngine();
+        ShardHandler start = new ShardHandler(startEngine, ShardMap.partition(startEngine.getGameWorld().getGameLocations(), 2), 0);
+        assertTrue(start.handleCommand("COMMAND sam: look").startsWith(ShardHandler.OK + "\nYou are currently in the cabin"),
+                "The status line should end with a plain newline whatever system the shard runs on");
+        assertEquals(ShardHandler.OK + " " + CommandFailure.NO_ROUTE.name() + "\n" + CommandFailure.NO_ROUTE.getMessage(), start.handleCommand("COMMAND sam: goto cellar"),
+                "The status line should name the failure of a failed command");
+    }
+
+    // Walks a player down into the cellar, which is on the other shard, then has the elf send them back to the start
+    private static void playAcrossShards(ShardRouter router) {
+        router.handleCommand("sam: get axe");
+        router.handleCommand("sam: goto forest");
+        router.handleCommand("sam: get key");
+        router.handleCommand("sam: goto cabin");
+        router.handleCommand("sam: open trapdoor");
+        assertNull(router.getLastFailure(), "Opening the trapdoor should have worked");
+        assertEquals(0, router.getShardOf("sam"), "Sam should still be on the first shard");
+        router.handleCommand("sam: goto riverbank");
+        assertEquals(CommandFailure.NO_ROUTE, router.getLastFailure(), "The router should pass on the shard's failure");
+
+        assertTrue(router.handleCommand("sam: goto cellar").contains("cellar"), "Sam should walk into the cellar");
+        assertEquals(1, router.getShardOf("sam"), "Sam should have been handed to the second shard");
+        assertTrue(router.handleCommand("sam: inv").contains("axe"), "Sam's inventory should come with them");
+        String look = router.handleCommand("sam: look");
+        assertTrue(look.contains("elf"), "The cellar's contents should be on the second shard");
+        assertTrue(look.contains("sam"), "Sam should be in the cellar");
+
+        router.handleCommand("kim: look");
+        assertEquals(0, router.getShardOf("kim"), "New players should start on the shard owning the start");
+        assertFalse(router.handleCommand("kim: look").contains("sam"), "Sam shouldn't still be in the cabin");
+
+        router.handleCommand("sam: hit elf");
+        router.handleCommand("sam: hit elf");
+        assertTrue(router.handleCommand("sam: hit elf").contains("You died"), "The elf should kill Sam");
+        assertEquals(0, router.getShardOf("sam"), "Dying should hand Sam back to the shard owning the start");
+        assertTrue(router.handleCommand("kim: look").contains("sam"), "Kim should see Sam back at the start");
+        assertTrue(router.handleCommand("sam: health").contains("3"), "Sam should be back to full health");
+    }
+
+    // With three shards the cabin and forest are on the first, and the riverbank and cellar on the second
+    @Test
+    void testTravelStopsAtOtherShards() throws IOException {
+        ShardRouter router = startRouter(List.of(startShard(0, 3), startShard(1, 3), startShard(2, 3)));
+        assertEquals("You have moved to the 'riverbank' by way of the 'forest'.", router.handleCommand("sam: travel to riverbank"),
+                "Travel should walk up to the first location of another shard");
+        assertEquals(1, router.getShardOf("sam"), "Sam should have been handed to the shard owning the riverbank");
+
+        // The second shard only knows the first shard's paths as they were loaded, so it hands Sam over rather than lead the way
+        assertEquals("You have moved to the 'forest' on the way to the 'cabin'.", router.handleCommand("sam: travel to cabin"),
+                "Travel should stop on leaving the shard");
+        assertEquals(0, router.getShardOf("sam"), "Sam should have been handed back to the first shard");
+        assertEquals("You have moved to the 'cabin'.", router.handleCommand("sam: travel to cabin"), "The first shard should take Sam the rest of the way");
+        assertTrue(router.handleCommand("sam: look").contains("trapdoor"), "Sam should be in the cabin");
+    }
+
+    @Test
+    void testHandoffBetweenShards() throws IOException {
+        ShardRouter router = startRouter(List.of(startShard(0, 2), startShard(1, 2)));
+        playAcrossShards(router);
+    }
+
+    private static boolean holds(GameLocation location, String name) {
+        return location.countArtefacts(name) + location.countCharacters(name) + location.countFurniture(name) > 0;
+    }
+
+    // The horn calls the one lumberjack out of the storeroom, so blowing it on both shards must only produce it once
+    @Test
+    void testUniqueEntityProducedOnce() throws IOException {
+        GameEngine firstEngine = loadEngine();
+        GameEngine secondEngine = loadEngine();
+        ShardMap shardMap = ShardMap.partition(firstEngine.getGameWorld().getGameLocations(), 2);
+        assertEquals(0, shardMap.getStoreRoomOwner(), "The storeroom should be owned by the shard owning the start");
+        ShardRouter router = startRouter(List.of(serve(new ShardHandler(firstEngine, shardMap, 0)), serve(new ShardHandler(secondEngine, shardMap, 1))));
+        GameLocation firstStoreRoom = firstEngine.getGameWorld().getStoreRoom();
+        GameLocation secondStoreRoom = secondEngine.getGameWorld().getStoreRoom();
+        assertFalse(holds(secondStoreRoom, "lumberjack"), "Only the shard owning the storeroom should keep what's in it");
+
+        for (String command : List.of("get axe", "get coin", "goto forest", "get key", "goto riverbank", "get horn", "goto forest",
+                "goto cabin", "open trapdoor", "goto cellar")) {
+            router.handleCommand("sam: " + command);
+        }
+        assertEquals(1, router.getShardOf("sam"), "Sam should be in the cellar, on the shard that doesn't own the storeroom");
+
+        router.handleCommand("sam: blow horn");
+        assertNull(router.getLastFailure(), "Blowing the horn should have worked");
+        assertTrue(router.handleCommand("sam: look").contains("lumberjack"), "The lumberjack should be borrowed from the first shard");
+        assertFalse(holds(firstStoreRoom, "lumberjack"), "The lumberjack should have left the first shard's storeroom");
+
+        router.handleCommand("sam: pay elf");
+        assertTrue(router.handleCommand("sam: look").contains("shovel"), "The elf should hand over the shovel from the first shard");
+        assertTrue(holds(firstStoreRoom, "coin"), "The coin Sam paid should go to the first shard's storeroom");
+        assertTrue(secondStoreRoom.getPresentArtefacts().isEmpty() && secondStoreRoom.getPresentCharacters().isEmpty()
+                && secondStoreRoom.getPresentFurniture().isEmpty(), "Nothing should be left behind on the second shard");
+
+        router.handleCommand("sam: goto cabin");
+        assertEquals(0, router.getShardOf("sam"), "Sam should be back on the shard owning the storeroom");
+        router.handleCommand("sam: blow horn");
+        assertFalse(router.handleCommand("sam: look").contains("lumberjack"), "Blowing the horn again shouldn't produce a second lumberjack");
+        router.handleCommand("sam: goto cellar");
+        assertTrue(router.handleCommand("sam: look").contains("lumberjack"), "The one lumberjack should still be in the cellar");
+    }
+
+    // Stock sent out of the storeroom goes back in if the router says it never arrived
+    @Test
+    void testWithdrawnStockRestocked() throws IOException {
+        GameEngine engine = loadEngine();
+        ShardHandler handler = new ShardHandler(engine, ShardMap.partition(engine.getGameWorld().getGameLocations(), 2), 0);
+        GameLocation storeRoom = engine.getGameWorld().getStoreRoom();
+        String reply = handler.handleCommand(ShardHandler.WITHDRAW + StoreroomStock.writeNames(List.of("lumberjack")));
+        assertTrue(reply.startsWith(ShardHandler.OK + " "), "The storeroom's owner should lend the lumberjack");
+        assertFalse(holds(storeRoom, "lumberjack"), "The lumberjack should have left the storeroom");
+
+        String id = reply.substring((ShardHandler.OK + " ").length(), reply.indexOf(ShardHandler.STATUS_END));
+        assertEquals(ShardHandler.OK, handler.handleCommand(ShardHandler.RESTOCK + id));
+        assertTrue(holds(storeRoom, "lumberjack"), "The lumberjack should be back in the storeroom");
+        handler.handleCommand(ShardHandler.RESTOCK + id);
+        assertEquals(1, storeRoom.countCharacters("lumberjack"), "Restocking twice shouldn't double the lumberjack");
+    }
+
+    // A router that restarts has to ask the shards where players are, rather than start them again
+    @Test
+    void testRestartedRouterFindsPlayers() throws IOException {
+        GameEngine firstEngine = loadEngine();
+        ShardMap shardMap = ShardMap.partition(firstEngine.getGameWorld().getGameLocations(), 2);
+        List<InetSocketAddress> shards = List.of(serve(new ShardHandler(firstEngine, shardMap, 0)), startShard(1, 2));
+        ShardRouter router = startRouter(shards);
+        for (String command : List.of("get axe", "goto forest", "get key", "goto cabin", "open trapdoor", "goto cellar")) {
+            router.handleCommand("sam: " + command);
+        }
+        assertEquals(1, router.getShardOf("sam"), "Sam should be in the cellar, on the second shard");
+
+        ShardRouter restarted = startRouter(shards);
+        assertNull(restarted.getShardOf("sam"), "A new router shouldn't know Sam yet");
+        assertTrue(restarted.handleCommand("sam: inv").contains("axe"), "Sam should be found with their inventory");
+        assertEquals(1, restarted.getShardOf("sam"), "Sam should be found on the second shard");
+        assertNull(firstEngine.getGameWorld().getPlayer("sam"), "Sam shouldn't have been started again on the first shard");
+    }
+
+    // The second shard turns players away until it is let, as it would if it went down mid-handoff
+    @Test
+    void testFailedHandoffKeepsPlayer() throws IOException {
+        GameEngine firstEngine = loadEngine();
+        GameEngine secondEngine = loadEngine();
+        ShardMap shardMap = ShardMap.partition(firstEngine.getGameWorld().getGameLocations(), 2);
+        ShardHandler secondShard = new ShardHandler(secondEngine, shardMap, 1);
+        AtomicBoolean adopting = new AtomicBoolean(false);
+        CommandHandler refusingShard = new CommandHandler() {
+            @Override
+            public String handleCommand(String command) {
+                if (command.startsWith(ShardHandler.ADOPT) && !adopting.get()) {
+                    return ShardHandler.ERROR + ShardHandler.STATUS_END + "Not taking players in.";
+                }
+                return secondShard.handleCommand(command);
+            }
+
+            @Override
+            public List<String> handleCommands(List<String> commands) {
+                return commands.stream().map(this::handleCommand).toList();
+            }
+        };
+        ShardRouter router = startRouter(List.of(serve(new ShardHandler(firstEngine, shardMap, 0)), serve(refusingShard)));
+        for (String command : List.of("get axe", "goto forest", "get key", "goto cabin", "open trapdoor")) {
+            router.handleCommand("sam: " + command);
+        }
+
+        assertEquals(CommandFailure.WORLD_UNAVAILABLE.getMessage(), router.handleCommand("sam: goto cellar"),
+                "Sam should be told they couldn't go down to the cellar");
+        assertEquals(0, router.getShardOf("sam"), "Sam should still be on the first shard");
+        assertTrue(router.handleCommand("sam: look").contains("trapdoor"), "Sam should be back in the cabin");
+        assertTrue(router.handleCommand("sam: inv").contains("axe"), "Sam should still have their inventory");
+        assertNull(secondEngine.getGameWorld().getPlayer("sam"), "The second shard shouldn't have Sam");
+
+        adopting.set(true);
+        assertTrue(router.handleCommand("sam: goto cellar").contains("cellar"), "Sam should get to the cellar once the shard takes them in");
+        assertEquals(1, router.getShardOf("sam"), "Sam should have been handed to the second shard");
+        assertNull(firstEngine.getGameWorld().getPlayer("sam"), "The first shard should have let go of Sam");
+        assertTrue(router.handleCommand("sam: inv").contains("axe"), "Sam's inventory should come with them");
+    }
+
+    // Players reach the router through a GameServer, where one player waiting on a slow shard mustn't hold up the rest
+    @Test
+    void testConcurrentPlayersThroughServer() throws Exception {
+        ShardHandler firstShard = loadShard(0, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        CommandHandler slowShard = new CommandHandler() {
+            @Override
+            public String handleCommand(String command) {
+                if (command.contains("slow:")) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return firstShard.handleCommand(command);
+            }
+
+            @Override
+            public List<String> handleCommands(List<String> commands) {
+                return commands.stream().map(this::handleCommand).toList();
+            }
+
+            @Override
+            public boolean isBlocking() {
+                return true;
+            }
+        };
+        GameClient client = new GameClient(serve(startRouter(List.of(serve(slowShard), startShard(1, 2)))));
+        toClose.add(client);
+
+        ExecutorService players = Executors.newFixedThreadPool(9);
+        try {
+            Future<String> slow = players.submit(() -> client.request("slow: look"));
+            List<Future<String>> others = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String player = "player" + i;
+                others.add(players.submit(() -> {
+                    client.request(player + ": goto forest");
+                    client.request(player + ": goto cabin");
+                    return client.request(player + ": look");
+                }));
+            }
+            for (Future<String> look : others) {
+                assertTrue(look.get(10, TimeUnit.SECONDS).contains("cabin"), "Every other player should be answered while the slow one waits");
+            }
+            assertFalse(slow.isDone(), "The slow player should still be waiting on their shard");
+            release.countDown();
+            assertTrue(slow.get(10, TimeUnit.SECONDS).contains("cabin"), "The slow player should be answered once their shard is");
+        } finally {
+            release.countDown();
+            players.shutdown();
+        }
+    }
+
+    @Test
+    void testShardsInSeparateJvms() throws IOException {
+        ShardRouter router = startRouter(List.of(startShardProcess(0, 2), startShardProcess(1, 2)));
+        playAcrossShards(router);
+    }
+}
@@ -0,0 +1,89 @@
+package org.tre;
+
+import org.junit.jupiter.api.Test;
+import org.tre.engine.CommandParser;
+import org.tre.engine.GameEngine;
+import org.tre.engine.GameWorld;
+import org.tre.engine.WorldDefinition;
+import org.tre.objects.GameArtefact;
+import org.tre.objects.GameLocation;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorldDefinitionTest {
+    private static WorldDefinition loadDefinition() throws IOException {
+        return WorldDefinition.load(Paths.get("config", "example-entities.dot").toFile(), Paths.get("config", "example-actions.xml").toFile());
+    }
+
+    private static GameArtefact artefact(GameWorld world, String location, String name) {
+        for (GameArtefact artefact : world.getLocation(location).getPresentArtefacts()) {
+            if (artefact.getName().equals(name)) {
+                return artefact;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    void testWorldsShareDefinition() throws IOException {
+        WorldDefinition definition = loadDefinition();
+        GameWorld first = definition.newWorld();
+        GameWorld second = definition.newWorld();
+
+        assertSame(first.getActionIndex(), second.getActionIndex(), "Worlds should share the definition's actions");
+        assertNotSame(first.getLocation("cabin"), second.getLocation("cabin"), "Each world should have locations of its own");
+        assertSame(artefact(first, "cabin", "axe"), artefact(second, "cabin", "axe"), "Worlds should share the definition's entities");
+        assertEquals(definition.getLocationCount(), first.getGameLocations().size(), "Every location should be in the world");
+        assertTrue(first.getLocation("cabin").getAdjacentLocations().contains(first.getLocation("forest")), "Paths should lead to the world's own locations");
+        assertSame(first.getLocation("cabin"), first.getStartingLocation(), "The world should start where the definition does");
+        for (GameLocation location : first.getGameLocations()) {
+            assertTrue(location.isSharingContents(), "A new world shouldn't copy the contents of '" + location.getName() + "'");
+        }
+    }
+
+    @Test
+    void testWorldsChangeIndependently() throws IOException {
+        WorldDefinition definition = loadDefinition();
+        GameEngine first = new GameEngine(definition, false);
+        GameEngine second = new GameEngine(definition, true);
+
+        first.handleCommand("sam: get axe");
+        first.handleCommand("sam: goto forest");
+        assertTrue(first.handleCommand("sam: inv").contains("axe"), "Sam should be carrying the axe");
+        assertNull(second.getGameWorld().getPlayer("sam"), "Sam shouldn't be in the other world");
+        assertTrue(second.handleCommand("sam: look").contains("axe"), "The axe should still be in the other world's cabin");
+        assertTrue(definition.newWorld().getLocation("cabin").getArtefactNames().contains("axe"), "New worlds should start with the axe in the cabin");
+
+        assertFalse(first.getGameWorld().getLocation("cabin").isSharingContents(), "The cabin's contents changed, so they should have been copied");
+        assertTrue(first.getGameWorld().getLocation("forest").isSharingContents(), "Players coming and going shouldn't copy a location's contents");
+        assertTrue(second.getGameWorld().getLocation("cabin").isSharingContents(), "Looking shouldn't copy anything");
+        first.close();
+        second.close();
+    }
+
+    // Parsers hold nothing about any one world, so one can serve them all
+    @Test
+    void testManyWorlds() throws IOException {
+        WorldDefinition definition = loadDefinition();
+        CommandParser parser = new CommandParser();
+        List<GameWorld> worlds = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            worlds.add(definition.newWorld());
+        }
+        for (int i = 0; i < worlds.size(); i++) {
+            parser.parseCommandString("player" + i + ": " + (i % 2 == 0 ? "get coin" : "goto forest"), worlds.get(i));
+        }
+        for (int i = 0; i < worlds.size(); i++) {
+            GameWorld world = worlds.get(i);
+            assertEquals(1, world.getPlayerCount(), "Each world should only have its own player");
+            assertEquals(i % 2 != 0, world.getLocation("cabin").getArtefactNames().contains("coin"), "Only worlds whose player took the coin should have lost it");
+            assertEquals(i % 2 != 0, world.getLocation("cabin").isSharingContents(), "Only worlds whose player took the coin should have copied the cabin");
+            assertTrue(world.getLocation("forest").isSharingContents(), "No world changed what is in the forest, so none should have copied it");
+        }
+    }
+}
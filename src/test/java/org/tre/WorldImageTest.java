@@ -0,0 +1,85 @@
+package org.tre;
+
+import com.alexmerz.graphviz.ParseException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tre.engine.CommandParser;
+import org.tre.engine.GameWorld;
+import org.tre.engine.WorldImage;
+import org.tre.objects.GameLocation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorldImageTest {
+    @TempDir
+    Path directory;
+    private File entitiesFile;
+    private File actionsFile;
+    private Path imagePath;
+
+    // The example files are copied so the image is written beside the copies rather than into config
+    @BeforeEach
+    void setup() throws IOException, ParseException {
+        entitiesFile = directory.resolve("example-entities.dot").toFile();
+        actionsFile = directory.resolve("example-actions.xml").toFile();
+        Files.copy(Paths.get("config", "example-entities.dot"), entitiesFile.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+        Files.copy(Paths.get("config", "example-actions.xml"), actionsFile.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+        imagePath = WorldImage.imagePathFor(entitiesFile);
+        WorldImage.compile(entitiesFile, actionsFile, imagePath);
+    }
+
+    @Test
+    void testLoadImage() {
+        assertEquals(directory.resolve("example-entities.world"), imagePath, "Image should sit next to the entities file");
+        GameWorld world = WorldImage.load(imagePath, entitiesFile, actionsFile);
+        assertNotNull(world, "Freshly compiled image should load");
+
+        assertEquals(6, world.getGameLocations().size(), "Expected six locations in the image");
+        assertEquals("cabin", world.getStartingLocation().getName(), "Starting location should be kept");
+        GameLocation forest = world.getLocation("forest");
+        assertEquals("A deep dark forest", forest.getDescription(), "Location description should be kept");
+        assertEquals(1, forest.countArtefacts("key"), "Artefacts should be kept");
+        assertEquals(1, forest.countFurniture("tree"), "Furniture should be kept");
+        assertTrue(forest.getAdjacentLocations().contains(world.getLocation("riverbank")), "Paths should be kept");
+        assertEquals(1, world.getLocation("storeroom").countCharacters("lumberjack"), "Storeroom characters should be kept");
+        assertSame(world.getActionIndex().getActionsForTrigger("cut").get(0), world.getActionIndex().getActionsForTrigger("chop").get(0), "Triggers of one action should share the same action");
+
+        // The loaded world should play like one parsed from the text files
+        CommandParser commandParser = new CommandParser();
+        commandParser.parseCommandString("wizard: goto forest", world);
+        commandParser.parseCommandString("wizard: get key", world);
+        commandParser.parseCommandString("wizard: goto cabin", world);
+        String response = commandParser.parseCommandString("wizard: open trapdoor", world);
+        assertEquals("You unlock the door and see steps leading down into a cellar", response, "Action from the image should be performed");
+    }
+
+    @Test
+    void testStaleOrDamagedImage() throws IOException, ParseException {
+        assertNull(WorldImage.load(directory.resolve("missing.world"), entitiesFile, actionsFile), "Missing image should not load");
+
+        // An edit that keeps the file's size and modification time must still be noticed
+        long lastModified = actionsFile.lastModified();
+        String actions = Files.readString(actionsFile.toPath());
+        String editedActions = actions.replace("<keyphrase>chop</keyphrase>", "<keyphrase>chip</keyphrase>");
+        assertNotEquals(actions, editedActions, "Expected a chop trigger to rename");
+        Files.writeString(actionsFile.toPath(), editedActions);
+        assertTrue(actionsFile.setLastModified(lastModified), "Couldn't restore the actions file's modification time");
+        assertNull(WorldImage.load(imagePath, entitiesFile, actionsFile), "Image built from an older actions file should not load");
+
+        WorldImage.main(new String[] {entitiesFile.toString(), actionsFile.toString()});
+        assertNotNull(WorldImage.load(imagePath, entitiesFile, actionsFile), "Recompiled image should load");
+
+        byte[] image = Files.readAllBytes(imagePath);
+        image[image.length - 1] ^= 1;
+        Files.write(imagePath, image);
+        assertNull(WorldImage.load(imagePath, entitiesFile, actionsFile), "Image failing its checksum should not load");
+    }
+}
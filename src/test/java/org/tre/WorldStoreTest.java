@@ -0,0 +1,186 @@
+package org.tre;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tre.engine.GameEngine;
+import org.tre.engine.GameWorld;
+import org.tre.objects.GameEntity;
+import org.tre.objects.GameLocation;
+import org.tre.objects.GamePlayer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorldStoreTest {
+    @TempDir
+    Path directory;
+    private final List<GameEngine> engines = new ArrayList<>();
+
+    // Every command that changes something, ending with sam dying in the cellar
+    static final List<String> COMMANDS = List.of(
+            "sam: get axe", "sam: get coin", "kim: get potion", "sam: goto forest", "sam: get key", "sam: chop tree",
+            "sam: goto cabin", "sam: open trapdoor", "kim: drink potion", "sam: goto cellar",
+            "sam: fight elf", "sam: fight elf", "sam: look", "sam: fight elf");
+
+    @AfterEach
+    void closeEngines() throws IOException {
+        for (GameEngine engine : engines) {
+            engine.close();
+        }
+    }
+
+    private GameEngine startEngine(int snapshotInterval) throws IOException {
+        return startEngine(snapshotInterval, false);
+    }
+
+    private GameEngine startEngine(int snapshotInterval, boolean concurrent) throws IOException {
+        GameEngine engine = new GameEngine(new BufferedReader(new InputStreamReader(System.in)), true, concurrent);
+        engine.persistTo(directory, snapshotInterval, true);
+        engines.add(engine);
+        return engine;
+    }
+
+    @Test
+    void testRestoreAfterRestart() throws IOException {
+        GameEngine engine = startEngine(1000);
+        COMMANDS.forEach(engine::handleCommand);
+        String before = describe(engine.getGameWorld());
+        assertTrue(before.contains("cellar [axe, coin]"), "Sam should have dropped everything in the cellar when they died");
+        engine.close();
+
+        GameEngine restarted = startEngine(1000);
+        assertEquals(before, describe(restarted.getGameWorld()), "Restored world should match the world before the restart");
+        assertEquals(15, restarted.getWorldStore().getReplayedRecords(), "Every command that changed the world, and each player joining, should be replayed");
+        assertTrue(restarted.handleCommand("kim: look").contains("Player #1"), "Restored players should keep their descriptions");
+        assertTrue(restarted.handleCommand("pat: look").contains("Player #3"), "New players should be numbered after the restored ones");
+    }
+
+    @Test
+    void testSnapshotBoundsReplay() throws IOException {
+        GameEngine engine = startEngine(3);
+        COMMANDS.forEach(engine::handleCommand);
+        String before = describe(engine.getGameWorld());
+        assertTrue(engine.getWorldStore().getSnapshotSequence() > 0, "A snapshot should have been taken");
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.filter(file -> file.toString().endsWith(".snap")).count(), "Only the newest snapshot should be kept");
+        }
+
+        // Not closed, as though the engine crashed
+        GameEngine restarted = startEngine(3);
+        assertEquals(before, describe(restarted.getGameWorld()), "Restored world should match the world before the crash");
+        assertTrue(restarted.getWorldStore().getReplayedRecords() < 3, "Only the journal after the snapshot should be replayed");
+    }
+
+    @Test
+    void testTornJournalTail() throws IOException {
+        GameEngine engine = startEngine(1000);
+        COMMANDS.subList(0, 6).forEach(engine::handleCommand);
+        String before = describe(engine.getGameWorld());
+        engine.close();
+
+        // Half of a record header, as though the engine crashed part way through a write
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(file -> file.toString().endsWith(".log")).max(Path::compareTo).orElseThrow();
+        }
+        Files.write(segment, new byte[] {0, 0, 0, 12, 0, 0}, StandardOpenOption.APPEND);
+
+        GameEngine restarted = startEngine(1000);
+        assertEquals(before, describe(restarted.getGameWorld()), "The cut short record should be dropped and everything before it kept");
+        COMMANDS.subList(6, COMMANDS.size()).forEach(restarted::handleCommand);
+        String after = describe(restarted.getGameWorld());
+        restarted.close();
+
+        assertEquals(after, describe(startEngine(1000).getGameWorld()), "Commands journaled after the damaged tail should be restored");
+    }
+
+    @Test
+    void testConcurrentCommands() throws Exception {
+        GameEngine engine = startEngine(50, true);
+        // Players fighting over the same artefacts, so the journal has to keep their changes in the order they were made
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            String player = "player" + i;
+            threads.add(new Thread(() -> {
+                for (int round = 0; round < 100; round++) {
+                    engine.handleCommand(player + ": get axe");
+                    engine.handleCommand(player + ": get coin");
+                    engine.handleCommand(player + ": goto forest");
+                    engine.handleCommand(player + ": drop axe");
+                    engine.handleCommand(player + ": get axe");
+                    engine.handleCommand(player + ": goto cabin");
+                    engine.handleCommand(player + ": drop coin");
+                    engine.handleCommand(player + ": drop axe");
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        String before = describe(engine.getGameWorld());
+        assertTrue(engine.getWorldStore().getJournalStats().getCommits() > 0, "Changes should have been journaled");
+
+        GameEngine restarted = startEngine(50, true);
+        assertEquals(before, describe(restarted.getGameWorld()), "Restored world should match the world the threads left behind");
+    }
+
+    // A command that only reads can still show changes other commands made, so it waits for those to be journaled too
+    @Test
+    void testReadsWaitForWhatTheySee() throws Exception {
+        GameEngine engine = startEngine(1000, true);
+        engine.handleCommand("watcher: look");
+        Thread writer = new Thread(() -> {
+            for (int round = 0; round < 200; round++) {
+                engine.handleCommand("sam: get axe");
+                engine.handleCommand("sam: drop axe");
+            }
+        });
+        writer.start();
+        try {
+            while (writer.isAlive()) {
+                long before = engine.getWorldStore().getLastSequence();
+                engine.handleCommand("watcher: look");
+                assertTrue(engine.getWorldStore().getDurableSequence() >= before,
+                        "A look should only answer once the changes journaled before it are durable");
+            }
+        } finally {
+            writer.join();
+        }
+    }
+
+    // Everything a snapshot or the journal has to restore, in an order that doesn't depend on hashing
+    static String describe(GameWorld world) {
+        StringBuilder stb = new StringBuilder();
+        new TreeSet<>(world.getGameLocations().stream().map(GameEntity::getName).toList()).forEach(name -> {
+            GameLocation location = world.getLocation(name);
+            stb.append(name).append(' ').append(names(location.getPresentArtefacts()))
+                    .append(names(location.getPresentFurniture())).append(names(location.getPresentCharacters()))
+                    .append(names(location.getPresentPlayers())).append(names(location.getAdjacentLocations())).append('\n');
+        });
+        new TreeSet<>(world.getPlayers().stream().map(GameEntity::getName).toList()).forEach(name -> {
+            GamePlayer player = world.getPlayer(name);
+            stb.append(name).append(' ').append(player.getDescription()).append(' ').append(player.getCurrentLocation().getName())
+                    .append(' ').append(player.getHealth()).append(names(player.getInventory())).append('\n');
+        });
+        return stb.toString();
+    }
+
+    private static String names(Collection<? extends GameEntity> entities) {
+        List<String> names = new ArrayList<>(entities.stream().map(GameEntity::getName).toList());
+        names.sort(null);
+        return names.toString();
+    }
+}